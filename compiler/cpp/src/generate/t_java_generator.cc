@@ -87,6 +87,21 @@ public:
     iter = parsed_options.find("reuse-objects");
     reuse_objects_ = (iter != parsed_options.end());
 
+    iter = parsed_options.find("simple_json");
+    simple_json_ = (iter != parsed_options.end());
+
+    iter = parsed_options.find("unknown_fields");
+    unknown_fields_ = (iter != parsed_options.end());
+
+    iter = parsed_options.find("binary_view");
+    binary_view_ = (iter != parsed_options.end());
+
+    iter = parsed_options.find("cached_hashcode");
+    cached_hashcode_ = (iter != parsed_options.end());
+
+    iter = parsed_options.find("fast_hashcode");
+    fast_hashcode_ = cached_hashcode_ || (iter != parsed_options.end());
+
     out_dir_base_ = (bean_style_ ? "gen-javabean" : "gen-java");
   }
 
@@ -133,6 +148,9 @@ public:
   void generate_java_struct_read_object(std::ofstream& out, t_struct* tstruct);
   void generate_java_meta_data_map(std::ofstream& out, t_struct* tstruct);
   void generate_field_value_meta_data(std::ofstream& out, t_type* type);
+  std::string tuple_mask_word(std::string prefix, int optional_count, int w);
+  int tuple_mask_width(int optional_count, int w);
+  std::string tuple_mask_test(std::string prefix, int optional_count, int bit);
   std::string get_java_type_string(t_type* type);
   void generate_java_struct_field_by_id(ofstream& out, t_struct* tstruct);
   void generate_reflection_setters(std::ostringstream& out, t_type* type, std::string field_name, std::string cap_name);
@@ -177,6 +195,12 @@ public:
 
   void generate_union_comparisons(ofstream& out, t_struct* tstruct);
   void generate_union_hashcode(ofstream& out, t_struct* tstruct);
+  void generate_java_struct_fast_hashcode(ofstream& out, t_struct* tstruct);
+  void generate_hashcode_reset(ofstream& out, std::string obj);
+  std::string hashcode_mix(t_type* type, std::string value);
+  void generate_reuse_spares(ofstream& out, t_struct* tstruct);
+  void generate_reuse_restore(ofstream& out, t_field* tfield);
+  std::string reuse_local_init(t_type* ttype);
 
   void generate_scheme_map(ofstream& out, t_struct* tstruct);
   void generate_standard_writer(ofstream& out, t_struct* tstruct, bool is_result);
@@ -187,6 +211,15 @@ public:
   void generate_java_struct_tuple_reader(ofstream& out, t_struct* tstruct);
   void generate_java_struct_tuple_writer(ofstream& out, t_struct* tstruct);
 
+  void generate_java_struct_simple_json_codec(ofstream& out, t_struct* tstruct);
+  void generate_java_struct_binary_view(ofstream& out, t_struct* tstruct);
+  void generate_simple_json_writer(ofstream& out, t_struct* tstruct);
+  void generate_simple_json_reader(ofstream& out, t_struct* tstruct);
+  void generate_simple_json_write_value(ofstream& out, t_type* ttype, std::string value);
+  bool generate_simple_json_write_key(ofstream& out, t_type* ttype, std::string value);
+  void generate_simple_json_read_value(ofstream& out, t_type* ttype, std::string target);
+  bool generate_simple_json_read_key(ofstream& out, t_type* ttype, std::string target);
+
   void generate_javax_generated_annotation(ofstream& out);
   /**
    * Serialization constructs
@@ -222,7 +255,8 @@ public:
                                           t_list*     tlist,
                                           std::string prefix="",
                                           std::string obj="",
-                                          bool has_metadata = true);
+                                          bool has_metadata = true,
+                                          std::string recycled="");
 
   void generate_serialize_field          (std::ofstream& out,
                                           t_field*    tfield,
@@ -294,6 +328,19 @@ public:
       ttype->is_enum();
   }
 
+  /**
+   * Whether reuse-objects mode reads into an existing instance of this type
+   * rather than allocating a new one.
+   */
+  bool type_can_be_reused(t_type* ttype) {
+    ttype = get_true_type(ttype);
+
+    return
+      ttype->is_container() ||
+      ttype->is_struct() ||
+      ttype->is_xception();
+  }
+
   std::string constant_name(std::string name);
 
  private:
@@ -315,6 +362,11 @@ public:
   bool java5_;
   bool sorted_containers_;
   bool reuse_objects_;
+  bool simple_json_;
+  bool unknown_fields_;
+  bool binary_view_;
+  bool fast_hashcode_;
+  bool cached_hashcode_;
 };
 
 
@@ -816,6 +868,14 @@ void t_java_generator::generate_java_union(t_struct* tstruct) {
 
   f_struct << endl;
 
+  if (simple_json_) {
+    generate_java_struct_simple_json_codec(f_struct, tstruct);
+  }
+
+  if (binary_view_) {
+    generate_java_struct_binary_view(f_struct, tstruct);
+  }
+
   scope_down(f_struct);
 
   f_struct.close();
@@ -1037,7 +1097,7 @@ void t_java_generator::generate_standard_scheme_read_value(ofstream& out, t_stru
     indent_up();
     indent(out) << "if (field.type == " << constant_name(field->get_name()) << "_FIELD_DESC.type) {" << endl;
     indent_up();
-    indent(out) << type_name(field->get_type(), true, false) << " " << field->get_name() << ";" << endl;
+    indent(out) << type_name(field->get_type(), true, false) << " " << field->get_name() << reuse_local_init(field->get_type()) << ";" << endl;
     generate_deserialize_field(out, field, "");
     indent(out) << "return " << field->get_name() << ";" << endl;
     indent_down();
@@ -1121,7 +1181,7 @@ void t_java_generator::generate_tuple_scheme_read_value(ofstream& out, t_struct*
     
     indent(out) << "case " << constant_name(field->get_name()) << ":" << endl;
     indent_up();
-    indent(out) << type_name(field->get_type(), true, false) << " " << field->get_name() << ";" << endl;
+    indent(out) << type_name(field->get_type(), true, false) << " " << field->get_name() << reuse_local_init(field->get_type()) << ";" << endl;
     generate_deserialize_field(out, field, "");
     indent(out) << "return " << field->get_name() << ";" << endl;
     indent_down();
@@ -1245,6 +1305,22 @@ void t_java_generator::generate_union_hashcode(ofstream& out, t_struct* tstruct)
   (void) tstruct;
   indent(out) << "@Override" << endl;
   indent(out) << "public int hashCode() {" << endl;
+  if (fast_hashcode_) {
+    indent(out) << "  int hashCode = this.getClass().getName().hashCode();" << endl;
+    indent(out) << "  org.apache.thrift.TFieldIdEnum setField = getSetField();" << endl;
+    indent(out) << "  if (setField != null) {" << endl;
+    indent(out) << "    hashCode = hashCode * 8191 + setField.getThriftFieldId();" << endl;
+    indent(out) << "    Object value = getFieldValue();" << endl;
+    indent(out) << "    if (value instanceof org.apache.thrift.TEnum) {" << endl;
+    indent(out) << "      hashCode = hashCode * 8191 + ((org.apache.thrift.TEnum)value).getValue();" << endl;
+    indent(out) << "    } else {" << endl;
+    indent(out) << "      hashCode = hashCode * 8191 + value.hashCode();" << endl;
+    indent(out) << "    }" << endl;
+    indent(out) << "  }" << endl;
+    indent(out) << "  return hashCode;" << endl;
+    indent(out) << "}";
+    return;
+  }
   indent(out) << "  List<Object> list = new ArrayList<Object>();" << endl;
   indent(out) << "  list.add(this.getClass().getName());" << endl;
   indent(out) << "  org.apache.thrift.TFieldIdEnum setField = getSetField();" << endl;
@@ -1326,6 +1402,12 @@ void t_java_generator::generate_java_struct_definition(ofstream &out,
     }
     out << declare_field(*m_iter, false, true) << endl;
   }
+  if (unknown_fields_) {
+    indent(out) << "private org.apache.thrift.TUnknownFields __unknownFields;" << endl;
+  }
+  if (cached_hashcode_) {
+    indent(out) << "private transient int __hashCode;" << endl;
+  }
 
   out << endl;
 
@@ -1482,6 +1564,12 @@ void t_java_generator::generate_java_struct_definition(ofstream &out,
     }
   }
 
+  if (unknown_fields_) {
+    indent(out) << "if (other.__unknownFields != null) {" << endl;
+    indent(out) << "  this.__unknownFields = new org.apache.thrift.TUnknownFields(other.__unknownFields);" << endl;
+    indent(out) << "}" << endl;
+  }
+
   indent_down();
   indent(out) << "}" << endl << endl;
 
@@ -1494,6 +1582,15 @@ void t_java_generator::generate_java_struct_definition(ofstream &out,
 
   generate_java_struct_clear(out, tstruct);
 
+  if (unknown_fields_) {
+    indent(out) << "/**" << endl;
+    indent(out) << " * Fields read into this struct that it does not know about, or null if none." << endl;
+    indent(out) << " */" << endl;
+    indent(out) << "public org.apache.thrift.TUnknownFields getUnknownFields() {" << endl;
+    indent(out) << "  return this.__unknownFields;" << endl;
+    indent(out) << "}" << endl << endl;
+  }
+
   generate_java_bean_boilerplate(out, tstruct);
   generate_generic_field_getters_setters(out, tstruct);
   generate_generic_isset_method(out, tstruct);
@@ -1517,6 +1614,14 @@ void t_java_generator::generate_java_struct_definition(ofstream &out,
   generate_java_struct_standard_scheme(out, tstruct, is_result);
   generate_java_struct_tuple_scheme(out, tstruct);
 
+  if (simple_json_ && !in_class) {
+    generate_java_struct_simple_json_codec(out, tstruct);
+  }
+
+  if (binary_view_ && !in_class) {
+    generate_java_struct_binary_view(out, tstruct);
+  }
+
   scope_down(out);
   out << endl;
 }
@@ -1812,6 +1917,11 @@ void t_java_generator::generate_java_struct_equality(ofstream& out,
   scope_down(out);
   out << endl;
 
+  if (fast_hashcode_) {
+    generate_java_struct_fast_hashcode(out, tstruct);
+    return;
+  }
+
   out << indent() << "@Override" << endl <<
     indent() << "public int hashCode() {" << endl;
   indent_up();
@@ -1847,6 +1957,125 @@ void t_java_generator::generate_java_struct_equality(ofstream& out,
   indent(out) << "}" << endl << endl;
 }
 
+/**
+ * Generates a hashCode method that mixes each field into an int as it goes,
+ * rather than boxing them all into a list. With cached_hashcode the result is
+ * kept until the struct is changed through its generated methods.
+ *
+ * @param tstruct The struct definition
+ */
+void t_java_generator::generate_java_struct_fast_hashcode(ofstream& out,
+                                                          t_struct* tstruct) {
+  out << indent() << "@Override" << endl <<
+    indent() << "public int hashCode() {" << endl;
+  indent_up();
+  if (cached_hashcode_) {
+    indent(out) << "int hashCode = __hashCode;" << endl;
+    indent(out) << "if (hashCode != 0)" << endl;
+    indent(out) << "  return hashCode;" << endl;
+    indent(out) << "hashCode = 1;" << endl;
+  } else {
+    indent(out) << "int hashCode = 1;" << endl;
+  }
+
+  const vector<t_field*>& members = tstruct->get_members();
+  vector<t_field*>::const_iterator m_iter;
+  for (m_iter = members.begin(); m_iter != members.end(); ++m_iter) {
+    out << endl;
+
+    t_type* t = get_true_type((*m_iter)->get_type());
+    bool is_optional = (*m_iter)->get_req() == t_field::T_OPTIONAL;
+    bool can_be_null = type_can_be_null(t);
+    string name = (*m_iter)->get_name();
+
+    if (is_optional || can_be_null) {
+      string isset = generate_isset_check(*m_iter);
+      indent(out) << "hashCode = hashCode * 8191 + ((" << isset << ") ? 131071 : 524287);" << endl;
+      indent(out) << "if (" << isset << ")" << endl;
+      indent(out) << "  hashCode = hashCode * 8191 + " << hashcode_mix(t, name) << ";" << endl;
+    } else {
+      indent(out) << "hashCode = hashCode * 8191 + " << hashcode_mix(t, name) << ";" << endl;
+    }
+  }
+
+  out << endl;
+  if (cached_hashcode_) {
+    indent(out) << "__hashCode = hashCode;" << endl;
+  }
+  indent(out) << "return hashCode;" << endl;
+  indent_down();
+  indent(out) << "}" << endl << endl;
+}
+
+/**
+ * The int a field's value contributes to a fast hashCode.
+ */
+string t_java_generator::hashcode_mix(t_type* type, string value) {
+  if (type->is_enum()) {
+    return value + ".getValue()";
+  }
+  if (type->is_base_type() && !((t_base_type*)type)->is_binary()) {
+    switch (((t_base_type*)type)->get_base()) {
+    case t_base_type::TYPE_BOOL:
+      return "((" + value + ") ? 131071 : 524287)";
+    case t_base_type::TYPE_BYTE:
+    case t_base_type::TYPE_I16:
+    case t_base_type::TYPE_I32:
+      return value;
+    case t_base_type::TYPE_I64:
+    case t_base_type::TYPE_DOUBLE:
+      return "org.apache.thrift.TBaseHelper.hashCode(" + value + ")";
+    default:
+      break;
+    }
+  }
+  return value + ".hashCode()";
+}
+
+/**
+ * Forgets a cached hash, if hashes are cached.
+ */
+void t_java_generator::generate_hashcode_reset(ofstream& out, string obj) {
+  if (cached_hashcode_) {
+    indent(out) << obj << ".__hashCode = 0;" << endl;
+  }
+}
+
+/**
+ * In reuse-objects mode, sets aside the struct and container members of
+ * struct before clearing it, so that fields present in the incoming message
+ * can be read back into the same instances.
+ */
+void t_java_generator::generate_reuse_spares(ofstream& out, t_struct* tstruct) {
+  const vector<t_field*>& fields = tstruct->get_members();
+  vector<t_field*>::const_iterator f_iter;
+  for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
+    if (type_can_be_reused((*f_iter)->get_type())) {
+      indent(out) << type_name((*f_iter)->get_type()) << " _" << (*f_iter)->get_name() << "Spare = struct."
+                  << (*f_iter)->get_name() << ";" << endl;
+    }
+  }
+  indent(out) << "struct.clear();" << endl;
+}
+
+/**
+ * Hands the instance set aside by generate_reuse_spares back to the field
+ * about to be read.
+ */
+void t_java_generator::generate_reuse_restore(ofstream& out, t_field* tfield) {
+  if (type_can_be_reused(tfield->get_type())) {
+    indent(out) << "struct." << tfield->get_name() << " = _" << tfield->get_name() << "Spare;" << endl;
+  }
+}
+
+/**
+ * Locals that reuse-objects mode reads into must start out null, so that a
+ * fresh instance is allocated for them.
+ */
+string t_java_generator::reuse_local_init(t_type* ttype) {
+  return reuse_objects_ && type_can_be_reused(ttype) ? " = null" : "";
+}
+
 void t_java_generator::generate_java_struct_compare_to(ofstream& out, t_struct* tstruct) {
   indent(out) << "@Override" << endl;
   indent(out) << "public int compareTo(" << type_name(tstruct) << " other) {" << endl;
@@ -1893,7 +2122,11 @@ void t_java_generator::generate_java_struct_reader(ofstream& out,
   (void) tstruct;
   indent(out) << "public void read(org.apache.thrift.protocol.TProtocol iprot) throws org.apache.thrift.TException {" << endl;
   indent_up();
-  indent(out) << "schemes.get(iprot.getScheme()).getScheme().read(iprot, this);" << endl; 
+  indent(out) << "if (iprot.getSchemeId() == org.apache.thrift.protocol.TProtocol.TUPLE_SCHEME_ID) {" << endl;
+  indent(out) << "  TUPLE_SCHEME.read(iprot, this);" << endl;
+  indent(out) << "} else {" << endl;
+  indent(out) << "  STANDARD_SCHEME.read(iprot, this);" << endl;
+  indent(out) << "}" << endl; 
   indent_down();
   indent(out) << "}" << endl <<
   endl;
@@ -1953,7 +2186,11 @@ void t_java_generator::generate_java_struct_writer(ofstream& out,
   (void) tstruct;
   indent(out) << "public void write(org.apache.thrift.protocol.TProtocol oprot) throws org.apache.thrift.TException {" << endl;
   indent_up();
-  indent(out) << "schemes.get(oprot.getScheme()).getScheme().write(oprot, this);" << endl;
+  indent(out) << "if (oprot.getSchemeId() == org.apache.thrift.protocol.TProtocol.TUPLE_SCHEME_ID) {" << endl;
+  indent(out) << "  TUPLE_SCHEME.write(oprot, this);" << endl;
+  indent(out) << "} else {" << endl;
+  indent(out) << "  STANDARD_SCHEME.write(oprot, this);" << endl;
+  indent(out) << "}" << endl;
 
   indent_down();
   indent(out) << "}" << endl << endl;
@@ -1972,7 +2209,11 @@ void t_java_generator::generate_java_struct_result_writer(ofstream& out,
   (void) tstruct;
   indent(out) << "public void write(org.apache.thrift.protocol.TProtocol oprot) throws org.apache.thrift.TException {" << endl;
   indent_up();
-  indent(out) << "schemes.get(oprot.getScheme()).getScheme().write(oprot, this);" << endl;
+  indent(out) << "if (oprot.getSchemeId() == org.apache.thrift.protocol.TProtocol.TUPLE_SCHEME_ID) {" << endl;
+  indent(out) << "  TUPLE_SCHEME.write(oprot, this);" << endl;
+  indent(out) << "} else {" << endl;
+  indent(out) << "  STANDARD_SCHEME.write(oprot, this);" << endl;
+  indent(out) << "}" << endl;
   
   indent_down();
   indent(out) << "  }" << endl << endl;
@@ -2142,6 +2383,7 @@ void t_java_generator::generate_java_bean_boilerplate(ofstream& out,
       indent_down();
       indent(out) << "}" << endl;
       indent(out) << "this." << field_name << ".add(elem);" << endl;
+      generate_hashcode_reset(out, "this");
       indent_down();
       indent(out) << "}" << endl << endl;
     } else if (type->is_map()) {
@@ -2162,6 +2404,7 @@ void t_java_generator::generate_java_bean_boilerplate(ofstream& out,
       indent_down();
       indent(out) << "}" << endl;
       indent(out) << "this." << field_name << ".put(key, val);" << endl;
+      generate_hashcode_reset(out, "this");
       indent_down();
       indent(out) << "}" << endl << endl;
     }
@@ -2206,6 +2449,9 @@ void t_java_generator::generate_java_bean_boilerplate(ofstream& out,
         << field_name << " == null ? (ByteBuffer)null"
         << " : ByteBuffer.wrap(Arrays.copyOf("
         << field_name << ", " << field_name << ".length));" << endl;
+      indent_up();
+      generate_hashcode_reset(out, "this");
+      indent_down();
       if (!bean_style_) {
         indent(out) << "  return this;" << endl;
       }
@@ -2227,6 +2473,7 @@ void t_java_generator::generate_java_bean_boilerplate(ofstream& out,
     }
     out << ";" << endl;
     generate_isset_set(out, field, "");
+    generate_hashcode_reset(out, "this");
     if (!bean_style_) {
       indent(out) << "return this;" << endl;
     }
@@ -2244,6 +2491,7 @@ void t_java_generator::generate_java_bean_boilerplate(ofstream& out,
     } else {
       indent(out) << "__isset_bit_vector.clear(" << isset_field_id(field) << ");" << endl;
     }
+    generate_hashcode_reset(out, "this");
     indent_down();
     indent(out) << "}" << endl << endl;
 
@@ -2272,6 +2520,7 @@ void t_java_generator::generate_java_bean_boilerplate(ofstream& out,
     } else {
       indent(out) << "__isset_bit_vector.set(" << isset_field_id(field) << ", value);" << endl;
     }
+    generate_hashcode_reset(out, "this");
     indent_down();
     indent(out) << "}" << endl << endl; 
   }
@@ -2425,7 +2674,13 @@ void t_java_generator::generate_field_value_meta_data(std::ofstream& out, t_type
   out << endl;
   indent_up();
   indent_up();
-  if (type->is_struct()){
+  // Only typedefs of base types keep their symbolic name; anything else is
+  // described by the type it resolves to so the struct/enum classes and
+  // element types stay reachable from the metadata.
+  if (type->is_typedef() && !get_true_type(type)->is_base_type()) {
+    type = get_true_type(type);
+  }
+  if (type->is_struct() || type->is_xception()){
     indent(out) << "new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, " << type_name(type) << ".class";
   } else if (type->is_container()){
     if (type->is_list()){
@@ -2449,6 +2704,9 @@ void t_java_generator::generate_field_value_meta_data(std::ofstream& out, t_type
   } else {
     indent(out) << "new org.apache.thrift.meta_data.FieldValueMetaData(" << get_java_type_string(type);
     if (type->is_typedef()) {
+      if (((t_base_type*)get_true_type(type))->is_binary()) {
+        indent(out) << ", true";
+      }
       indent(out) << ", \"" << ((t_typedef*)type)->get_symbolic() << "\"";
     } else if (((t_base_type*)type)->is_binary()) {
       indent(out) << ", true";
@@ -3411,9 +3669,20 @@ void t_java_generator::generate_deserialize_container(ofstream& out,
       << ");" << endl;
   }
 
+  // lists of structs or containers are read back into the elements they
+  // already hold, anything else is simply emptied and refilled
+  string recycled;
   if (reuse_objects_) {
     indent_down();
-    indent(out) << "}" << endl;
+    if (ttype->is_list() && type_can_be_reused(((t_list*)ttype)->get_elem_type())) {
+      indent(out) << "}" << endl;
+      recycled = tmp("_recycled");
+      indent(out) << "int " << recycled << " = " << prefix << ".size();" << endl;
+    } else {
+      indent(out) << "} else {" << endl;
+      indent(out) << "  " << prefix << ".clear();" << endl;
+      indent(out) << "}" << endl;
+    }
   }
 
   if (ttype->is_map()) {
@@ -3421,11 +3690,18 @@ void t_java_generator::generate_deserialize_container(ofstream& out,
   } else if (ttype->is_set()) {
     generate_deserialize_set_element(out, (t_set*)ttype, prefix, obj, has_metadata);
   } else if (ttype->is_list()) {
-    generate_deserialize_list_element(out, (t_list*)ttype, prefix, obj, has_metadata);
+    generate_deserialize_list_element(out, (t_list*)ttype, prefix, obj, has_metadata, recycled);
   }
 
   scope_down(out);
 
+  if (!recycled.empty()) {
+    // drop whatever the previous message had beyond this one's length
+    indent(out) << "if (" << recycled << " > " << obj << ".size) {" << endl;
+    indent(out) << "  " << prefix << ".subList(" << obj << ".size, " << recycled << ").clear();" << endl;
+    indent(out) << "}" << endl;
+  }
+
   if (has_metadata) {
     // Read container end
     if (ttype->is_map()) {
@@ -3452,8 +3728,8 @@ void t_java_generator::generate_deserialize_map_element(ofstream& out,
   t_field fkey(tmap->get_key_type(), key);
   t_field fval(tmap->get_val_type(), val);
 
-  indent(out) << declare_field(&fkey, reuse_objects_, false) << endl;
-  indent(out) << declare_field(&fval, reuse_objects_, false) << endl;
+  indent(out) << declare_field(&fkey, false, false) << endl;
+  indent(out) << declare_field(&fval, false, false) << endl;
 
   // For loop iterates over elements
      string i = tmp("_i");
@@ -3464,6 +3740,14 @@ void t_java_generator::generate_deserialize_map_element(ofstream& out,
   
   scope_up(out);
 
+  if (reuse_objects_) {
+    if (type_can_be_reused(tmap->get_key_type())) {
+      indent(out) << key << " = null;" << endl;
+    }
+    if (type_can_be_reused(tmap->get_val_type())) {
+      indent(out) << val << " = null;" << endl;
+    }
+  }
   generate_deserialize_field(out, &fkey, "", has_metadata);
   generate_deserialize_field(out, &fval, "", has_metadata);
 
@@ -3480,7 +3764,7 @@ void t_java_generator::generate_deserialize_set_element(ofstream& out,
   string elem = tmp("_elem");
   t_field felem(tset->get_elem_type(), elem);
 
-  indent(out) << declare_field(&felem, reuse_objects_, false) << endl;
+  indent(out) << declare_field(&felem, false, false) << endl;
 
   // For loop iterates over elements
      string i = tmp("_i");
@@ -3490,6 +3774,9 @@ void t_java_generator::generate_deserialize_set_element(ofstream& out,
           "++" << i << ")" << endl;
   scope_up(out);
   
+  if (reuse_objects_ && type_can_be_reused(tset->get_elem_type())) {
+    indent(out) << elem << " = null;" << endl;
+  }
   generate_deserialize_field(out, &felem, "", has_metadata);
 
   indent(out) << prefix << ".add(" << elem << ");" << endl;
@@ -3502,11 +3789,12 @@ void t_java_generator::generate_deserialize_set_element(ofstream& out,
 void t_java_generator::generate_deserialize_list_element(ofstream& out,
                                                          t_list* tlist,
                                                          string prefix, 
-                                                         string obj, bool has_metadata) {
+                                                         string obj, bool has_metadata,
+                                                         string recycled) {
   string elem = tmp("_elem");
   t_field felem(tlist->get_elem_type(), elem);
 
-  indent(out) << declare_field(&felem, reuse_objects_, false) << endl;
+  indent(out) << declare_field(&felem, false, false) << endl;
 
   // For loop iterates over elements
      string i = tmp("_i");
@@ -3516,9 +3804,20 @@ void t_java_generator::generate_deserialize_list_element(ofstream& out,
           "++" << i << ")" << endl;
   scope_up(out);
  
+  if (!recycled.empty()) {
+    indent(out) << elem << " = " << i << " < " << recycled << " ? " << prefix << ".get(" << i << ") : null;" << endl;
+  }
   generate_deserialize_field(out, &felem, "", has_metadata);
 
-  indent(out) << prefix << ".add(" << elem << ");" << endl;
+  if (!recycled.empty()) {
+    indent(out) << "if (" << i << " < " << recycled << ") {" << endl;
+    indent(out) << "  " << prefix << ".set(" << i << ", " << elem << ");" << endl;
+    indent(out) << "} else {" << endl;
+    indent(out) << "  " << prefix << ".add(" << elem << ");" << endl;
+    indent(out) << "}" << endl;
+  } else {
+    indent(out) << prefix << ".add(" << elem << ");" << endl;
+  }
 }
 
 /**
@@ -4310,11 +4609,8 @@ void t_java_generator::generate_field_descs(ofstream& out, t_struct* tstruct) {
 }
 
 void t_java_generator::generate_scheme_map(ofstream& out, t_struct* tstruct) {
-  indent(out) << "private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();" << endl;
-  indent(out) << "static {" << endl;
-  indent(out) << "  schemes.put(StandardScheme.class, new " << tstruct->get_name() << "StandardSchemeFactory());" << endl;  
-  indent(out) << "  schemes.put(TupleScheme.class, new " << tstruct->get_name() << "TupleSchemeFactory());" << endl;  
-  indent(out) << "}" << endl;
+  indent(out) << "private static final " << tstruct->get_name() << "StandardScheme STANDARD_SCHEME = new " << tstruct->get_name() << "StandardScheme();" << endl;
+  indent(out) << "private static final " << tstruct->get_name() << "TupleScheme TUPLE_SCHEME = new " << tstruct->get_name() << "TupleScheme();" << endl;
 }
 
 void t_java_generator::generate_field_name_constants(ofstream& out, t_struct* tstruct) {
@@ -4480,6 +4776,10 @@ void t_java_generator::generate_java_struct_clear(std::ofstream& out, t_struct*
         throw "unsupported type: " + base_type->get_name() + " for field " + field->get_name();
     }
   }
+  if (unknown_fields_) {
+    indent(out) << "this.__unknownFields = null;" << endl;
+  }
+  generate_hashcode_reset(out, "this");
   indent_down();
 
   indent(out) << "}" << endl << endl;
@@ -4534,6 +4834,14 @@ void t_java_generator::generate_standard_reader(ofstream& out, t_struct* tstruct
   out <<
     indent() << "org.apache.thrift.protocol.TField schemeField;" << endl <<
     indent() << "iprot.readStructBegin();" << endl;
+  if (reuse_objects_) {
+    generate_reuse_spares(out, tstruct);
+  } else {
+    if (unknown_fields_) {
+      indent(out) << "struct.__unknownFields = null;" << endl;
+    }
+    generate_hashcode_reset(out, "struct");
+  }
 
   // Loop over reading in fields
   indent(out) << "while (true)" << endl;
@@ -4563,6 +4871,9 @@ void t_java_generator::generate_standard_reader(ofstream& out, t_struct* tstruct
       "if (schemeField.type == " << type_to_enum((*f_iter)->get_type()) << ") {" << endl;
     indent_up();
 
+    if (reuse_objects_) {
+      generate_reuse_restore(out, *f_iter);
+    }
     generate_deserialize_field(out, *f_iter, "struct.", true);
     indent(out) << "struct." << "set" << get_cap_name((*f_iter)->get_name()) << get_cap_name("isSet") << "(true);" << endl;
     indent_down();
@@ -4575,7 +4886,11 @@ void t_java_generator::generate_standard_reader(ofstream& out, t_struct* tstruct
   }
 
   indent(out) << "default:" << endl;
-  indent(out) << "  org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);" << endl;
+  if (unknown_fields_) {
+    indent(out) << "  struct.__unknownFields = org.apache.thrift.TUnknownFields.read(iprot, schemeField, struct.__unknownFields);" << endl;
+  } else {
+    indent(out) << "  org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);" << endl;
+  }
 
   indent_down();
   indent(out) << "}" << endl;
@@ -4654,6 +4969,11 @@ void t_java_generator::generate_standard_writer(ofstream& out, t_struct* tstruct
       indent(out) << "}" << endl;
     }
   }
+  if (unknown_fields_) {
+    indent(out) << "if (struct.__unknownFields != null) {" << endl;
+    indent(out) << "  struct.__unknownFields.write(oprot);" << endl;
+    indent(out) << "}" << endl;
+  }
   // Write the struct map
   out << 
     indent() << "oprot.writeFieldStop();" << endl <<
@@ -4665,15 +4985,6 @@ void t_java_generator::generate_standard_writer(ofstream& out, t_struct* tstruct
 }
 
 void t_java_generator::generate_java_struct_standard_scheme(ofstream& out, t_struct* tstruct, bool is_result){
-  indent(out) << "private static class " << tstruct->get_name() << "StandardSchemeFactory implements SchemeFactory {" << endl;
-  indent_up();
-  indent(out) << "public " << tstruct->get_name() << "StandardScheme getScheme() {" << endl;
-  indent_up();
-  indent(out) << "return new " << tstruct->get_name() << "StandardScheme();" << endl;
-  indent_down();
-  indent(out) << "}" << endl;
-  indent_down();
-  indent(out) << "}" << endl << endl;
 
   out << indent() << "private static class " << tstruct->get_name() << "StandardScheme extends StandardScheme<" << tstruct->get_name() << "> {" << endl << endl;
   indent_up();
@@ -4692,6 +5003,11 @@ void t_java_generator::generate_java_struct_tuple_reader(ofstream& out, t_struct
   indent(out) << "public void read(org.apache.thrift.protocol.TProtocol prot, " << tstruct->get_name() << " struct) throws org.apache.thrift.TException {" << endl;
   indent_up();
   indent(out) << "TTupleProtocol iprot = (TTupleProtocol) prot;" << endl;
+  if (reuse_objects_) {
+    generate_reuse_spares(out, tstruct);
+  } else {
+    generate_hashcode_reset(out, "struct");
+  }
   int optional_count = 0;
   const vector<t_field*>& fields = tstruct->get_members();
   vector<t_field*>::const_iterator f_iter;
@@ -4700,17 +5016,26 @@ void t_java_generator::generate_java_struct_tuple_reader(ofstream& out, t_struct
       optional_count++;
     }
     if ((*f_iter)->get_req() == t_field::T_REQUIRED) {
+      if (reuse_objects_) {
+        generate_reuse_restore(out, *f_iter);
+      }
       generate_deserialize_field(out, (*f_iter), "struct.", false);
       indent(out) << "struct.set" << get_cap_name((*f_iter)->get_name()) << get_cap_name("isSet") << "(true);" << endl;
     }
   }
   if (optional_count > 0) {
-    indent(out) << "BitSet incoming = iprot.readBitSet(" << optional_count << ");" << endl;
+    // the bit vector goes out most significant word first, see the writer
+    for (int w = (optional_count - 1) / 64; w >= 0; w--) {
+      indent(out) << "long " << tuple_mask_word("incoming", optional_count, w) << " = iprot.readBitMask(" << tuple_mask_width(optional_count, w) << ");" << endl;
+    }
     int i = 0;
     for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
       if ((*f_iter)->get_req() == t_field::T_OPTIONAL || (*f_iter)->get_req() == t_field::T_OPT_IN_REQ_OUT) {
-        indent(out) << "if (incoming.get(" << i << ")) {" << endl;
+        indent(out) << "if (" << tuple_mask_test("incoming", optional_count, i) << ") {" << endl;
         indent_up();
+        if (reuse_objects_) {
+          generate_reuse_restore(out, *f_iter);
+        }
         generate_deserialize_field(out, (*f_iter), "struct.", false);
         indent(out) << "struct.set" << get_cap_name((*f_iter)->get_name()) << get_cap_name("isSet") << "(true);" << endl;
         indent_down();
@@ -4743,24 +5068,30 @@ void t_java_generator::generate_java_struct_tuple_writer(ofstream& out, t_struct
     }
   }
   if (has_optional) {
-    indent(out) << "BitSet optionals = new BitSet();" << endl;
+    for (int w = 0; w <= (optional_count - 1) / 64; w++) {
+      indent(out) << "long " << tuple_mask_word("optionals", optional_count, w) << " = 0L;" << endl;
+    }
     int i = 0;
     for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
       if ((*f_iter)->get_req() == t_field::T_OPTIONAL || (*f_iter)->get_req() == t_field::T_OPT_IN_REQ_OUT) {
         indent(out) << "if (struct." << generate_isset_check((*f_iter)) << ") {" << endl;
         indent_up();
-        indent(out) << "optionals.set(" << i << ");" << endl;
+        indent(out) << tuple_mask_word("optionals", optional_count, i / 64) << " |= 1L << " << (i % 64) << ";" << endl;
         indent_down();
         indent(out) << "}" << endl;
         i++;
       }
     }
 
-    indent(out) << "oprot.writeBitSet(optionals, " << optional_count << ");" << endl;
+    // Bit i of the vector is bit i % 64 of word i / 64. Writing the words
+    // most significant first gives the same bytes as one big-endian vector.
+    for (int w = (optional_count - 1) / 64; w >= 0; w--) {
+      indent(out) << "oprot.writeBitMask(" << tuple_mask_word("optionals", optional_count, w) << ", " << tuple_mask_width(optional_count, w) << ");" << endl;
+    }
     int j = 0;
     for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
       if ((*f_iter)->get_req() == t_field::T_OPTIONAL || (*f_iter)->get_req() == t_field::T_OPT_IN_REQ_OUT) {
-        indent(out) << "if (struct." << generate_isset_check(*f_iter) << ") {" << endl;
+        indent(out) << "if (" << tuple_mask_test("optionals", optional_count, j) << ") {" << endl;
         indent_up();
         generate_serialize_field(out, (*f_iter), "struct.", false);
         indent_down();
@@ -4773,16 +5104,34 @@ void t_java_generator::generate_java_struct_tuple_writer(ofstream& out, t_struct
   indent(out) << "}" << endl;
 }
 
+/**
+ * Name of the local holding word w of a tuple scheme's optional field bit
+ * vector; a single word is not numbered.
+ */
+string t_java_generator::tuple_mask_word(string prefix, int optional_count, int w) {
+  if (optional_count <= 64) {
+    return prefix;
+  }
+  ostringstream name;
+  name << prefix << w;
+  return name.str();
+}
+
+/**
+ * Number of bits of the vector held in word w.
+ */
+int t_java_generator::tuple_mask_width(int optional_count, int w) {
+  int width = optional_count - w * 64;
+  return width < 64 ? width : 64;
+}
+
+string t_java_generator::tuple_mask_test(string prefix, int optional_count, int bit) {
+  ostringstream test;
+  test << "(" << tuple_mask_word(prefix, optional_count, bit / 64) << " & (1L << " << (bit % 64) << ")) != 0";
+  return test.str();
+}
+
 void t_java_generator::generate_java_struct_tuple_scheme(ofstream& out, t_struct* tstruct){
-  indent(out) << "private static class " << tstruct->get_name() << "TupleSchemeFactory implements SchemeFactory {" << endl;
-  indent_up();
-  indent(out) << "public " << tstruct->get_name() << "TupleScheme getScheme() {" << endl;
-  indent_up();
-  indent(out) << "return new " << tstruct->get_name() << "TupleScheme();" << endl;
-  indent_down();
-  indent(out) << "}" << endl;
-  indent_down();
-  indent(out) << "}" << endl << endl;
   out << indent() << "private static class " << tstruct->get_name() << "TupleScheme extends TupleScheme<" << tstruct->get_name() << "> {" << endl << endl;
   indent_up();
   generate_java_struct_tuple_writer(out, tstruct);
@@ -4792,6 +5141,555 @@ void t_java_generator::generate_java_struct_tuple_scheme(ofstream& out, t_struct
   out << indent() << "}" << endl << endl;
 }
 
+/**
+ * Generates a <Name>BinaryView class, a TBinaryStructView with a typed getter
+ * per field that decodes the field straight from a TBinaryProtocol encoded
+ * buffer. Struct fields come back as views of their own, containers are
+ * decoded in full.
+ */
+void t_java_generator::generate_java_struct_binary_view(ofstream& out, t_struct* tstruct) {
+  string name = tstruct->get_name();
+  indent(out) << "/**" << endl;
+  indent(out) << " * A flyweight view of a " << name << " encoded with TBinaryProtocol, which decodes" << endl;
+  indent(out) << " * fields on demand instead of reading the whole struct." << endl;
+  indent(out) << " */" << endl;
+  indent(out) << "public static class " << name << "BinaryView extends org.apache.thrift.protocol.TBinaryStructView {" << endl;
+  indent_up();
+
+  const vector<t_field*>& fields = tstruct->get_members();
+  vector<t_field*>::const_iterator f_iter;
+  for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
+    t_field* field = *f_iter;
+    t_type* type = get_true_type(field->get_type());
+    string cap_name = get_cap_name(field->get_name());
+    std::ostringstream find;
+    find << "findField((short)" << field->get_key() << ", " << type_to_enum(type) << ")";
+
+    indent(out) << "public boolean is" << get_cap_name("set") << cap_name << "() {" << endl;
+    indent(out) << "  return " << find.str() << " >= 0;" << endl;
+    indent(out) << "}" << endl << endl;
+
+    if (type->is_struct() || type->is_xception()) {
+      string view = type_name(type) + "." + type->get_name() + "BinaryView";
+      indent(out) << "/**" << endl;
+      indent(out) << " * Wraps reuse, or a new view if it is null, around this field, or returns" << endl;
+      indent(out) << " * null if it is absent." << endl;
+      indent(out) << " */" << endl;
+      indent(out) << "public " << view << " get" << cap_name << "(" << view << " reuse) throws org.apache.thrift.TException {" << endl;
+      indent_up();
+      indent(out) << "int pos = " << find.str() << ";" << endl;
+      indent(out) << "if (pos < 0) {" << endl;
+      indent(out) << "  return null;" << endl;
+      indent(out) << "}" << endl;
+      indent(out) << "if (reuse == null) {" << endl;
+      indent(out) << "  reuse = new " << view << "();" << endl;
+      indent(out) << "}" << endl;
+      indent(out) << "reuse.wrap(viewBuffer(), pos);" << endl;
+      indent(out) << "return reuse;" << endl;
+      indent_down();
+      indent(out) << "}" << endl << endl;
+      continue;
+    }
+
+    if (type->is_container()) {
+      indent(out) << "public " << type_name(type) << " get" << cap_name << "() throws org.apache.thrift.TException {" << endl;
+      indent_up();
+      indent(out) << "int pos = " << find.str() << ";" << endl;
+      indent(out) << "if (pos < 0) {" << endl;
+      indent(out) << "  return null;" << endl;
+      indent(out) << "}" << endl;
+      indent(out) << "org.apache.thrift.protocol.TProtocol iprot = protocolAt(pos, " << type_to_enum(type) << ");" << endl;
+      indent(out) << type_name(type) << " " << field->get_name() << reuse_local_init(type) << ";" << endl;
+      generate_deserialize_field(out, field, "");
+      indent(out) << "return " << field->get_name() << ";" << endl;
+      indent_down();
+      indent(out) << "}" << endl << endl;
+      continue;
+    }
+
+    string absent;
+    string read;
+    bool throws = false;
+    if (type->is_enum()) {
+      absent = "null";
+      read = type_name(type, true, false, false, true) + ".findByValue(readI32(pos))";
+    } else {
+      t_base_type::t_base tbase = ((t_base_type*)type)->get_base();
+      if (field->get_value() != NULL && tbase != t_base_type::TYPE_STRING) {
+        ofstream dummy;
+        absent = render_const_value(dummy, type, field->get_value());
+      }
+      switch (tbase) {
+        case t_base_type::TYPE_STRING:
+          absent = "null";
+          if (((t_base_type*)type)->is_binary()) {
+            read = "readBinary(pos)";
+          } else {
+            read = "readString(pos)";
+            throws = true;
+          }
+          break;
+        case t_base_type::TYPE_BOOL:
+          absent = absent.empty() ? "false" : absent;
+          read = "readBool(pos)";
+          break;
+        case t_base_type::TYPE_BYTE:
+          absent = absent.empty() ? "0" : absent;
+          read = "readByte(pos)";
+          break;
+        case t_base_type::TYPE_I16:
+          absent = absent.empty() ? "0" : absent;
+          read = "readI16(pos)";
+          break;
+        case t_base_type::TYPE_I32:
+          absent = absent.empty() ? "0" : absent;
+          read = "readI32(pos)";
+          break;
+        case t_base_type::TYPE_I64:
+          absent = absent.empty() ? "0" : absent;
+          read = "readI64(pos)";
+          break;
+        case t_base_type::TYPE_DOUBLE:
+          absent = absent.empty() ? "0.0" : absent;
+          read = "readDouble(pos)";
+          break;
+        default:
+          throw "compiler error: no Java name for base type " + t_base_type::t_base_name(tbase);
+      }
+    }
+    indent(out) << "public " << type_name(type) << " " << (type->is_bool() ? "is" : "get") << cap_name << "()"
+                << (throws ? " throws org.apache.thrift.TException" : "") << " {" << endl;
+    indent_up();
+    indent(out) << "int pos = " << find.str() << ";" << endl;
+    indent(out) << "return pos < 0 ? " << absent << " : " << read << ";" << endl;
+    indent_down();
+    indent(out) << "}" << endl << endl;
+  }
+
+  indent_down();
+  indent(out) << "}" << endl << endl;
+}
+
+/**
+ * Hash of a field name as computed by TSimpleJSONReader.getFieldNameHash(),
+ * i.e. String.hashCode() over the UTF-8 bytes of the name.
+ */
+static int32_t simple_json_name_hash(const string& name) {
+  uint32_t hash = 0;
+  for (string::size_type i = 0; i < name.size(); ++i) {
+    hash = 31 * hash + (unsigned char)name[i];
+  }
+  return (int32_t)hash;
+}
+
+/**
+ * Generates a SIMPLE_JSON_CODEC constant and the codec class behind it, which
+ * reads and writes the struct in the TSimpleJSONProtocol format without going
+ * through TProtocol or any reflection.
+ */
+void t_java_generator::generate_java_struct_simple_json_codec(ofstream& out, t_struct* tstruct) {
+  string name = tstruct->get_name();
+  indent(out) << "public static final org.apache.thrift.protocol.TSimpleJSONCodec<" << name << "> SIMPLE_JSON_CODEC = new "
+              << name << "SimpleJSONCodec();" << endl << endl;
+
+  indent(out) << "private static class " << name << "SimpleJSONCodec extends org.apache.thrift.protocol.TSimpleJSONCodec<"
+              << name << "> {" << endl;
+  indent_up();
+
+  const vector<t_field*>& fields = tstruct->get_members();
+  vector<t_field*>::const_iterator f_iter;
+  for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
+    indent(out) << "private static final byte[] " << constant_name((*f_iter)->get_name())
+                << "_JSON_NAME = org.apache.thrift.protocol.TSimpleJSONWriter.encodeFieldName(\""
+                << (*f_iter)->get_name() << "\");" << endl;
+  }
+  if (!fields.empty()) {
+    out << endl;
+  }
+
+  generate_simple_json_writer(out, tstruct);
+  out << endl;
+  generate_simple_json_reader(out, tstruct);
+
+  indent_down();
+  indent(out) << "}" << endl << endl;
+}
+
+void t_java_generator::generate_simple_json_writer(ofstream& out, t_struct* tstruct) {
+  indent(out) << "public void write(org.apache.thrift.protocol.TSimpleJSONWriter writer, " << tstruct->get_name()
+              << " struct) throws org.apache.thrift.TException {" << endl;
+  indent_up();
+
+  const vector<t_field*>& fields = tstruct->get_sorted_members();
+  vector<t_field*>::const_iterator f_iter;
+
+  if (tstruct->is_union()) {
+    indent(out) << "if (struct.getSetField() == null || struct.getFieldValue() == null) {" << endl;
+    indent(out) << "  throw new org.apache.thrift.protocol.TProtocolException(\"Cannot write a TUnion with no set value!\");" << endl;
+    indent(out) << "}" << endl;
+    indent(out) << "writer.writeStructBegin();" << endl;
+    indent(out) << "switch (struct.getSetField()) {" << endl;
+    indent_up();
+    for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
+      indent(out) << "case " << constant_name((*f_iter)->get_name()) << ":" << endl;
+      indent_up();
+      indent(out) << "writer.writeFieldName(" << constant_name((*f_iter)->get_name()) << "_JSON_NAME);" << endl;
+      generate_simple_json_write_value(out, (*f_iter)->get_type(),
+        "((" + type_name((*f_iter)->get_type(), true, false) + ")struct.getFieldValue())");
+      indent(out) << "break;" << endl;
+      indent_down();
+    }
+    indent_down();
+    indent(out) << "}" << endl;
+    indent(out) << "writer.writeStructEnd();" << endl;
+    indent_down();
+    indent(out) << "}" << endl;
+    return;
+  }
+
+  // performs various checks (e.g. check that all required fields are set)
+  indent(out) << "struct.validate();" << endl << endl;
+
+  indent(out) << "writer.writeStructBegin();" << endl;
+  for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
+    bool null_allowed = type_can_be_null((*f_iter)->get_type());
+    if (null_allowed) {
+      indent(out) << "if (struct." << (*f_iter)->get_name() << " != null) {" << endl;
+      indent_up();
+    }
+    bool optional = (*f_iter)->get_req() == t_field::T_OPTIONAL;
+    if (optional) {
+      indent(out) << "if (struct." << generate_isset_check(*f_iter) << ") {" << endl;
+      indent_up();
+    }
+
+    indent(out) << "writer.writeFieldName(" << constant_name((*f_iter)->get_name()) << "_JSON_NAME);" << endl;
+    generate_simple_json_write_value(out, (*f_iter)->get_type(), "struct." + (*f_iter)->get_name());
+
+    if (optional) {
+      indent_down();
+      indent(out) << "}" << endl;
+    }
+    if (null_allowed) {
+      indent_down();
+      indent(out) << "}" << endl;
+    }
+  }
+  indent(out) << "writer.writeStructEnd();" << endl;
+
+  indent_down();
+  indent(out) << "}" << endl;
+}
+
+void t_java_generator::generate_simple_json_reader(ofstream& out, t_struct* tstruct) {
+  indent(out) << "public void read(org.apache.thrift.protocol.TSimpleJSONReader reader, " << tstruct->get_name()
+              << " struct) throws org.apache.thrift.TException {" << endl;
+  indent_up();
+
+  const vector<t_field*>& fields = tstruct->get_members();
+  vector<t_field*>::const_iterator f_iter;
+  bool is_union = tstruct->is_union();
+
+  // fields are dispatched on the hash of their name, and only then compared
+  map<int32_t, vector<t_field*> > by_hash;
+  for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
+    by_hash[simple_json_name_hash((*f_iter)->get_name())].push_back(*f_iter);
+  }
+
+  if (is_union) {
+    indent(out) << "struct.clear();" << endl;
+  } else if (reuse_objects_) {
+    generate_reuse_spares(out, tstruct);
+  }
+  indent(out) << "reader.readStructBegin();" << endl;
+  indent(out) << "while (reader.readFieldName()) {" << endl;
+  indent_up();
+  if (!by_hash.empty()) {
+    indent(out) << "switch (reader.getFieldNameHash()) {" << endl;
+    indent_up();
+    map<int32_t, vector<t_field*> >::const_iterator h_iter;
+    for (h_iter = by_hash.begin(); h_iter != by_hash.end(); ++h_iter) {
+      indent(out) << "case " << h_iter->first << ":";
+      for (f_iter = h_iter->second.begin(); f_iter != h_iter->second.end(); ++f_iter) {
+        out << " // " << constant_name((*f_iter)->get_name());
+      }
+      out << endl;
+      indent_up();
+      for (f_iter = h_iter->second.begin(); f_iter != h_iter->second.end(); ++f_iter) {
+        string cname = constant_name((*f_iter)->get_name());
+        indent(out) << "if (reader.isFieldName(" << cname << "_JSON_NAME)) {" << endl;
+        indent_up();
+        if (is_union) {
+          string value = tmp("_value");
+          indent(out) << type_name((*f_iter)->get_type()) << " " << value << reuse_local_init((*f_iter)->get_type()) << ";" << endl;
+          generate_simple_json_read_value(out, (*f_iter)->get_type(), value);
+          indent(out) << "struct.setFieldValue(_Fields." << cname << ", " << value << ");" << endl;
+        } else {
+          if (reuse_objects_) {
+            generate_reuse_restore(out, *f_iter);
+          }
+          generate_simple_json_read_value(out, (*f_iter)->get_type(), "struct." + (*f_iter)->get_name());
+          indent(out) << "struct.set" << get_cap_name((*f_iter)->get_name()) << get_cap_name("isSet") << "(true);" << endl;
+        }
+        indent(out) << "continue;" << endl;
+        indent_down();
+        indent(out) << "}" << endl;
+      }
+      indent(out) << "break;" << endl;
+      indent_down();
+    }
+    indent_down();
+    indent(out) << "}" << endl;
+  }
+  indent(out) << "reader.skipValue();" << endl;
+  indent_down();
+  indent(out) << "}" << endl;
+
+  if (!is_union) {
+    // in non-beans style, check for required fields of primitive type
+    // (which can be checked here but not in the general validate method)
+    if (!bean_style_) {
+      out << endl << indent() << "// check for required fields of primitive type, which can't be checked in the validate method" << endl;
+      for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
+        if ((*f_iter)->get_req() == t_field::T_REQUIRED && !type_can_be_null((*f_iter)->get_type())) {
+          out <<
+            indent() << "if (!struct." << generate_isset_check(*f_iter) << ") {" << endl <<
+            indent() << "  throw new org.apache.thrift.protocol.TProtocolException(\"Required field '" << (*f_iter)->get_name() << "' was not found in serialized data! Struct: \" + struct.toString());" << endl <<
+            indent() << "}" << endl;
+        }
+      }
+    }
+
+    // performs various checks (e.g. check that all required fields are set)
+    indent(out) << "struct.validate();" << endl;
+  }
+
+  indent_down();
+  indent(out) << "}" << endl;
+}
+
+/**
+ * Writes a value as TSimpleJSONProtocol would.
+ */
+void t_java_generator::generate_simple_json_write_value(ofstream& out, t_type* ttype, string value) {
+  ttype = get_true_type(ttype);
+  if (ttype->is_struct() || ttype->is_xception()) {
+    indent(out) << type_name(ttype) << ".SIMPLE_JSON_CODEC.write(writer, " << value << ");" << endl;
+  } else if (ttype->is_map()) {
+    t_type* key_type = ((t_map*)ttype)->get_key_type();
+    t_type* val_type = ((t_map*)ttype)->get_val_type();
+    string iter = tmp("_iter");
+    indent(out) << "writer.writeMapBegin();" << endl;
+    indent(out) << "for (Map.Entry<" << type_name(key_type, true, false) << ", " << type_name(val_type, true, false)
+                << "> " << iter << " : " << value << ".entrySet())" << endl;
+    scope_up(out);
+    if (generate_simple_json_write_key(out, key_type, iter + ".getKey()")) {
+      generate_simple_json_write_value(out, val_type, iter + ".getValue()");
+    }
+    scope_down(out);
+    indent(out) << "writer.writeMapEnd();" << endl;
+  } else if (ttype->is_container()) {
+    t_type* elem_type = ttype->is_list() ? ((t_list*)ttype)->get_elem_type() : ((t_set*)ttype)->get_elem_type();
+    string iter = tmp("_iter");
+    indent(out) << "writer.writeListBegin();" << endl;
+    indent(out) << "for (" << type_name(elem_type) << " " << iter << " : " << value << ")" << endl;
+    scope_up(out);
+    generate_simple_json_write_value(out, elem_type, iter);
+    scope_down(out);
+    indent(out) << "writer.writeListEnd();" << endl;
+  } else if (ttype->is_enum()) {
+    indent(out) << "writer.writeI32(" << value << ".getValue());" << endl;
+  } else if (ttype->is_base_type()) {
+    t_base_type::t_base tbase = ((t_base_type*)ttype)->get_base();
+    indent(out) << "writer.";
+    switch (tbase) {
+      case t_base_type::TYPE_STRING:
+        out << (((t_base_type*)ttype)->is_binary() ? "writeBinary(" : "writeString(");
+        break;
+      case t_base_type::TYPE_BOOL:
+        out << "writeBool(";
+        break;
+      case t_base_type::TYPE_BYTE:
+      case t_base_type::TYPE_I16:
+      case t_base_type::TYPE_I32:
+        out << "writeI32(";
+        break;
+      case t_base_type::TYPE_I64:
+        out << "writeI64(";
+        break;
+      case t_base_type::TYPE_DOUBLE:
+        out << "writeDouble(";
+        break;
+      default:
+        throw "compiler error: no Java name for base type " + t_base_type::t_base_name(tbase);
+    }
+    out << value << ");" << endl;
+  } else {
+    throw "compiler error: cannot write " + type_name(ttype) + " as simple JSON";
+  }
+}
+
+/**
+ * Writes a map key, which TSimpleJSONProtocol quotes. Returns false when the
+ * key cannot be written at all and the generated code throws instead.
+ */
+bool t_java_generator::generate_simple_json_write_key(ofstream& out, t_type* ttype, string value) {
+  ttype = get_true_type(ttype);
+  if (ttype->is_struct() || ttype->is_xception()) {
+    generate_simple_json_write_value(out, ttype, value);
+    indent(out) << "writer.writeKeyEnd();" << endl;
+  } else if (ttype->is_container()) {
+    indent(out) << "throw new org.apache.thrift.protocol.TSimpleJSONProtocol.CollectionMapKeyException("
+                << "\"Cannot serialize a map with keys that are of type "
+                << (ttype->is_map() ? "map" : (ttype->is_set() ? "set" : "list")) << "\");" << endl;
+    return false;
+  } else if (ttype->is_enum()) {
+    indent(out) << "writer.writeKey(" << value << ".getValue());" << endl;
+  } else {
+    indent(out) << "writer.writeKey(" << value << ");" << endl;
+  }
+  return true;
+}
+
+/**
+ * Reads a value into target, allocating structs and containers the same way
+ * the standard scheme does.
+ */
+void t_java_generator::generate_simple_json_read_value(ofstream& out, t_type* ttype, string target) {
+  ttype = get_true_type(ttype);
+  if (ttype->is_struct() || ttype->is_xception()) {
+    if (reuse_objects_) {
+      indent(out) << "if (" << target << " == null) {" << endl;
+      indent_up();
+    }
+    indent(out) << target << " = new " << type_name(ttype) << "();" << endl;
+    if (reuse_objects_) {
+      indent_down();
+      indent(out) << "}" << endl;
+    }
+    indent(out) << type_name(ttype) << ".SIMPLE_JSON_CODEC.read(reader, " << target << ");" << endl;
+  } else if (ttype->is_container()) {
+    indent(out) << "reader." << (ttype->is_map() ? "readMapBegin" : "readListBegin") << "();" << endl;
+    if (reuse_objects_) {
+      indent(out) << "if (" << target << " == null) {" << endl;
+      indent_up();
+    }
+    indent(out) << target << " = new " << type_name(ttype, false, true) << "();" << endl;
+    if (reuse_objects_) {
+      indent_down();
+      indent(out) << "} else {" << endl;
+      indent(out) << "  " << target << ".clear();" << endl;
+      indent(out) << "}" << endl;
+    }
+    if (ttype->is_map()) {
+      t_type* key_type = ((t_map*)ttype)->get_key_type();
+      t_type* val_type = ((t_map*)ttype)->get_val_type();
+      string key = tmp("_key");
+      string val = tmp("_val");
+      indent(out) << "while (reader.hasNextKey())" << endl;
+      scope_up(out);
+      indent(out) << type_name(key_type) << " " << key << reuse_local_init(key_type) << ";" << endl;
+      indent(out) << type_name(val_type) << " " << val << reuse_local_init(val_type) << ";" << endl;
+      if (generate_simple_json_read_key(out, key_type, key)) {
+        generate_simple_json_read_value(out, val_type, val);
+        indent(out) << target << ".put(" << key << ", " << val << ");" << endl;
+      }
+      scope_down(out);
+    } else {
+      t_type* elem_type = ttype->is_list() ? ((t_list*)ttype)->get_elem_type() : ((t_set*)ttype)->get_elem_type();
+      string elem = tmp("_elem");
+      indent(out) << "while (reader.hasNextElement())" << endl;
+      scope_up(out);
+      indent(out) << type_name(elem_type) << " " << elem << reuse_local_init(elem_type) << ";" << endl;
+      generate_simple_json_read_value(out, elem_type, elem);
+      indent(out) << target << ".add(" << elem << ");" << endl;
+      scope_down(out);
+    }
+  } else if (ttype->is_enum()) {
+    indent(out) << target << " = " << type_name(ttype, true, false, false, true) << ".findByValue(reader.readI32());" << endl;
+  } else if (ttype->is_base_type()) {
+    t_base_type::t_base tbase = ((t_base_type*)ttype)->get_base();
+    indent(out) << target << " = reader.";
+    switch (tbase) {
+      case t_base_type::TYPE_STRING:
+        out << (((t_base_type*)ttype)->is_binary() ? "readBinary" : "readString");
+        break;
+      case t_base_type::TYPE_BOOL:
+        out << "readBool";
+        break;
+      case t_base_type::TYPE_BYTE:
+        out << "readByte";
+        break;
+      case t_base_type::TYPE_I16:
+        out << "readI16";
+        break;
+      case t_base_type::TYPE_I32:
+        out << "readI32";
+        break;
+      case t_base_type::TYPE_I64:
+        out << "readI64";
+        break;
+      case t_base_type::TYPE_DOUBLE:
+        out << "readDouble";
+        break;
+      default:
+        throw "compiler error: no Java name for base type " + t_base_type::t_base_name(tbase);
+    }
+    out << "();" << endl;
+  } else {
+    throw "compiler error: cannot read " + type_name(ttype) + " as simple JSON";
+  }
+}
+
+/**
+ * Reads a map key into target. Returns false when no key of the type can
+ * have been written and the generated code throws instead.
+ */
+bool t_java_generator::generate_simple_json_read_key(ofstream& out, t_type* ttype, string target) {
+  ttype = get_true_type(ttype);
+  if (ttype->is_struct() || ttype->is_xception()) {
+    generate_simple_json_read_value(out, ttype, target);
+    indent(out) << "reader.readKeyEnd();" << endl;
+  } else if (ttype->is_container()) {
+    indent(out) << "throw new org.apache.thrift.protocol.TProtocolException(org.apache.thrift.protocol.TProtocolException.INVALID_DATA, "
+                << "\"Cannot read a map with keys that are of type "
+                << (ttype->is_map() ? "map" : (ttype->is_set() ? "set" : "list")) << "\");" << endl;
+    return false;
+  } else if (ttype->is_enum()) {
+    indent(out) << target << " = " << type_name(ttype, true, false, false, true) << ".findByValue(reader.readI32Key());" << endl;
+  } else if (ttype->is_base_type()) {
+    t_base_type::t_base tbase = ((t_base_type*)ttype)->get_base();
+    indent(out) << target << " = reader.";
+    switch (tbase) {
+      case t_base_type::TYPE_STRING:
+        out << (((t_base_type*)ttype)->is_binary() ? "readBinaryKey" : "readStringKey");
+        break;
+      case t_base_type::TYPE_BOOL:
+        out << "readBoolKey";
+        break;
+      case t_base_type::TYPE_BYTE:
+        out << "readByteKey";
+        break;
+      case t_base_type::TYPE_I16:
+        out << "readI16Key";
+        break;
+      case t_base_type::TYPE_I32:
+        out << "readI32Key";
+        break;
+      case t_base_type::TYPE_I64:
+        out << "readI64Key";
+        break;
+      case t_base_type::TYPE_DOUBLE:
+        out << "readDoubleKey";
+        break;
+      default:
+        throw "compiler error: no Java name for base type " + t_base_type::t_base_name(tbase);
+    }
+    out << "();" << endl;
+  }
+  return true;
+}
+
 void t_java_generator::generate_javax_generated_annotation(ofstream& out){
   time_t seconds = time(NULL);
   struct tm *now = localtime(&seconds);
@@ -4809,7 +5707,18 @@ THRIFT_REGISTER_GENERATOR(java, "Java",
 "    android:         Generated structures are Parcelable.\n"
 "    android_legacy:  Do not use java.io.IOException(throwable) (available for Android 2.3 and above).\n"
 "    java5:           Generate Java 1.5 compliant code (includes android_legacy flag).\n"
-"    reuse-objects:   Data objects will not be allocated, but existing instances will be used (read and write).\n"
+"    reuse-objects:   Reading into a struct recycles the nested structs and containers it already holds\n"
+"                     instead of allocating new ones. Nested structs must be generated with it too.\n"
+"    unknown_fields:  Keep fields missing from the IDL when reading a struct and write them back out,\n"
+"                     instead of skipping them. Unions still skip them.\n"
+"    simple_json:     Generate a reflection-free SIMPLE_JSON_CODEC for each struct, reading and writing\n"
+"                     the TSimpleJSONProtocol format. Nested structs must be generated with it too.\n"
+"    binary_view:     Generate a <Struct>BinaryView flyweight for each struct, decoding single fields\n"
+"                     of a TBinaryProtocol encoded ByteBuffer on demand. Nested structs must be\n"
+"                     generated with it too.\n"
+"    fast_hashcode:   Compute hashCode() by mixing the fields directly, without boxing them into a list.\n"
+"    cached_hashcode: As fast_hashcode, and structs remember their hash until a setter, clear() or read()\n"
+"                     changes them. Fields or nested objects changed in place are not noticed.\n"
 "    sorted_containers:\n"
 "                     Use TreeSet/TreeMap instead of HashSet/HashMap as a implementation of set/map.\n"
 )
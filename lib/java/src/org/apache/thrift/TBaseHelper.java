@@ -19,6 +19,7 @@ package org.apache.thrift;
 
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -26,14 +27,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 public final class TBaseHelper {
 
   private TBaseHelper(){}
 
-  private static final Comparator comparator = new NestedStructureComparator();
+  private static final Comparator<Object> comparator = new NestedStructureComparator();
 
   public static int compareTo(Object o1, Object o2) {
     if (o1 instanceof Comparable) {
@@ -123,6 +122,7 @@ public final class TBaseHelper {
     return 0;
   }
 
+  @SuppressWarnings("unchecked")
   public static int compareTo(Comparable a, Comparable b) {
     return a.compareTo(b);
   }
@@ -143,20 +143,37 @@ public final class TBaseHelper {
 
   public static int compareTo(Set a, Set b) {
     int lastComparison = compareTo(a.size(), b.size());
-    if (lastComparison != 0) {
+    if (lastComparison != 0 || a == b) {
       return lastComparison;
     }
-    SortedSet sortedA = new TreeSet(comparator);
-    sortedA.addAll(a);
-    SortedSet sortedB = new TreeSet(comparator);
-    sortedB.addAll(b);
 
-    Iterator iterA = sortedA.iterator();
-    Iterator iterB = sortedB.iterator();
+    // Sets already in natural order, as with sorted_containers, can be
+    // walked as they are
+    if (isNaturallySorted(a) && isNaturallySorted(b)) {
+      Iterator iterA = a.iterator();
+      Iterator iterB = b.iterator();
+      while (iterA.hasNext() && iterB.hasNext()) {
+        lastComparison = comparator.compare(iterA.next(), iterB.next());
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
+      return 0;
+    }
+
+    // Equal sets are common, and cheaper to spot than to sort
+    if (a.equals(b)) {
+      return 0;
+    }
+
+    Object[] sortedA = a.toArray();
+    Arrays.sort(sortedA, comparator);
+    Object[] sortedB = b.toArray();
+    Arrays.sort(sortedB, comparator);
 
     // Compare each item.
-    while (iterA.hasNext() && iterB.hasNext()) {
-      lastComparison = comparator.compare(iterA.next(), iterB.next());
+    for (int i = 0; i < sortedA.length; i++) {
+      lastComparison = comparator.compare(sortedA[i], sortedB[i]);
       if (lastComparison != 0) {
         return lastComparison;
       }
@@ -167,27 +184,43 @@ public final class TBaseHelper {
 
   public static int compareTo(Map a, Map b) {
     int lastComparison = compareTo(a.size(), b.size());
-    if (lastComparison != 0) {
+    if (lastComparison != 0 || a == b) {
       return lastComparison;
     }
 
-    // Sort a and b so we can compare them.
-    SortedMap sortedA = new TreeMap(comparator);
-    sortedA.putAll(a);
-    Iterator<Map.Entry> iterA = sortedA.entrySet().iterator();
-    SortedMap sortedB = new TreeMap(comparator);
-    sortedB.putAll(b);
-    Iterator<Map.Entry> iterB = sortedB.entrySet().iterator();
+    if (isNaturallySorted(a) && isNaturallySorted(b)) {
+      Iterator iterA = a.entrySet().iterator();
+      Iterator iterB = b.entrySet().iterator();
+      while (iterA.hasNext() && iterB.hasNext()) {
+        Map.Entry entryA = (Map.Entry) iterA.next();
+        Map.Entry entryB = (Map.Entry) iterB.next();
+        lastComparison = comparator.compare(entryA.getKey(), entryB.getKey());
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+        lastComparison = comparator.compare(entryA.getValue(), entryB.getValue());
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
+      return 0;
+    }
+
+    if (a.equals(b)) {
+      return 0;
+    }
+
+    // Sort the entries of a and b so we can compare them.
+    Map.Entry[] sortedA = sortedEntries(a);
+    Map.Entry[] sortedB = sortedEntries(b);
 
     // Compare each item.
-    while (iterA.hasNext() && iterB.hasNext()) {
-      Map.Entry entryA = iterA.next();
-      Map.Entry entryB = iterB.next();
-      lastComparison = comparator.compare(entryA.getKey(), entryB.getKey());
+    for (int i = 0; i < sortedA.length; i++) {
+      lastComparison = comparator.compare(sortedA[i].getKey(), sortedB[i].getKey());
       if (lastComparison != 0) {
         return lastComparison;
       }
-      lastComparison = comparator.compare(entryA.getValue(), entryB.getValue());
+      lastComparison = comparator.compare(sortedA[i].getValue(), sortedB[i].getValue());
       if (lastComparison != 0) {
         return lastComparison;
       }
@@ -196,10 +229,46 @@ public final class TBaseHelper {
     return 0;
   }
 
+  @SuppressWarnings("unchecked")
+  private static Map.Entry[] sortedEntries(Map map) {
+    Map.Entry[] entries = (Map.Entry[]) map.entrySet().toArray(new Map.Entry[map.size()]);
+    Arrays.sort(entries, ENTRY_KEY_COMPARATOR);
+    return entries;
+  }
+
+  private static boolean isNaturallySorted(Set set) {
+    return set instanceof SortedSet && ((SortedSet) set).comparator() == null;
+  }
+
+  private static boolean isNaturallySorted(Map map) {
+    return map instanceof SortedMap && ((SortedMap) map).comparator() == null;
+  }
+
+  private static final Comparator<Map.Entry> ENTRY_KEY_COMPARATOR = new Comparator<Map.Entry>() {
+    public int compare(Map.Entry a, Map.Entry b) {
+      return comparator.compare(a.getKey(), b.getKey());
+    }
+  };
+
+  /**
+   * Hash of a long, for generated hashCode methods. Matches Long.hashCode().
+   */
+  public static int hashCode(long value) {
+    return (int) (value ^ (value >>> 32));
+  }
+
+  /**
+   * Hash of a double, for generated hashCode methods. Matches
+   * Double.hashCode().
+   */
+  public static int hashCode(double value) {
+    return hashCode(Double.doubleToLongBits(value));
+  }
+
   /**
    * Comparator to compare items inside a structure (e.g. a list, set, or map).
    */
-  private static class NestedStructureComparator implements Comparator, Serializable {
+  private static class NestedStructureComparator implements Comparator<Object>, Serializable {
     public int compare(Object oA, Object oB) {
       if (oA == null && oB == null) {
         return 0;
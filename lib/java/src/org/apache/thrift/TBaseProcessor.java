@@ -5,6 +5,7 @@ import java.util.Map;
 
 import org.apache.thrift.protocol.TMessage;
 import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TNameTable;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolUtil;
 import org.apache.thrift.protocol.TType;
@@ -12,10 +13,14 @@ import org.apache.thrift.protocol.TType;
 public abstract class TBaseProcessor<I> implements TProcessor {
   private final I iface;
   private final Map<String,ProcessFunction<I, ? extends TBase>> processMap;
+  // lets the protocol hand back our own key for a method name, so that the
+  // name is neither decoded nor hashed per call
+  private final TNameTable methodNames;
 
   protected TBaseProcessor(I iface, Map<String, ProcessFunction<I, ? extends TBase>> processFunctionMap) {
     this.iface = iface;
     this.processMap = processFunctionMap;
+    this.methodNames = new TNameTable(processFunctionMap.keySet());
   }
 
   public Map<String,ProcessFunction<I, ? extends TBase>> getProcessMapView() {
@@ -24,8 +29,8 @@ public abstract class TBaseProcessor<I> implements TProcessor {
 
   @Override
   public boolean process(TProtocol in, TProtocol out) throws TException {
-    TMessage msg = in.readMessageBegin();
-    ProcessFunction fn = processMap.get(msg.name);
+    TMessage msg = in.readMessageBegin(methodNames);
+    ProcessFunction<I, ? extends TBase> fn = processMap.get(msg.name);
     if (fn == null) {
       TProtocolUtil.skip(in, TType.STRUCT);
       in.readMessageEnd();
@@ -39,4 +44,12 @@ public abstract class TBaseProcessor<I> implements TProcessor {
     fn.process(msg.seqid, in, out, iface);
     return true;
   }
+
+  /**
+   * Runs one of this processor's functions for a call whose message header
+   * has already been read, as TMultiplexedProcessor does.
+   */
+  void process(ProcessFunction<I, ?> fn, int seqid, TProtocol in, TProtocol out) throws TException {
+    fn.process(seqid, in, out, iface);
+  }
 }
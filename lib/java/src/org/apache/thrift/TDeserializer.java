@@ -70,6 +70,11 @@ public class TDeserializer {
   /**
    * Deserialize the Thrift object from a byte array.
    *
+   * Classes generated with the reuse-objects option read back into the
+   * nested structs and containers that base already holds, so deserializing
+   * a stream of messages into the same object allocates little beyond the
+   * strings and binaries themselves.
+   *
    * @param base The object to read into
    * @param bytes The array to read from
    * @param offset The offset into {@code bytes}
@@ -85,6 +90,24 @@ public class TDeserializer {
     }
   }
 
+  /**
+   * Deserialize the Thrift object from the remaining bytes of a buffer.
+   * Heap buffers are read in place rather than copied. The buffer's position
+   * is left unchanged.
+   *
+   * @param base The object to read into
+   * @param buffer The buffer to read from
+   */
+  public void deserialize(TBase base, ByteBuffer buffer) throws TException {
+    if (buffer.hasArray()) {
+      deserialize(base, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    } else {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      deserialize(base, bytes);
+    }
+  }
+
   /**
    * Deserialize the Thrift object from a Java string, using a specified
    * character set for decoding.
@@ -24,17 +24,72 @@ import java.lang.NoSuchMethodException;
 import java.lang.IllegalAccessException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility class with static methods for interacting with TEnum
  */
 public class TEnumHelper {
 
+  private static final ConcurrentMap<Class<?>, Lookup<?>> LOOKUPS =
+      new ConcurrentHashMap<Class<?>, Lookup<?>>();
+
+  /**
+   * The constants of one TEnum class, indexed by value in a {@link TIntTable},
+   * so that a lookup neither boxes the value nor goes through reflection.
+   */
+  public static final class Lookup<T extends TEnum> {
+    private final TEnum[] constants_;
+    private final TIntTable values_;
+
+    Lookup(T[] constants) {
+      constants_ = new TEnum[constants.length];
+      System.arraycopy(constants, 0, constants_, 0, constants.length);
+      int[] values = new int[constants.length];
+      for (int i = 0; i < constants.length; i++) {
+        values[i] = constants[i].getValue();
+      }
+      values_ = new TIntTable(values);
+    }
+
+    /**
+     * Returns the constant with the given value, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public T findByValue(int value) {
+      int position = values_.positionOf(value);
+      return position < 0 ? null : (T) constants_[position];
+    }
+  }
+
+  /**
+   * Returns the cached lookup table of a TEnum class, building it on first
+   * use, or null if the class is not an enum.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends TEnum> Lookup<T> getLookup(Class<T> enumClass) {
+    Lookup<T> lookup = (Lookup<T>) LOOKUPS.get(enumClass);
+    if (lookup == null) {
+      T[] constants = enumClass.getEnumConstants();
+      if (constants == null) {
+        return null;
+      }
+      lookup = new Lookup<T>(constants);
+      Lookup<T> raced = (Lookup<T>) LOOKUPS.putIfAbsent(enumClass, lookup);
+      if (raced != null) {
+        lookup = raced;
+      }
+    }
+    return lookup;
+  }
+
   /**
    * Given a TEnum class and integer value, this method will return
    * the associated constant from the given TEnum class.
-   * This method MUST be modified should the name of the 'findByValue' method
-   * change.
+   * Enums are looked up in a cached table; other TEnum classes fall back to
+   * calling their static 'findByValue' method, and this method MUST be
+   * modified should the name of that method change.
    *
    * @param enumClass TEnum from which to return a matching constant.
    * @param value Value for which to return the constant.
@@ -43,6 +98,10 @@ public class TEnumHelper {
    *         something went wrong.
    */
   public static TEnum getByValue(Class<? extends TEnum> enumClass, int value) {
+    Lookup<? extends TEnum> lookup = getLookup(enumClass);
+    if (lookup != null) {
+      return lookup.findByValue(value);
+    }
     try {
       Method method = enumClass.getMethod("findByValue", int.class);
       return (TEnum) method.invoke(null, value);
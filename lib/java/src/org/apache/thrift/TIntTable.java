@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.Arrays;
+
+/**
+ * A fixed table from int keys, such as enum values or field ids, to their
+ * positions in the array the table was built from. Compact key ranges are
+ * looked up by array index, others by binary search over the sorted keys, so
+ * a lookup neither boxes the key nor hashes it.
+ */
+public final class TIntTable {
+  // a range at most this many times the number of keys is kept dense, as is
+  // any range this short
+  private static final int MAX_DENSITY = 4;
+  private static final int MIN_DENSE_SPAN = 16;
+
+  private final int min_;
+  private final int[] dense_;
+  private final int[] keys_;
+  private final int[] positions_;
+
+  /**
+   * @param keys distinct keys; each maps to its index in this array
+   */
+  public TIntTable(int[] keys) {
+    int count = keys.length;
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (int key : keys) {
+      min = Math.min(min, key);
+      max = Math.max(max, key);
+    }
+
+    long span = count == 0 ? 0 : (long) max - min + 1;
+    if (span <= Math.max(MIN_DENSE_SPAN, (long) MAX_DENSITY * count)) {
+      min_ = count == 0 ? 0 : min;
+      dense_ = new int[(int) span];
+      Arrays.fill(dense_, -1);
+      for (int i = 0; i < count; i++) {
+        dense_[keys[i] - min_] = i;
+      }
+      keys_ = null;
+      positions_ = null;
+    } else {
+      min_ = 0;
+      dense_ = null;
+      // sort key and position together, the key in the high half
+      long[] pairs = new long[count];
+      for (int i = 0; i < count; i++) {
+        pairs[i] = ((long) keys[i] << 32) | i;
+      }
+      Arrays.sort(pairs);
+      keys_ = new int[count];
+      positions_ = new int[count];
+      for (int i = 0; i < count; i++) {
+        keys_[i] = (int) (pairs[i] >> 32);
+        positions_[i] = (int) pairs[i];
+      }
+    }
+  }
+
+  /**
+   * Returns the position of the given key, or -1 if it is not in the table.
+   */
+  public int positionOf(int key) {
+    if (dense_ != null) {
+      long index = (long) key - min_;
+      return index >= 0 && index < dense_.length ? dense_[(int) index] : -1;
+    }
+    int index = Arrays.binarySearch(keys_, key);
+    return index < 0 ? -1 : positions_[index];
+  }
+}
@@ -21,6 +21,7 @@ package org.apache.thrift;
 
 import org.apache.thrift.protocol.*;
 
+import java.util.Iterator;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -53,6 +54,16 @@ public class TMultiplexedProcessor implements TProcessor {
     private final Map<String,TProcessor> SERVICE_PROCESSOR_MAP
             = new HashMap<String,TProcessor>();
 
+    /**
+     * Every "service:method" name served by a registered TBaseProcessor,
+     * mapped to the function that serves it, so that such calls are
+     * dispatched with a single lookup on the full message name.
+     */
+    private final Map<String,MethodDispatch<?>> METHOD_DISPATCH_MAP
+            = new HashMap<String,MethodDispatch<?>>();
+
+    private TNameTable methodNames = new TNameTable(METHOD_DISPATCH_MAP.keySet());
+
     /**
      * 'Register' a service with this <code>TMultiplexedProcessor</code>.  This
      * allows us to broker requests to individual services by using the service
@@ -65,6 +76,34 @@ public class TMultiplexedProcessor implements TProcessor {
      */
     public void registerProcessor(String serviceName, TProcessor processor) {
         SERVICE_PROCESSOR_MAP.put(serviceName, processor);
+
+        Iterator<MethodDispatch<?>> registered = METHOD_DISPATCH_MAP.values().iterator();
+        while (registered.hasNext()) {
+            if (registered.next().serviceName.equals(serviceName)) {
+                registered.remove();
+            }
+        }
+        // a processor that overrides process() has to see every call itself
+        if (processor instanceof TBaseProcessor && !overridesProcess(processor)) {
+            registerMethods(serviceName, (TBaseProcessor<?>) processor);
+        }
+        methodNames = new TNameTable(METHOD_DISPATCH_MAP.keySet());
+    }
+
+    private <I> void registerMethods(String serviceName, TBaseProcessor<I> processor) {
+        for (Map.Entry<String,ProcessFunction<I, ? extends TBase>> function : processor.getProcessMapView().entrySet()) {
+            METHOD_DISPATCH_MAP.put(serviceName + TMultiplexedProtocol.SEPARATOR + function.getKey(),
+                    new MethodDispatch<I>(serviceName, processor, function.getValue()));
+        }
+    }
+
+    private static boolean overridesProcess(TProcessor processor) {
+        try {
+            return processor.getClass().getMethod("process", TProtocol.class, TProtocol.class)
+                    .getDeclaringClass() != TBaseProcessor.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
     }
 
     /**
@@ -72,6 +111,8 @@ public class TMultiplexedProcessor implements TProcessor {
      *
      * <ol>
      *     <li>Read the beginning of the message.</li>
+     *     <li>If the message names a method of a registered TBaseProcessor,
+     *         run that method's function directly and stop here.</li>
      *     <li>Extract the service name from the message.</li>
      *     <li>Using the service name to locate the appropriate processor.</li>
      *     <li>Dispatch to the processor, with a decorated instance of TProtocol
@@ -89,7 +130,7 @@ public class TMultiplexedProcessor implements TProcessor {
             message header.  This pulls the message "off the wire", which we'll
             deal with at the end of this method.
         */
-        TMessage message = iprot.readMessageBegin();
+        TMessage message = iprot.readMessageBegin(methodNames);
 
         if (message.type != TMessageType.CALL && message.type != TMessageType.ONEWAY) {
             // TODO Apache Guys - Can the server ever get an EXCEPTION or REPLY?
@@ -97,6 +138,12 @@ public class TMultiplexedProcessor implements TProcessor {
             throw new TException("This should not have happened!?");
         }
 
+        MethodDispatch dispatch = METHOD_DISPATCH_MAP.get(message.name);
+        if (dispatch != null) {
+            dispatch.process(message.seqid, iprot, oprot);
+            return true;
+        }
+
         // Extract the service name
         int index = message.name.indexOf(TMultiplexedProtocol.SEPARATOR);
         if (index < 0) {
@@ -123,6 +170,21 @@ public class TMultiplexedProcessor implements TProcessor {
         return actualProcessor.process(new StoredMessageProtocol(iprot, standardMessage), oprot);
     }
 
+    private static class MethodDispatch<I> {
+        final String serviceName;
+        final TBaseProcessor<I> processor;
+        final ProcessFunction<I, ?> function;
+        MethodDispatch(String serviceName, TBaseProcessor<I> processor, ProcessFunction<I, ?> function) {
+            this.serviceName = serviceName;
+            this.processor = processor;
+            this.function = function;
+        }
+
+        void process(int seqid, TProtocol in, TProtocol out) throws TException {
+            processor.process(function, seqid, in, out);
+        }
+    }
+
     /**
      *  Our goal was to work with any protocol.  In order to do that, we needed
      *  to allow them to call readMessageBegin() and get a TMessage in exactly
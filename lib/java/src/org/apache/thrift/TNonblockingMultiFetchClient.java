@@ -29,12 +29,7 @@ import java.nio.channels.SocketChannel;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 
 /**
@@ -47,9 +42,9 @@ import java.util.concurrent.TimeoutException;
  * per server (in byte). If a response from a server exceeds this limit, the
  * client will not allocate memory or read response data for it.
  *
- *   int fetchTimeoutSeconds - time limit for fetching responses from all
- * servers (in second). After the timeout, the fetch job is stopped and
- * available responses are returned.
+ *   long fetchTimeout - time limit for fetching responses from all
+ * servers. After the timeout, the fetch job is stopped and available
+ * responses are returned.
  *
  *   ByteBuffer requestBuf - request message that is sent to all servers.
  *
@@ -64,11 +59,24 @@ import java.util.concurrent.TimeoutException;
  * exceeds maxRecvBufBytesPerServer, and the client will not read any
  * response data.
  *   3. No data in the ByteBuffer - this happens when the server does not
- * return any response within fetchTimeoutSeconds.
+ * return any response within the fetch timeout.
  *
- *   In some special cases (no servers are given, fetchTimeoutSeconds less
+ *   In some special cases (no servers are given, fetch timeout less
  * than or equal to 0, requestBuf is null), the return is null.
  *
+ * Reuse:
+ *   The client is meant to be long-lived. fetch() runs in the calling
+ * thread on a selector that is kept between calls, and the connection to a
+ * server that answered completely is kept open and reused by the next
+ * fetch(). A kept connection that turns out to have been closed by the
+ * server is reconnected once. Call close() to release the selector and the
+ * connections.
+ *
+ *   setRequiredResponses(k) makes fetch() return as soon as k servers have
+ * answered (first-K or quorum reads); the remaining exchanges are abandoned
+ * and their connections closed. A ResponseListener sees every response as
+ * soon as it is complete.
+ *
  * Note:
  *   It assumes all remote servers are TNonblockingServers and use
  * TFramedTransport.
@@ -80,12 +88,24 @@ public class TNonblockingMultiFetchClient {
     TNonblockingMultiFetchClient.class.getName()
   );
 
+  /**
+   * Receives each server's response as soon as it has been read completely,
+   * from the thread running fetch().
+   */
+  public interface ResponseListener {
+    /**
+     * @param serverIndex index of the server in the server list
+     * @param response the same buffer that fetch() returns at serverIndex
+     */
+    void onResponse(int serverIndex, ByteBuffer response);
+  }
+
   // if the size of the response msg exceeds this limit (in byte), we will
   // not read the msg
   private int maxRecvBufBytesPerServer;
 
-  // time limit for fetching data from all servers (in second)
-  private int fetchTimeoutSeconds;
+  // time limit for fetching data from all servers (in millisecond)
+  private long fetchTimeoutMillis;
 
   // store request that will be sent to servers  
   private ByteBuffer requestBuf;
@@ -98,11 +118,27 @@ public class TNonblockingMultiFetchClient {
   private TNonblockingMultiFetchStats stats;
   private ByteBuffer[] recvBuf;
 
+  // number of complete responses after which fetch() returns, 0 for all
+  private int requiredResponses = 0;
+
+  private ResponseListener responseListener = null;
+
+  // kept between fetches
+  private Selector selector;
+  private SocketChannel[] channels;
+
   public TNonblockingMultiFetchClient(int maxRecvBufBytesPerServer,
     int fetchTimeoutSeconds, ByteBuffer requestBuf,
     List<InetSocketAddress> servers) {
+    this(maxRecvBufBytesPerServer, fetchTimeoutSeconds, TimeUnit.SECONDS,
+      requestBuf, servers);
+  }
+
+  public TNonblockingMultiFetchClient(int maxRecvBufBytesPerServer,
+    long fetchTimeout, TimeUnit unit, ByteBuffer requestBuf,
+    List<InetSocketAddress> servers) {
     this.maxRecvBufBytesPerServer = maxRecvBufBytesPerServer;
-    this.fetchTimeoutSeconds = fetchTimeoutSeconds;
+    this.fetchTimeoutMillis = unit.toMillis(fetchTimeout);
     this.requestBuf = requestBuf;
     this.servers = servers;
       
@@ -115,7 +151,11 @@ public class TNonblockingMultiFetchClient {
   }
 
   public synchronized int getFetchTimeoutSeconds() {
-    return fetchTimeoutSeconds;
+    return (int) TimeUnit.MILLISECONDS.toSeconds(fetchTimeoutMillis);
+  }
+
+  public synchronized long getFetchTimeoutMillis() {
+    return fetchTimeoutMillis;
   }
 
   /**
@@ -144,6 +184,23 @@ public class TNonblockingMultiFetchClient {
     return stats;
   }
 
+  /**
+   * Return from fetch() once this many servers have answered completely.
+   * 0 (the default), or a value not smaller than the number of servers,
+   * waits for all of them.
+   */
+  public synchronized void setRequiredResponses(int requiredResponses) {
+    this.requiredResponses = requiredResponses;
+  }
+
+  public synchronized int getRequiredResponses() {
+    return requiredResponses;
+  }
+
+  public synchronized void setResponseListener(ResponseListener listener) {
+    this.responseListener = listener;
+  }
+
   /**
    * main entry function for fetching from servers
    */
@@ -153,42 +210,83 @@ public class TNonblockingMultiFetchClient {
     stats.clear();
 
     if (servers == null || servers.size() == 0 ||
-        requestBuf == null || fetchTimeoutSeconds <= 0) {
+        requestBuf == null || fetchTimeoutMillis <= 0) {
       return recvBuf;
     }
 
-    ExecutorService executor = Executors.newSingleThreadExecutor();
-    MultiFetch multiFetch = new MultiFetch();
-    FutureTask<?> task = new FutureTask(multiFetch, null);
-    executor.execute(task);
     try {
-      task.get(fetchTimeoutSeconds, TimeUnit.SECONDS);
-    } catch(InterruptedException ie) {
-      // attempt to cancel execution of the task.
-      task.cancel(true);
-      LOGGER.error("interrupted during fetch: "+ie.toString());
-    } catch(ExecutionException ee) {
-      // attempt to cancel execution of the task.
-      task.cancel(true);
-      LOGGER.error("exception during fetch: "+ee.toString());
-    } catch(TimeoutException te) {
-      // attempt to cancel execution of the task.  
-      task.cancel(true);
-      LOGGER.error("timeout for fetch: "+te.toString());
+      if (selector == null || !selector.isOpen()) {
+        selector = Selector.open();
+      }
+    } catch (IOException e) {
+      LOGGER.error("selector opens error: "+e.toString());
+      return recvBuf;
+    }
+    if (channels == null || channels.length != servers.size()) {
+      closeChannels();
+      channels = new SocketChannel[servers.size()];
     }
 
-    executor.shutdownNow();
-    multiFetch.close();
+    new MultiFetch().run();
     return recvBuf;
   }
 
   /**
-   * Private class that does real fetch job.
-   * Users are not allowed to directly use this class, as its run()
-   * function may run forever.
+   * Close kept connections and the selector. The client can still be used
+   * afterwards; it will simply reconnect.
+   */
+  public synchronized void close() {
+    closeChannels();
+    try {
+      if (selector != null) {
+        selector.close();
+      }
+    } catch (IOException e) {
+      LOGGER.error("free resource error: "+e.toString());
+    }
+    selector = null;
+  }
+
+  private void closeChannels() {
+    if (channels == null) {
+      return;
+    }
+    for (int i = 0; i < channels.length; i++) {
+      closeChannel(i);
+    }
+  }
+
+  private void closeChannel(int index) {
+    SocketChannel s = channels[index];
+    channels[index] = null;
+    if (s != null) {
+      try {
+        s.close();
+      } catch (IOException e) {
+        LOGGER.error("free resource error: "+e.toString());
+      }
+    }
+  }
+
+  /**
+   * The state of one fetch() call. Runs in the thread calling fetch(),
+   * which holds the client's lock.
    */
-  private class MultiFetch implements Runnable {
-    private Selector selector;
+  private class MultiFetch {
+    private final int numTotalServers = servers.size();
+
+    // buffer for sending request
+    private final ByteBuffer sendBuf[]        = new ByteBuffer[numTotalServers];
+    private final long numBytesRead[]         = new long[numTotalServers];
+    private final int frameSize[]             = new int[numTotalServers];
+    private final boolean hasReadFrameSize[]  = new boolean[numTotalServers];
+    // whether the connection was kept from a previous fetch
+    private final boolean reused[]            = new boolean[numTotalServers];
+    // whether the server has answered or failed
+    private final boolean finished[]          = new boolean[numTotalServers];
+    private int numFinished = 0;
+
+    private long t1;
 
     /**
      * main entry function for fetching.
@@ -200,25 +298,17 @@ public class TNonblockingMultiFetchClient {
      * TNonblockingMultiFetchClient before calling this function.
      */
     public void run() {
-      long t1 = System.currentTimeMillis();
+      t1 = System.currentTimeMillis();
+      long deadline = t1 + fetchTimeoutMillis;
 
-      int numTotalServers = servers.size();
       stats.setNumTotalServers(numTotalServers);
+      int target = numTotalServers;
+      if (requiredResponses > 0 && requiredResponses < numTotalServers) {
+        target = requiredResponses;
+      }
 
       // buffer for receiving response from servers
-      recvBuf                     = new ByteBuffer[numTotalServers];
-      // buffer for sending request
-      ByteBuffer sendBuf[]        = new ByteBuffer[numTotalServers];
-      long numBytesRead[]         = new long[numTotalServers];
-      int frameSize[]             = new int[numTotalServers];
-      boolean hasReadFrameSize[]  = new boolean[numTotalServers];
-
-      try {
-        selector = Selector.open();
-      } catch (IOException e) {
-        LOGGER.error("selector opens error: "+e.toString());
-        return;
-      }
+      recvBuf = new ByteBuffer[numTotalServers];
 
       for (int i = 0; i < numTotalServers; i++) {
         // create buffer to send request to server.
@@ -227,42 +317,26 @@ public class TNonblockingMultiFetchClient {
         recvBuf[i] = ByteBuffer.allocate(4);
         stats.incTotalRecvBufBytes(4);
 
-        InetSocketAddress server = servers.get(i);
-        SocketChannel s = null;
-        SelectionKey key = null;
-        try {
-          s = SocketChannel.open();
-          s.configureBlocking(false);
-          // now this method is non-blocking
-          s.connect(server);
-          key = s.register(selector, s.validOps());
-          // attach index of the key
-          key.attach(i);
-        } catch (Exception e) {
-          stats.incNumConnectErrorServers();  
-          String err = String.format("set up socket to server %s error: %s",
-            server.toString(), e.toString());
-          LOGGER.error(err);
-          // free resource
-          if (s != null) {
-            try {s.close();} catch (Exception ex) {}
-          }            
-          if (key != null) {
-             key.cancel();
-          }
-        }
+        startExchange(i);
       }
 
       // wait for events
-      while (stats.getNumReadCompletedServers() +
-        stats.getNumConnectErrorServers() < stats.getNumTotalServers()) {
-        // if the thread is interrupted (e.g., task is cancelled)  
+      while (stats.getNumReadCompletedServers() < target &&
+        numFinished < numTotalServers) {
+        // if the thread is interrupted, give up
         if (Thread.currentThread().isInterrupted()) {
-          return;
+          LOGGER.error("interrupted during fetch");
+          break;
+        }
+
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          LOGGER.error("timeout for fetch");
+          break;
         }
 
         try{
-          selector.select();
+          selector.select(remaining);
         } catch (Exception e) {
           LOGGER.error("selector selects error: "+e.toString());
           continue;
@@ -275,125 +349,232 @@ public class TNonblockingMultiFetchClient {
 
           // get previously attached index
           int index = (Integer)selKey.attachment();
+          if (finished[index]) {
+            continue;
+          }
 
           if (selKey.isValid() && selKey.isConnectable()) {
-            // if this socket throws an exception (e.g., connection refused),
-            // print error msg and skip it.
-            try {
-              SocketChannel sChannel = (SocketChannel)selKey.channel();
-              sChannel.finishConnect();
-            } catch (Exception e) {
-              stats.incNumConnectErrorServers();
-              String err = String.format("socket %d connects to server %s " +
-                "error: %s",
-                index, servers.get(index).toString(), e.toString());
-              LOGGER.error(err);
-            }
+            finishConnect(selKey, index);
           }
 
           if (selKey.isValid() && selKey.isWritable()) {
-            if (sendBuf[index].hasRemaining()) {
-              // if this socket throws an exception, print error msg and
-              // skip it.
-              try {
-                SocketChannel sChannel = (SocketChannel)selKey.channel();
-                sChannel.write(sendBuf[index]);
-              } catch (Exception e) {
-                String err = String.format("socket %d writes to server %s " +
-                  "error: %s",
-                  index, servers.get(index).toString(), e.toString());
-                LOGGER.error(err);
-              }
-            }
+            handleWrite(selKey, index);
           }
 
           if (selKey.isValid() && selKey.isReadable()) {
-            // if this socket throws an exception, print error msg and
-            // skip it.
-            try {
-              SocketChannel sChannel = (SocketChannel)selKey.channel();
-              int bytesRead = sChannel.read(recvBuf[index]);
-
-              if (bytesRead > 0) {
-                numBytesRead[index] += bytesRead;
-
-                if (!hasReadFrameSize[index] &&
-                    recvBuf[index].remaining()==0) {
-                  // if the frame size has been read completely, then prepare
-                  // to read the actual frame.
-                  frameSize[index] = recvBuf[index].getInt(0);
-
-                  if (frameSize[index] <= 0) {
-                    stats.incNumInvalidFrameSize();
-                    String err = String.format("Read an invalid frame size %d"
-                      + " from %s. Does the server use TFramedTransport? ",
-                      frameSize[index], servers.get(index).toString());
-                    LOGGER.error(err);
-                    sChannel.close();
-                    continue;
-                  }
-
-                  if (frameSize[index] + 4 > stats.getMaxResponseBytes()) {
-                    stats.setMaxResponseBytes(frameSize[index]+4);
-                  }
-
-                  if (frameSize[index] + 4 > maxRecvBufBytesPerServer) {
-                    stats.incNumOverflowedRecvBuf();
-                    String err = String.format("Read frame size %d from %s,"
-                      + " total buffer size would exceed limit %d",
-                      frameSize[index], servers.get(index).toString(),
-                      maxRecvBufBytesPerServer);
-                    LOGGER.error(err);                      
-                    sChannel.close();
-                    continue;
-                  }
-
-                  // reallocate buffer for actual frame data
-                  recvBuf[index] = ByteBuffer.allocate(frameSize[index] + 4);
-                  recvBuf[index].putInt(frameSize[index]);
-
-                  stats.incTotalRecvBufBytes(frameSize[index]);
-                  hasReadFrameSize[index] = true;
-                }
-
-                if (hasReadFrameSize[index] &&
-                  numBytesRead[index] >= frameSize[index]+4) {
-                  // has read all data
-                  sChannel.close();
-                  stats.incNumReadCompletedServers();
-                  long t2 = System.currentTimeMillis();
-                  stats.setReadTime(t2-t1);
-                }
-              }
-            } catch (Exception e) {
-              String err = String.format("socket %d reads from server %s " +
-                "error: %s",
-                index, servers.get(index).toString(), e.toString());
-              LOGGER.error(err);
-            }
+            handleRead(selKey, index);
           }
         }
       }
+
+      // exchanges still in flight leave their connection in an unknown state
+      for (int i = 0; i < numTotalServers; i++) {
+        if (!finished[i]) {
+          closeChannel(i);
+        }
+      }
     }
 
     /**
-     * dispose any resource allocated
+     * Send the request over the kept connection to a server, or open a new
+     * one.
      */
-    public void close() {
+    private void startExchange(int index) {
+      SocketChannel s = channels[index];
+      if (s != null && s.isOpen() && s.isConnected()) {
+        SelectionKey key = s.keyFor(selector);
+        if (key != null && key.isValid()) {
+          reused[index] = true;
+          key.interestOps(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+          return;
+        }
+      }
+      closeChannel(index);
+      reused[index] = false;
+
+      InetSocketAddress server = servers.get(index);
+      s = null;
+      SelectionKey key = null;
       try {
-        if (selector.isOpen()) {
-          Iterator<SelectionKey> it = selector.keys().iterator();
-          while (it.hasNext()) {
-            SelectionKey selKey = it.next();
-            SocketChannel sChannel = (SocketChannel)selKey.channel();
-            sChannel.close();
+        s = SocketChannel.open();
+        s.configureBlocking(false);
+        // now this method is non-blocking
+        if (s.connect(server)) {
+          key = s.register(selector,
+            SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+        } else {
+          key = s.register(selector, SelectionKey.OP_CONNECT);
+        }
+        // attach index of the key
+        key.attach(index);
+        channels[index] = s;
+      } catch (Exception e) {
+        stats.incNumConnectErrorServers();
+        String err = String.format("set up socket to server %s error: %s",
+          server.toString(), e.toString());
+        LOGGER.error(err);
+        // free resource
+        if (s != null) {
+          try {s.close();} catch (Exception ex) {}
+        }            
+        if (key != null) {
+           key.cancel();
+        }
+        fail(index);
+      }
+    }
+
+    /**
+     * A kept connection failed before any of the response arrived, most
+     * likely because the server closed it while idle. Retry the exchange
+     * once on a fresh connection.
+     */
+    private boolean retryStale(int index) {
+      if (!reused[index] || numBytesRead[index] > 0) {
+        return false;
+      }
+      closeChannel(index);
+      sendBuf[index] = requestBuf.duplicate();
+      recvBuf[index].clear();
+      startExchange(index);
+      return true;
+    }
+
+    private void fail(int index) {
+      closeChannel(index);
+      finished[index] = true;
+      numFinished++;
+    }
+
+    private void finishConnect(SelectionKey selKey, int index) {
+      // if this socket throws an exception (e.g., connection refused),
+      // print error msg and skip it.
+      try {
+        SocketChannel sChannel = (SocketChannel)selKey.channel();
+        sChannel.finishConnect();
+        selKey.interestOps(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+      } catch (Exception e) {
+        stats.incNumConnectErrorServers();
+        String err = String.format("socket %d connects to server %s " +
+          "error: %s",
+          index, servers.get(index).toString(), e.toString());
+        LOGGER.error(err);
+        fail(index);
+      }
+    }
+
+    private void handleWrite(SelectionKey selKey, int index) {
+      // if this socket throws an exception, print error msg and
+      // skip it.
+      try {
+        SocketChannel sChannel = (SocketChannel)selKey.channel();
+        sChannel.write(sendBuf[index]);
+        if (!sendBuf[index].hasRemaining()) {
+          selKey.interestOps(SelectionKey.OP_READ);
+        }
+      } catch (Exception e) {
+        if (retryStale(index)) {
+          return;
+        }
+        String err = String.format("socket %d writes to server %s " +
+          "error: %s",
+          index, servers.get(index).toString(), e.toString());
+        LOGGER.error(err);
+        fail(index);
+      }
+    }
+
+    private void handleRead(SelectionKey selKey, int index) {
+      // if this socket throws an exception, print error msg and
+      // skip it.
+      try {
+        SocketChannel sChannel = (SocketChannel)selKey.channel();
+        int bytesRead = sChannel.read(recvBuf[index]);
+
+        if (bytesRead < 0) {
+          if (!retryStale(index)) {
+            LOGGER.error(String.format("server %s closed the connection",
+              servers.get(index).toString()));
+            fail(index);
+          }
+          return;
+        }
+
+        if (bytesRead > 0) {
+          numBytesRead[index] += bytesRead;
+
+          if (!hasReadFrameSize[index] &&
+              recvBuf[index].remaining()==0) {
+            // if the frame size has been read completely, then prepare
+            // to read the actual frame.
+            frameSize[index] = recvBuf[index].getInt(0);
+
+            if (frameSize[index] <= 0) {
+              stats.incNumInvalidFrameSize();
+              String err = String.format("Read an invalid frame size %d"
+                + " from %s. Does the server use TFramedTransport? ",
+                frameSize[index], servers.get(index).toString());
+              LOGGER.error(err);
+              fail(index);
+              return;
+            }
+
+            if (frameSize[index] + 4 > stats.getMaxResponseBytes()) {
+              stats.setMaxResponseBytes(frameSize[index]+4);
+            }
+
+            if (frameSize[index] + 4 > maxRecvBufBytesPerServer) {
+              stats.incNumOverflowedRecvBuf();
+              String err = String.format("Read frame size %d from %s,"
+                + " total buffer size would exceed limit %d",
+                frameSize[index], servers.get(index).toString(),
+                maxRecvBufBytesPerServer);
+              LOGGER.error(err);                      
+              fail(index);
+              return;
+            }
+
+            // reallocate buffer for actual frame data
+            recvBuf[index] = ByteBuffer.allocate(frameSize[index] + 4);
+            recvBuf[index].putInt(frameSize[index]);
+
+            stats.incTotalRecvBufBytes(frameSize[index]);
+            hasReadFrameSize[index] = true;
           }
 
-          selector.close();
+          if (hasReadFrameSize[index] &&
+            numBytesRead[index] >= frameSize[index]+4) {
+            // has read all data; keep the connection for the next fetch
+            selKey.interestOps(0);
+            finished[index] = true;
+            numFinished++;
+            stats.incNumReadCompletedServers();
+            long t2 = System.currentTimeMillis();
+            stats.setReadTime(t2-t1);
+            notifyListener(index);
+          }
         }
-      } catch (IOException e) {
-        LOGGER.error("free resource error: "+e.toString());
+      } catch (Exception e) {
+        if (retryStale(index)) {
+          return;
+        }
+        String err = String.format("socket %d reads from server %s " +
+          "error: %s",
+          index, servers.get(index).toString(), e.toString());
+        LOGGER.error(err);
+        fail(index);
+      }
+    }
+
+    private void notifyListener(int index) {
+      if (responseListener == null) {
+        return;
+      }
+      try {
+        responseListener.onResponse(index, recvBuf[index]);
+      } catch (RuntimeException e) {
+        LOGGER.error("response listener error: "+e.toString());
       }
     }
   }
-}
\ No newline at end of file
+}
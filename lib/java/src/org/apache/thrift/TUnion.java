@@ -29,8 +29,6 @@ import org.apache.thrift.protocol.TField;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolException;
 import org.apache.thrift.protocol.TStruct;
-import org.apache.thrift.scheme.IScheme;
-import org.apache.thrift.scheme.SchemeFactory;
 import org.apache.thrift.scheme.StandardScheme;
 import org.apache.thrift.scheme.TupleScheme;
 
@@ -44,11 +42,9 @@ public abstract class TUnion<T extends TUnion<?,?>, F extends TFieldIdEnum> impl
     value_ = null;
   }
   
-  private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
-  static {
-    schemes.put(StandardScheme.class, new TUnionStandardSchemeFactory());
-    schemes.put(TupleScheme.class, new TUnionTupleSchemeFactory());
-  }
+  // the schemes hold no state, so one of each serves every union
+  private static final TUnionStandardScheme STANDARD_SCHEME = new TUnionStandardScheme();
+  private static final TUnionTupleScheme TUPLE_SCHEME = new TUnionTupleScheme();
 
   protected TUnion(F setField, Object value) {
     setFieldValue(setField, value);
@@ -135,7 +131,11 @@ public abstract class TUnion<T extends TUnion<?,?>, F extends TFieldIdEnum> impl
   }
 
   public void read(TProtocol iprot) throws TException {
-    schemes.get(iprot.getScheme()).getScheme().read(iprot, this);
+    if (iprot.getSchemeId() == TProtocol.TUPLE_SCHEME_ID) {
+      TUPLE_SCHEME.read(iprot, this);
+    } else {
+      STANDARD_SCHEME.read(iprot, this);
+    }
   }
 
   public void setFieldValue(F fieldId, Object value) {
@@ -149,7 +149,11 @@ public abstract class TUnion<T extends TUnion<?,?>, F extends TFieldIdEnum> impl
   }
 
   public void write(TProtocol oprot) throws TException {
-    schemes.get(oprot.getScheme()).getScheme().write(oprot, this);
+    if (oprot.getSchemeId() == TProtocol.TUPLE_SCHEME_ID) {
+      TUPLE_SCHEME.write(oprot, this);
+    } else {
+      STANDARD_SCHEME.write(oprot, this);
+    }
   }
 
   /**
@@ -204,12 +208,6 @@ public abstract class TUnion<T extends TUnion<?,?>, F extends TFieldIdEnum> impl
     this.value_ = null;
   }
   
-  private static class TUnionStandardSchemeFactory implements SchemeFactory {
-    public TUnionStandardScheme getScheme() {
-      return new TUnionStandardScheme();
-    }
-  }
-  
   private static class TUnionStandardScheme extends StandardScheme<TUnion> {
 
     @Override
@@ -248,12 +246,6 @@ public abstract class TUnion<T extends TUnion<?,?>, F extends TFieldIdEnum> impl
     }
   }
   
-  private static class TUnionTupleSchemeFactory implements SchemeFactory {
-    public TUnionTupleScheme getScheme() {
-      return new TUnionTupleScheme();
-    }
-  }
-  
   private static class TUnionTupleScheme extends TupleScheme<TUnion> {
 
     @Override
@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.lang.reflect.Constructor;
+
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TSimpleJSONProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * Fields a struct was sent that its IDL does not know about. Structs
+ * generated with the "unknown_fields" option keep them here instead of
+ * skipping them, and write them back out after their own fields, so a
+ * middle tier built against an older IDL passes newer fields through.
+ *
+ * Each value is kept as the bytes it was read as. Protocols that can read
+ * raw values (binary and compact) hand those over without decoding the
+ * value at all, and when the struct is written with the same protocol they
+ * go back on the wire verbatim. Values read with any other protocol are
+ * kept in the compact encoding, and values are only decoded when written
+ * with a protocol whose encoding differs from the one they were read with.
+ *
+ * Strings and binary look the same on the wire to binary and compact, but
+ * not to text protocols such as JSON, which base64 encode binary. A value
+ * that passes through a text protocol therefore keeps its text: a binary
+ * field read from JSON and written with TBinaryProtocol comes out as its
+ * base64 text.
+ *
+ * Nothing is written to TSimpleJSONProtocol. It keys fields by name, and
+ * unknown fields have none, so they would all come out under an empty key;
+ * the output is the same as if the struct had no unknown fields.
+ */
+public final class TUnknownFields {
+  private static final TStruct ANONYMOUS_STRUCT = new TStruct();
+
+  private short[] ids_;
+  private byte[] types_;
+  private byte[][] values_;
+  private Class<?>[] encodings_;
+  private int size_ = 0;
+
+  public TUnknownFields() {
+    ids_ = new short[4];
+    types_ = new byte[4];
+    values_ = new byte[4][];
+    encodings_ = new Class<?>[4];
+  }
+
+  /**
+   * Copy constructor. Values are never modified, so they are shared.
+   */
+  public TUnknownFields(TUnknownFields other) {
+    int capacity = Math.max(other.size_, 1);
+    ids_ = new short[capacity];
+    types_ = new byte[capacity];
+    values_ = new byte[capacity][];
+    encodings_ = new Class<?>[capacity];
+    System.arraycopy(other.ids_, 0, ids_, 0, other.size_);
+    System.arraycopy(other.types_, 0, types_, 0, other.size_);
+    System.arraycopy(other.values_, 0, values_, 0, other.size_);
+    System.arraycopy(other.encodings_, 0, encodings_, 0, other.size_);
+    size_ = other.size_;
+  }
+
+  /**
+   * Reads the value of a field whose header has just been read and adds it
+   * to fields, which is created if null. Returns fields.
+   */
+  public static TUnknownFields read(TProtocol iprot, TField field, TUnknownFields fields) throws TException {
+    if (fields == null) {
+      fields = new TUnknownFields();
+    }
+    fields.add(iprot, field);
+    return fields;
+  }
+
+  /**
+   * Reads the value of a field whose header has just been read.
+   */
+  public void add(TProtocol iprot, TField field) throws TException {
+    Class<? extends TProtocol> encoding = iprot.getRawValueEncoding();
+    byte[] value;
+    if (encoding != null) {
+      value = iprot.readRawValue(field.type);
+    } else {
+      TMemoryBuffer buffer = new TMemoryBuffer(64);
+      copy(iprot, new TCompactProtocol(buffer), field.type, false);
+      value = new byte[buffer.length()];
+      System.arraycopy(buffer.getArray(), 0, value, 0, value.length);
+      encoding = TCompactProtocol.class;
+    }
+
+    if (size_ == ids_.length) {
+      grow();
+    }
+    ids_[size_] = field.id;
+    types_[size_] = field.type;
+    values_[size_] = value;
+    encodings_[size_] = encoding;
+    size_++;
+  }
+
+  /**
+   * Writes the fields, headers included. Writes nothing to a
+   * TSimpleJSONProtocol, which has no way to name them.
+   */
+  public void write(TProtocol oprot) throws TException {
+    if (oprot instanceof TSimpleJSONProtocol) {
+      return;
+    }
+    Class<? extends TProtocol> encoding = oprot.getRawValueEncoding();
+    for (int i = 0; i < size_; i++) {
+      oprot.writeFieldBegin(new TField("", types_[i], ids_[i]));
+      if (encodings_[i] == encoding) {
+        oprot.writeRawValue(types_[i], values_[i]);
+      } else {
+        TProtocol iprot = newProtocol(encodings_[i], new TMemoryInputTransport(values_[i]));
+        copy(iprot, oprot, types_[i], encoding != null);
+      }
+      oprot.writeFieldEnd();
+    }
+  }
+
+  public int size() {
+    return size_;
+  }
+
+  public short getId(int i) {
+    return ids_[i];
+  }
+
+  public byte getType(int i) {
+    return types_[i];
+  }
+
+  private void grow() {
+    int capacity = ids_.length * 2;
+    short[] ids = new short[capacity];
+    byte[] types = new byte[capacity];
+    byte[][] values = new byte[capacity][];
+    Class<?>[] encodings = new Class<?>[capacity];
+    System.arraycopy(ids_, 0, ids, 0, size_);
+    System.arraycopy(types_, 0, types, 0, size_);
+    System.arraycopy(values_, 0, values, 0, size_);
+    System.arraycopy(encodings_, 0, encodings, 0, size_);
+    ids_ = ids;
+    types_ = types;
+    values_ = values;
+    encodings_ = encodings;
+  }
+
+  private static TProtocol newProtocol(Class<?> encoding, TTransport trans) throws TException {
+    try {
+      Constructor<?> constructor = encoding.getConstructor(TTransport.class);
+      return (TProtocol)constructor.newInstance(trans);
+    } catch (Exception e) {
+      throw new TException("Unable to read values encoded by " + encoding.getName(), e);
+    }
+  }
+
+  /**
+   * Reads a value of the given type with one protocol and writes it with
+   * another. Strings are copied as binary only if neither protocol is a text
+   * protocol, since text protocols encode the two differently.
+   */
+  private static void copy(TProtocol iprot, TProtocol oprot, byte type, boolean binary) throws TException {
+    switch (type) {
+      case TType.BOOL:
+        oprot.writeBool(iprot.readBool());
+        break;
+      case TType.BYTE:
+        oprot.writeByte(iprot.readByte());
+        break;
+      case TType.I16:
+        oprot.writeI16(iprot.readI16());
+        break;
+      case TType.I32:
+        oprot.writeI32(iprot.readI32());
+        break;
+      case TType.I64:
+        oprot.writeI64(iprot.readI64());
+        break;
+      case TType.DOUBLE:
+        oprot.writeDouble(iprot.readDouble());
+        break;
+      case TType.STRING:
+        if (binary) {
+          oprot.writeBinary(iprot.readBinary());
+        } else {
+          oprot.writeString(iprot.readString());
+        }
+        break;
+      case TType.STRUCT:
+        iprot.readStructBegin();
+        oprot.writeStructBegin(ANONYMOUS_STRUCT);
+        while (true) {
+          TField field = iprot.readFieldBegin();
+          if (field.type == TType.STOP) {
+            break;
+          }
+          oprot.writeFieldBegin(field);
+          copy(iprot, oprot, field.type, binary);
+          oprot.writeFieldEnd();
+          iprot.readFieldEnd();
+        }
+        oprot.writeFieldStop();
+        oprot.writeStructEnd();
+        iprot.readStructEnd();
+        break;
+      case TType.MAP: {
+        TMap map = iprot.readMapBegin();
+        if (map.size == 0 && map.keyType == TType.STOP) {
+          // compact leaves out the types of an empty map, which other
+          // protocols insist on. Readers don't look at them for empty maps.
+          map = new TMap(TType.BYTE, TType.BYTE, 0);
+        }
+        oprot.writeMapBegin(map);
+        for (int i = 0; i < map.size; i++) {
+          copy(iprot, oprot, map.keyType, binary);
+          copy(iprot, oprot, map.valueType, binary);
+        }
+        oprot.writeMapEnd();
+        iprot.readMapEnd();
+        break;
+      }
+      case TType.SET: {
+        TSet set = iprot.readSetBegin();
+        oprot.writeSetBegin(set);
+        for (int i = 0; i < set.size; i++) {
+          copy(iprot, oprot, set.elemType, binary);
+        }
+        oprot.writeSetEnd();
+        iprot.readSetEnd();
+        break;
+      }
+      case TType.LIST: {
+        TList list = iprot.readListBegin();
+        oprot.writeListBegin(list);
+        for (int i = 0; i < list.size; i++) {
+          copy(iprot, oprot, list.elemType, binary);
+        }
+        oprot.writeListEnd();
+        iprot.readListEnd();
+        break;
+      }
+      default:
+        throw new TException("Unrecognized type " + type);
+    }
+  }
+}
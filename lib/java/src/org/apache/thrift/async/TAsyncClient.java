@@ -44,6 +44,10 @@ public abstract class TAsyncClient {
     return ___protocolFactory;
   }
 
+  public TNonblockingTransport getTransport() {
+    return ___transport;
+  }
+
   public long getTimeout() {
     return ___timeout;
   }
@@ -26,7 +26,9 @@ import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.PriorityQueue;
 import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
 
@@ -42,6 +44,8 @@ public class TAsyncClientManager {
 
   private final SelectThread selectThread;
   private final ConcurrentLinkedQueue<TAsyncMethodCall> pendingCalls = new ConcurrentLinkedQueue<TAsyncMethodCall>();
+  private final ConcurrentLinkedQueue<TAsyncMethodCall> cancelledCalls = new ConcurrentLinkedQueue<TAsyncMethodCall>();
+  private final ConcurrentLinkedQueue<ScheduledTask> newTasks = new ConcurrentLinkedQueue<ScheduledTask>();
 
   public TAsyncClientManager() throws IOException {
     this.selectThread = new SelectThread();
@@ -57,6 +61,25 @@ public class TAsyncClientManager {
     selectThread.getSelector().wakeup();
   }
 
+  /**
+   * Abort a call that has been handed to this manager. The call's connection
+   * is closed and its callback receives a CancellationException. Calls that
+   * have already completed or failed are left alone.
+   */
+  public void cancel(TAsyncMethodCall method) {
+    cancelledCalls.add(method);
+    selectThread.getSelector().wakeup();
+  }
+
+  /**
+   * Run a task on the selector thread once delayMillis have passed. The task
+   * must not block, since it holds up every call this manager is handling.
+   */
+  void schedule(Runnable task, long delayMillis) {
+    newTasks.add(new ScheduledTask(task, System.currentTimeMillis() + delayMillis));
+    selectThread.getSelector().wakeup();
+  }
+
   public void stop() {
     selectThread.finish();
   }
@@ -69,6 +92,7 @@ public class TAsyncClientManager {
     private final Selector selector;
     private volatile boolean running;
     private final TreeSet<TAsyncMethodCall> timeoutWatchSet = new TreeSet<TAsyncMethodCall>(new TAsyncMethodCallTimeoutComparator());
+    private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<ScheduledTask>();
 
     public SelectThread() throws IOException {
       this.selector = SelectorProvider.provider().openSelector();
@@ -92,18 +116,22 @@ public class TAsyncClientManager {
       while (running) {
         try {
           try {
-            if (timeoutWatchSet.size() == 0) {
-              // No timeouts, so select indefinitely
+            ScheduledTask task;
+            while ((task = newTasks.poll()) != null) {
+              scheduledTasks.add(task);
+            }
+            long nextWakeup = nextWakeup();
+            if (nextWakeup == Long.MAX_VALUE) {
+              // No timeouts or tasks, so select indefinitely
               selector.select();
             } else {
-              // We have a timeout pending, so calculate the time until then and select appropriately
-              long nextTimeout = timeoutWatchSet.first().getTimeoutTimestamp();
-              long selectTime = nextTimeout - System.currentTimeMillis();
+              // We have a timeout or task pending, so calculate the time until then and select appropriately
+              long selectTime = nextWakeup - System.currentTimeMillis();
               if (selectTime > 0) {
-                // Next timeout is in the future, select and wake up then
+                // Next wakeup is in the future, select and wake up then
                 selector.select(selectTime);
               } else {
-                // Next timeout is now or in past, select immediately so we can time out
+                // Next wakeup is now or in past, select immediately so we can act on it
                 selector.selectNow();
               }
             }
@@ -112,7 +140,9 @@ public class TAsyncClientManager {
           }
           transitionMethods();
           timeoutMethods();
+          runScheduledTasks();
           startPendingMethods();
+          cancelMethods();
         } catch (Exception exception) {
           LOGGER.error("Ignoring uncaught exception in SelectThread", exception);
         }
@@ -125,6 +155,18 @@ public class TAsyncClientManager {
       }
     }
 
+    // Earliest of the next call timeout and the next scheduled task
+    private long nextWakeup() {
+      long nextWakeup = Long.MAX_VALUE;
+      if (!timeoutWatchSet.isEmpty()) {
+        nextWakeup = timeoutWatchSet.first().getTimeoutTimestamp();
+      }
+      if (!scheduledTasks.isEmpty()) {
+        nextWakeup = Math.min(nextWakeup, scheduledTasks.peek().runAt);
+      }
+      return nextWakeup;
+    }
+
     // Transition methods for ready keys
     private void transitionMethods() {
       try {
@@ -167,6 +209,18 @@ public class TAsyncClientManager {
       }
     }
 
+    // Run any tasks that have come due
+    private void runScheduledTasks() {
+      long currentTime = System.currentTimeMillis();
+      while (!scheduledTasks.isEmpty() && scheduledTasks.peek().runAt <= currentTime) {
+        try {
+          scheduledTasks.poll().task.run();
+        } catch (RuntimeException exception) {
+          LOGGER.warn("Caught exception in scheduled task!", exception);
+        }
+      }
+    }
+
     // Start any new calls
     private void startPendingMethods() {
       TAsyncMethodCall methodCall;
@@ -186,6 +240,35 @@ public class TAsyncClientManager {
         }
       }
     }
+
+    // Abort cancelled calls. This runs after startPendingMethods so that a call
+    // cancelled straight after being handed over has been started first.
+    private void cancelMethods() {
+      TAsyncMethodCall methodCall;
+      while ((methodCall = cancelledCalls.poll()) != null) {
+        // A call that already finished or failed is no longer its client's current method
+        if (methodCall.getClient().___currentMethod != methodCall) {
+          continue;
+        }
+        timeoutWatchSet.remove(methodCall);
+        methodCall.onError(new CancellationException("Operation " + methodCall.getClass() + " was cancelled."));
+      }
+    }
+  }
+
+  /** Task run on the selector thread, ordered by due time */
+  private static class ScheduledTask implements Comparable<ScheduledTask> {
+    private final Runnable task;
+    private final long runAt;
+
+    private ScheduledTask(Runnable task, long runAt) {
+      this.task = task;
+      this.runAt = runAt;
+    }
+
+    public int compareTo(ScheduledTask other) {
+      return runAt < other.runAt ? -1 : (runAt == other.runAt ? 0 : 1);
+    }
   }
 
   /** Comparator used in TreeSet */
@@ -190,6 +190,11 @@ public abstract class TAsyncMethodCall<T> {
           break;
         case READING_RESPONSE_SIZE:
           doReadingResponseSize();
+          // the body may already be in hand, e.g. decrypted along with the
+          // size, so try for it now rather than wait for a read event
+          if (state == State.READING_RESPONSE_BODY) {
+            doReadingResponseBody(key);
+          }
           break;
         case READING_RESPONSE_BODY:
           doReadingResponseBody(key);
@@ -0,0 +1,401 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.async;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes calls against a set of equivalent servers, hedging against slow ones.
+ * Each call is sent to one server and, if it has not completed once that
+ * server's hedge delay has passed, the same call is sent to the next server.
+ * The first reply is handed to the caller and the other attempt is cancelled.
+ *
+ * The hedge delay for a server is a percentile (by default the 95th) of its
+ * recent latencies, so only the slow tail of calls is duplicated. A budget
+ * caps hedges at a fraction of all calls, so that an overloaded cluster is not
+ * pushed further by doubling its traffic.
+ *
+ * The server may execute both attempts, so only idempotent methods should be
+ * called this way. Clients are created per server with the given factory and
+ * pooled between calls. Cancelling an attempt closes its connection, since a
+ * Thrift connection cannot skip a response that is still on its way.
+ */
+public class THedgingAsyncClient<C extends TAsyncClient> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(THedgingAsyncClient.class.getName());
+
+  /**
+   * A call to make on one client, for example
+   * {@code client.get(key, callback)}.
+   */
+  public interface Invocation<C extends TAsyncClient, T> {
+    void invoke(C client, AsyncMethodCallback<T> callback) throws Exception;
+  }
+
+  private final TAsyncClientManager manager;
+  private final TAsyncClientFactory<C> clientFactory;
+  private final List<Endpoint> endpoints;
+  private final AtomicInteger nextEndpoint = new AtomicInteger();
+
+  private volatile double hedgePercentile = 0.95;
+  private volatile long defaultHedgeDelay = 50;
+  private volatile boolean closed = false;
+
+  // hedges allowed per call, and the hedges currently available to spend
+  private final Object budgetLock = new Object();
+  private double budgetRatio = 0.1;
+  private double budgetTokens = MAX_BUDGET_TOKENS;
+  private static final double MAX_BUDGET_TOKENS = 10;
+
+  public THedgingAsyncClient(TAsyncClientManager manager,
+      TAsyncClientFactory<C> clientFactory, List<InetSocketAddress> servers) {
+    if (servers.isEmpty()) {
+      throw new IllegalArgumentException("At least one server is required");
+    }
+    this.manager = manager;
+    this.clientFactory = clientFactory;
+    this.endpoints = new ArrayList<Endpoint>(servers.size());
+    for (InetSocketAddress server : servers) {
+      endpoints.add(new Endpoint(server));
+    }
+  }
+
+  /**
+   * Latency percentile, between 0 and 1, after which a call is hedged.
+   */
+  public void setHedgePercentile(double hedgePercentile) {
+    if (hedgePercentile <= 0 || hedgePercentile > 1) {
+      throw new IllegalArgumentException("Percentile must be in (0, 1]: " + hedgePercentile);
+    }
+    this.hedgePercentile = hedgePercentile;
+  }
+
+  /**
+   * Hedge delay in milliseconds used for a server until enough of its
+   * latencies have been seen to compute the percentile.
+   */
+  public void setDefaultHedgeDelay(long defaultHedgeDelay) {
+    this.defaultHedgeDelay = defaultHedgeDelay;
+  }
+
+  /**
+   * Limit hedges to the given fraction of calls, e.g. 0.1 for at most one
+   * hedge per ten calls over time. Zero disables hedging, including resending
+   * a call whose first attempt failed outright.
+   */
+  public void setHedgeBudget(double budgetRatio) {
+    synchronized (budgetLock) {
+      this.budgetRatio = budgetRatio;
+      this.budgetTokens = Math.min(budgetTokens, budgetRatio > 0 ? MAX_BUDGET_TOKENS : 0);
+    }
+  }
+
+  /**
+   * The hedge delay currently in effect for the server at the given index.
+   */
+  public long getHedgeDelay(int serverIndex) {
+    return endpoints.get(serverIndex).hedgeDelay();
+  }
+
+  /**
+   * Make a call. The callback sees exactly one outcome: the first reply from
+   * any server, or the last error once every attempt has failed.
+   */
+  public <T> void call(Invocation<C, T> invocation, AsyncMethodCallback<T> callback) {
+    int primary = (nextEndpoint.getAndIncrement() & Integer.MAX_VALUE) % endpoints.size();
+    synchronized (budgetLock) {
+      budgetTokens = Math.min(MAX_BUDGET_TOKENS, budgetTokens + budgetRatio);
+    }
+    new HedgedCall<T>(invocation, callback, primary).start();
+  }
+
+  /**
+   * Close the pooled connections. Calls in flight are allowed to finish, but
+   * their connections are closed rather than pooled afterwards.
+   */
+  public void close() {
+    closed = true;
+    for (Endpoint endpoint : endpoints) {
+      endpoint.closeIdle();
+    }
+  }
+
+  private boolean takeBudget() {
+    synchronized (budgetLock) {
+      if (budgetTokens < 1) {
+        return false;
+      }
+      budgetTokens -= 1;
+      return true;
+    }
+  }
+
+  private static void closeClient(TAsyncClient client) {
+    client.___transport.close();
+  }
+
+  /**
+   * A server, its idle clients and its recent latencies.
+   */
+  private class Endpoint {
+    private final InetSocketAddress address;
+    private final ConcurrentLinkedQueue<C> idle = new ConcurrentLinkedQueue<C>();
+    private final LatencyTracker latency = new LatencyTracker();
+
+    private Endpoint(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    private C acquire() throws IOException {
+      C client = idle.poll();
+      if (client != null) {
+        return client;
+      }
+      return clientFactory.getAsyncClient(new TNonblockingSocket(address, 0));
+    }
+
+    private void release(C client) {
+      if (closed || client.hasError()) {
+        closeClient(client);
+        return;
+      }
+      idle.add(client);
+      if (closed && idle.remove(client)) {
+        closeClient(client);
+      }
+    }
+
+    private void closeIdle() {
+      C client;
+      while ((client = idle.poll()) != null) {
+        closeClient(client);
+      }
+    }
+
+    private long hedgeDelay() {
+      return latency.percentile(hedgePercentile, defaultHedgeDelay);
+    }
+  }
+
+  /**
+   * One call, with up to two attempts. All state is guarded by the instance
+   * lock; callbacks to the caller are made without holding it.
+   */
+  private class HedgedCall<T> implements Runnable {
+    private final Invocation<C, T> invocation;
+    private final AsyncMethodCallback<T> callback;
+    private final int primary;
+
+    private final List<Attempt<T>> attempts = new ArrayList<Attempt<T>>(2);
+    private boolean hedged = false;
+    private boolean done = false;
+    private Exception lastError;
+
+    private HedgedCall(Invocation<C, T> invocation, AsyncMethodCallback<T> callback, int primary) {
+      this.invocation = invocation;
+      this.callback = callback;
+      this.primary = primary;
+    }
+
+    private void start() {
+      Endpoint endpoint = endpoints.get(primary);
+      synchronized (this) {
+        if (launch(endpoint)) {
+          manager.schedule(this, endpoint.hedgeDelay());
+          return;
+        }
+      }
+      // The primary could not even be sent, so try the next server right away
+      hedge();
+    }
+
+    /** Fired by the manager once the hedge delay has passed */
+    public void run() {
+      hedge();
+    }
+
+    private void hedge() {
+      Exception error = null;
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        if (!hedged && endpoints.size() > 1 && takeBudget()) {
+          hedged = true;
+          launch(endpoints.get((primary + 1) % endpoints.size()));
+        }
+        if (attempts.isEmpty()) {
+          done = true;
+          error = lastError;
+        }
+      }
+      if (error != null) {
+        callback.onError(error);
+      }
+    }
+
+    // Must be called holding the lock. Returns whether the attempt was sent.
+    private boolean launch(Endpoint endpoint) {
+      C client = null;
+      try {
+        client = endpoint.acquire();
+        Attempt<T> attempt = new Attempt<T>(this, endpoint, client);
+        attempts.add(attempt);
+        try {
+          invocation.invoke(client, attempt);
+        } catch (Exception e) {
+          attempts.remove(attempt);
+          throw e;
+        }
+        // The callback cannot have run yet, since it needs our lock
+        attempt.method = client.___currentMethod;
+        return true;
+      } catch (Exception e) {
+        LOGGER.debug("Unable to send call to " + endpoint.address, e);
+        if (client != null) {
+          closeClient(client);
+        }
+        lastError = e;
+        return false;
+      }
+    }
+
+    private void onComplete(Attempt<T> attempt, T response) {
+      List<Attempt<T>> losers;
+      synchronized (this) {
+        attempts.remove(attempt);
+        losers = done ? null : new ArrayList<Attempt<T>>(attempts);
+        done = true;
+      }
+      // Only pool the client once launch() can no longer be looking at it
+      attempt.endpoint.release(attempt.client);
+      if (losers == null) {
+        return;
+      }
+      for (Attempt<T> loser : losers) {
+        loser.cancel();
+      }
+      callback.onComplete(response);
+    }
+
+    private void onError(Attempt<T> attempt, Exception exception) {
+      synchronized (this) {
+        attempts.remove(attempt);
+        if (done) {
+          return;
+        }
+        lastError = exception;
+        if (!attempts.isEmpty()) {
+          return;
+        }
+      }
+      // Nothing left in flight: hedge now if we have not yet, otherwise give up
+      hedge();
+    }
+  }
+
+  /**
+   * One attempt at a call, on a client it holds until the attempt completes.
+   */
+  private class Attempt<T> implements AsyncMethodCallback<T> {
+    private final HedgedCall<T> call;
+    private final Endpoint endpoint;
+    private final C client;
+    private final long startTime = System.currentTimeMillis();
+    private TAsyncMethodCall method;
+
+    private Attempt(HedgedCall<T> call, Endpoint endpoint, C client) {
+      this.call = call;
+      this.endpoint = endpoint;
+      this.client = client;
+    }
+
+    private void cancel() {
+      // The loser took at least this long, which is still worth counting
+      // towards the percentile: leaving it out would bias the delay low.
+      endpoint.latency.record(System.currentTimeMillis() - startTime);
+      if (method != null) {
+        manager.cancel(method);
+      }
+    }
+
+    public void onComplete(T response) {
+      endpoint.latency.record(System.currentTimeMillis() - startTime);
+      call.onComplete(this, response);
+    }
+
+    public void onError(Exception exception) {
+      closeClient(client);
+      call.onError(this, exception);
+    }
+  }
+
+  /**
+   * Sliding window of recent latencies with a cached percentile, recomputed
+   * only every few samples so that reading it is cheap.
+   */
+  private static class LatencyTracker {
+    private static final int WINDOW = 256;
+    private static final int MIN_SAMPLES = 16;
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    private final long[] samples = new long[WINDOW];
+    private final long[] sorted = new long[WINDOW];
+    private int count = 0;
+    private int next = 0;
+
+    private int samplesSinceCompute = 0;
+    private double cachedPercentile = -1;
+    private long cachedValue;
+
+    private synchronized void record(long millis) {
+      samples[next] = millis;
+      next = (next + 1) % WINDOW;
+      if (count < WINDOW) {
+        count++;
+      }
+      samplesSinceCompute++;
+    }
+
+    private synchronized long percentile(double percentile, long defaultValue) {
+      if (count < MIN_SAMPLES) {
+        return defaultValue;
+      }
+      if (percentile != cachedPercentile || samplesSinceCompute >= RECOMPUTE_INTERVAL) {
+        System.arraycopy(samples, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        int rank = (int) Math.ceil(percentile * count) - 1;
+        cachedValue = sorted[Math.max(rank, 0)];
+        cachedPercentile = percentile;
+        samplesSinceCompute = 0;
+      }
+      return cachedValue;
+    }
+  }
+}
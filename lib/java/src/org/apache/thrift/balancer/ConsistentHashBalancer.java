@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.thrift.balancer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends calls with the same request key to the same endpoint, so that servers
+ * with per-key caches or state see a stable share of the keys. Endpoints sit
+ * at many points on a hash ring and a key goes to the first endpoint at or
+ * after its hash, so adding, removing or ejecting one endpoint moves only the
+ * keys that endpoint owned. Calls without a key are spread by power of two
+ * choices.
+ */
+public class ConsistentHashBalancer implements LoadBalancer {
+  private static final int DEFAULT_POINTS_PER_ENDPOINT = 100;
+
+  private final int pointsPerEndpoint;
+  private final LoadBalancer keylessBalancer = new PowerOfTwoChoicesBalancer();
+
+  private volatile Ring ring;
+
+  public ConsistentHashBalancer() {
+    this(DEFAULT_POINTS_PER_ENDPOINT);
+  }
+
+  /**
+   * @param pointsPerEndpoint ring positions per endpoint. More points spread
+   *        keys more evenly at the cost of a larger ring.
+   */
+  public ConsistentHashBalancer(int pointsPerEndpoint) {
+    this.pointsPerEndpoint = pointsPerEndpoint;
+  }
+
+  public Endpoint select(List<Endpoint> endpoints, Object key) {
+    if (key == null) {
+      return keylessBalancer.select(endpoints, key);
+    }
+    Ring current = ring;
+    if (current == null || current.endpoints != endpoints) {
+      current = new Ring(endpoints, pointsPerEndpoint);
+      ring = current;
+    }
+    return current.lookup(mix(hash(key)));
+  }
+
+  private static long hash(Object key) {
+    if (key instanceof byte[]) {
+      return Arrays.hashCode((byte[]) key);
+    }
+    if (key instanceof ByteBuffer) {
+      return ((ByteBuffer) key).hashCode();
+    }
+    return key.hashCode();
+  }
+
+  // 64 bit finalizer from MurmurHash3, to spread hashCode() values over the ring
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static class Ring {
+    private final List<Endpoint> endpoints;
+    private final long[] points;
+    private final Endpoint[] owners;
+
+    private Ring(List<Endpoint> endpoints, int pointsPerEndpoint) {
+      this.endpoints = endpoints;
+      // sort points together with their owners: duplicate addresses or hash
+      // collisions give equal points, which must each keep an owner
+      List<Point> ring = new ArrayList<Point>(endpoints.size() * pointsPerEndpoint);
+      for (Endpoint endpoint : endpoints) {
+        // position by address rather than list index, so that the ring does
+        // not change when other endpoints come and go
+        long base = endpoint.getAddress().toString().hashCode();
+        for (int i = 0; i < pointsPerEndpoint; i++) {
+          ring.add(new Point(mix((base << 32) ^ i), endpoint));
+        }
+      }
+      Collections.sort(ring);
+      points = new long[ring.size()];
+      owners = new Endpoint[ring.size()];
+      for (int i = 0; i < points.length; i++) {
+        points[i] = ring.get(i).hash;
+        owners[i] = ring.get(i).owner;
+      }
+    }
+
+    private Endpoint lookup(long hash) {
+      int index = Arrays.binarySearch(points, hash);
+      if (index < 0) {
+        index = -index - 1;
+      }
+      // walk clockwise past ejected endpoints
+      for (int i = 0; i < points.length; i++) {
+        Endpoint owner = owners[(index + i) % points.length];
+        if (!owner.isEjected()) {
+          return owner;
+        }
+      }
+      return owners[index % points.length];
+    }
+  }
+
+  private static class Point implements Comparable<Point> {
+    private final long hash;
+    private final Endpoint owner;
+
+    private Point(long hash, Endpoint owner) {
+      this.hash = hash;
+      this.owner = owner;
+    }
+
+    public int compareTo(Point other) {
+      return hash < other.hash ? -1 : (hash == other.hash ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.balancer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One server in an {@link EndpointGroup}, with the load and health figures
+ * that balancers choose by. The figures are updated by the group as calls
+ * start and finish.
+ */
+public class Endpoint {
+  // weight of the newest sample in the latency average
+  private static final double EWMA_ALPHA = 0.3;
+
+  private final InetSocketAddress address;
+
+  final AtomicInteger inFlight = new AtomicInteger();
+  final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+  // guarded by this
+  private double latencyEwma = 0;
+
+  // guarded by the owning group. Zero when the endpoint is in service.
+  volatile long ejectedUntil = 0;
+  int ejections = 0;
+
+  public Endpoint(InetSocketAddress address) {
+    this.address = address;
+  }
+
+  public InetSocketAddress getAddress() {
+    return address;
+  }
+
+  /**
+   * Number of calls currently outstanding against this endpoint.
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Exponentially weighted moving average of successful call latency, in
+   * microseconds. Zero until the first call completes.
+   */
+  public synchronized double getLatencyEwma() {
+    return latencyEwma;
+  }
+
+  /**
+   * Whether the endpoint has been taken out of service by outlier detection.
+   * Balancers should not pick ejected endpoints.
+   */
+  public boolean isEjected() {
+    return ejectedUntil != 0;
+  }
+
+  synchronized void recordLatency(long micros) {
+    if (latencyEwma == 0) {
+      latencyEwma = micros;
+    } else {
+      latencyEwma += EWMA_ALPHA * (micros - latencyEwma);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Endpoint(" + address + ")";
+  }
+}
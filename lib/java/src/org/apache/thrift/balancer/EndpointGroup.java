@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.thrift.balancer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed set of equivalent servers, the balancer that spreads calls over
+ * them, and passive health checking of the servers from the outcome of real
+ * calls.
+ *
+ * An endpoint that fails a number of calls in a row is an outlier and is
+ * ejected: balancers skip it until its ejection time has passed. Each time
+ * the same endpoint is ejected again before it has served a call
+ * successfully, the ejection lasts longer. No more than a set fraction of the
+ * endpoints are ever ejected at once, so a problem shared by every server,
+ * or by the client itself, cannot take the whole group out of service.
+ *
+ * Callers bracket each call with {@link #select} and exactly one of
+ * {@link #onSuccess}, {@link #onFailure} or {@link #onAbandoned}, which
+ * keeps the in-flight counts right. {@link TBalancedClient} and
+ * {@link TBalancedAsyncClient} do this for generated clients.
+ */
+public class EndpointGroup {
+  private static final Logger LOGGER = LoggerFactory.getLogger(EndpointGroup.class.getName());
+
+  // ejections beyond this many in a row stop lengthening the ejection time
+  private static final int MAX_EJECTION_MULTIPLIER = 10;
+
+  private final List<Endpoint> endpoints;
+  private final LoadBalancer balancer;
+
+  private volatile int failuresToEject = 5;
+  private volatile long baseEjectionMillis = 30000;
+  private volatile double maxEjectedFraction = 0.5;
+
+  // guarded by this
+  private int ejectedCount = 0;
+  private volatile long nextReadmission = Long.MAX_VALUE;
+
+  public EndpointGroup(List<InetSocketAddress> addresses, LoadBalancer balancer) {
+    if (addresses.isEmpty()) {
+      throw new IllegalArgumentException("At least one endpoint is required");
+    }
+    List<Endpoint> list = new ArrayList<Endpoint>(addresses.size());
+    for (InetSocketAddress address : addresses) {
+      list.add(new Endpoint(address));
+    }
+    this.endpoints = Collections.unmodifiableList(list);
+    this.balancer = balancer;
+  }
+
+  public List<Endpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  /**
+   * Consecutive failed calls after which an endpoint is ejected. Defaults to 5.
+   */
+  public void setFailuresToEject(int failuresToEject) {
+    this.failuresToEject = failuresToEject;
+  }
+
+  /**
+   * How long an endpoint stays ejected the first time, in milliseconds.
+   * Defaults to 30 seconds.
+   */
+  public void setBaseEjectionMillis(long baseEjectionMillis) {
+    this.baseEjectionMillis = baseEjectionMillis;
+  }
+
+  /**
+   * Largest fraction of the endpoints that may be ejected at once. Defaults
+   * to half.
+   */
+  public void setMaxEjectedFraction(double maxEjectedFraction) {
+    this.maxEjectedFraction = maxEjectedFraction;
+  }
+
+  /**
+   * Pick the endpoint for a call and count the call as in flight on it.
+   * @param key the call's request key, for balancers that use one, or null
+   */
+  public Endpoint select(Object key) {
+    if (System.currentTimeMillis() >= nextReadmission) {
+      readmit();
+    }
+    Endpoint endpoint = balancer.select(endpoints, key);
+    endpoint.inFlight.incrementAndGet();
+    return endpoint;
+  }
+
+  /**
+   * Record that a call to the endpoint got a response. Exceptions declared by
+   * the service count as success: the server is healthy, it said no.
+   */
+  public void onSuccess(Endpoint endpoint, long latencyMicros) {
+    endpoint.inFlight.decrementAndGet();
+    endpoint.consecutiveFailures.set(0);
+    endpoint.recordLatency(latencyMicros);
+    if (endpoint.ejections != 0) {
+      synchronized (this) {
+        endpoint.ejections = 0;
+      }
+    }
+  }
+
+  /**
+   * Record that a call to the endpoint failed to connect or to get a response.
+   */
+  public void onFailure(Endpoint endpoint) {
+    endpoint.inFlight.decrementAndGet();
+    if (endpoint.consecutiveFailures.incrementAndGet() >= failuresToEject) {
+      eject(endpoint);
+    }
+  }
+
+  /**
+   * Record that a call picked for the endpoint was never sent, so says
+   * nothing about the endpoint's health.
+   */
+  public void onAbandoned(Endpoint endpoint) {
+    endpoint.inFlight.decrementAndGet();
+  }
+
+  private synchronized void eject(Endpoint endpoint) {
+    if (endpoint.isEjected() || ejectedCount + 1 > maxEjectedFraction * endpoints.size()) {
+      return;
+    }
+    endpoint.ejections++;
+    long duration = baseEjectionMillis * Math.min(endpoint.ejections, MAX_EJECTION_MULTIPLIER);
+    endpoint.ejectedUntil = System.currentTimeMillis() + duration;
+    ejectedCount++;
+    nextReadmission = Math.min(nextReadmission, endpoint.ejectedUntil);
+    LOGGER.warn("Ejecting " + endpoint.getAddress() + " for " + duration + " ms after "
+        + endpoint.consecutiveFailures.get() + " consecutive failures");
+  }
+
+  private synchronized void readmit() {
+    long now = System.currentTimeMillis();
+    long next = Long.MAX_VALUE;
+    for (Endpoint endpoint : endpoints) {
+      long until = endpoint.ejectedUntil;
+      if (until == 0) {
+        continue;
+      }
+      if (until <= now) {
+        endpoint.consecutiveFailures.set(0);
+        endpoint.ejectedUntil = 0;
+        ejectedCount--;
+        LOGGER.info("Readmitting " + endpoint.getAddress());
+      } else {
+        next = Math.min(next, until);
+      }
+    }
+    nextReadmission = next;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.thrift.balancer;
+
+import java.util.List;
+
+/**
+ * Power of two choices weighing each endpoint by its average latency as well
+ * as its calls in flight, so that a slow server gets proportionally less
+ * traffic even when it is not yet backed up. An endpoint with no latency
+ * figure yet is costed at the mean latency of the endpoints that have one,
+ * so that a new server is tried about as often as an average one until it
+ * has been measured, rather than taking every call that could go to it.
+ */
+public class EwmaLatencyBalancer extends PowerOfTwoChoicesBalancer {
+  @Override
+  protected Endpoint choose(List<Endpoint> endpoints, Endpoint first, Endpoint second) {
+    double firstLatency = first.getLatencyEwma();
+    double secondLatency = second.getLatencyEwma();
+    if (firstLatency == 0 || secondLatency == 0) {
+      double probe = meanLatency(endpoints);
+      if (firstLatency == 0) {
+        firstLatency = probe;
+      }
+      if (secondLatency == 0) {
+        secondLatency = probe;
+      }
+    }
+    return cost(secondLatency, second) < cost(firstLatency, first) ? second : first;
+  }
+
+  @Override
+  protected double cost(Endpoint endpoint) {
+    return cost(endpoint.getLatencyEwma(), endpoint);
+  }
+
+  private static double cost(double latency, Endpoint endpoint) {
+    return latency * (endpoint.getInFlight() + 1);
+  }
+
+  // Mean latency of the measured endpoints in service; 1 if there are none,
+  // so that calls in flight still decide between unmeasured endpoints
+  private static double meanLatency(List<Endpoint> endpoints) {
+    double total = 0;
+    int measured = 0;
+    for (int i = 0; i < endpoints.size(); i++) {
+      Endpoint endpoint = endpoints.get(i);
+      double latency = endpoint.getLatencyEwma();
+      if (latency != 0 && !endpoint.isEjected()) {
+        total += latency;
+        measured++;
+      }
+    }
+    return measured == 0 ? 1 : total / measured;
+  }
+}
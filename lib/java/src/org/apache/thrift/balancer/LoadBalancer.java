@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.thrift.balancer;
+
+import java.util.List;
+
+/**
+ * Strategy for picking the endpoint that serves a call.
+ */
+public interface LoadBalancer {
+  /**
+   * Pick an endpoint for a call.
+   * @param endpoints every endpoint of the group, in a fixed order. At least
+   *        one of them is not ejected.
+   * @param key the call's request key, or null if it has none
+   * @return an endpoint that is not ejected
+   */
+  public Endpoint select(List<Endpoint> endpoints, Object key);
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.thrift.balancer;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks two endpoints at random and takes the one with fewer calls in flight.
+ * This keeps load nearly as even as always taking the least loaded endpoint,
+ * without the herding that causes when many clients see the same counts.
+ */
+public class PowerOfTwoChoicesBalancer implements LoadBalancer {
+  // give up on sampling pairs after this many draws and scan instead
+  private static final int MAX_DRAWS = 8;
+
+  private final Random random = new Random();
+
+  public Endpoint select(List<Endpoint> endpoints, Object key) {
+    int size = endpoints.size();
+    if (size == 1) {
+      return endpoints.get(0);
+    }
+    for (int i = 0; i < MAX_DRAWS; i++) {
+      // two distinct endpoints
+      int a = random.nextInt(size);
+      int b = (a + 1 + random.nextInt(size - 1)) % size;
+      Endpoint first = endpoints.get(a);
+      Endpoint second = endpoints.get(b);
+      if (first.isEjected()) {
+        if (!second.isEjected()) {
+          return second;
+        }
+      } else if (second.isEjected()) {
+        return first;
+      } else {
+        return choose(endpoints, first, second);
+      }
+    }
+    return scan(endpoints);
+  }
+
+  /**
+   * Pick between two endpoints in service: the one with the lower
+   * {@link #cost}, or the first if they cost the same.
+   */
+  protected Endpoint choose(List<Endpoint> endpoints, Endpoint first, Endpoint second) {
+    return cost(second) < cost(first) ? second : first;
+  }
+
+  /**
+   * The load figure to compare; lower is better.
+   */
+  protected double cost(Endpoint endpoint) {
+    return endpoint.getInFlight();
+  }
+
+  // Most endpoints are ejected; take the first one in service from a random start
+  private Endpoint scan(List<Endpoint> endpoints) {
+    int size = endpoints.size();
+    int start = random.nextInt(size);
+    for (int i = 0; i < size; i++) {
+      Endpoint endpoint = endpoints.get((start + i) % size);
+      if (!endpoint.isEjected()) {
+        return endpoint;
+      }
+    }
+    // every endpoint was ejected while we looked; any will do
+    return endpoints.get(start);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.thrift.balancer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClient;
+import org.apache.thrift.async.TAsyncClientFactory;
+import org.apache.thrift.async.THedgingAsyncClient.Invocation;
+import org.apache.thrift.transport.TNonblockingSocket;
+
+/**
+ * Makes asynchronous calls through generated async clients spread over an
+ * {@link EndpointGroup}. A generated async client runs one call at a time,
+ * so each call borrows an idle client for the chosen endpoint, creating one
+ * if there is none, and returns it once the call completes.
+ *
+ * A call whose callback sees an error (a transport failure or timeout)
+ * counts against its endpoint's health. Exceptions declared by the service
+ * only surface from getResult() and do not.
+ */
+public class TBalancedAsyncClient<C extends TAsyncClient> {
+  private final EndpointGroup group;
+  private final TAsyncClientFactory<C> clientFactory;
+  private final Map<Endpoint, ConcurrentLinkedQueue<C>> idle = new HashMap<Endpoint, ConcurrentLinkedQueue<C>>();
+
+  private volatile boolean closed = false;
+
+  public TBalancedAsyncClient(EndpointGroup group, TAsyncClientFactory<C> clientFactory) {
+    this.group = group;
+    this.clientFactory = clientFactory;
+    for (Endpoint endpoint : group.getEndpoints()) {
+      idle.put(endpoint, new ConcurrentLinkedQueue<C>());
+    }
+  }
+
+  public <T> void call(Invocation<C, T> invocation, AsyncMethodCallback<T> callback) {
+    call(null, invocation, callback);
+  }
+
+  /**
+   * Make a call on the endpoint the group's balancer picks for the key. The
+   * outcome is always reported through the callback.
+   */
+  public <T> void call(Object key, Invocation<C, T> invocation, AsyncMethodCallback<T> callback) {
+    Endpoint endpoint = group.select(key);
+    C client;
+    try {
+      client = acquire(endpoint);
+    } catch (IOException e) {
+      group.onFailure(endpoint);
+      callback.onError(e);
+      return;
+    }
+    try {
+      invocation.invoke(client, new BalancedCallback<T>(endpoint, client, callback));
+    } catch (Exception e) {
+      // nothing reached the server, so the endpoint is not to blame
+      group.onAbandoned(endpoint);
+      closeClient(client);
+      callback.onError(e);
+    }
+  }
+
+  /**
+   * Close the pooled connections. Calls in flight are allowed to finish, but
+   * their connections are closed rather than pooled afterwards.
+   */
+  public void close() {
+    closed = true;
+    for (ConcurrentLinkedQueue<C> queue : idle.values()) {
+      C client;
+      while ((client = queue.poll()) != null) {
+        closeClient(client);
+      }
+    }
+  }
+
+  private C acquire(Endpoint endpoint) throws IOException {
+    C client = idle.get(endpoint).poll();
+    if (client != null) {
+      return client;
+    }
+    return clientFactory.getAsyncClient(new TNonblockingSocket(endpoint.getAddress(), 0));
+  }
+
+  private void release(Endpoint endpoint, C client) {
+    if (client.hasError()) {
+      closeClient(client);
+      return;
+    }
+    ConcurrentLinkedQueue<C> queue = idle.get(endpoint);
+    queue.add(client);
+    if (closed && queue.remove(client)) {
+      closeClient(client);
+    }
+  }
+
+  private void closeClient(C client) {
+    client.getTransport().close();
+  }
+
+  private class BalancedCallback<T> implements AsyncMethodCallback<T> {
+    private final Endpoint endpoint;
+    private final C client;
+    private final AsyncMethodCallback<T> callback;
+    private final long start = System.nanoTime();
+
+    private BalancedCallback(Endpoint endpoint, C client, AsyncMethodCallback<T> callback) {
+      this.endpoint = endpoint;
+      this.client = client;
+      this.callback = callback;
+    }
+
+    public void onComplete(T response) {
+      group.onSuccess(endpoint, (System.nanoTime() - start) / 1000);
+      release(endpoint, client);
+      callback.onComplete(response);
+    }
+
+    public void onError(Exception exception) {
+      group.onFailure(endpoint);
+      closeClient(client);
+      callback.onError(exception);
+    }
+  }
+}
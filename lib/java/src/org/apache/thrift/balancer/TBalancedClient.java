@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.thrift.balancer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TServiceClient;
+import org.apache.thrift.TServiceClientFactory;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.TTransportFactory;
+
+/**
+ * Makes synchronous calls through generated clients spread over an
+ * {@link EndpointGroup}. Each call borrows a connected client for the chosen
+ * endpoint from a pool, so one TBalancedClient may be shared by many threads.
+ *
+ * <pre>
+ * int result = balanced.call(new TBalancedClient.Call&lt;Calculator.Client, Integer&gt;() {
+ *   public Integer call(Calculator.Client client) throws TException {
+ *     return client.add(1, 2);
+ *   }
+ * });
+ * </pre>
+ *
+ * A call that fails with a transport or protocol error counts against its
+ * endpoint's health and its connection is dropped; exceptions the server
+ * sends back, whether declared by the service or a TApplicationException,
+ * do not. A call that cannot even connect is tried once more, on another
+ * endpoint if the balancer offers one, since nothing was sent.
+ */
+public class TBalancedClient<T extends TServiceClient> {
+
+  /**
+   * A call to make on one client.
+   */
+  public interface Call<T extends TServiceClient, R> {
+    R call(T client) throws TException;
+  }
+
+  private final EndpointGroup group;
+  private final TServiceClientFactory<T> clientFactory;
+  private final TProtocolFactory protocolFactory;
+  private final Map<Endpoint, ConcurrentLinkedQueue<T>> idle = new HashMap<Endpoint, ConcurrentLinkedQueue<T>>();
+
+  private volatile TTransportFactory transportFactory = new TTransportFactory();
+  private volatile int timeout = 0;
+  private volatile boolean closed = false;
+
+  public TBalancedClient(EndpointGroup group, TServiceClientFactory<T> clientFactory,
+      TProtocolFactory protocolFactory) {
+    this.group = group;
+    this.clientFactory = clientFactory;
+    this.protocolFactory = protocolFactory;
+    for (Endpoint endpoint : group.getEndpoints()) {
+      idle.put(endpoint, new ConcurrentLinkedQueue<T>());
+    }
+  }
+
+  /**
+   * Wraps each new socket, e.g. a TFramedTransport.Factory for servers that
+   * expect framing.
+   */
+  public void setTransportFactory(TTransportFactory transportFactory) {
+    this.transportFactory = transportFactory;
+  }
+
+  /**
+   * Socket timeout in milliseconds for new connections. Zero means none.
+   */
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  public <R> R call(Call<T, R> call) throws TException {
+    return call(null, call);
+  }
+
+  /**
+   * Make a call on the endpoint the group's balancer picks for the key.
+   */
+  public <R> R call(Object key, Call<T, R> call) throws TException {
+    Endpoint endpoint = group.select(key);
+    T client;
+    try {
+      client = acquire(endpoint);
+    } catch (TTransportException e) {
+      group.onFailure(endpoint);
+      endpoint = selectOther(key, endpoint);
+      try {
+        client = acquire(endpoint);
+      } catch (TTransportException retryException) {
+        group.onFailure(endpoint);
+        throw retryException;
+      }
+    }
+
+    long start = System.nanoTime();
+    boolean healthy = false;
+    try {
+      R result = call.call(client);
+      healthy = true;
+      return result;
+    } catch (TTransportException e) {
+      throw e;
+    } catch (TProtocolException e) {
+      // the connection is out of step with the server and can't be reused
+      throw e;
+    } catch (TException e) {
+      // the server answered, with an exception of its own
+      healthy = true;
+      throw e;
+    } finally {
+      if (healthy) {
+        group.onSuccess(endpoint, (System.nanoTime() - start) / 1000);
+        release(endpoint, client);
+      } else {
+        group.onFailure(endpoint);
+        closeClient(client);
+      }
+    }
+  }
+
+  /**
+   * Close the pooled connections. Calls in flight are allowed to finish, but
+   * their connections are closed rather than pooled afterwards.
+   */
+  public void close() {
+    closed = true;
+    for (ConcurrentLinkedQueue<T> queue : idle.values()) {
+      T client;
+      while ((client = queue.poll()) != null) {
+        closeClient(client);
+      }
+    }
+  }
+
+  // Pick an endpoint other than the one that just failed, if the balancer offers one
+  private Endpoint selectOther(Object key, Endpoint failed) {
+    Endpoint endpoint = group.select(key);
+    for (int i = 0; endpoint == failed && i < group.getEndpoints().size(); i++) {
+      group.onAbandoned(endpoint);
+      endpoint = group.select(key);
+    }
+    return endpoint;
+  }
+
+  private T acquire(Endpoint endpoint) throws TTransportException {
+    T client = idle.get(endpoint).poll();
+    if (client != null) {
+      return client;
+    }
+    TTransport transport = new TSocket(endpoint.getAddress(), timeout);
+    transport = transportFactory.getTransport(transport);
+    transport.open();
+    return clientFactory.getClient(protocolFactory.getProtocol(transport));
+  }
+
+  private void release(Endpoint endpoint, T client) {
+    ConcurrentLinkedQueue<T> queue = idle.get(endpoint);
+    queue.add(client);
+    if (closed && queue.remove(client)) {
+      closeClient(client);
+    }
+  }
+
+  private static void closeClient(TServiceClient client) {
+    client.getInputProtocol().getTransport().close();
+    client.getOutputProtocol().getTransport().close();
+  }
+}
@@ -20,12 +20,31 @@
 package org.apache.thrift.meta_data;
 
 import org.apache.thrift.TEnum;
+import org.apache.thrift.TEnumHelper;
 
 public class EnumMetaData extends FieldValueMetaData {
   public final Class<? extends TEnum> enumClass;
+  // resolved on first use; racing threads all end up with the same table
+  private TEnumHelper.Lookup<? extends TEnum> lookup;
   
   public EnumMetaData(byte type, Class<? extends TEnum> sClass){
     super(type);
     this.enumClass = sClass;
   }    
+
+  /**
+   * Returns the constant of enumClass with the given value, or null if there
+   * is none, without going through reflection.
+   */
+  public TEnum findByValue(int value) {
+    TEnumHelper.Lookup<? extends TEnum> table = lookup;
+    if (table == null) {
+      table = TEnumHelper.getLookup(enumClass);
+      if (table == null) {
+        return TEnumHelper.getByValue(enumClass, value);
+      }
+      lookup = table;
+    }
+    return table.findByValue(value);
+  }
 }
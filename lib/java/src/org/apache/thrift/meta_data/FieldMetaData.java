@@ -19,8 +19,9 @@
 
 package org.apache.thrift.meta_data;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.thrift.TBase;
 import org.apache.thrift.TFieldIdEnum;
 
@@ -33,11 +34,11 @@ public class FieldMetaData implements java.io.Serializable {
   public final String fieldName;
   public final byte requirementType;
   public final FieldValueMetaData valueMetaData;
-  private static Map<Class<? extends TBase>, Map<? extends TFieldIdEnum, FieldMetaData>> structMap;
-  
-  static {
-    structMap = new HashMap<Class<? extends TBase>, Map<? extends TFieldIdEnum, FieldMetaData>>();
-  }
+  // written from generated static initializers, which may run on any thread
+  private static final ConcurrentMap<Class<? extends TBase>, Map<? extends TFieldIdEnum, FieldMetaData>> structMap =
+      new ConcurrentHashMap<Class<? extends TBase>, Map<? extends TFieldIdEnum, FieldMetaData>>();
+  private static final ConcurrentMap<Class<? extends TBase>, StructFieldIndex> indexMap =
+      new ConcurrentHashMap<Class<? extends TBase>, StructFieldIndex>();
   
   public FieldMetaData(String name, byte req, FieldValueMetaData vMetaData){
     this.fieldName = name;
@@ -47,6 +48,7 @@ public class FieldMetaData implements java.io.Serializable {
   
   public static void addStructMetaDataMap(Class<? extends TBase> sClass, Map<? extends TFieldIdEnum, FieldMetaData> map){
     structMap.put(sClass, map);
+    indexMap.remove(sClass);
   }
 
   /**
@@ -56,7 +58,8 @@ public class FieldMetaData implements java.io.Serializable {
    * @param sClass The TBase class for which the metadata map is requested
    */
   public static Map<? extends TFieldIdEnum, FieldMetaData> getStructMetaDataMap(Class<? extends TBase> sClass){
-    if (!structMap.containsKey(sClass)){ // Load class if it hasn't been loaded
+    Map<? extends TFieldIdEnum, FieldMetaData> map = structMap.get(sClass);
+    if (map == null){ // Load class if it hasn't been loaded
       try{
         sClass.newInstance();
       } catch (InstantiationException e){
@@ -64,7 +67,30 @@ public class FieldMetaData implements java.io.Serializable {
       } catch (IllegalAccessException e){
         throw new RuntimeException("IllegalAccessException for TBase class: " + sClass.getName() + ", message: " + e.getMessage());
       }
+      map = structMap.get(sClass);
+    }
+    return map;
+  }
+
+  /**
+   * Returns the fields of the given class indexed by thrift field id, built
+   * from its metadata map on first use, or null if the class has no metadata.
+   *
+   * @param sClass The TBase class for which the field index is requested
+   */
+  public static StructFieldIndex getStructFieldIndex(Class<? extends TBase> sClass){
+    StructFieldIndex index = indexMap.get(sClass);
+    if (index == null){
+      Map<? extends TFieldIdEnum, FieldMetaData> map = getStructMetaDataMap(sClass);
+      if (map == null){
+        return null;
+      }
+      index = new StructFieldIndex(map);
+      StructFieldIndex raced = indexMap.putIfAbsent(sClass, index);
+      if (raced != null){
+        index = raced;
+      }
     }
-    return structMap.get(sClass);
+    return index;
   }
 }
@@ -44,10 +44,14 @@ public class FieldValueMetaData implements java.io.Serializable {
   }
 
   public FieldValueMetaData(byte type, String typedefName) {
+    this(type, false, typedefName);
+  }
+
+  public FieldValueMetaData(byte type, boolean binary, String typedefName) {
     this.type = type;
     this.isTypedefType = true;
     this.typedefName = typedefName;
-    this.isBinary = false;
+    this.isBinary = binary;
   }
 
   public boolean isTypedef() {
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.meta_data;
+
+import java.util.Map;
+
+import org.apache.thrift.TFieldIdEnum;
+import org.apache.thrift.TIntTable;
+
+/**
+ * The fields of one struct class in declaration order, together with a
+ * {@link TIntTable} from thrift field id to position, so generic code can go
+ * from a field id read off the wire to its metadata without hashing.
+ */
+public final class StructFieldIndex {
+  private final TFieldIdEnum[] fields_;
+  private final FieldMetaData[] metaData_;
+  private final TIntTable ids_;
+
+  public StructFieldIndex(Map<? extends TFieldIdEnum, FieldMetaData> metaDataMap) {
+    int count = metaDataMap.size();
+    fields_ = new TFieldIdEnum[count];
+    metaData_ = new FieldMetaData[count];
+    int[] ids = new int[count];
+    int i = 0;
+    for (Map.Entry<? extends TFieldIdEnum, FieldMetaData> entry : metaDataMap.entrySet()) {
+      fields_[i] = entry.getKey();
+      metaData_[i] = entry.getValue();
+      ids[i] = fields_[i].getThriftFieldId();
+      i++;
+    }
+    ids_ = new TIntTable(ids);
+  }
+
+  /**
+   * Returns the number of fields in the struct.
+   */
+  public int size() {
+    return fields_.length;
+  }
+
+  /**
+   * Returns the field at the given position in declaration order.
+   */
+  public TFieldIdEnum field(int position) {
+    return fields_[position];
+  }
+
+  /**
+   * Returns the metadata of the field at the given position in declaration
+   * order.
+   */
+  public FieldMetaData metaData(int position) {
+    return metaData_[position];
+  }
+
+  /**
+   * Returns the position in declaration order of the field with the given
+   * thrift id, or -1 if the struct has no such field.
+   */
+  public int positionOf(int fieldId) {
+    return ids_.positionOf(fieldId);
+  }
+
+  /**
+   * Returns the field with the given thrift id, or null if there is none.
+   */
+  public TFieldIdEnum fieldForId(int fieldId) {
+    int position = positionOf(fieldId);
+    return position < 0 ? null : fields_[position];
+  }
+
+  /**
+   * Returns the metadata of the field with the given thrift id, or null if
+   * there is none.
+   */
+  public FieldMetaData metaDataForId(int fieldId) {
+    int position = positionOf(fieldId);
+    return position < 0 ? null : metaData_[position];
+  }
+}
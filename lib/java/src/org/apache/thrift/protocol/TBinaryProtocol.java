@@ -52,6 +52,10 @@ public class TBinaryProtocol extends TProtocol {
   protected boolean strictRead_;
   protected boolean strictWrite_;
 
+  // false when a subclass overrides readMessageBegin(), which the name
+  // matching readMessageBegin(TNameTable) then defers to
+  private final boolean matchNamesInPlace_;
+
   /**
    * Factory
    */
@@ -98,6 +102,7 @@ public class TBinaryProtocol extends TProtocol {
     containerLengthLimit_ = containerLengthLimit;
     strictRead_ = strictRead;
     strictWrite_ = strictWrite;
+    matchNamesInPlace_ = !overridesReadMessageBegin(TBinaryProtocol.class);
   }
 
   public void writeMessageBegin(TMessage message) throws TException {
@@ -216,14 +221,29 @@ public class TBinaryProtocol extends TProtocol {
    */
 
   public TMessage readMessageBegin() throws TException {
+    return readMessageHeader(null);
+  }
+
+  @Override
+  public TMessage readMessageBegin(TNameTable names) throws TException {
+    if (!matchNamesInPlace_) {
+      return readMessageBegin();
+    }
+    return readMessageHeader(names);
+  }
+
+  // Reads a message header, matching a versioned message's name against
+  // names if they are given
+  private TMessage readMessageHeader(TNameTable names) throws TException {
     int size = readI32();
     if (size < 0) {
       int version = size & VERSION_MASK;
       if (version != VERSION_1) {
         throw new TProtocolException(TProtocolException.BAD_VERSION, "Bad version in readMessageBegin");
       }
-      return new TMessage(readString(), (byte)(size & 0x000000ff), readI32());
+      return new TMessage(readMessageName(names), (byte)(size & 0x000000ff), readI32());
     } else {
+      // unversioned headers are rare enough to not be worth matching
       if (strictRead_) {
         throw new TProtocolException(TProtocolException.BAD_VERSION, "Missing version in readMessageBegin, old client?");
       }
@@ -231,6 +251,22 @@ public class TBinaryProtocol extends TProtocol {
     }
   }
 
+  private String readMessageName(TNameTable names) throws TException {
+    if (names == null) {
+      return readString();
+    }
+    int length = readI32();
+    checkStringReadLength(length);
+    if (trans_.getBytesRemainingInBuffer() >= length) {
+      String name = names.find(trans_.getBuffer(), trans_.getBufferPosition(), length);
+      if (name != null) {
+        trans_.consumeBuffer(length);
+        return name;
+      }
+    }
+    return readStringBody(length);
+  }
+
   public void readMessageEnd() {}
 
   public TStruct readStructBegin() {
@@ -428,4 +464,153 @@ public class TBinaryProtocol extends TProtocol {
   private int readAll(byte[] buf, int off, int len) throws TException {
     return trans_.readAll(buf, off, len);
   }
+
+  private RawValueReader rawValueReader_;
+
+  @Override
+  public Class<? extends TProtocol> getRawValueEncoding() {
+    return TBinaryProtocol.class;
+  }
+
+  @Override
+  public byte[] readRawValue(byte type) throws TException {
+    if (rawValueReader_ == null) {
+      rawValueReader_ = new RawValueReader();
+    }
+    return rawValueReader_.read(type);
+  }
+
+  @Override
+  public void writeRawValue(byte type, byte[] value) throws TException {
+    trans_.write(value, 0, value.length);
+  }
+
+  @Override
+  public void writeRawValue(byte type, byte[] value, int offset, int length) throws TException {
+    trans_.write(value, offset, length);
+  }
+
+  @Override
+  int skipRawValue(byte type) throws TException {
+    if (rawValueReader_ == null) {
+      rawValueReader_ = new RawValueReader();
+    }
+    return rawValueReader_.skipBuffered(type);
+  }
+
+  /**
+   * Size of the encoding of values of the given type if it is fixed, else 0.
+   */
+  private static int fixedWidth(byte type) {
+    switch (type) {
+      case TType.BOOL:
+      case TType.BYTE:
+        return 1;
+      case TType.I16:
+        return 2;
+      case TType.I32:
+        return 4;
+      case TType.I64:
+      case TType.DOUBLE:
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  private class RawValueReader extends TRawValueReader {
+    RawValueReader() {
+      super(trans_);
+    }
+
+    @Override
+    protected boolean skip(byte type) throws TException {
+      switch (type) {
+        case TType.STRING: {
+          if (!need(4)) {
+            return false;
+          }
+          int size = readInt();
+          checkStringReadLength(size);
+          return skipBytes(size);
+        }
+        case TType.STRUCT:
+          while (true) {
+            if (!need(1)) {
+              return false;
+            }
+            byte fieldType = buf[pos++];
+            if (fieldType == TType.STOP) {
+              return true;
+            }
+            if (!skipBytes(2) || !skip(fieldType)) {
+              return false;
+            }
+          }
+        case TType.MAP: {
+          if (!need(6)) {
+            return false;
+          }
+          byte keyType = buf[pos++];
+          byte valueType = buf[pos++];
+          int size = readInt();
+          checkContainerReadLength(size);
+          int keyWidth = fixedWidth(keyType);
+          int valueWidth = fixedWidth(valueType);
+          if (keyWidth != 0 && valueWidth != 0) {
+            return skipBytes((long)size * (keyWidth + valueWidth));
+          }
+          for (int i = 0; i < size; i++) {
+            if (!skip(keyType) || !skip(valueType)) {
+              return false;
+            }
+          }
+          return true;
+        }
+        case TType.SET:
+        case TType.LIST: {
+          if (!need(5)) {
+            return false;
+          }
+          byte elemType = buf[pos++];
+          int size = readInt();
+          checkContainerReadLength(size);
+          int elemWidth = fixedWidth(elemType);
+          if (elemWidth != 0) {
+            return skipBytes((long)size * elemWidth);
+          }
+          for (int i = 0; i < size; i++) {
+            if (!skip(elemType)) {
+              return false;
+            }
+          }
+          return true;
+        }
+        default:
+          int width = fixedWidth(type);
+          if (width == 0) {
+            throw new TProtocolException(TProtocolException.INVALID_DATA, "Unrecognized type " + type);
+          }
+          return skipBytes(width);
+      }
+    }
+
+    private boolean skipBytes(long n) throws TException {
+      if (n > Integer.MAX_VALUE) {
+        throw new TProtocolException(TProtocolException.SIZE_LIMIT, "Value too large to read");
+      }
+      if (!need((int)n)) {
+        return false;
+      }
+      pos += (int)n;
+      return true;
+    }
+
+    private int readInt() {
+      int i = ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16) |
+        ((buf[pos + 2] & 0xff) <<  8) | ((buf[pos + 3] & 0xff));
+      pos += 4;
+      return i;
+    }
+  }
 }
@@ -0,0 +1,360 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+/**
+ * A flyweight view of a struct encoded with TBinaryProtocol, for reading a
+ * few fields out of a serialized record without deserializing all of it.
+ *
+ * Wrapping a buffer walks the struct once and notes where each of its fields
+ * starts. The typed readers then decode single values straight from the
+ * buffer, using absolute reads, so heap, direct and memory-mapped buffers all
+ * work and their position is never touched. A view holds no other state and
+ * is meant to be wrapped around record after record.
+ *
+ * As with TDeserializer's partialDeserialize methods, a field counts as
+ * absent when its wire type does not match the type asked for. Generated code
+ * (the java generator's binary_view option) subclasses this with a typed
+ * getter per field. Those are all named get*, is* or isSet*, so the view's own
+ * accessors are named view* to stay out of their way, and are final.
+ */
+public class TBinaryStructView {
+  // nesting deeper than this is treated as corrupt data
+  private static final int MAX_DEPTH = 64;
+
+  private ByteBuffer buffer_;
+  private int offset_;
+  private int end_;
+
+  // field ids, wire types and value positions, in the order they were seen
+  private short[] ids_ = new short[8];
+  private byte[] types_ = new byte[8];
+  private int[] positions_ = new int[8];
+  private int count_;
+  private boolean ascending_;
+
+  /**
+   * Points this view at the struct starting at the buffer's position.
+   */
+  public TBinaryStructView wrap(ByteBuffer buffer) throws TProtocolException {
+    return wrap(buffer, buffer.position());
+  }
+
+  /**
+   * Points this view at the struct starting at the given absolute offset in
+   * buffer, and builds its field table. The struct must end before the
+   * buffer's limit.
+   *
+   * @throws TProtocolException if the struct is malformed or truncated, in
+   *   which case the view must be wrapped again before it is used
+   */
+  public TBinaryStructView wrap(ByteBuffer buffer, int offset) throws TProtocolException {
+    if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+      buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+    buffer_ = buffer;
+    offset_ = offset;
+    count_ = 0;
+    ascending_ = true;
+
+    int limit = buffer.limit();
+    int pos = offset;
+    while (true) {
+      require(pos, 1, limit);
+      byte type = buffer.get(pos++);
+      if (type == TType.STOP) {
+        break;
+      }
+      require(pos, 2, limit);
+      short id = buffer.getShort(pos);
+      pos += 2;
+      addField(id, type, pos);
+      pos = skip(type, pos, limit, MAX_DEPTH);
+    }
+    end_ = pos;
+    return this;
+  }
+
+  /** The buffer this view is wrapped around. */
+  public final ByteBuffer viewBuffer() {
+    return buffer_;
+  }
+
+  /** The absolute offset of the struct in the buffer. */
+  public final int viewOffset() {
+    return offset_;
+  }
+
+  /** The encoded length of the struct, including its stop byte. */
+  public final int viewLength() {
+    return end_ - offset_;
+  }
+
+  /** The number of fields present in the struct. */
+  public final int viewFieldCount() {
+    return count_;
+  }
+
+  /**
+   * Returns the absolute position of the value of the given field, or -1 if
+   * the field is absent or was written with another type. Should a field
+   * appear more than once the last one wins, as it would in read().
+   */
+  public int findField(short id, byte type) {
+    int i = ascending_ ? search(id) : lastIndexOf(id);
+    if (i < 0 || types_[i] != type) {
+      return -1;
+    }
+    return positions_[i];
+  }
+
+  public boolean readBool(int pos) {
+    return buffer_.get(pos) == 1;
+  }
+
+  public byte readByte(int pos) {
+    return buffer_.get(pos);
+  }
+
+  public short readI16(int pos) {
+    return buffer_.getShort(pos);
+  }
+
+  public int readI32(int pos) {
+    return buffer_.getInt(pos);
+  }
+
+  public long readI64(int pos) {
+    return buffer_.getLong(pos);
+  }
+
+  public double readDouble(int pos) {
+    return Double.longBitsToDouble(buffer_.getLong(pos));
+  }
+
+  public String readString(int pos) throws TException {
+    int size = buffer_.getInt(pos);
+    try {
+      if (buffer_.hasArray()) {
+        return new String(buffer_.array(), buffer_.arrayOffset() + pos + 4, size, "UTF-8");
+      }
+      byte[] bytes = new byte[size];
+      ByteBuffer source = buffer_.duplicate();
+      source.position(pos + 4);
+      source.get(bytes);
+      return new String(bytes, "UTF-8");
+    } catch (UnsupportedEncodingException uex) {
+      throw new TException("JVM DOES NOT SUPPORT UTF-8");
+    }
+  }
+
+  /**
+   * Returns a buffer sharing the bytes of the binary value at pos.
+   */
+  public ByteBuffer readBinary(int pos) {
+    int size = buffer_.getInt(pos);
+    ByteBuffer value = buffer_.duplicate();
+    value.limit(pos + 4 + size);
+    value.position(pos + 4);
+    return value.slice();
+  }
+
+  /**
+   * Returns a TBinaryProtocol reading the value of the given type at pos,
+   * for values such as containers that are decoded in full. Values in heap
+   * buffers are read in place, others are copied out first.
+   */
+  public TProtocol protocolAt(int pos, byte type) throws TProtocolException {
+    int length = skip(type, pos, buffer_.limit(), MAX_DEPTH) - pos;
+    TMemoryInputTransport trans;
+    if (buffer_.hasArray()) {
+      trans = new TMemoryInputTransport(buffer_.array(), buffer_.arrayOffset() + pos, length);
+    } else {
+      byte[] bytes = new byte[length];
+      ByteBuffer source = buffer_.duplicate();
+      source.position(pos);
+      source.get(bytes);
+      trans = new TMemoryInputTransport(bytes);
+    }
+    return new TBinaryProtocol(trans);
+  }
+
+  /**
+   * Deserializes the whole struct into base.
+   */
+  public void read(TBase base) throws TException {
+    base.read(protocolAt(offset_, TType.STRUCT));
+  }
+
+  private void addField(short id, byte type, int pos) {
+    if (count_ == ids_.length) {
+      int capacity = count_ * 2;
+      short[] ids = new short[capacity];
+      byte[] types = new byte[capacity];
+      int[] positions = new int[capacity];
+      System.arraycopy(ids_, 0, ids, 0, count_);
+      System.arraycopy(types_, 0, types, 0, count_);
+      System.arraycopy(positions_, 0, positions, 0, count_);
+      ids_ = ids;
+      types_ = types;
+      positions_ = positions;
+    }
+    if (count_ > 0 && id <= ids_[count_ - 1]) {
+      ascending_ = false;
+    }
+    ids_[count_] = id;
+    types_[count_] = type;
+    positions_[count_] = pos;
+    count_++;
+  }
+
+  private int search(short id) {
+    int low = 0;
+    int high = count_ - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      short midId = ids_[mid];
+      if (midId < id) {
+        low = mid + 1;
+      } else if (midId > id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private int lastIndexOf(short id) {
+    for (int i = count_ - 1; i >= 0; i--) {
+      if (ids_[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the position just past the value of the given type at pos.
+   */
+  private int skip(byte type, int pos, int limit, int depth) throws TProtocolException {
+    int width = fixedWidth(type);
+    if (width > 0) {
+      require(pos, width, limit);
+      return pos + width;
+    }
+    if (depth <= 0) {
+      throw new TProtocolException(TProtocolException.DEPTH_LIMIT, "Maximum skip depth exceeded");
+    }
+    switch (type) {
+      case TType.STRING: {
+        require(pos, 4, limit);
+        int size = checkSize(buffer_.getInt(pos));
+        require(pos + 4, size, limit);
+        return pos + 4 + size;
+      }
+      case TType.STRUCT:
+        while (true) {
+          require(pos, 1, limit);
+          byte fieldType = buffer_.get(pos);
+          if (fieldType == TType.STOP) {
+            return pos + 1;
+          }
+          pos = skip(fieldType, pos + 3, limit, depth - 1);
+        }
+      case TType.MAP: {
+        require(pos, 6, limit);
+        byte keyType = buffer_.get(pos);
+        byte valueType = buffer_.get(pos + 1);
+        int size = checkSize(buffer_.getInt(pos + 2));
+        pos += 6;
+        int keyWidth = fixedWidth(keyType);
+        int valueWidth = fixedWidth(valueType);
+        if (keyWidth > 0 && valueWidth > 0) {
+          long bytes = (long) size * (keyWidth + valueWidth);
+          require(pos, bytes, limit);
+          return pos + (int) bytes;
+        }
+        for (int i = 0; i < size; i++) {
+          pos = skip(keyType, pos, limit, depth - 1);
+          pos = skip(valueType, pos, limit, depth - 1);
+        }
+        return pos;
+      }
+      case TType.SET:
+      case TType.LIST: {
+        require(pos, 5, limit);
+        byte elemType = buffer_.get(pos);
+        int size = checkSize(buffer_.getInt(pos + 1));
+        pos += 5;
+        int elemWidth = fixedWidth(elemType);
+        if (elemWidth > 0) {
+          long bytes = (long) size * elemWidth;
+          require(pos, bytes, limit);
+          return pos + (int) bytes;
+        }
+        for (int i = 0; i < size; i++) {
+          pos = skip(elemType, pos, limit, depth - 1);
+        }
+        return pos;
+      }
+      default:
+        throw new TProtocolException(TProtocolException.INVALID_DATA, "Unrecognized type " + type);
+    }
+  }
+
+  private static int fixedWidth(byte type) {
+    switch (type) {
+      case TType.BOOL:
+      case TType.BYTE:
+        return 1;
+      case TType.I16:
+        return 2;
+      case TType.I32:
+        return 4;
+      case TType.I64:
+      case TType.DOUBLE:
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  private static int checkSize(int size) throws TProtocolException {
+    if (size < 0) {
+      throw new TProtocolException(TProtocolException.NEGATIVE_SIZE, "Negative length: " + size);
+    }
+    return size;
+  }
+
+  private static void require(int pos, long length, int limit) throws TProtocolException {
+    if (pos + length > limit) {
+      throw new TProtocolException(TProtocolException.INVALID_DATA, "Struct runs past the end of the buffer");
+    }
+  }
+}
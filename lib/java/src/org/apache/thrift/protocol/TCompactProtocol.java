@@ -143,6 +143,10 @@ public class TCompactProtocol extends TProtocol {
    */
   private final long containerLengthLimit_;
 
+  // false when a subclass overrides readMessageBegin(), which the name
+  // matching readMessageBegin(TNameTable) then defers to
+  private final boolean matchNamesInPlace_;
+
   /**
    * Create a TCompactProtocol.
    *
@@ -156,6 +160,7 @@ public class TCompactProtocol extends TProtocol {
     super(transport);
     this.stringLengthLimit_ = stringLengthLimit;
     this.containerLengthLimit_ = containerLengthLimit;
+    this.matchNamesInPlace_ = !overridesReadMessageBegin(TCompactProtocol.class);
   }
 
   /**
@@ -195,9 +200,9 @@ public class TCompactProtocol extends TProtocol {
    * protocol version so we can migrate forwards in the future if need be.
    */
   public void writeMessageBegin(TMessage message) throws TException {
-    writeByteDirect(PROTOCOL_ID);
-    writeByteDirect((VERSION & VERSION_MASK) | ((message.type << TYPE_SHIFT_AMOUNT) & TYPE_MASK));
-    writeVarint32(message.seqid);
+    temp[0] = PROTOCOL_ID;
+    temp[1] = (byte)((VERSION & VERSION_MASK) | ((message.type << TYPE_SHIFT_AMOUNT) & TYPE_MASK));
+    trans_.write(temp, 0, putVarint32(message.seqid, temp, 2));
     writeString(message.name);
   }
 
@@ -252,8 +257,8 @@ public class TCompactProtocol extends TProtocol {
       writeByteDirect((field.id - lastFieldId_) << 4 | typeToWrite);
     } else {
       // write them separate
-      writeByteDirect(typeToWrite);
-      writeI16(field.id);
+      temp[0] = typeToWrite;
+      trans_.write(temp, 0, putVarint32(intToZigZag(field.id), temp, 1));
     }
 
     lastFieldId_ = field.id;
@@ -275,8 +280,9 @@ public class TCompactProtocol extends TProtocol {
     if (map.size == 0) {
       writeByteDirect(0);
     } else {
-      writeVarint32(map.size);
-      writeByteDirect(getCompactType(map.keyType) << 4 | getCompactType(map.valueType));
+      int off = putVarint32(map.size, temp, 0);
+      temp[off] = (byte)(getCompactType(map.keyType) << 4 | getCompactType(map.valueType));
+      trans_.write(temp, 0, off + 1);
     }
   }
 
@@ -343,9 +349,8 @@ public class TCompactProtocol extends TProtocol {
    * Write a double to the wire as 8 bytes.
    */
   public void writeDouble(double dub) throws TException {
-    byte[] data = new byte[]{0, 0, 0, 0, 0, 0, 0, 0};
-    fixedLongToBytes(Double.doubleToLongBits(dub), data, 0);
-    trans_.write(data);
+    fixedLongToBytes(Double.doubleToLongBits(dub), temp, 0);
+    trans_.write(temp, 0, 8);
   }
 
   /**
@@ -396,49 +401,83 @@ public class TCompactProtocol extends TProtocol {
     if (size <= 14) {
       writeByteDirect(size << 4 | getCompactType(elemType));
     } else {
-      writeByteDirect(0xf0 | getCompactType(elemType));
-      writeVarint32(size);
+      temp[0] = (byte)(0xf0 | getCompactType(elemType));
+      trans_.write(temp, 0, putVarint32(size, temp, 1));
     }
   }
 
+  /**
+   * Scratch space for encoding varints and doubles before handing them to
+   * the transport.
+   */
+  private final byte[] temp = new byte[10];
+
   /**
    * Write an i32 as a varint. Results in 1-5 bytes on the wire.
-   * TODO: make a permanent buffer like writeVarint64?
    */
-  byte[] i32buf = new byte[5];
   private void writeVarint32(int n) throws TException {
-    int idx = 0;
-    while (true) {
-      if ((n & ~0x7F) == 0) {
-        i32buf[idx++] = (byte)n;
-        // writeByteDirect((byte)n);
-        break;
-        // return;
-      } else {
-        i32buf[idx++] = (byte)((n & 0x7F) | 0x80);
-        // writeByteDirect((byte)((n & 0x7F) | 0x80));
-        n >>>= 7;
-      }
-    }
-    trans_.write(i32buf, 0, idx);
+    trans_.write(temp, 0, putVarint32(n, temp, 0));
   }
 
   /**
    * Write an i64 as a varint. Results in 1-10 bytes on the wire.
    */
-  byte[] varint64out = new byte[10];
   private void writeVarint64(long n) throws TException {
-    int idx = 0;
-    while (true) {
+    trans_.write(temp, 0, putVarint64(n, temp, 0));
+  }
+
+  /**
+   * Encode n as a varint into buf at off, returning the offset just past it.
+   * The common short cases are unrolled.
+   */
+  static int putVarint32(int n, byte[] buf, int off) {
+    if ((n & ~0x7F) == 0) {
+      buf[off] = (byte)n;
+      return off + 1;
+    }
+    buf[off] = (byte)(n | 0x80);
+    n >>>= 7;
+    if ((n & ~0x7F) == 0) {
+      buf[off + 1] = (byte)n;
+      return off + 2;
+    }
+    buf[off + 1] = (byte)(n | 0x80);
+    n >>>= 7;
+    if ((n & ~0x7F) == 0) {
+      buf[off + 2] = (byte)n;
+      return off + 3;
+    }
+    buf[off + 2] = (byte)(n | 0x80);
+    n >>>= 7;
+    if ((n & ~0x7F) == 0) {
+      buf[off + 3] = (byte)n;
+      return off + 4;
+    }
+    buf[off + 3] = (byte)(n | 0x80);
+    buf[off + 4] = (byte)(n >>> 7);
+    return off + 5;
+  }
+
+  /**
+   * Encode n as a varint into buf at off, returning the offset just past it.
+   */
+  static int putVarint64(long n, byte[] buf, int off) {
+    if ((n & ~0x3FFFL) == 0) {
+      // two bytes or fewer, which covers most values in practice
       if ((n & ~0x7FL) == 0) {
-        varint64out[idx++] = (byte)n;
-        break;
-      } else {
-        varint64out[idx++] = ((byte)((n & 0x7F) | 0x80));
-        n >>>= 7;
+        buf[off] = (byte)n;
+        return off + 1;
       }
+      buf[off] = (byte)(n | 0x80);
+      buf[off + 1] = (byte)(n >>> 7);
+      return off + 2;
+    }
+    while ((n & ~0x7FL) != 0) {
+      buf[off++] = (byte)(n | 0x80);
+      n >>>= 7;
     }
-    trans_.write(varint64out, 0, idx);
+    buf[off++] = (byte)n;
+    return off;
   }
 
   /**
@@ -498,6 +537,20 @@ public class TCompactProtocol extends TProtocol {
    * Read a message header.
    */
   public TMessage readMessageBegin() throws TException {
+    return readMessageHeader(null);
+  }
+
+  @Override
+  public TMessage readMessageBegin(TNameTable names) throws TException {
+    if (!matchNamesInPlace_) {
+      return readMessageBegin();
+    }
+    return readMessageHeader(names);
+  }
+
+  // Reads a message header, matching the name against names if they are
+  // given
+  private TMessage readMessageHeader(TNameTable names) throws TException {
     byte protocolId = readByte();
     if (protocolId != PROTOCOL_ID) {
       throw new TProtocolException("Expected protocol id " + Integer.toHexString(PROTOCOL_ID) + " but got " + Integer.toHexString(protocolId));
@@ -509,8 +562,27 @@ public class TCompactProtocol extends TProtocol {
     }
     byte type = (byte)((versionAndType >> TYPE_SHIFT_AMOUNT) & TYPE_BITS);
     int seqid = readVarint32();
-    String messageName = readString();
-    return new TMessage(messageName, type, seqid);
+    return new TMessage(readMessageName(names), type, seqid);
+  }
+
+  private String readMessageName(TNameTable names) throws TException {
+    if (names == null) {
+      return readString();
+    }
+    int length = readVarint32();
+    checkStringReadLength(length);
+    if (trans_.getBytesRemainingInBuffer() >= length) {
+      String name = names.find(trans_.getBuffer(), trans_.getBufferPosition(), length);
+      if (name != null) {
+        trans_.consumeBuffer(length);
+        return name;
+      }
+    }
+    try {
+      return new String(readBinary(length), "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new TException("UTF-8 not supported!");
+    }
   }
 
   /**
@@ -662,9 +734,13 @@ public class TCompactProtocol extends TProtocol {
    * No magic here - just read a double off the wire.
    */
   public double readDouble() throws TException {
-    byte[] longBits = new byte[8];
-    trans_.readAll(longBits, 0, 8);
-    return Double.longBitsToDouble(bytesToLong(longBits));
+    if (trans_.getBytesRemainingInBuffer() >= 8) {
+      long bits = bytesToLong(trans_.getBuffer(), trans_.getBufferPosition());
+      trans_.consumeBuffer(8);
+      return Double.longBitsToDouble(bits);
+    }
+    trans_.readAll(temp, 0, 8);
+    return Double.longBitsToDouble(bytesToLong(temp, 0));
   }
 
   /**
@@ -762,27 +838,43 @@ public class TCompactProtocol extends TProtocol {
    * if there is another byte to follow. This can read up to 5 bytes.
    */
   private int readVarint32() throws TException {
-    int result = 0;
-    int shift = 0;
     if (trans_.getBytesRemainingInBuffer() >= 5) {
       byte[] buf = trans_.getBuffer();
       int pos = trans_.getBufferPosition();
-      int off = 0;
-      while (true) {
-        byte b = buf[pos+off];
-        result |= (int) (b & 0x7f) << shift;
-        if ((b & 0x80) != 0x80) break;
-        shift += 7;
-        off++;
+      // Unrolled: each byte's contribution is xor'ed in with its
+      // continuation bit, and the sign of the running value says whether
+      // that bit was set. The continuation bits are cancelled at the end.
+      int x = buf[pos];
+      if (x >= 0) {
+        trans_.consumeBuffer(1);
+        return x;
       }
-      trans_.consumeBuffer(off+1);
-    } else {
-      while (true) {
-        byte b = readByte();
-        result |= (int) (b & 0x7f) << shift;
-        if ((b & 0x80) != 0x80) break;
-        shift += 7;
+      if ((x ^= buf[pos + 1] << 7) < 0) {
+        trans_.consumeBuffer(2);
+        return x ^ (~0 << 7);
+      }
+      if ((x ^= buf[pos + 2] << 14) >= 0) {
+        trans_.consumeBuffer(3);
+        return x ^ ((~0 << 7) ^ (~0 << 14));
+      }
+      if ((x ^= buf[pos + 3] << 21) < 0) {
+        trans_.consumeBuffer(4);
+        return x ^ ((~0 << 7) ^ (~0 << 14) ^ (~0 << 21));
+      }
+      int last = buf[pos + 4];
+      if (last < 0) {
+        throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable-length int over 5 bytes.");
       }
+      trans_.consumeBuffer(5);
+      return x ^ (last << 28) ^ ((~0 << 7) ^ (~0 << 14) ^ (~0 << 21) ^ (~0 << 28));
+    }
+    int result = 0;
+    int shift = 0;
+    while (true) {
+      byte b = readByte();
+      result |= (int) (b & 0x7f) << shift;
+      if ((b & 0x80) != 0x80) break;
+      shift += 7;
     }
     return result;
   }
@@ -792,31 +884,60 @@ public class TCompactProtocol extends TProtocol {
    * if there is another byte to follow. This can read up to 10 bytes.
    */
   private long readVarint64() throws TException {
-    int shift = 0;
-    long result = 0;
     if (trans_.getBytesRemainingInBuffer() >= 10) {
       byte[] buf = trans_.getBuffer();
       int pos = trans_.getBufferPosition();
-      int off = 0;
-      while (true) {
-        byte b = buf[pos+off];
-        result |= (long) (b & 0x7f) << shift;
-        if ((b & 0x80) != 0x80) break;
-        shift += 7;
-        off++;
+      long first = buf[pos];
+      if (first >= 0) {
+        trans_.consumeBuffer(1);
+        return first;
       }
-      trans_.consumeBuffer(off+1);
-    } else {
-      while (true) {
-        byte b = readByte();
-        result |= (long) (b & 0x7f) << shift;
-        if ((b & 0x80) != 0x80) break;
-        shift +=7;
+      // Decode up to eight bytes at once. The clear MSBs in the word mark
+      // the bytes that end a varint, so the lowest tells us the length.
+      long word = bytesToLong(buf, pos);
+      long ends = ~word & 0x8080808080808080L;
+      if (ends != 0) {
+        int bits = Long.numberOfTrailingZeros(ends) + 1;
+        trans_.consumeBuffer(bits >>> 3);
+        return compactVarintWord(word & (-1L >>> (64 - bits)));
       }
+      // nine or ten bytes
+      long result = compactVarintWord(word);
+      long b = buf[pos + 8];
+      result |= (b & 0x7f) << 56;
+      if (b >= 0) {
+        trans_.consumeBuffer(9);
+        return result;
+      }
+      b = buf[pos + 9];
+      if (b < 0) {
+        throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable-length int over 10 bytes.");
+      }
+      trans_.consumeBuffer(10);
+      return result | (b << 63);
+    }
+    int shift = 0;
+    long result = 0;
+    while (true) {
+      byte b = readByte();
+      result |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) != 0x80) break;
+      shift +=7;
     }
     return result;
   }
 
+  /**
+   * Squeeze the seven payload bits of each byte of a little-endian word of
+   * varint bytes together, giving the value of up to 56 bits they encode.
+   */
+  private static long compactVarintWord(long word) {
+    word &= 0x7f7f7f7f7f7f7f7fL;
+    word = (word & 0x007f007f007f007fL) | ((word & 0x7f007f007f007f00L) >>> 1);
+    word = (word & 0x00003fff00003fffL) | ((word & 0x3fff00003fff0000L) >>> 2);
+    return (word & 0x000000000fffffffL) | ((word & 0x0fffffff00000000L) >>> 4);
+  }
+
   //
   // encoding helpers
   //
@@ -840,16 +961,16 @@ public class TCompactProtocol extends TProtocol {
    * otherwise they'll default to ints, and when you shift an int left 56 bits,
    * you just get a messed up int.
    */
-  private long bytesToLong(byte[] bytes) {
+  private static long bytesToLong(byte[] bytes, int off) {
     return
-      ((bytes[7] & 0xffL) << 56) |
-      ((bytes[6] & 0xffL) << 48) |
-      ((bytes[5] & 0xffL) << 40) |
-      ((bytes[4] & 0xffL) << 32) |
-      ((bytes[3] & 0xffL) << 24) |
-      ((bytes[2] & 0xffL) << 16) |
-      ((bytes[1] & 0xffL) <<  8) |
-      ((bytes[0] & 0xffL));
+      ((bytes[off + 7] & 0xffL) << 56) |
+      ((bytes[off + 6] & 0xffL) << 48) |
+      ((bytes[off + 5] & 0xffL) << 40) |
+      ((bytes[off + 4] & 0xffL) << 32) |
+      ((bytes[off + 3] & 0xffL) << 24) |
+      ((bytes[off + 2] & 0xffL) << 16) |
+      ((bytes[off + 1] & 0xffL) <<  8) |
+      ((bytes[off] & 0xffL));
   }
 
   //
@@ -903,4 +1024,196 @@ public class TCompactProtocol extends TProtocol {
   private byte getCompactType(byte ttype) {
     return ttypeToCompactType[ttype];
   }
+
+  //
+  // raw values
+  //
+
+  private RawValueReader rawValueReader_;
+
+  @Override
+  public Class<? extends TProtocol> getRawValueEncoding() {
+    return TCompactProtocol.class;
+  }
+
+  /**
+   * The value of a boolean field lives in its field header, so it comes back
+   * as a single byte, encoded as it would be in a collection.
+   */
+  @Override
+  public byte[] readRawValue(byte type) throws TException {
+    if (type == TType.BOOL) {
+      return new byte[] { readBool() ? Types.BOOLEAN_TRUE : Types.BOOLEAN_FALSE };
+    }
+    if (rawValueReader_ == null) {
+      rawValueReader_ = new RawValueReader();
+    }
+    return rawValueReader_.read(getCompactType(type));
+  }
+
+  @Override
+  public void writeRawValue(byte type, byte[] value) throws TException {
+    writeRawValue(type, value, 0, value.length);
+  }
+
+  @Override
+  public void writeRawValue(byte type, byte[] value, int offset, int length) throws TException {
+    if (type == TType.BOOL) {
+      writeBool(value[offset] == Types.BOOLEAN_TRUE);
+      return;
+    }
+    trans_.write(value, offset, length);
+  }
+
+  /**
+   * Booleans can't be skipped in place since a field's value may live in its
+   * header.
+   */
+  @Override
+  int skipRawValue(byte type) throws TException {
+    if (type == TType.BOOL) {
+      return -1;
+    }
+    if (rawValueReader_ == null) {
+      rawValueReader_ = new RawValueReader();
+    }
+    return rawValueReader_.skipBuffered(getCompactType(type));
+  }
+
+  /**
+   * Walks values by their compact type, as it appears on the wire.
+   */
+  private class RawValueReader extends TRawValueReader {
+    // the last varint read by readVarint
+    private int varint_;
+
+    RawValueReader() {
+      super(trans_);
+    }
+
+    @Override
+    protected boolean skip(byte type) throws TException {
+      switch (type) {
+        case Types.BOOLEAN_TRUE:
+        case Types.BOOLEAN_FALSE:
+        case Types.BYTE:
+          return skipBytes(1);
+        case Types.I16:
+        case Types.I32:
+        case Types.I64:
+          return readVarint();
+        case Types.DOUBLE:
+          return skipBytes(8);
+        case Types.BINARY:
+          if (!readVarint()) {
+            return false;
+          }
+          checkStringReadLength(varint_);
+          return skipBytes(varint_);
+        case Types.LIST:
+        case Types.SET: {
+          if (!need(1)) {
+            return false;
+          }
+          byte sizeAndType = buf[pos++];
+          int size = (sizeAndType >> 4) & 0x0f;
+          if (size == 15) {
+            if (!readVarint()) {
+              return false;
+            }
+            size = varint_;
+          }
+          checkContainerReadLength(size);
+          return skipElements((byte)(sizeAndType & 0x0f), size);
+        }
+        case Types.MAP: {
+          if (!readVarint()) {
+            return false;
+          }
+          int size = varint_;
+          checkContainerReadLength(size);
+          if (size == 0) {
+            return true;
+          }
+          if (!need(1)) {
+            return false;
+          }
+          byte keyAndValueType = buf[pos++];
+          byte keyType = (byte)((keyAndValueType >> 4) & 0x0f);
+          byte valueType = (byte)(keyAndValueType & 0x0f);
+          for (int i = 0; i < size; i++) {
+            if (!skip(keyType) || !skip(valueType)) {
+              return false;
+            }
+          }
+          return true;
+        }
+        case Types.STRUCT:
+          while (true) {
+            if (!need(1)) {
+              return false;
+            }
+            byte header = buf[pos++];
+            if (header == TType.STOP) {
+              return true;
+            }
+            // a field id that is not a delta follows as a varint
+            if ((header & 0xf0) == 0 && !readVarint()) {
+              return false;
+            }
+            // and boolean fields carry their value in the header
+            if (!isBoolType(header) && !skip((byte)(header & 0x0f))) {
+              return false;
+            }
+          }
+        default:
+          throw new TProtocolException("don't know what type: " + type);
+      }
+    }
+
+    private boolean skipElements(byte elemType, int size) throws TException {
+      switch (elemType) {
+        case Types.BOOLEAN_TRUE:
+        case Types.BOOLEAN_FALSE:
+        case Types.BYTE:
+          return skipBytes(size);
+        case Types.DOUBLE:
+          if (size > Integer.MAX_VALUE / 8) {
+            throw new TProtocolException(TProtocolException.SIZE_LIMIT, "Value too large to read");
+          }
+          return skipBytes(size * 8);
+        default:
+          for (int i = 0; i < size; i++) {
+            if (!skip(elemType)) {
+              return false;
+            }
+          }
+          return true;
+      }
+    }
+
+    private boolean skipBytes(int n) throws TException {
+      if (!need(n)) {
+        return false;
+      }
+      pos += n;
+      return true;
+    }
+
+    private boolean readVarint() throws TException {
+      int result = 0;
+      for (int shift = 0; shift < 70; shift += 7) {
+        if (!need(1)) {
+          return false;
+        }
+        byte b = buf[pos++];
+        result |= (b & 0x7f) << shift;
+        if ((b & 0x80) != 0x80) {
+          varint_ = result;
+          return true;
+        }
+      }
+      throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable-length int over 10 bytes.");
+    }
+  }
 }
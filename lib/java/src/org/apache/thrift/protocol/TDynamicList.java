@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.protocol;
+
+import org.apache.thrift.TException;
+
+/**
+ * A list or a set, as a list of elements of one type. Sets are not checked
+ * for duplicates.
+ */
+public final class TDynamicList extends TDynamicValue {
+  private byte elemType_;
+  private TDynamicValue[] values_;
+  private int size_;
+  // false while the elements are still only in the bytes this was read from
+  private boolean expanded_;
+  private boolean modified_;
+
+  /**
+   * Creates an empty list or set, as type says, of elements of elemType.
+   */
+  public TDynamicList(byte type, byte elemType) {
+    super(type);
+    if (type != TType.LIST && type != TType.SET) {
+      throw new IllegalArgumentException("Not a list or set type: " + type);
+    }
+    elemType_ = elemType;
+    values_ = new TDynamicValue[4];
+    expanded_ = true;
+    modified_ = true;
+  }
+
+  TDynamicList(byte type, Class<? extends TProtocol> encoding, byte[] buf, int offset, int length) {
+    super(type, encoding, buf, offset, length);
+  }
+
+  void readElements(TProtocol iprot, Class<? extends TProtocol> encoding, byte[] buf, boolean shared) throws TException {
+    int size;
+    if (getType() == TType.LIST) {
+      TList list = iprot.readListBegin();
+      elemType_ = list.elemType;
+      size = list.size;
+    } else {
+      TSet set = iprot.readSetBegin();
+      elemType_ = set.elemType;
+      size = set.size;
+    }
+    values_ = new TDynamicValue[Math.max(size, 4)];
+    for (int i = 0; i < size; i++) {
+      values_[i] = readMember(iprot, elemType_, encoding, buf, shared);
+    }
+    size_ = size;
+    if (getType() == TType.LIST) {
+      iprot.readListEnd();
+    } else {
+      iprot.readSetEnd();
+    }
+    expanded_ = true;
+  }
+
+  public byte getElemType() throws TException {
+    expand();
+    return elemType_;
+  }
+
+  public int size() throws TException {
+    expand();
+    return size_;
+  }
+
+  public TDynamicValue get(int i) throws TException {
+    expand();
+    checkIndex(i);
+    return values_[i];
+  }
+
+  public void set(int i, TDynamicValue value) throws TException {
+    expand();
+    checkIndex(i);
+    checkValue(value);
+    values_[i] = value;
+    modified_ = true;
+  }
+
+  public void add(TDynamicValue value) throws TException {
+    expand();
+    checkValue(value);
+    if (size_ == values_.length) {
+      TDynamicValue[] values = new TDynamicValue[size_ * 2];
+      System.arraycopy(values_, 0, values, 0, size_);
+      values_ = values;
+    }
+    values_[size_++] = value;
+    modified_ = true;
+  }
+
+  /**
+   * Removes the element at i and returns it.
+   */
+  public TDynamicValue remove(int i) throws TException {
+    expand();
+    checkIndex(i);
+    TDynamicValue removed = values_[i];
+    System.arraycopy(values_, i + 1, values_, i, size_ - i - 1);
+    values_[--size_] = null;
+    modified_ = true;
+    return removed;
+  }
+
+  @Override
+  boolean isModified() {
+    if (!expanded_) {
+      return false;
+    }
+    if (modified_) {
+      return true;
+    }
+    for (int i = 0; i < size_; i++) {
+      if (values_[i].isModified()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  void writeValue(TProtocol oprot) throws TException {
+    expand();
+    if (getType() == TType.LIST) {
+      oprot.writeListBegin(new TList(elemType_, size_));
+    } else {
+      oprot.writeSetBegin(new TSet(elemType_, size_));
+    }
+    for (int i = 0; i < size_; i++) {
+      values_[i].write(oprot);
+    }
+    if (getType() == TType.LIST) {
+      oprot.writeListEnd();
+    } else {
+      oprot.writeSetEnd();
+    }
+  }
+
+  private void expand() throws TException {
+    if (!expanded_) {
+      readElements(newProtocol(encoding_, buf_, offset_, length_), encoding_, buf_, true);
+    }
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= size_) {
+      throw new IndexOutOfBoundsException("Element " + i + " of " + size_);
+    }
+  }
+
+  private void checkValue(TDynamicValue value) {
+    if (value.getType() != elemType_) {
+      throw new IllegalArgumentException("Element of type " + value.getType() + " in a collection of " + elemType_);
+    }
+  }
+}
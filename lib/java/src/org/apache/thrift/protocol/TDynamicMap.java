@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.protocol;
+
+import org.apache.thrift.TException;
+
+/**
+ * A map, as a list of entries in the order they were read or added. Keys
+ * are found by a linear search using equals, which compares scalar keys by
+ * value and anything else by identity.
+ */
+public final class TDynamicMap extends TDynamicValue {
+  private byte keyType_;
+  private byte valueType_;
+  private TDynamicValue[] keys_;
+  private TDynamicValue[] values_;
+  private int size_;
+  // false while the entries are still only in the bytes this was read from
+  private boolean expanded_;
+  private boolean modified_;
+
+  /**
+   * Creates an empty map.
+   */
+  public TDynamicMap(byte keyType, byte valueType) {
+    super(TType.MAP);
+    keyType_ = keyType;
+    valueType_ = valueType;
+    keys_ = new TDynamicValue[4];
+    values_ = new TDynamicValue[4];
+    expanded_ = true;
+    modified_ = true;
+  }
+
+  TDynamicMap(Class<? extends TProtocol> encoding, byte[] buf, int offset, int length) {
+    super(TType.MAP, encoding, buf, offset, length);
+  }
+
+  void readEntries(TProtocol iprot, Class<? extends TProtocol> encoding, byte[] buf, boolean shared) throws TException {
+    TMap map = iprot.readMapBegin();
+    keyType_ = map.keyType;
+    valueType_ = map.valueType;
+    keys_ = new TDynamicValue[Math.max(map.size, 4)];
+    values_ = new TDynamicValue[keys_.length];
+    for (int i = 0; i < map.size; i++) {
+      keys_[i] = readMember(iprot, keyType_, encoding, buf, shared);
+      values_[i] = readMember(iprot, valueType_, encoding, buf, shared);
+    }
+    size_ = map.size;
+    iprot.readMapEnd();
+    expanded_ = true;
+  }
+
+  /**
+   * The key type, which is TType.STOP for an empty map read with a protocol
+   * that leaves out the types of empty maps.
+   */
+  public byte getKeyType() throws TException {
+    expand();
+    return keyType_;
+  }
+
+  public byte getValueType() throws TException {
+    expand();
+    return valueType_;
+  }
+
+  public int size() throws TException {
+    expand();
+    return size_;
+  }
+
+  public TDynamicValue getKey(int i) throws TException {
+    expand();
+    checkIndex(i);
+    return keys_[i];
+  }
+
+  public TDynamicValue getValue(int i) throws TException {
+    expand();
+    checkIndex(i);
+    return values_[i];
+  }
+
+  public void setValue(int i, TDynamicValue value) throws TException {
+    expand();
+    checkIndex(i);
+    check(valueType_, value);
+    values_[i] = value;
+    modified_ = true;
+  }
+
+  /**
+   * Returns the value of the given key, or null if there is none.
+   */
+  public TDynamicValue get(TDynamicValue key) throws TException {
+    int i = indexOf(key);
+    return i < 0 ? null : values_[i];
+  }
+
+  /**
+   * Sets the value of the given key and returns its previous value, if any.
+   */
+  public TDynamicValue put(TDynamicValue key, TDynamicValue value) throws TException {
+    expand();
+    if (size_ == 0 && keyType_ == TType.STOP) {
+      keyType_ = key.getType();
+      valueType_ = value.getType();
+    }
+    check(keyType_, key);
+    check(valueType_, value);
+    modified_ = true;
+    int i = indexOf(key);
+    if (i >= 0) {
+      TDynamicValue previous = values_[i];
+      values_[i] = value;
+      return previous;
+    }
+    if (size_ == keys_.length) {
+      TDynamicValue[] keys = new TDynamicValue[size_ * 2];
+      TDynamicValue[] values = new TDynamicValue[size_ * 2];
+      System.arraycopy(keys_, 0, keys, 0, size_);
+      System.arraycopy(values_, 0, values, 0, size_);
+      keys_ = keys;
+      values_ = values;
+    }
+    keys_[size_] = key;
+    values_[size_] = value;
+    size_++;
+    return null;
+  }
+
+  /**
+   * Removes the entry of the given key and returns its value, if any.
+   */
+  public TDynamicValue remove(TDynamicValue key) throws TException {
+    int i = indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+    TDynamicValue removed = values_[i];
+    System.arraycopy(keys_, i + 1, keys_, i, size_ - i - 1);
+    System.arraycopy(values_, i + 1, values_, i, size_ - i - 1);
+    size_--;
+    keys_[size_] = null;
+    values_[size_] = null;
+    modified_ = true;
+    return removed;
+  }
+
+  @Override
+  boolean isModified() {
+    if (!expanded_) {
+      return false;
+    }
+    if (modified_) {
+      return true;
+    }
+    for (int i = 0; i < size_; i++) {
+      if (keys_[i].isModified() || values_[i].isModified()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  void writeValue(TProtocol oprot) throws TException {
+    expand();
+    if (size_ == 0 && keyType_ == TType.STOP) {
+      // other protocols insist on types even for an empty map
+      oprot.writeMapBegin(new TMap(TType.BYTE, TType.BYTE, 0));
+    } else {
+      oprot.writeMapBegin(new TMap(keyType_, valueType_, size_));
+    }
+    for (int i = 0; i < size_; i++) {
+      keys_[i].write(oprot);
+      values_[i].write(oprot);
+    }
+    oprot.writeMapEnd();
+  }
+
+  private void expand() throws TException {
+    if (!expanded_) {
+      readEntries(newProtocol(encoding_, buf_, offset_, length_), encoding_, buf_, true);
+    }
+  }
+
+  private int indexOf(TDynamicValue key) throws TException {
+    expand();
+    for (int i = 0; i < size_; i++) {
+      if (keys_[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= size_) {
+      throw new IndexOutOfBoundsException("Entry " + i + " of " + size_);
+    }
+  }
+
+  private static void check(byte type, TDynamicValue value) {
+    if (value.getType() != type) {
+      throw new IllegalArgumentException("Value of type " + value.getType() + " where " + type + " is expected");
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.protocol;
+
+import org.apache.thrift.TException;
+
+/**
+ * A message read without its service IDL: the message header and the
+ * arguments or result struct as a TDynamicStruct. A proxy can read the
+ * header, look into or change the body, and write the message on with
+ * everything it did not touch copied as it came in.
+ */
+public final class TDynamicMessage {
+  private TMessage message_;
+  private TDynamicStruct body_;
+
+  public TDynamicMessage(TMessage message, TDynamicStruct body) {
+    message_ = message;
+    body_ = body;
+  }
+
+  /**
+   * Reads a message. With a protocol that can read raw values the body is
+   * copied out of the transport undecoded.
+   */
+  public static TDynamicMessage read(TProtocol iprot) throws TException {
+    TMessage message = iprot.readMessageBegin();
+    TDynamicStruct body = (TDynamicStruct)TDynamicValue.read(iprot, TType.STRUCT);
+    iprot.readMessageEnd();
+    return new TDynamicMessage(message, body);
+  }
+
+  /**
+   * Reads a message from length bytes of buf starting at offset, such as a
+   * frame, in the given raw value encoding. The body is not copied and buf
+   * must not change while the message is in use.
+   */
+  public static TDynamicMessage wrap(Class<? extends TProtocol> encoding, byte[] buf, int offset, int length) throws TException {
+    TProtocol iprot = TDynamicValue.newProtocol(encoding, buf, offset, length);
+    TMessage message = iprot.readMessageBegin();
+    TDynamicStruct body = (TDynamicStruct)TDynamicValue.readMember(iprot, TType.STRUCT, encoding, buf, true);
+    iprot.readMessageEnd();
+    return new TDynamicMessage(message, body);
+  }
+
+  public TMessage getMessage() {
+    return message_;
+  }
+
+  public void setMessage(TMessage message) {
+    message_ = message;
+  }
+
+  public TDynamicStruct getBody() {
+    return body_;
+  }
+
+  public void setBody(TDynamicStruct body) {
+    body_ = body;
+  }
+
+  public void write(TProtocol oprot) throws TException {
+    oprot.writeMessageBegin(message_);
+    body_.write(oprot);
+    oprot.writeMessageEnd();
+  }
+}
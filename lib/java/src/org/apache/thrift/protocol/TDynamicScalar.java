@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.protocol;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import org.apache.thrift.TException;
+
+/**
+ * A bool, number, string or binary value. Scalars are immutable; to change
+ * one, put a new one in its place.
+ */
+public final class TDynamicScalar extends TDynamicValue {
+  private final Object value_;
+
+  private TDynamicScalar(byte type, Object value) {
+    super(type);
+    value_ = value;
+  }
+
+  public static TDynamicScalar ofBool(boolean value) {
+    return new TDynamicScalar(TType.BOOL, Boolean.valueOf(value));
+  }
+
+  public static TDynamicScalar ofByte(byte value) {
+    return new TDynamicScalar(TType.BYTE, Byte.valueOf(value));
+  }
+
+  public static TDynamicScalar ofI16(short value) {
+    return new TDynamicScalar(TType.I16, Short.valueOf(value));
+  }
+
+  public static TDynamicScalar ofI32(int value) {
+    return new TDynamicScalar(TType.I32, Integer.valueOf(value));
+  }
+
+  public static TDynamicScalar ofI64(long value) {
+    return new TDynamicScalar(TType.I64, Long.valueOf(value));
+  }
+
+  public static TDynamicScalar ofDouble(double value) {
+    return new TDynamicScalar(TType.DOUBLE, Double.valueOf(value));
+  }
+
+  public static TDynamicScalar ofString(String value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    return new TDynamicScalar(TType.STRING, value);
+  }
+
+  public static TDynamicScalar ofBinary(ByteBuffer value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    return new TDynamicScalar(TType.STRING, value);
+  }
+
+  public boolean getBool() {
+    check(TType.BOOL);
+    return ((Boolean)value_).booleanValue();
+  }
+
+  public byte getByte() {
+    check(TType.BYTE);
+    return ((Byte)value_).byteValue();
+  }
+
+  public short getI16() {
+    check(TType.I16);
+    return ((Short)value_).shortValue();
+  }
+
+  public int getI32() {
+    check(TType.I32);
+    return ((Integer)value_).intValue();
+  }
+
+  public long getI64() {
+    check(TType.I64);
+    return ((Long)value_).longValue();
+  }
+
+  public double getDouble() {
+    check(TType.DOUBLE);
+    return ((Double)value_).doubleValue();
+  }
+
+  /**
+   * Returns a string value, decoding it as UTF-8 if it was read as bytes.
+   */
+  public String getString() {
+    check(TType.STRING);
+    if (value_ instanceof String) {
+      return (String)value_;
+    }
+    ByteBuffer bytes = (ByteBuffer)value_;
+    try {
+      if (bytes.hasArray()) {
+        return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), "UTF-8");
+      }
+      byte[] copy = new byte[bytes.remaining()];
+      bytes.duplicate().get(copy);
+      return new String(copy, "UTF-8");
+    } catch (UnsupportedEncodingException uex) {
+      throw new RuntimeException("JVM DOES NOT SUPPORT UTF-8");
+    }
+  }
+
+  /**
+   * Returns the bytes of a string value, UTF-8 encoding it if it was read as
+   * a string. The buffer may share the bytes the value was read from.
+   */
+  public ByteBuffer getBinary() {
+    check(TType.STRING);
+    if (value_ instanceof ByteBuffer) {
+      return ((ByteBuffer)value_).duplicate();
+    }
+    try {
+      return ByteBuffer.wrap(((String)value_).getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException uex) {
+      throw new RuntimeException("JVM DOES NOT SUPPORT UTF-8");
+    }
+  }
+
+  @Override
+  void writeValue(TProtocol oprot) throws TException {
+    switch (getType()) {
+      case TType.BOOL:
+        oprot.writeBool(getBool());
+        break;
+      case TType.BYTE:
+        oprot.writeByte(getByte());
+        break;
+      case TType.I16:
+        oprot.writeI16(getI16());
+        break;
+      case TType.I32:
+        oprot.writeI32(getI32());
+        break;
+      case TType.I64:
+        oprot.writeI64(getI64());
+        break;
+      case TType.DOUBLE:
+        oprot.writeDouble(getDouble());
+        break;
+      default:
+        if (oprot.getRawValueEncoding() != null) {
+          oprot.writeBinary(getBinary());
+        } else {
+          oprot.writeString(getString());
+        }
+        break;
+    }
+  }
+
+  /**
+   * Scalars are equal when they have the same type and value; strings are
+   * compared by their UTF-8 bytes, however they were read.
+   */
+  @Override
+  public boolean equals(Object that) {
+    if (!(that instanceof TDynamicScalar)) {
+      return false;
+    }
+    TDynamicScalar other = (TDynamicScalar)that;
+    if (getType() != other.getType()) {
+      return false;
+    }
+    if (getType() == TType.STRING) {
+      return getBinary().equals(other.getBinary());
+    }
+    return value_.equals(other.value_);
+  }
+
+  @Override
+  public int hashCode() {
+    return getType() == TType.STRING ? getBinary().hashCode() : value_.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return getType() == TType.STRING ? getString() : value_.toString();
+  }
+
+  private void check(byte type) {
+    if (getType() != type) {
+      throw new IllegalStateException("Value of type " + getType() + " is not of type " + type);
+    }
+  }
+}
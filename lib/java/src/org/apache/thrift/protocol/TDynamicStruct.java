@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.protocol;
+
+import org.apache.thrift.TException;
+
+/**
+ * A struct as a list of fields in the order they were read or added. Field
+ * names are not sent by binary protocols and are written as "".
+ */
+public final class TDynamicStruct extends TDynamicValue {
+  private static final TStruct ANONYMOUS_STRUCT = new TStruct();
+
+  private short[] ids_;
+  private TDynamicValue[] values_;
+  private int count_;
+  // false while the fields are still only in the bytes this was read from
+  private boolean expanded_;
+  private boolean modified_;
+
+  /**
+   * Creates an empty struct.
+   */
+  public TDynamicStruct() {
+    super(TType.STRUCT);
+    ids_ = new short[4];
+    values_ = new TDynamicValue[4];
+    expanded_ = true;
+    modified_ = true;
+  }
+
+  TDynamicStruct(Class<? extends TProtocol> encoding, byte[] buf, int offset, int length) {
+    super(TType.STRUCT, encoding, buf, offset, length);
+  }
+
+  void readFields(TProtocol iprot, Class<? extends TProtocol> encoding, byte[] buf, boolean shared) throws TException {
+    ids_ = new short[8];
+    values_ = new TDynamicValue[8];
+    iprot.readStructBegin();
+    while (true) {
+      TField field = iprot.readFieldBegin();
+      if (field.type == TType.STOP) {
+        break;
+      }
+      add(field.id, readMember(iprot, field.type, encoding, buf, shared));
+      iprot.readFieldEnd();
+    }
+    iprot.readStructEnd();
+    expanded_ = true;
+  }
+
+  public int getFieldCount() throws TException {
+    expand();
+    return count_;
+  }
+
+  public short getFieldId(int i) throws TException {
+    expand();
+    checkIndex(i);
+    return ids_[i];
+  }
+
+  public TDynamicValue getFieldValue(int i) throws TException {
+    expand();
+    checkIndex(i);
+    return values_[i];
+  }
+
+  /**
+   * Returns the value of the field with the given id, or null if there is
+   * none. Should a field appear more than once the last one wins.
+   */
+  public TDynamicValue get(short id) throws TException {
+    int i = lastIndexOf(id);
+    return i < 0 ? null : values_[i];
+  }
+
+  /**
+   * Sets the value of the field with the given id, in place if it is
+   * present and after the other fields if not.
+   */
+  public void set(short id, TDynamicValue value) throws TException {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    int i = lastIndexOf(id);
+    if (i < 0) {
+      add(id, value);
+    } else {
+      values_[i] = value;
+    }
+    modified_ = true;
+  }
+
+  /**
+   * Removes every occurrence of the field with the given id. Returns whether
+   * there was one.
+   */
+  public boolean remove(short id) throws TException {
+    expand();
+    int kept = 0;
+    for (int i = 0; i < count_; i++) {
+      if (ids_[i] != id) {
+        ids_[kept] = ids_[i];
+        values_[kept] = values_[i];
+        kept++;
+      }
+    }
+    boolean removed = kept < count_;
+    for (int i = kept; i < count_; i++) {
+      values_[i] = null;
+    }
+    count_ = kept;
+    modified_ |= removed;
+    return removed;
+  }
+
+  @Override
+  boolean isModified() {
+    if (!expanded_) {
+      return false;
+    }
+    if (modified_) {
+      return true;
+    }
+    for (int i = 0; i < count_; i++) {
+      if (values_[i].isModified()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  void writeValue(TProtocol oprot) throws TException {
+    expand();
+    oprot.writeStructBegin(ANONYMOUS_STRUCT);
+    for (int i = 0; i < count_; i++) {
+      oprot.writeFieldBegin(new TField("", values_[i].getType(), ids_[i]));
+      values_[i].write(oprot);
+      oprot.writeFieldEnd();
+    }
+    oprot.writeFieldStop();
+    oprot.writeStructEnd();
+  }
+
+  private void expand() throws TException {
+    if (!expanded_) {
+      readFields(newProtocol(encoding_, buf_, offset_, length_), encoding_, buf_, true);
+    }
+  }
+
+  private void add(short id, TDynamicValue value) {
+    if (count_ == ids_.length) {
+      short[] ids = new short[count_ * 2];
+      TDynamicValue[] values = new TDynamicValue[count_ * 2];
+      System.arraycopy(ids_, 0, ids, 0, count_);
+      System.arraycopy(values_, 0, values, 0, count_);
+      ids_ = ids;
+      values_ = values;
+    }
+    ids_[count_] = id;
+    values_[count_] = value;
+    count_++;
+  }
+
+  private int lastIndexOf(short id) throws TException {
+    expand();
+    for (int i = count_ - 1; i >= 0; i--) {
+      if (ids_[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= count_) {
+      throw new IndexOutOfBoundsException("Field " + i + " of " + count_);
+    }
+  }
+}
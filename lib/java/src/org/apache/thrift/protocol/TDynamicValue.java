@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.protocol;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.thrift.TBaseHelper;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * A thrift value read without its IDL, for code that routes, inspects or
+ * rewrites messages it has no generated classes for.
+ *
+ * Structs, lists, sets and maps read with a protocol that can read raw
+ * values (binary and compact) are kept as their encoded bytes and only
+ * decoded one level at a time, as they are looked into. Their members are
+ * again slices of the same bytes, which are never written to: changing a
+ * value only changes the node it was made on. When a tree is written with a
+ * protocol of the encoding it was read with, every value that was not
+ * changed goes out as the bytes it came in as, so a proxy that touches one
+ * field of a large message pays for that field and the headers around it.
+ * Values read with any other protocol are decoded eagerly.
+ *
+ * Without the IDL strings and binary look the same. Scalar string values
+ * are kept as bytes and written as binary by protocols that can write raw
+ * values, and as UTF-8 strings by the others, as in TUnknownFields.
+ */
+public abstract class TDynamicValue {
+  private static final ConcurrentMap<Class<?>, Constructor<?>> CONSTRUCTORS =
+      new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+  private final byte type_;
+
+  // the bytes this value was read as, if any
+  final Class<? extends TProtocol> encoding_;
+  final byte[] buf_;
+  final int offset_;
+  final int length_;
+
+  TDynamicValue(byte type) {
+    this(type, null, null, 0, 0);
+  }
+
+  TDynamicValue(byte type, Class<? extends TProtocol> encoding, byte[] buf, int offset, int length) {
+    type_ = type;
+    encoding_ = encoding;
+    buf_ = buf;
+    offset_ = offset;
+    length_ = length;
+  }
+
+  /**
+   * The TType of this value.
+   */
+  public final byte getType() {
+    return type_;
+  }
+
+  /**
+   * Reads a value of the given type.
+   */
+  public static TDynamicValue read(TProtocol iprot, byte type) throws TException {
+    Class<? extends TProtocol> encoding = iprot.getRawValueEncoding();
+    if (encoding != null && isNested(type)) {
+      byte[] value = iprot.readRawValue(type);
+      return wrap(encoding, type, value, 0, value.length);
+    }
+    return decode(iprot, type, false);
+  }
+
+  /**
+   * Returns a value of the given type over length bytes of buf from offset,
+   * encoded as protocols reporting the given raw value encoding write it.
+   * Nothing is decoded until it is looked at, and buf must not change while
+   * the value is in use.
+   */
+  public static TDynamicValue wrap(Class<? extends TProtocol> encoding, byte type, byte[] buf, int offset, int length) throws TException {
+    switch (type) {
+      case TType.STRUCT:
+        return new TDynamicStruct(encoding, buf, offset, length);
+      case TType.LIST:
+      case TType.SET:
+        return new TDynamicList(type, encoding, buf, offset, length);
+      case TType.MAP:
+        return new TDynamicMap(encoding, buf, offset, length);
+      default:
+        return decode(newProtocol(encoding, buf, offset, length), type, true);
+    }
+  }
+
+  /**
+   * Writes this value. Values that are unchanged since they were read are
+   * copied as they are when oprot has the encoding they were read with.
+   */
+  public void write(TProtocol oprot) throws TException {
+    if (buf_ != null && oprot.getRawValueEncoding() == encoding_ && !isModified()) {
+      oprot.writeRawValue(type_, buf_, offset_, length_);
+    } else {
+      writeValue(oprot);
+    }
+  }
+
+  /**
+   * Whether this value or any value in it was changed since it was read.
+   */
+  boolean isModified() {
+    return false;
+  }
+
+  abstract void writeValue(TProtocol oprot) throws TException;
+
+  /**
+   * Reads the next value of the given type from iprot. Nested values are
+   * sliced out of buf when iprot reads it in the given encoding; shared says
+   * whether binary values may keep pointing into iprot's buffer.
+   */
+  static TDynamicValue readMember(TProtocol iprot, byte type, Class<? extends TProtocol> encoding, byte[] buf, boolean shared) throws TException {
+    if (encoding != null && isNested(type)) {
+      int offset = iprot.getTransport().getBufferPosition();
+      int length = iprot.skipRawValue(type);
+      if (length >= 0) {
+        return wrap(encoding, type, buf, offset, length);
+      }
+    }
+    return decode(iprot, type, shared);
+  }
+
+  private static TDynamicValue decode(TProtocol iprot, byte type, boolean shared) throws TException {
+    switch (type) {
+      case TType.BOOL:
+        return TDynamicScalar.ofBool(iprot.readBool());
+      case TType.BYTE:
+        return TDynamicScalar.ofByte(iprot.readByte());
+      case TType.I16:
+        return TDynamicScalar.ofI16(iprot.readI16());
+      case TType.I32:
+        return TDynamicScalar.ofI32(iprot.readI32());
+      case TType.I64:
+        return TDynamicScalar.ofI64(iprot.readI64());
+      case TType.DOUBLE:
+        return TDynamicScalar.ofDouble(iprot.readDouble());
+      case TType.STRING:
+        if (iprot.getRawValueEncoding() == null) {
+          return TDynamicScalar.ofString(iprot.readString());
+        }
+        return TDynamicScalar.ofBinary(shared ? iprot.readBinary() : TBaseHelper.copyBinary(iprot.readBinary()));
+      case TType.STRUCT: {
+        TDynamicStruct value = new TDynamicStruct();
+        value.readFields(iprot, null, null, shared);
+        return value;
+      }
+      case TType.LIST:
+      case TType.SET: {
+        TDynamicList value = new TDynamicList(type, TType.STOP);
+        value.readElements(iprot, null, null, shared);
+        return value;
+      }
+      case TType.MAP: {
+        TDynamicMap value = new TDynamicMap(TType.STOP, TType.STOP);
+        value.readEntries(iprot, null, null, shared);
+        return value;
+      }
+      default:
+        throw new TProtocolException(TProtocolException.INVALID_DATA, "Unrecognized type " + type);
+    }
+  }
+
+  /**
+   * Returns a protocol of the given encoding reading the bytes of a value.
+   */
+  static TProtocol newProtocol(Class<? extends TProtocol> encoding, byte[] buf, int offset, int length) throws TException {
+    try {
+      Constructor<?> constructor = CONSTRUCTORS.get(encoding);
+      if (constructor == null) {
+        constructor = encoding.getConstructor(TTransport.class);
+        CONSTRUCTORS.put(encoding, constructor);
+      }
+      return (TProtocol)constructor.newInstance(new TMemoryInputTransport(buf, offset, length));
+    } catch (Exception e) {
+      throw new TException("Unable to read values encoded by " + encoding.getName(), e);
+    }
+  }
+
+  private static boolean isNested(byte type) {
+    return type == TType.STRUCT || type == TType.LIST || type == TType.SET || type == TType.MAP;
+  }
+}
@@ -21,9 +21,7 @@ package org.apache.thrift.protocol;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.util.Stack;
 
-import org.apache.thrift.TByteArrayOutputStream;
 import org.apache.thrift.TException;
 import org.apache.thrift.transport.TTransport;
 
@@ -35,6 +33,10 @@ import org.apache.thrift.transport.TTransport;
  * Please see the C++ class header for a detailed description of the
  * protocol's wire format.
  *
+ * Output is encoded into an internal buffer and handed to the transport each
+ * time an outermost value, such as a message or a struct, is complete. Input is scanned directly out of the transport's buffer when it
+ * has one, such as TFramedTransport or TMemoryInputTransport.
+ *
  */
 public class TJSONProtocol extends TProtocol {
 
@@ -77,6 +79,18 @@ public class TJSONProtocol extends TProtocol {
     1,  1,'"',  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1, // 2
   };
 
+  // For each ASCII character: 0 if it is written as is, 1 if it is written
+  // as a six character escape sequence using its hex value, or otherwise the
+  // character to write after a backslash
+  private static final byte[] ESCAPE_TABLE = new byte[128];
+  static {
+    for (int i = 0; i < JSON_CHAR_TABLE.length; i++) {
+      byte ch = JSON_CHAR_TABLE[i];
+      ESCAPE_TABLE[i] = ch == 0 ? 1 : ch == 1 ? 0 : ch;
+    }
+    ESCAPE_TABLE['\\'] = '\\';
+  }
+
   private static final String ESCAPE_CHARS = "\"\\/bfnrt";
 
   private static final byte[] ESCAPE_CHAR_VALS = {
@@ -85,6 +99,13 @@ public class TJSONProtocol extends TProtocol {
 
   private static final int  DEF_STRING_SIZE = 16;
 
+  // Strings longer than this are not kept around in the read buffer
+  private static final int MAX_RETAINED_STRING_SIZE = 64 * 1024;
+
+  private static final int WRITE_BUFFER_SIZE = 1024;
+
+  private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
   private static final byte[] NAME_BOOL = new byte[] {'t', 'f'};
   private static final byte[] NAME_BYTE = new byte[] {'i','8'};
   private static final byte[] NAME_I16 = new byte[] {'i','1','6'};
@@ -130,10 +151,10 @@ public class TJSONProtocol extends TProtocol {
     }
   }
 
-  private static final byte getTypeIDForTypeName(byte[] name)
+  private static final byte getTypeIDForTypeName(byte[] name, int len)
     throws TException {
     byte result = TType.STOP;
-    if (name.length > 1) {
+    if (len > 1) {
       switch (name[0]) {
       case 'd':
         result = TType.DOUBLE;
@@ -199,12 +220,16 @@ public class TJSONProtocol extends TProtocol {
   protected class JSONListContext extends JSONBaseContext {
     private boolean first_ = true;
 
+    protected void reset() {
+      first_ = true;
+    }
+
     @Override
     protected void write() throws TException {
       if (first_) {
         first_ = false;
       } else {
-        trans_.write(COMMA);
+        writeJSONSyntaxChar(COMMA);
       }
     }
 
@@ -226,13 +251,18 @@ public class TJSONProtocol extends TProtocol {
     private boolean first_ = true;
     private boolean colon_ = true;
 
+    protected void reset() {
+      first_ = true;
+      colon_ = true;
+    }
+
     @Override
     protected void write() throws TException {
       if (first_) {
         first_ = false;
         colon_ = true;
       } else {
-        trans_.write(colon_ ? COLON : COMMA);
+        writeJSONSyntaxChar(colon_ ? COLON : COMMA);
         colon_ = !colon_;
       }
     }
@@ -254,7 +284,8 @@ public class TJSONProtocol extends TProtocol {
     }
   }
 
-  // Holds up to one byte from the transport
+  // Holds up to one byte from the transport. Bytes are taken straight from
+  // the transport's buffer when it has one.
   protected class LookaheadReader {
 
     private boolean hasData_;
@@ -265,10 +296,14 @@ public class TJSONProtocol extends TProtocol {
     protected byte read() throws TException {
       if (hasData_) {
         hasData_ = false;
+        return data_[0];
       }
-      else {
-        trans_.readAll(data_, 0, 1);
+      if (trans_.getBytesRemainingInBuffer() > 0) {
+        byte ch = trans_.getBuffer()[trans_.getBufferPosition()];
+        trans_.consumeBuffer(1);
+        return ch;
       }
+      trans_.readAll(data_, 0, 1);
       return data_[0];
     }
 
@@ -276,15 +311,29 @@ public class TJSONProtocol extends TProtocol {
     // buffer if it has not been filled already.
     protected byte peek() throws TException {
       if (!hasData_) {
+        if (trans_.getBytesRemainingInBuffer() > 0) {
+          return trans_.getBuffer()[trans_.getBufferPosition()];
+        }
         trans_.readAll(data_, 0, 1);
       }
       hasData_ = true;
       return data_[0];
     }
+
+    // Number of bytes that can be scanned directly in the transport's buffer
+    // without going through this reader.
+    protected int available() {
+      return hasData_ ? 0 : trans_.getBytesRemainingInBuffer();
+    }
   }
 
   // Stack of nested contexts that we may be in
-  private Stack<JSONBaseContext> contextStack_ = new Stack<JSONBaseContext>();
+  private JSONBaseContext[] contextStack_ = new JSONBaseContext[8];
+  private int contextDepth_ = 0;
+
+  // Contexts are reused: at most one is in use at each depth
+  private JSONPairContext[] pairContexts_ = new JSONPairContext[8];
+  private JSONListContext[] listContexts_ = new JSONListContext[8];
 
   // Current context that we are in
   private JSONBaseContext context_ = new JSONBaseContext();
@@ -295,15 +344,60 @@ public class TJSONProtocol extends TProtocol {
   // Write out the TField names as a string instead of the default integer value
   private boolean fieldNamesAsString_ = false;
 
+  // Output waiting to be written to the transport
+  private final byte[] writeBuffer_ = new byte[WRITE_BUFFER_SIZE];
+  private int writePos_ = 0;
+
+  // Holds the contents of the last JSON string read
+  private byte[] stringBuffer_ = new byte[DEF_STRING_SIZE];
+
+  // Holds the characters of the last JSON number read
+  private byte[] numberBuffer_ = new byte[32];
+
   // Push a new JSON context onto the stack.
   private void pushContext(JSONBaseContext c) {
-    contextStack_.push(context_);
+    if (contextDepth_ == contextStack_.length) {
+      contextStack_ = grow(contextStack_, new JSONBaseContext[contextDepth_ * 2]);
+    }
+    contextStack_[contextDepth_++] = context_;
     context_ = c;
   }
 
   // Pop the last JSON context off the stack
   private void popContext() {
-    context_ = contextStack_.pop();
+    context_ = contextStack_[--contextDepth_];
+    contextStack_[contextDepth_] = null;
+  }
+
+  private JSONPairContext pairContext() {
+    if (contextDepth_ >= pairContexts_.length) {
+      pairContexts_ = grow(pairContexts_, new JSONPairContext[contextDepth_ * 2]);
+    }
+    JSONPairContext c = pairContexts_[contextDepth_];
+    if (c == null) {
+      c = pairContexts_[contextDepth_] = new JSONPairContext();
+    } else {
+      c.reset();
+    }
+    return c;
+  }
+
+  private JSONListContext listContext() {
+    if (contextDepth_ >= listContexts_.length) {
+      listContexts_ = grow(listContexts_, new JSONListContext[contextDepth_ * 2]);
+    }
+    JSONListContext c = listContexts_[contextDepth_];
+    if (c == null) {
+      c = listContexts_[contextDepth_] = new JSONListContext();
+    } else {
+      c.reset();
+    }
+    return c;
+  }
+
+  private static <T> T[] grow(T[] from, T[] to) {
+    System.arraycopy(from, 0, to, 0, from.length);
+    return to;
   }
 
   /**
@@ -320,13 +414,61 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public void reset() {
-    contextStack_.clear();
+    while (contextDepth_ > 0) {
+      popContext();
+    }
     context_ = new JSONBaseContext();
     reader_ = new LookaheadReader();
+    writePos_ = 0;
   }
 
-  // Temporary buffer used by several methods
-  private byte[] tmpbuf_ = new byte[4];
+  // Write a syntax byte b[0].
+  // Marked protected to avoid synthetic accessor in JSONListContext.write
+  // and JSONPairContext.write
+  protected void writeJSONSyntaxChar(byte[] b) throws TException {
+    if (writePos_ == writeBuffer_.length) {
+      flushWriteBuffer();
+    }
+    writeBuffer_[writePos_++] = b[0];
+  }
+
+  // Make room for at least n more bytes in the write buffer.
+  private void reserve(int n) throws TException {
+    if (writeBuffer_.length - writePos_ < n) {
+      flushWriteBuffer();
+    }
+  }
+
+  // Append bytes to the write buffer, or write them straight through if they
+  // would not fit in it.
+  private void put(byte[] b, int off, int len) throws TException {
+    if (writeBuffer_.length - writePos_ < len) {
+      flushWriteBuffer();
+      if (len > writeBuffer_.length) {
+        trans_.write(b, off, len);
+        return;
+      }
+    }
+    System.arraycopy(b, off, writeBuffer_, writePos_, len);
+    writePos_ += len;
+  }
+
+  // Hand everything written so far to the transport.
+  private void flushWriteBuffer() throws TException {
+    if (writePos_ > 0) {
+      trans_.write(writeBuffer_, 0, writePos_);
+      writePos_ = 0;
+    }
+  }
+
+  // Called after each value is written. Once the outermost value is complete
+  // its output must reach the transport, since the caller may flush it or
+  // read it back.
+  private void endValue() throws TException {
+    if (contextDepth_ == 0) {
+      flushWriteBuffer();
+    }
+  }
 
   // Read a byte that must match b[0]; otherwise an exception is thrown.
   // Marked protected to avoid synthetic accessor in JSONListContext.read
@@ -365,59 +507,117 @@ public class TJSONProtocol extends TProtocol {
     }
   }
 
-  // Write the bytes in array buf as a JSON characters, escaping as needed
+  // Write the bytes in array buf as a JSON characters, escaping as needed.
+  // Runs of bytes that need no escaping are copied in bulk.
   private void writeJSONString(byte[] b) throws TException {
     context_.write();
-    trans_.write(QUOTE);
+    writeJSONSyntaxChar(QUOTE);
     int len = b.length;
+    int run = 0;
     for (int i = 0; i < len; i++) {
-      if ((b[i] & 0x00FF) >= 0x30) {
-        if (b[i] == BACKSLASH[0]) {
-          trans_.write(BACKSLASH);
-          trans_.write(BACKSLASH);
-        }
-        else {
-          trans_.write(b, i, 1);
-        }
+      byte ch = b[i];
+      if (ch >= 0 && ESCAPE_TABLE[ch] != 0) {
+        put(b, run, i - run);
+        writeJSONEscape(ch);
+        run = i + 1;
       }
-      else {
-        tmpbuf_[0] = JSON_CHAR_TABLE[b[i]];
-        if (tmpbuf_[0] == 1) {
-          trans_.write(b, i, 1);
-        }
-        else if (tmpbuf_[0] > 1) {
-          trans_.write(BACKSLASH);
-          trans_.write(tmpbuf_, 0, 1);
+    }
+    put(b, run, len - run);
+    writeJSONSyntaxChar(QUOTE);
+    endValue();
+  }
+
+  // Write the characters of str as a JSON string, encoding them as UTF-8
+  // without an intermediate byte array. Unpaired surrogates are written as
+  // '?', as String.getBytes does.
+  private void writeJSONString(String str) throws TException {
+    context_.write();
+    writeJSONSyntaxChar(QUOTE);
+    int len = str.length();
+    for (int i = 0; i < len; i++) {
+      char ch = str.charAt(i);
+      if (ch < 0x80) {
+        if (ESCAPE_TABLE[ch] != 0) {
+          writeJSONEscape((byte)ch);
+          continue;
         }
-        else {
-          trans_.write(ESCSEQ);
-          tmpbuf_[0] = hexChar((byte)(b[i] >> 4));
-          tmpbuf_[1] = hexChar(b[i]);
-          trans_.write(tmpbuf_, 0, 2);
+        if (writePos_ == writeBuffer_.length) {
+          flushWriteBuffer();
         }
+        writeBuffer_[writePos_++] = (byte)ch;
+        continue;
+      }
+      reserve(4);
+      if (ch < 0x800) {
+        writeBuffer_[writePos_++] = (byte)(0xC0 | (ch >> 6));
+        writeBuffer_[writePos_++] = (byte)(0x80 | (ch & 0x3F));
+      } else if (ch < Character.MIN_SURROGATE || ch > Character.MAX_SURROGATE) {
+        writeBuffer_[writePos_++] = (byte)(0xE0 | (ch >> 12));
+        writeBuffer_[writePos_++] = (byte)(0x80 | ((ch >> 6) & 0x3F));
+        writeBuffer_[writePos_++] = (byte)(0x80 | (ch & 0x3F));
+      } else if (Character.isHighSurrogate(ch) && i + 1 < len &&
+                 Character.isLowSurrogate(str.charAt(i + 1))) {
+        int cp = Character.toCodePoint(ch, str.charAt(++i));
+        writeBuffer_[writePos_++] = (byte)(0xF0 | (cp >> 18));
+        writeBuffer_[writePos_++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+        writeBuffer_[writePos_++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+        writeBuffer_[writePos_++] = (byte)(0x80 | (cp & 0x3F));
+      } else {
+        writeBuffer_[writePos_++] = '?';
       }
     }
-    trans_.write(QUOTE);
+    writeJSONSyntaxChar(QUOTE);
+    endValue();
+  }
+
+  // Write the escape sequence for an ASCII character that needs one
+  private void writeJSONEscape(byte ch) throws TException {
+    reserve(6);
+    byte esc = ESCAPE_TABLE[ch];
+    writeBuffer_[writePos_++] = BACKSLASH[0];
+    if (esc == 1) {
+      writeBuffer_[writePos_++] = ESCSEQ[1];
+      writeBuffer_[writePos_++] = ESCSEQ[2];
+      writeBuffer_[writePos_++] = ESCSEQ[3];
+      writeBuffer_[writePos_++] = hexChar((byte)(ch >> 4));
+      writeBuffer_[writePos_++] = hexChar(ch);
+    } else {
+      writeBuffer_[writePos_++] = esc;
+    }
   }
 
   // Write out number as a JSON value. If the context dictates so, it will be
   // wrapped in quotes to output as a JSON string.
   private void writeJSONInteger(long num) throws TException {
     context_.write();
-    String str = Long.toString(num);
     boolean escapeNum = context_.escapeNum();
+    reserve(22);
     if (escapeNum) {
-      trans_.write(QUOTE);
+      writeBuffer_[writePos_++] = QUOTE[0];
     }
-    try {
-      byte[] buf = str.getBytes("UTF-8");
-      trans_.write(buf);
-    } catch (UnsupportedEncodingException uex) {
-      throw new TException("JVM DOES NOT SUPPORT UTF-8");
+    if (num == Long.MIN_VALUE) {
+      System.arraycopy(MIN_LONG, 0, writeBuffer_, writePos_, MIN_LONG.length);
+      writePos_ += MIN_LONG.length;
+    } else {
+      if (num < 0) {
+        writeBuffer_[writePos_++] = '-';
+        num = -num;
+      }
+      int digits = 1;
+      for (long n = num; n >= 10; n /= 10) {
+        digits++;
+      }
+      int pos = writePos_ + digits;
+      writePos_ = pos;
+      do {
+        writeBuffer_[--pos] = (byte)('0' + (num % 10));
+        num /= 10;
+      } while (num != 0);
     }
     if (escapeNum) {
-      trans_.write(QUOTE);
+      writeBuffer_[writePos_++] = QUOTE[0];
     }
+    endValue();
   }
 
   // Write out a double as a JSON value. If it is NaN or infinity or if the
@@ -441,74 +641,75 @@ public class TJSONProtocol extends TProtocol {
   }
 
     boolean escapeNum = special || context_.escapeNum();
+    int len = str.length();
+    reserve(len + 2);
     if (escapeNum) {
-      trans_.write(QUOTE);
+      writeBuffer_[writePos_++] = QUOTE[0];
     }
-    try {
-      byte[] b = str.getBytes("UTF-8");
-      trans_.write(b, 0, b.length);
-    } catch (UnsupportedEncodingException uex) {
-      throw new TException("JVM DOES NOT SUPPORT UTF-8");
+    // Double.toString only produces ASCII
+    for (int i = 0; i < len; i++) {
+      writeBuffer_[writePos_++] = (byte)str.charAt(i);
     }
     if (escapeNum) {
-      trans_.write(QUOTE);
+      writeBuffer_[writePos_++] = QUOTE[0];
     }
+    endValue();
   }
 
   // Write out contents of byte array b as a JSON string with base-64 encoded
   // data
   private void writeJSONBase64(byte[] b, int offset, int length) throws TException {
     context_.write();
-    trans_.write(QUOTE);
+    writeJSONSyntaxChar(QUOTE);
     int len = length;
     int off = offset;
     while (len >= 3) {
       // Encode 3 bytes at a time
-      TBase64Utils.encode(b, off, 3, tmpbuf_, 0);
-      trans_.write(tmpbuf_, 0, 4);
+      reserve(4);
+      TBase64Utils.encode(b, off, 3, writeBuffer_, writePos_);
+      writePos_ += 4;
       off += 3;
       len -= 3;
     }
     if (len > 0) {
       // Encode remainder
-      TBase64Utils.encode(b, off, len, tmpbuf_, 0);
-      trans_.write(tmpbuf_, 0, len + 1);
+      reserve(4);
+      TBase64Utils.encode(b, off, len, writeBuffer_, writePos_);
+      writePos_ += len + 1;
     }
-    trans_.write(QUOTE);
+    writeJSONSyntaxChar(QUOTE);
+    endValue();
   }
 
   private void writeJSONObjectStart() throws TException {
     context_.write();
-    trans_.write(LBRACE);
-    pushContext(new JSONPairContext());
+    writeJSONSyntaxChar(LBRACE);
+    pushContext(pairContext());
   }
 
   private void writeJSONObjectEnd() throws TException {
     popContext();
-    trans_.write(RBRACE);
+    writeJSONSyntaxChar(RBRACE);
+    endValue();
   }
 
   private void writeJSONArrayStart() throws TException {
     context_.write();
-    trans_.write(LBRACKET);
-    pushContext(new JSONListContext());
+    writeJSONSyntaxChar(LBRACKET);
+    pushContext(listContext());
   }
 
   private void writeJSONArrayEnd() throws TException {
     popContext();
-    trans_.write(RBRACKET);
+    writeJSONSyntaxChar(RBRACKET);
+    endValue();
   }
 
   @Override
   public void writeMessageBegin(TMessage message) throws TException {
     writeJSONArrayStart();
     writeJSONInteger(VERSION);
-    try {
-      byte[] b = message.name.getBytes("UTF-8");
-      writeJSONString(b);
-    } catch (UnsupportedEncodingException uex) {
-      throw new TException("JVM DOES NOT SUPPORT UTF-8");
-    }
+    writeJSONString(message.name);
     writeJSONInteger(message.type);
     writeJSONInteger(message.seqid);
   }
@@ -618,12 +819,7 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public void writeString(String str) throws TException {
-    try {
-      byte[] b = str.getBytes("UTF-8");
-      writeJSONString(b);
-    } catch (UnsupportedEncodingException uex) {
-      throw new TException("JVM DOES NOT SUPPORT UTF-8");
-    }
+    writeJSONString(str);
   }
 
   @Override
@@ -636,15 +832,38 @@ public class TJSONProtocol extends TProtocol {
    */
 
   // Read in a JSON string, unescaping as appropriate.. Skip reading from the
-  // context if skipContext is true.
-  private TByteArrayOutputStream readJSONString(boolean skipContext)
+  // context if skipContext is true. The contents are left in stringBuffer_
+  // and their length is returned.
+  private int readJSONString(boolean skipContext)
     throws TException {
-    TByteArrayOutputStream arr = new TByteArrayOutputStream(DEF_STRING_SIZE);
+    if (stringBuffer_.length > MAX_RETAINED_STRING_SIZE) {
+      stringBuffer_ = new byte[DEF_STRING_SIZE];
+    }
+    int len = 0;
     if (!skipContext) {
       context_.read();
     }
     readJSONSyntaxChar(QUOTE);
     while (true) {
+      // Copy runs of plain characters straight out of the transport's buffer
+      int avail = reader_.available();
+      if (avail > 0) {
+        byte[] buf = trans_.getBuffer();
+        int start = trans_.getBufferPosition();
+        int end = start + avail;
+        int pos = start;
+        while (pos < end && buf[pos] != QUOTE[0] && buf[pos] != ESCSEQ[0]) {
+          pos++;
+        }
+        if (pos > start) {
+          ensureStringCapacity(len + pos - start);
+          System.arraycopy(buf, start, stringBuffer_, len, pos - start);
+          len += pos - start;
+          trans_.consumeBuffer(pos - start);
+          continue;
+        }
+      }
+
       byte ch = reader_.read();
       if (ch == QUOTE[0]) {
         break;
@@ -654,8 +873,9 @@ public class TJSONProtocol extends TProtocol {
         if (ch == ESCSEQ[1]) {
           readJSONSyntaxChar(ZERO);
           readJSONSyntaxChar(ZERO);
-          trans_.readAll(tmpbuf_, 0, 2);
-          ch = (byte)((hexVal((byte)tmpbuf_[0]) << 4) + hexVal(tmpbuf_[1]));
+          byte hi = reader_.read();
+          byte lo = reader_.read();
+          ch = (byte)((hexVal(hi) << 4) + hexVal(lo));
         }
         else {
           int off = ESCAPE_CHARS.indexOf(ch);
@@ -666,9 +886,28 @@ public class TJSONProtocol extends TProtocol {
           ch = ESCAPE_CHAR_VALS[off];
         }
       }
-      arr.write(ch);
+      ensureStringCapacity(len + 1);
+      stringBuffer_[len++] = ch;
+    }
+    return len;
+  }
+
+  private void ensureStringCapacity(int size) {
+    if (size > stringBuffer_.length) {
+      byte[] buf = new byte[Math.max(size, stringBuffer_.length * 2)];
+      System.arraycopy(stringBuffer_, 0, buf, 0, stringBuffer_.length);
+      stringBuffer_ = buf;
+    }
+  }
+
+  // Decode the first len bytes of stringBuffer_ as UTF-8
+  private String stringBufferToString(int len) throws TException {
+    try {
+      return new String(stringBuffer_, 0, len, "UTF-8");
+    }
+    catch (UnsupportedEncodingException ex) {
+      throw new TException("JVM DOES NOT SUPPORT UTF-8");
     }
-    return arr;
   }
 
   // Return true if the given byte could be a valid part of a JSON number.
@@ -696,16 +935,23 @@ public class TJSONProtocol extends TProtocol {
 
   // Read in a sequence of characters that are all valid in JSON numbers. Does
   // not do a complete regex check to validate that this is actually a number.
-  private String readJSONNumericChars() throws TException {
-    StringBuilder strbld = new StringBuilder();
+  // The characters are left in numberBuffer_ and their count is returned.
+  private int readJSONNumericChars() throws TException {
+    int len = 0;
     while (true) {
       byte ch = reader_.peek();
       if (!isJSONNumeric(ch)) {
         break;
       }
-      strbld.append((char)reader_.read());
+      reader_.read();
+      if (len == numberBuffer_.length) {
+        byte[] buf = new byte[len * 2];
+        System.arraycopy(numberBuffer_, 0, buf, 0, len);
+        numberBuffer_ = buf;
+      }
+      numberBuffer_[len++] = ch;
     }
-    return strbld.toString();
+    return len;
   }
 
   // Read in a JSON number. If the context dictates, read in enclosing quotes.
@@ -714,17 +960,11 @@ public class TJSONProtocol extends TProtocol {
     if (context_.escapeNum()) {
       readJSONSyntaxChar(QUOTE);
     }
-    String str = readJSONNumericChars();
+    int len = readJSONNumericChars();
     if (context_.escapeNum()) {
       readJSONSyntaxChar(QUOTE);
     }
-    try {
-      return Long.valueOf(str);
-    }
-    catch (NumberFormatException ex) {
-      throw new TProtocolException(TProtocolException.INVALID_DATA,
-                                   "Bad data encounted in numeric data");
-    }
+    return TNumberUtils.parseLong(numberBuffer_, len);
   }
 
   // Read in a JSON double value. Throw if the value is not wrapped in quotes
@@ -732,41 +972,35 @@ public class TJSONProtocol extends TProtocol {
   private double readJSONDouble() throws TException {
     context_.read();
     if (reader_.peek() == QUOTE[0]) {
-      TByteArrayOutputStream arr = readJSONString(true);
+      String str = stringBufferToString(readJSONString(true));
+      double dub;
       try {
-        double dub = Double.valueOf(arr.toString("UTF-8"));
-        if (!context_.escapeNum() && !Double.isNaN(dub) &&
-            !Double.isInfinite(dub)) {
-          // Throw exception -- we should not be in a string in this case
-          throw new TProtocolException(TProtocolException.INVALID_DATA,
-                                       "Numeric data unexpectedly quoted");
-        }
-        return dub;
+        dub = Double.valueOf(str);
       }
-      catch (UnsupportedEncodingException ex) {
-        throw new TException("JVM DOES NOT SUPPORT UTF-8");
+      catch (NumberFormatException ex) {
+        throw TNumberUtils.badNumber();
       }
+      if (!context_.escapeNum() && !Double.isNaN(dub) &&
+          !Double.isInfinite(dub)) {
+        // Throw exception -- we should not be in a string in this case
+        throw new TProtocolException(TProtocolException.INVALID_DATA,
+                                     "Numeric data unexpectedly quoted");
+      }
+      return dub;
     }
     else {
       if (context_.escapeNum()) {
         // This will throw - we should have had a quote if escapeNum == true
         readJSONSyntaxChar(QUOTE);
       }
-      try {
-        return Double.valueOf(readJSONNumericChars());
-      }
-      catch (NumberFormatException ex) {
-        throw new TProtocolException(TProtocolException.INVALID_DATA,
-                                     "Bad data encounted in numeric data");
-      }
+      return TNumberUtils.parseDouble(numberBuffer_, readJSONNumericChars());
     }
   }
 
   // Read in a JSON string containing base-64 encoded data and decode it.
   private byte[] readJSONBase64() throws TException {
-    TByteArrayOutputStream arr = readJSONString(false);
-    byte[] b = arr.get();
-    int len = arr.len();
+    int len = readJSONString(false);
+    byte[] b = stringBuffer_;
     int off = 0;
     int size = 0;
     while (len >= 4) {
@@ -792,7 +1026,7 @@ public class TJSONProtocol extends TProtocol {
   private void readJSONObjectStart() throws TException {
     context_.read();
     readJSONSyntaxChar(LBRACE);
-    pushContext(new JSONPairContext());
+    pushContext(pairContext());
   }
 
   private void readJSONObjectEnd() throws TException {
@@ -803,7 +1037,7 @@ public class TJSONProtocol extends TProtocol {
   private void readJSONArrayStart() throws TException {
     context_.read();
     readJSONSyntaxChar(LBRACKET);
-    pushContext(new JSONListContext());
+    pushContext(listContext());
   }
 
   private void readJSONArrayEnd() throws TException {
@@ -818,13 +1052,7 @@ public class TJSONProtocol extends TProtocol {
       throw new TProtocolException(TProtocolException.BAD_VERSION,
                                    "Message contained bad version.");
     }
-    String name;
-    try {
-      name = readJSONString(false).toString("UTF-8");
-    }
-    catch (UnsupportedEncodingException ex) {
-      throw new TException("JVM DOES NOT SUPPORT UTF-8");
-    }
+    String name = stringBufferToString(readJSONString(false));
     byte type = (byte) readJSONInteger();
     int seqid = (int) readJSONInteger();
     return new TMessage(name, type, seqid);
@@ -857,7 +1085,7 @@ public class TJSONProtocol extends TProtocol {
     else {
       id = (short) readJSONInteger();
       readJSONObjectStart();
-      type = getTypeIDForTypeName(readJSONString(false).get());
+      type = getTypeIDForTypeName(stringBuffer_, readJSONString(false));
     }
     return new TField("", type, id);
   }
@@ -870,8 +1098,8 @@ public class TJSONProtocol extends TProtocol {
   @Override
   public TMap readMapBegin() throws TException {
     readJSONArrayStart();
-    byte keyType = getTypeIDForTypeName(readJSONString(false).get());
-    byte valueType = getTypeIDForTypeName(readJSONString(false).get());
+    byte keyType = getTypeIDForTypeName(stringBuffer_, readJSONString(false));
+    byte valueType = getTypeIDForTypeName(stringBuffer_, readJSONString(false));
     int size = (int)readJSONInteger();
     readJSONObjectStart();
     return new TMap(keyType, valueType, size);
@@ -886,7 +1114,7 @@ public class TJSONProtocol extends TProtocol {
   @Override
   public TList readListBegin() throws TException {
     readJSONArrayStart();
-    byte elemType = getTypeIDForTypeName(readJSONString(false).get());
+    byte elemType = getTypeIDForTypeName(stringBuffer_, readJSONString(false));
     int size = (int)readJSONInteger();
     return new TList(elemType, size);
   }
@@ -899,7 +1127,7 @@ public class TJSONProtocol extends TProtocol {
   @Override
   public TSet readSetBegin() throws TException {
     readJSONArrayStart();
-    byte elemType = getTypeIDForTypeName(readJSONString(false).get());
+    byte elemType = getTypeIDForTypeName(stringBuffer_, readJSONString(false));
     int size = (int)readJSONInteger();
     return new TSet(elemType, size);
   }
@@ -941,12 +1169,7 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public String readString() throws TException {
-    try {
-      return readJSONString(false).toString("UTF-8");
-    }
-    catch (UnsupportedEncodingException ex) {
-      throw new TException("JVM DOES NOT SUPPORT UTF-8");
-    }
+    return stringBufferToString(readJSONString(false));
   }
 
   @Override
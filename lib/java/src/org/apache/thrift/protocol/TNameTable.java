@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A fixed set of names, such as the method names a processor serves, that a
+ * protocol can match against the encoded bytes of a message name without
+ * decoding them. See {@link TProtocol#readMessageBegin(TNameTable)}.
+ *
+ * Names are kept in an open addressed table whose hash seed is chosen when
+ * the table is built so that, in practice, every name lands in a slot of its
+ * own and a lookup is one hash over the bytes and one comparison.
+ */
+public final class TNameTable {
+  // seeds tried per table size before the table is doubled
+  private static final int SEED_ATTEMPTS = 32;
+
+  private final String[] names_;
+  private final byte[][] encoded_;
+  private final int mask_;
+  private final int seed_;
+
+  public TNameTable(Collection<String> names) {
+    Set<String> distinct = new LinkedHashSet<String>(names);
+    String[] values = distinct.toArray(new String[distinct.size()]);
+    byte[][] keys = new byte[values.length][];
+    for (int i = 0; i < values.length; i++) {
+      keys[i] = utf8(values[i]);
+    }
+
+    int size = 2;
+    while (size < values.length * 2) {
+      size <<= 1;
+    }
+    int seed = 0;
+    search:
+    while (true) {
+      for (int attempt = 0; attempt < SEED_ATTEMPTS; attempt++, seed++) {
+        if (isPerfect(keys, size - 1, seed)) {
+          break search;
+        }
+      }
+      if (size >= values.length * 64) {
+        // settle for probing past the odd collision
+        break;
+      }
+      size <<= 1;
+    }
+
+    names_ = new String[size];
+    encoded_ = new byte[size][];
+    mask_ = size - 1;
+    seed_ = seed;
+    for (int i = 0; i < values.length; i++) {
+      int slot = hash(keys[i], 0, keys[i].length, seed) & mask_;
+      while (encoded_[slot] != null) {
+        slot = (slot + 1) & mask_;
+      }
+      names_[slot] = values[i];
+      encoded_[slot] = keys[i];
+    }
+  }
+
+  /**
+   * Returns the name in this table whose UTF-8 encoding is the given bytes,
+   * or null if there is none. The same String instance is returned every
+   * time, so it hashes and compares cheaply.
+   */
+  public String find(byte[] buf, int off, int len) {
+    int slot = hash(buf, off, len, seed_) & mask_;
+    byte[] candidate;
+    while ((candidate = encoded_[slot]) != null) {
+      if (matches(candidate, buf, off, len)) {
+        return names_[slot];
+      }
+      slot = (slot + 1) & mask_;
+    }
+    return null;
+  }
+
+  private static boolean isPerfect(byte[][] keys, int mask, int seed) {
+    boolean[] used = new boolean[mask + 1];
+    for (byte[] key : keys) {
+      int slot = hash(key, 0, key.length, seed) & mask;
+      if (used[slot]) {
+        return false;
+      }
+      used[slot] = true;
+    }
+    return true;
+  }
+
+  private static int hash(byte[] buf, int off, int len, int seed) {
+    int h = seed * 0x9e3779b9 + len;
+    for (int i = off; i < off + len; i++) {
+      h = h * 31 + buf[i];
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h;
+  }
+
+  private static boolean matches(byte[] candidate, byte[] buf, int off, int len) {
+    if (candidate.length != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (candidate[i] != buf[off + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] utf8(String name) {
+    try {
+      return name.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("JVM DOES NOT SUPPORT UTF-8", e);
+    }
+  }
+}
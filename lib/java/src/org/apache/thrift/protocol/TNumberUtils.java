@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+/**
+ * Parsing of numbers straight from the ASCII bytes of the text protocols,
+ * without going through a String.
+ *
+ * Like TBase64Utils this is kept at package level; callers are expected to
+ * have already gathered the characters of a single number.
+ */
+class TNumberUtils {
+
+  // Powers of ten that are exactly representable as doubles
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  static TProtocolException badNumber() {
+    return new TProtocolException(TProtocolException.INVALID_DATA,
+                                  "Bad data encounted in numeric data");
+  }
+
+  // Parse the digits of a long, with an optional sign, accumulating
+  // negatively so that Long.MIN_VALUE can be represented.
+  static long parseLong(byte[] b, int len) throws TProtocolException {
+    int i = 0;
+    boolean negative = false;
+    if (len > 0 && (b[0] == '-' || b[0] == '+')) {
+      negative = b[0] == '-';
+      i = 1;
+    }
+    if (i == len) {
+      throw badNumber();
+    }
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long multmin = limit / 10;
+    long result = 0;
+    for (; i < len; i++) {
+      int digit = b[i] - '0';
+      if (digit < 0 || digit > 9 || result < multmin) {
+        throw badNumber();
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw badNumber();
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  // Parse a double. Values with at most 15 significant digits and a small
+  // exponent are computed exactly from the digits; anything else is left to
+  // Double.parseDouble.
+  static double parseDouble(byte[] b, int len) throws TProtocolException {
+    int i = 0;
+    boolean negative = false;
+    if (len > 0 && (b[0] == '-' || b[0] == '+')) {
+      negative = b[0] == '-';
+      i = 1;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean sawDigit = false;
+    boolean fraction = false;
+    for (; i < len; i++) {
+      byte ch = b[i];
+      if (ch == '.' && !fraction) {
+        fraction = true;
+        continue;
+      }
+      if (ch < '0' || ch > '9') {
+        break;
+      }
+      sawDigit = true;
+      if (mantissa != 0 || ch != '0') {
+        if (++digits > 15) {
+          return parseDoubleSlow(b, len);
+        }
+        mantissa = mantissa * 10 + (ch - '0');
+      }
+      if (fraction) {
+        scale--;
+      }
+    }
+    if (!sawDigit) {
+      return parseDoubleSlow(b, len);
+    }
+    if (i < len && (b[i] == 'e' || b[i] == 'E')) {
+      i++;
+      boolean negativeExp = false;
+      if (i < len && (b[i] == '-' || b[i] == '+')) {
+        negativeExp = b[i] == '-';
+        i++;
+      }
+      int exp = 0;
+      boolean sawExpDigit = false;
+      for (; i < len && b[i] >= '0' && b[i] <= '9'; i++) {
+        sawExpDigit = true;
+        exp = exp * 10 + (b[i] - '0');
+        if (exp > POWERS_OF_TEN.length * 2) {
+          return parseDoubleSlow(b, len);
+        }
+      }
+      if (!sawExpDigit) {
+        return parseDoubleSlow(b, len);
+      }
+      scale += negativeExp ? -exp : exp;
+    }
+    if (i != len) {
+      return parseDoubleSlow(b, len);
+    }
+    double value = mantissa;
+    if (mantissa != 0 && scale != 0) {
+      if (scale > 0 && scale < POWERS_OF_TEN.length) {
+        value *= POWERS_OF_TEN[scale];
+      } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+        value /= POWERS_OF_TEN[-scale];
+      } else {
+        return parseDoubleSlow(b, len);
+      }
+    }
+    return negative ? -value : value;
+  }
+
+  private static double parseDoubleSlow(byte[] b, int len) throws TProtocolException {
+    char[] chars = new char[len];
+    for (int i = 0; i < len; i++) {
+      chars[i] = (char)b[i];
+    }
+    try {
+      return Double.parseDouble(new String(chars));
+    }
+    catch (NumberFormatException ex) {
+      throw badNumber();
+    }
+  }}
@@ -20,10 +20,13 @@
 package org.apache.thrift.protocol;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.thrift.TException;
 import org.apache.thrift.scheme.IScheme;
 import org.apache.thrift.scheme.StandardScheme;
+import org.apache.thrift.scheme.TupleScheme;
 import org.apache.thrift.transport.TTransport;
 
 /**
@@ -32,6 +35,12 @@ import org.apache.thrift.transport.TTransport;
  */
 public abstract class TProtocol {
 
+  /**
+   * Scheme ids, as returned by {@link #getSchemeId()}
+   */
+  public static final int STANDARD_SCHEME_ID = 0;
+  public static final int TUPLE_SCHEME_ID = 1;
+
   /**
    * Prevent direct instantiation
    */
@@ -109,6 +118,45 @@ public abstract class TProtocol {
 
   public abstract TMessage readMessageBegin() throws TException;
 
+  /**
+   * Reads a message header like readMessageBegin(), except that a name found
+   * in names is returned as that table's instance of it. Protocols that can
+   * match the encoded name in place do so without decoding it. Others, and
+   * names missing from the table, are decoded as usual. Decorators leave
+   * this to their own readMessageBegin(), which they may have overridden.
+   */
+  public TMessage readMessageBegin(TNameTable names) throws TException {
+    return readMessageBegin();
+  }
+
+  // Subclasses of the protocols that match names in place, by whether they
+  // override readMessageBegin()
+  private static final ConcurrentMap<Class<?>, Boolean> OVERRIDES_READ_MESSAGE_BEGIN =
+      new ConcurrentHashMap<Class<?>, Boolean>();
+
+  /**
+   * Whether this protocol's class overrides readMessageBegin() as declared
+   * by base. If so, base's readMessageBegin(TNameTable) has to call it rather
+   * than parse the header itself, or processors would bypass the override.
+   */
+  final boolean overridesReadMessageBegin(Class<? extends TProtocol> base) {
+    Class<?> protocolClass = getClass();
+    if (protocolClass == base) {
+      return false;
+    }
+    Boolean overrides = OVERRIDES_READ_MESSAGE_BEGIN.get(protocolClass);
+    if (overrides == null) {
+      try {
+        overrides = protocolClass.getMethod("readMessageBegin").getDeclaringClass() != base;
+      } catch (NoSuchMethodException e) {
+        // every protocol has it
+        overrides = Boolean.FALSE;
+      }
+      OVERRIDES_READ_MESSAGE_BEGIN.put(protocolClass, overrides);
+    }
+    return overrides;
+  }
+
   public abstract void readMessageEnd() throws TException;
 
   public abstract TStruct readStructBegin() throws TException;
@@ -147,6 +195,54 @@ public abstract class TProtocol {
 
   public abstract ByteBuffer readBinary() throws TException;
 
+  /**
+   * The protocol whose encoding readRawValue returns, or null if this
+   * protocol cannot read raw values. A raw value can be written by any
+   * protocol that reports the same encoding.
+   */
+  public Class<? extends TProtocol> getRawValueEncoding() {
+    return null;
+  }
+
+  /**
+   * Reads a value of the given type without decoding it and returns its
+   * encoded bytes. Only supported when getRawValueEncoding is not null.
+   */
+  public byte[] readRawValue(byte type) throws TException {
+    throw new TProtocolException(TProtocolException.NOT_IMPLEMENTED,
+        getClass().getName() + " cannot read raw values");
+  }
+
+  /**
+   * Writes a value of the given type that was returned by readRawValue on a
+   * protocol with the same encoding as this one.
+   */
+  public void writeRawValue(byte type, byte[] value) throws TException {
+    throw new TProtocolException(TProtocolException.NOT_IMPLEMENTED,
+        getClass().getName() + " cannot write raw values");
+  }
+
+  /**
+   * Writes a raw value that occupies length bytes of value from offset.
+   */
+  public void writeRawValue(byte type, byte[] value, int offset, int length) throws TException {
+    if (offset != 0 || length != value.length) {
+      byte[] copy = new byte[length];
+      System.arraycopy(value, offset, copy, 0, length);
+      value = copy;
+    }
+    writeRawValue(type, value);
+  }
+
+  /**
+   * Consumes a value of the given type without decoding or copying it, if
+   * all of it is in the transport's buffer, and returns its encoded length.
+   * Returns -1 and consumes nothing if that is not possible.
+   */
+  int skipRawValue(byte type) throws TException {
+    return -1;
+  }
+
   /**
    * Reset any internal state back to a blank slate. This method only needs to
    * be implemented for stateful protocols.
@@ -159,4 +255,13 @@ public abstract class TProtocol {
   public Class<? extends IScheme> getScheme() {
     return StandardScheme.class;
   }
+
+  /**
+   * The scheme to use, as one of the scheme id constants. Generated structs
+   * dispatch on this rather than on {@link #getScheme()}, so that choosing a
+   * scheme costs no map lookup. Follows getScheme() unless overridden.
+   */
+  public int getSchemeId() {
+    return getScheme() == TupleScheme.class ? TUPLE_SCHEME_ID : STANDARD_SCHEME_ID;
+  }
 }
@@ -210,4 +210,24 @@ public abstract class TProtocolDecorator extends TProtocol {
     public ByteBuffer readBinary() throws TException {
         return concreteProtocol.readBinary();
     }
+
+    public Class<? extends TProtocol> getRawValueEncoding() {
+        return concreteProtocol.getRawValueEncoding();
+    }
+
+    public byte[] readRawValue(byte type) throws TException {
+        return concreteProtocol.readRawValue(type);
+    }
+
+    public void writeRawValue(byte type, byte[] value) throws TException {
+        concreteProtocol.writeRawValue(type, value);
+    }
+
+    public void writeRawValue(byte type, byte[] value, int offset, int length) throws TException {
+        concreteProtocol.writeRawValue(type, value, offset, length);
+    }
+
+    int skipRawValue(byte type) throws TException {
+        return concreteProtocol.skipRawValue(type);
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * Finds the extent of an encoded value for TProtocol.readRawValue without
+ * decoding it. The value is walked in place in the transport's buffer when
+ * it is all there, and otherwise read from the transport into an array of
+ * our own as the walk goes. Protocols supply the walk itself.
+ */
+abstract class TRawValueReader {
+  // don't hold on to the streaming buffer after reading anything larger
+  private static final int MAX_RETAINED_BUFFER = 16384;
+
+  private final TTransport trans_;
+  private byte[] streamBuffer_ = new byte[64];
+  private boolean streaming_;
+
+  /** The bytes being walked, valid from pos up to limit */
+  protected byte[] buf;
+  protected int pos;
+  protected int limit;
+
+  TRawValueReader(TTransport trans) {
+    trans_ = trans;
+  }
+
+  /**
+   * Consumes a value of the given type from the transport and returns a copy
+   * of its encoded bytes.
+   */
+  byte[] read(byte type) throws TException {
+    int remaining = trans_.getBytesRemainingInBuffer();
+    if (remaining > 0) {
+      int start = trans_.getBufferPosition();
+      buf = trans_.getBuffer();
+      pos = start;
+      limit = start + remaining;
+      streaming_ = false;
+      boolean complete = skip(type);
+      buf = null;
+      if (complete) {
+        int length = pos - start;
+        byte[] value = new byte[length];
+        System.arraycopy(trans_.getBuffer(), start, value, 0, length);
+        trans_.consumeBuffer(length);
+        return value;
+      }
+    }
+
+    buf = streamBuffer_;
+    pos = 0;
+    limit = 0;
+    streaming_ = true;
+    try {
+      skip(type);
+      byte[] value = new byte[pos];
+      System.arraycopy(buf, 0, value, 0, pos);
+      if (buf.length <= MAX_RETAINED_BUFFER) {
+        streamBuffer_ = buf;
+      }
+      return value;
+    } finally {
+      buf = null;
+    }
+  }
+
+  /**
+   * Consumes a value of the given type if all of it is in the transport's
+   * buffer and returns its length, without copying it. Returns -1 and
+   * consumes nothing otherwise.
+   */
+  int skipBuffered(byte type) throws TException {
+    int remaining = trans_.getBytesRemainingInBuffer();
+    if (remaining <= 0) {
+      return -1;
+    }
+    int start = trans_.getBufferPosition();
+    buf = trans_.getBuffer();
+    pos = start;
+    limit = start + remaining;
+    streaming_ = false;
+    boolean complete;
+    try {
+      complete = skip(type);
+    } finally {
+      buf = null;
+    }
+    if (!complete) {
+      return -1;
+    }
+    int length = pos - start;
+    trans_.consumeBuffer(length);
+    return length;
+  }
+
+  /**
+   * Walks past one value of the given type, advancing pos. Returns false if
+   * the value runs past the end of the transport's buffer.
+   */
+  protected abstract boolean skip(byte type) throws TException;
+
+  /**
+   * Makes sure that n more bytes are available at pos, reading them from the
+   * transport if we are streaming. Returns false if they are not buffered.
+   */
+  protected boolean need(int n) throws TException {
+    if (n <= limit - pos) {
+      return true;
+    }
+    if (!streaming_) {
+      return false;
+    }
+    int required = pos + n;
+    if (required < 0) {
+      throw new TProtocolException(TProtocolException.SIZE_LIMIT, "Value too large to read");
+    }
+    if (required > buf.length) {
+      byte[] grown = new byte[Math.max(required, Math.min(buf.length * 2, Integer.MAX_VALUE - 8))];
+      System.arraycopy(buf, 0, grown, 0, limit);
+      buf = grown;
+    }
+    trans_.readAll(buf, limit, required - limit);
+    limit = required;
+    return true;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+/**
+ * Reads and writes one struct type in the format of TSimpleJSONProtocol,
+ * without going through TProtocol calls. Implementations are generated for
+ * each struct by the Java generator's "simple_json" option and exposed as the
+ * struct's SIMPLE_JSON_CODEC. Output is byte for byte the same as writing the
+ * struct with TSimpleJSONProtocol; unlike the protocol, the codec can also
+ * read that output back.
+ *
+ * Structs nested in a struct are written and read through their own codecs,
+ * so every program a struct refers to must be generated with the option.
+ */
+public abstract class TSimpleJSONCodec<T extends TBase> {
+
+  public abstract void write(TSimpleJSONWriter writer, T struct) throws TException;
+
+  public abstract void read(TSimpleJSONReader reader, T struct) throws TException;
+
+  /**
+   * Serialize the struct to JSON.
+   */
+  public byte[] serialize(T struct) throws TException {
+    TMemoryBuffer buf = new TMemoryBuffer(1024);
+    TSimpleJSONWriter writer = new TSimpleJSONWriter(buf);
+    write(writer, struct);
+    writer.flush();
+    byte[] bytes = new byte[buf.length()];
+    System.arraycopy(buf.getArray(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  /**
+   * Deserialize JSON into the given struct.
+   */
+  public void deserialize(T struct, byte[] bytes) throws TException {
+    read(new TSimpleJSONReader(new TMemoryInputTransport(bytes)), struct);
+  }
+}
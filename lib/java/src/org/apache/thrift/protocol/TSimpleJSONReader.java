@@ -0,0 +1,556 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * Reads values in the format written by TSimpleJSONProtocol, for generated
+ * TSimpleJSONCodec implementations. Since the format carries no types the
+ * caller must know what to expect next; field names are matched by hash
+ * and then compared with pre-encoded names, so that no String is created
+ * for them. Whitespace between tokens is allowed.
+ */
+public class TSimpleJSONReader {
+
+  private static final int DEF_STRING_SIZE = 16;
+
+  // Strings longer than this are not kept around in the read buffer
+  private static final int MAX_RETAINED_STRING_SIZE = 64 * 1024;
+
+  private final TTransport trans_;
+
+  // Lookahead for transports without a buffer of their own
+  private boolean hasData_ = false;
+  private final byte[] data_ = new byte[1];
+
+  // Whether the next value at each level of nesting is its first
+  private boolean[] first_ = new boolean[16];
+  private int depth_ = 0;
+
+  // Contents of the last string read, as UTF-8
+  private byte[] stringBuffer_ = new byte[DEF_STRING_SIZE];
+  private int stringLen_ = 0;
+
+  private int nameHash_ = 0;
+
+  private byte[] numberBuffer_ = new byte[32];
+
+  public TSimpleJSONReader(TTransport trans) {
+    trans_ = trans;
+  }
+
+  public void readStructBegin() throws TException {
+    begin((byte)'{');
+  }
+
+  /**
+   * Read the name of the next field of the current struct, or the end of
+   * the struct. Returns false once the struct has ended.
+   */
+  public boolean readFieldName() throws TException {
+    if (!hasNext((byte)'}')) {
+      return false;
+    }
+    readStringBody();
+    int hash = 0;
+    for (int i = 0; i < stringLen_; i++) {
+      hash = 31 * hash + (stringBuffer_[i] & 0xFF);
+    }
+    nameHash_ = hash;
+    expect((byte)':');
+    return true;
+  }
+
+  /**
+   * Hash of the field name last read: the String hash code of the name for
+   * names in ASCII.
+   */
+  public int getFieldNameHash() {
+    return nameHash_;
+  }
+
+  /**
+   * Whether the field name last read is the one encoded by
+   * TSimpleJSONWriter.encodeFieldName(). Only names that need no escaping,
+   * as is the case for all Thrift identifiers, can be matched.
+   */
+  public boolean isFieldName(byte[] encodedName) {
+    if (encodedName.length != stringLen_ + 3) {
+      return false;
+    }
+    for (int i = 0; i < stringLen_; i++) {
+      if (stringBuffer_[i] != encodedName[i + 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void readMapBegin() throws TException {
+    begin((byte)'{');
+  }
+
+  /**
+   * Returns false once the current map has ended, and true if a key follows.
+   */
+  public boolean hasNextKey() throws TException {
+    return hasNext((byte)'}');
+  }
+
+  public void readListBegin() throws TException {
+    begin((byte)'[');
+  }
+
+  /**
+   * Returns false once the current list or set has ended, and true if an
+   * element follows.
+   */
+  public boolean hasNextElement() throws TException {
+    return hasNext((byte)']');
+  }
+
+  public boolean readBool() throws TException {
+    skipWhitespace();
+    byte ch = peek();
+    if (ch == 't' || ch == 'f') {
+      int len = readToken();
+      if (isToken(len, "true")) {
+        return true;
+      }
+      if (isToken(len, "false")) {
+        return false;
+      }
+      throw TNumberUtils.badNumber();
+    }
+    return readI64() != 0;
+  }
+
+  public byte readByte() throws TException {
+    return (byte)checkRange(readI64(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+  }
+
+  public short readI16() throws TException {
+    return (short)checkRange(readI64(), Short.MIN_VALUE, Short.MAX_VALUE);
+  }
+
+  public int readI32() throws TException {
+    return (int)checkRange(readI64(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  public long readI64() throws TException {
+    skipWhitespace();
+    return TNumberUtils.parseLong(numberBuffer_, readToken());
+  }
+
+  public double readDouble() throws TException {
+    skipWhitespace();
+    return TNumberUtils.parseDouble(numberBuffer_, readToken());
+  }
+
+  public String readString() throws TException {
+    skipWhitespace();
+    readStringBody();
+    return stringBufferToString();
+  }
+
+  /**
+   * Binary is written as the string its bytes decode to, so the UTF-8
+   * encoding of that string is returned.
+   */
+  public ByteBuffer readBinary() throws TException {
+    skipWhitespace();
+    readStringBody();
+    return stringBufferToBinary();
+  }
+
+  /*
+   * Map keys are always strings, with numbers in quotes. Each of these reads
+   * the key and the colon after it.
+   */
+
+  public boolean readBoolKey() throws TException {
+    return readLongKey() != 0;
+  }
+
+  public byte readByteKey() throws TException {
+    return (byte)checkRange(readLongKey(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+  }
+
+  public short readI16Key() throws TException {
+    return (short)checkRange(readLongKey(), Short.MIN_VALUE, Short.MAX_VALUE);
+  }
+
+  public int readI32Key() throws TException {
+    return (int)checkRange(readLongKey(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  public long readI64Key() throws TException {
+    return readLongKey();
+  }
+
+  public double readDoubleKey() throws TException {
+    readStringBody();
+    double key = TNumberUtils.parseDouble(stringBuffer_, stringLen_);
+    readKeyEnd();
+    return key;
+  }
+
+  public String readStringKey() throws TException {
+    readStringBody();
+    String key = stringBufferToString();
+    readKeyEnd();
+    return key;
+  }
+
+  public ByteBuffer readBinaryKey() throws TException {
+    readStringBody();
+    ByteBuffer key = stringBufferToBinary();
+    readKeyEnd();
+    return key;
+  }
+
+  /**
+   * Read the colon after a key that was read as a struct.
+   */
+  public void readKeyEnd() throws TException {
+    expect((byte)':');
+  }
+
+  /**
+   * Skip over the next value, whatever it is. Used for unknown fields.
+   */
+  public void skipValue() throws TException {
+    skipWhitespace();
+    byte ch = peek();
+    if (ch == '{') {
+      begin((byte)'{');
+      while (hasNext((byte)'}')) {
+        skipWhitespace();
+        readStringBody();
+        expect((byte)':');
+        skipValue();
+      }
+    } else if (ch == '[') {
+      begin((byte)'[');
+      while (hasNext((byte)']')) {
+        skipValue();
+      }
+    } else if (ch == '"') {
+      readStringBody();
+    } else if (readToken() == 0) {
+      throw unexpected(ch);
+    }
+  }
+
+  private long readLongKey() throws TException {
+    readStringBody();
+    long key = TNumberUtils.parseLong(stringBuffer_, stringLen_);
+    readKeyEnd();
+    return key;
+  }
+
+  private static long checkRange(long value, long min, long max) throws TProtocolException {
+    if (value < min || value > max) {
+      throw TNumberUtils.badNumber();
+    }
+    return value;
+  }
+
+  private void begin(byte open) throws TException {
+    expect(open);
+    if (depth_ == first_.length) {
+      boolean[] first = new boolean[depth_ * 2];
+      System.arraycopy(first_, 0, first, 0, depth_);
+      first_ = first;
+    }
+    first_[depth_++] = true;
+  }
+
+  // Consume the separator before the next value at the current level, or the
+  // close character that ends the level.
+  private boolean hasNext(byte close) throws TException {
+    skipWhitespace();
+    if (peek() == close) {
+      read();
+      depth_--;
+      return false;
+    }
+    if (first_[depth_ - 1]) {
+      first_[depth_ - 1] = false;
+    } else {
+      expect((byte)',');
+    }
+    return true;
+  }
+
+  private void expect(byte b) throws TException {
+    skipWhitespace();
+    byte ch = read();
+    if (ch != b) {
+      throw unexpected(ch);
+    }
+  }
+
+  private static TProtocolException unexpected(byte ch) {
+    return new TProtocolException(TProtocolException.INVALID_DATA,
+                                  "Unexpected character:" + (char)ch);
+  }
+
+  private void skipWhitespace() throws TException {
+    while (true) {
+      byte ch = peek();
+      if (ch != ' ' && ch != '\t' && ch != '\n' && ch != '\r') {
+        return;
+      }
+      read();
+    }
+  }
+
+  // Read the characters of a number or literal into numberBuffer_,
+  // returning their count.
+  private int readToken() throws TException {
+    int len = 0;
+    while (true) {
+      byte ch = peek();
+      if (!isTokenChar(ch)) {
+        break;
+      }
+      read();
+      if (len == numberBuffer_.length) {
+        byte[] buf = new byte[len * 2];
+        System.arraycopy(numberBuffer_, 0, buf, 0, len);
+        numberBuffer_ = buf;
+      }
+      numberBuffer_[len++] = ch;
+    }
+    return len;
+  }
+
+  private static boolean isTokenChar(byte ch) {
+    return (ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') ||
+        ch == '-' || ch == '+' || ch == '.';
+  }
+
+  private boolean isToken(int len, String token) {
+    if (len != token.length()) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (numberBuffer_[i] != token.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Read a quoted string, unescaping it into stringBuffer_.
+  private void readStringBody() throws TException {
+    if (stringBuffer_.length > MAX_RETAINED_STRING_SIZE) {
+      stringBuffer_ = new byte[DEF_STRING_SIZE];
+    }
+    expect((byte)'"');
+    int len = 0;
+    while (true) {
+      // Copy runs of plain characters straight out of the transport's buffer
+      int avail = hasData_ ? 0 : trans_.getBytesRemainingInBuffer();
+      if (avail > 0) {
+        byte[] buf = trans_.getBuffer();
+        int start = trans_.getBufferPosition();
+        int end = start + avail;
+        int pos = start;
+        while (pos < end && buf[pos] != '"' && buf[pos] != '\\') {
+          pos++;
+        }
+        if (pos > start) {
+          ensureStringCapacity(len + pos - start);
+          System.arraycopy(buf, start, stringBuffer_, len, pos - start);
+          len += pos - start;
+          trans_.consumeBuffer(pos - start);
+          continue;
+        }
+      }
+
+      byte ch = read();
+      if (ch == '"') {
+        break;
+      }
+      if (ch == '\\') {
+        len = readEscape(len, read());
+      } else {
+        ensureStringCapacity(len + 1);
+        stringBuffer_[len++] = ch;
+      }
+    }
+    stringLen_ = len;
+  }
+
+  // Append the character for the escape sequence with the given character
+  // after its backslash to stringBuffer_ at len, reading the rest of the
+  // sequence if there is more. Returns the new length.
+  private int readEscape(int len, byte esc) throws TException {
+    byte ch;
+    switch (esc) {
+    case '"':
+    case '\\':
+    case '/':
+      ch = esc;
+      break;
+    case 'b':
+      ch = '\b';
+      break;
+    case 'f':
+      ch = '\f';
+      break;
+    case 'n':
+      ch = '\n';
+      break;
+    case 'r':
+      ch = '\r';
+      break;
+    case 't':
+      ch = '\t';
+      break;
+    case 'u':
+      return readUnicodeEscape(len);
+    default:
+      throw new TProtocolException(TProtocolException.INVALID_DATA,
+                                   "Expected control char");
+    }
+    ensureStringCapacity(len + 1);
+    stringBuffer_[len++] = ch;
+    return len;
+  }
+
+  // Decode the rest of a \\u escape, and the low surrogate after it if it is
+  // a high surrogate, appending the UTF-8 encoding. Unpaired surrogates are
+  // not representable in UTF-8 and become '?'.
+  private int readUnicodeEscape(int len) throws TException {
+    int cp = readHex4();
+    if (Character.isHighSurrogate((char)cp) && peek() == '\\') {
+      read();
+      byte esc = read();
+      if (esc != 'u') {
+        return readEscape(appendCodePoint(len, '?'), esc);
+      }
+      int low = readHex4();
+      if (Character.isLowSurrogate((char)low)) {
+        return appendCodePoint(len, Character.toCodePoint((char)cp, (char)low));
+      }
+      len = appendCodePoint(len, '?');
+      cp = low;
+    }
+    if (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) {
+      cp = '?';
+    }
+    return appendCodePoint(len, cp);
+  }
+
+  private int readHex4() throws TException {
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      byte ch = read();
+      int digit;
+      if (ch >= '0' && ch <= '9') {
+        digit = ch - '0';
+      } else if (ch >= 'a' && ch <= 'f') {
+        digit = ch - 'a' + 10;
+      } else if (ch >= 'A' && ch <= 'F') {
+        digit = ch - 'A' + 10;
+      } else {
+        throw new TProtocolException(TProtocolException.INVALID_DATA,
+                                     "Expected hex character");
+      }
+      value = (value << 4) | digit;
+    }
+    return value;
+  }
+
+  private int appendCodePoint(int len, int cp) {
+    ensureStringCapacity(len + 4);
+    if (cp < 0x80) {
+      stringBuffer_[len++] = (byte)cp;
+    } else if (cp < 0x800) {
+      stringBuffer_[len++] = (byte)(0xC0 | (cp >> 6));
+      stringBuffer_[len++] = (byte)(0x80 | (cp & 0x3F));
+    } else if (cp < 0x10000) {
+      stringBuffer_[len++] = (byte)(0xE0 | (cp >> 12));
+      stringBuffer_[len++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+      stringBuffer_[len++] = (byte)(0x80 | (cp & 0x3F));
+    } else {
+      stringBuffer_[len++] = (byte)(0xF0 | (cp >> 18));
+      stringBuffer_[len++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+      stringBuffer_[len++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+      stringBuffer_[len++] = (byte)(0x80 | (cp & 0x3F));
+    }
+    return len;
+  }
+
+  private void ensureStringCapacity(int size) {
+    if (size > stringBuffer_.length) {
+      byte[] buf = new byte[Math.max(size, stringBuffer_.length * 2)];
+      System.arraycopy(stringBuffer_, 0, buf, 0, stringBuffer_.length);
+      stringBuffer_ = buf;
+    }
+  }
+
+  private String stringBufferToString() throws TException {
+    try {
+      return new String(stringBuffer_, 0, stringLen_, "UTF-8");
+    } catch (UnsupportedEncodingException ex) {
+      throw new TException("JVM DOES NOT SUPPORT UTF-8");
+    }
+  }
+
+  private ByteBuffer stringBufferToBinary() {
+    byte[] bin = new byte[stringLen_];
+    System.arraycopy(stringBuffer_, 0, bin, 0, stringLen_);
+    return ByteBuffer.wrap(bin);
+  }
+
+  private byte read() throws TException {
+    if (hasData_) {
+      hasData_ = false;
+      return data_[0];
+    }
+    if (trans_.getBytesRemainingInBuffer() > 0) {
+      byte ch = trans_.getBuffer()[trans_.getBufferPosition()];
+      trans_.consumeBuffer(1);
+      return ch;
+    }
+    trans_.readAll(data_, 0, 1);
+    return data_[0];
+  }
+
+  private byte peek() throws TException {
+    if (!hasData_) {
+      if (trans_.getBytesRemainingInBuffer() > 0) {
+        return trans_.getBuffer()[trans_.getBufferPosition()];
+      }
+      trans_.readAll(data_, 0, 1);
+      hasData_ = true;
+    }
+    return data_[0];
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * Writes values in the format of TSimpleJSONProtocol for generated
+ * TSimpleJSONCodec implementations. Unlike the protocol, it keeps no stack of
+ * contexts: separators are decided by whether a value has been written at
+ * the current level, and field names are written from pre-encoded bytes.
+ *
+ * Output is collected in a buffer and only handed to the transport by
+ * flush(). A writer can be kept and reused for any number of structs written
+ * to the same transport.
+ */
+public class TSimpleJSONWriter {
+
+  private static final int BUFFER_SIZE = 1024;
+
+  private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+  // For each ASCII character, 0 if it is written as is, the character to
+  // follow a backslash for the short escapes, or 1 for a \\u escape
+  private static final byte[] ESCAPE_TABLE = new byte[128];
+  static {
+    for (int i = 0; i < 0x20; i++) {
+      ESCAPE_TABLE[i] = 1;
+    }
+    ESCAPE_TABLE['"'] = '"';
+    ESCAPE_TABLE['\\'] = '\\';
+    ESCAPE_TABLE['\b'] = 'b';
+    ESCAPE_TABLE['\f'] = 'f';
+    ESCAPE_TABLE['\n'] = 'n';
+    ESCAPE_TABLE['\r'] = 'r';
+    ESCAPE_TABLE['\t'] = 't';
+  }
+
+  private static final byte[] HEX_CHARS = "0123456789abcdef".getBytes();
+
+  private final TTransport trans_;
+  private final byte[] buf_ = new byte[BUFFER_SIZE];
+  private int pos_ = 0;
+
+  // Number of structs, maps and lists we are inside
+  private int depth_ = 0;
+
+  // Whether the next value at the current level must be preceded by a comma
+  private boolean needComma_ = false;
+
+  public TSimpleJSONWriter(TTransport trans) {
+    trans_ = trans;
+  }
+
+  /**
+   * Encode a field name as it is written before the field's value, quotes
+   * and colon included.
+   */
+  public static byte[] encodeFieldName(String name) {
+    TMemoryBuffer buf = new TMemoryBuffer(name.length() + 3);
+    try {
+      TSimpleJSONWriter writer = new TSimpleJSONWriter(buf);
+      writer.writeKey(name);
+      writer.flush();
+    } catch (TException e) {
+      // Not possible with a memory buffer
+      throw new IllegalStateException(e);
+    }
+    byte[] encoded = new byte[buf.length()];
+    System.arraycopy(buf.getArray(), 0, encoded, 0, encoded.length);
+    return encoded;
+  }
+
+  /**
+   * Hand everything written so far to the transport. This does not flush
+   * the transport itself.
+   */
+  public void flush() throws TException {
+    if (pos_ > 0) {
+      trans_.write(buf_, 0, pos_);
+      pos_ = 0;
+    }
+  }
+
+  public void writeStructBegin() throws TException {
+    separator();
+    put((byte)'{');
+    depth_++;
+    needComma_ = false;
+  }
+
+  public void writeStructEnd() throws TException {
+    put((byte)'}');
+    depth_--;
+    needComma_ = true;
+  }
+
+  /**
+   * Write a field name encoded by encodeFieldName().
+   */
+  public void writeFieldName(byte[] encodedName) throws TException {
+    separator();
+    if (buf_.length - pos_ < encodedName.length) {
+      flushBuffer();
+      if (encodedName.length > buf_.length) {
+        trans_.write(encodedName);
+        needComma_ = false;
+        return;
+      }
+    }
+    System.arraycopy(encodedName, 0, buf_, pos_, encodedName.length);
+    pos_ += encodedName.length;
+    needComma_ = false;
+  }
+
+  public void writeMapBegin() throws TException {
+    writeStructBegin();
+  }
+
+  public void writeMapEnd() throws TException {
+    writeStructEnd();
+  }
+
+  public void writeListBegin() throws TException {
+    separator();
+    put((byte)'[');
+    depth_++;
+    needComma_ = false;
+  }
+
+  public void writeListEnd() throws TException {
+    put((byte)']');
+    depth_--;
+    needComma_ = true;
+  }
+
+  public void writeBool(boolean b) throws TException {
+    writeI64(b ? 1 : 0);
+  }
+
+  public void writeI32(int i32) throws TException {
+    writeI64(i32);
+  }
+
+  public void writeI64(long i64) throws TException {
+    separator();
+    writeDigits(i64);
+    needComma_ = true;
+  }
+
+  public void writeDouble(double dub) throws TException {
+    separator();
+    writeAscii(Double.toString(dub));
+    needComma_ = true;
+  }
+
+  public void writeString(String str) throws TException {
+    separator();
+    writeStringBody(str);
+    needComma_ = true;
+  }
+
+  public void writeBinary(ByteBuffer bin) throws TException {
+    // Binary is written as the string it decodes to, as the protocol does
+    writeString(decodeBinary(bin));
+  }
+
+  /**
+   * Map keys are always written as strings, so numbers are quoted.
+   */
+  public void writeKey(long key) throws TException {
+    separator();
+    put((byte)'"');
+    writeDigits(key);
+    put((byte)'"');
+    writeKeyEnd();
+  }
+
+  public void writeKey(boolean key) throws TException {
+    writeKey(key ? 1 : 0);
+  }
+
+  public void writeKey(double key) throws TException {
+    writeKey(Double.toString(key));
+  }
+
+  public void writeKey(String key) throws TException {
+    separator();
+    writeStringBody(key);
+    writeKeyEnd();
+  }
+
+  public void writeKey(ByteBuffer key) throws TException {
+    writeKey(decodeBinary(key));
+  }
+
+  /**
+   * Finish a key written as a struct, before its value.
+   */
+  public void writeKeyEnd() throws TException {
+    put((byte)':');
+    needComma_ = false;
+  }
+
+  private static String decodeBinary(ByteBuffer bin) throws TException {
+    try {
+      return new String(bin.array(), bin.position() + bin.arrayOffset(), bin.limit() - bin.position() - bin.arrayOffset(), "UTF-8");
+    } catch (UnsupportedEncodingException uex) {
+      throw new TException("JVM DOES NOT SUPPORT UTF-8");
+    }
+  }
+
+  // Values at the top level are written one after another with nothing
+  // between them, as the protocol does
+  private void separator() throws TException {
+    if (needComma_ && depth_ > 0) {
+      put((byte)',');
+    }
+  }
+
+  private void put(byte b) throws TException {
+    if (pos_ == buf_.length) {
+      flushBuffer();
+    }
+    buf_[pos_++] = b;
+  }
+
+  private void reserve(int n) throws TException {
+    if (buf_.length - pos_ < n) {
+      flushBuffer();
+    }
+  }
+
+  private void flushBuffer() throws TException {
+    trans_.write(buf_, 0, pos_);
+    pos_ = 0;
+  }
+
+  private void writeAscii(String str) throws TException {
+    int len = str.length();
+    reserve(len);
+    for (int i = 0; i < len; i++) {
+      buf_[pos_++] = (byte)str.charAt(i);
+    }
+  }
+
+  private void writeDigits(long num) throws TException {
+    reserve(MIN_LONG.length);
+    if (num == Long.MIN_VALUE) {
+      System.arraycopy(MIN_LONG, 0, buf_, pos_, MIN_LONG.length);
+      pos_ += MIN_LONG.length;
+      return;
+    }
+    if (num < 0) {
+      buf_[pos_++] = '-';
+      num = -num;
+    }
+    int digits = 1;
+    for (long n = num; n >= 10; n /= 10) {
+      digits++;
+    }
+    int pos = pos_ + digits;
+    pos_ = pos;
+    do {
+      buf_[--pos] = (byte)('0' + (num % 10));
+      num /= 10;
+    } while (num != 0);
+  }
+
+  // Write a quoted, escaped string as UTF-8. Unpaired surrogates become '?',
+  // as they do with String.getBytes().
+  private void writeStringBody(String str) throws TException {
+    put((byte)'"');
+    int len = str.length();
+    for (int i = 0; i < len; i++) {
+      char ch = str.charAt(i);
+      if (ch < 0x80) {
+        byte esc = ESCAPE_TABLE[ch];
+        if (esc == 0) {
+          put((byte)ch);
+        } else {
+          reserve(6);
+          buf_[pos_++] = '\\';
+          if (esc == 1) {
+            buf_[pos_++] = 'u';
+            buf_[pos_++] = '0';
+            buf_[pos_++] = '0';
+            buf_[pos_++] = HEX_CHARS[ch >> 4];
+            buf_[pos_++] = HEX_CHARS[ch & 0xF];
+          } else {
+            buf_[pos_++] = esc;
+          }
+        }
+        continue;
+      }
+      reserve(4);
+      if (ch < 0x800) {
+        buf_[pos_++] = (byte)(0xC0 | (ch >> 6));
+        buf_[pos_++] = (byte)(0x80 | (ch & 0x3F));
+      } else if (ch < Character.MIN_SURROGATE || ch > Character.MAX_SURROGATE) {
+        buf_[pos_++] = (byte)(0xE0 | (ch >> 12));
+        buf_[pos_++] = (byte)(0x80 | ((ch >> 6) & 0x3F));
+        buf_[pos_++] = (byte)(0x80 | (ch & 0x3F));
+      } else if (Character.isHighSurrogate(ch) && i + 1 < len &&
+                 Character.isLowSurrogate(str.charAt(i + 1))) {
+        int cp = Character.toCodePoint(ch, str.charAt(++i));
+        buf_[pos_++] = (byte)(0xF0 | (cp >> 18));
+        buf_[pos_++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+        buf_[pos_++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+        buf_[pos_++] = (byte)(0x80 | (cp & 0x3F));
+      } else {
+        buf_[pos_++] = '?';
+      }
+    }
+    put((byte)'"');
+  }
+}
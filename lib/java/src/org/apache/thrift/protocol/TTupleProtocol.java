@@ -43,6 +43,56 @@ public final class TTupleProtocol extends TCompactProtocol {
     return TupleScheme.class;
   }
 
+  // scratch space for bit masks
+  private final byte[] maskBuffer_ = new byte[8];
+
+  /**
+   * Writes the low vectorWidth bits of mask, at most 64 of them, encoded as
+   * writeBitSet encodes a BitSet: (vectorWidth + 7) / 8 bytes, big-endian,
+   * with bit 0 the least significant. Longer vectors can be written as
+   * several masks, the most significant first. Generated tuple schemes use
+   * this in place of writeBitSet.
+   */
+  public void writeBitMask(long mask, int vectorWidth) throws TException {
+    int length = maskLength(vectorWidth);
+    for (int i = 7; i >= 8 - length; i--) {
+      maskBuffer_[i] = (byte) mask;
+      mask >>>= 8;
+    }
+    trans_.write(maskBuffer_, 8 - length, length);
+  }
+
+  /**
+   * Reads a bit vector of vectorWidth bits, at most 64, as written by
+   * writeBitMask or writeBitSet.
+   */
+  public long readBitMask(int vectorWidth) throws TException {
+    int length = maskLength(vectorWidth);
+    byte[] buf;
+    int pos;
+    if (trans_.getBytesRemainingInBuffer() >= length) {
+      buf = trans_.getBuffer();
+      pos = trans_.getBufferPosition();
+      trans_.consumeBuffer(length);
+    } else {
+      trans_.readAll(maskBuffer_, 0, length);
+      buf = maskBuffer_;
+      pos = 0;
+    }
+    long mask = 0;
+    for (int i = 0; i < length; i++) {
+      mask = (mask << 8) | (buf[pos + i] & 0xff);
+    }
+    return mask;
+  }
+
+  private static int maskLength(int vectorWidth) {
+    if (vectorWidth < 0 || vectorWidth > 64) {
+      throw new IllegalArgumentException("Bit mask width must be between 0 and 64: " + vectorWidth);
+    }
+    return (vectorWidth + 7) / 8;
+  }
+
   public void writeBitSet(BitSet bs, int vectorWidth) throws TException {
     byte[] bytes = toByteArray(bs, vectorWidth);
     for (byte b : bytes) {
@@ -21,9 +21,7 @@ package org.apache.thrift.protocol;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.util.Stack;
 
-import org.apache.thrift.TByteArrayOutputStream;
 import org.apache.thrift.TException;
 import org.apache.thrift.transport.TTransport;
 
@@ -36,20 +34,6 @@ public class TXMLProtocol extends TProtocol {
 
   }
   
-  private static class ThreeTuple<F,S,T> {
-	  private final F first;
-	  private final S second;
-	  private final T third;
-	  public ThreeTuple(F first, S second, T third) {
-		  this.first = first;
-		  this.second = second;
-		  this.third = third;
-	  }
-	  public F getFirst() { return first; }
-	  public S getSecond() { return second; }
-	  public T getThird() { return third; }
-  }
-
   private static final byte[] AMPERSAND = new byte[] { '&' };
   private static final byte[] LANGLE = new byte[] {'<'};
   private static final byte[] RANGLE = new byte[] {'>'};
@@ -69,6 +53,11 @@ public class TXMLProtocol extends TProtocol {
   
   private static final long  VERSION = 1;
 
+  private static final int  DEF_STRING_SIZE = 16;
+
+  // Strings longer than this are not kept around in the read buffer
+  private static final int MAX_RETAINED_STRING_SIZE = 64 * 1024;
+
   private static final byte[] NAME_BOOL = new byte[] {'b','o','o','l','e','a','n'};
   private static final byte[] NAME_BYTE = new byte[] {'b','y','t','e'};
   private static final byte[] NAME_I16 = new byte[] {'s','h','o','r','t'};
@@ -113,61 +102,79 @@ public class TXMLProtocol extends TProtocol {
     }
   }
 
-  private static final byte getTypeIDForTypeName(byte[] name) throws TException {
+  // Whether the first len bytes of name spell out typeName. The first two
+  // characters have already been matched by the caller.
+  private static boolean isTypeName(byte[] name, int len, byte[] typeName) {
+    if (len != typeName.length) {
+      return false;
+    }
+    for (int i = 2; i < len; i++) {
+      if (name[i] != typeName[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The leading characters pick out at most one candidate name, which is then
+  // compared in full. Nothing is allocated, as this runs for every field.
+  private static final byte getTypeIDForTypeName(byte[] name, int len) throws TException {
     byte result = TType.STOP;
-    if (name.length > 1) {
+    if (len > 1) {
       switch (name[0]) {
       case 'b':
         switch (name[1]) {
         case 'o':
-          if (new String(name).equals(new String(NAME_BOOL)))
-        	result = TType.BOOL;
+          if (isTypeName(name, len, NAME_BOOL))
+            result = TType.BOOL;
           break;
         case 'y':
-          if (new String(name).equals(new String(NAME_BYTE)))
+          if (isTypeName(name, len, NAME_BYTE))
             result = TType.BYTE;
           break;
         }
         break;
       case 'd':
-    	if (new String(name).equals(new String(NAME_DOUBLE)))
-    	  result = TType.DOUBLE;
+        if (name[1] == 'e' && isTypeName(name, len, NAME_DOUBLE))
+          result = TType.DOUBLE;
         break;
       case 'i':
-      	if (new String(name).equals(new String(NAME_I32)))
-    	  result = TType.I32;
+        if (name[1] == 'n' && isTypeName(name, len, NAME_I32))
+          result = TType.I32;
         break;
       case 'l':
-    	switch (name[1]) {
-    	case 'i':
-          if (new String(name).equals(new String(NAME_LIST)))
+        switch (name[1]) {
+        case 'i':
+          if (isTypeName(name, len, NAME_LIST))
             result = TType.LIST;
           break;
-    	case 'o':
-          if (new String(name).equals(new String(NAME_I64)))
+        case 'o':
+          if (isTypeName(name, len, NAME_I64))
             result = TType.I64;
           break;
-    	}
-    	break;
+        }
+        break;
       case 'm':
-        if (new String(name).equals(new String(NAME_MAP)))
+        if (name[1] == 'a' && isTypeName(name, len, NAME_MAP))
           result = TType.MAP;
         break;
       case 's':
         switch (name[1]) {
         case 'e':
-          if (new String(name).equals(new String(NAME_SET)))
+          if (isTypeName(name, len, NAME_SET))
             result = TType.SET;
           break;
         case 'h':
-          if (new String(name).equals(new String(NAME_I16)))
+          if (isTypeName(name, len, NAME_I16))
             result = TType.I16;
           break;
         case 't':
-          if (new String(name).equals(new String(NAME_STRING)))
-            result = TType.STRING;
-          if (new String(name).equals(new String(NAME_STRUCT)))
+          if (len > 3 && name[3] == 'i') {
+            if (isTypeName(name, len, NAME_STRING))
+              result = TType.STRING;
+          } else if (isTypeName(name, len, NAME_STRUCT)) {
             result = TType.STRUCT;
+          }
           break;
         }
         break;
@@ -190,28 +197,39 @@ public class TXMLProtocol extends TProtocol {
 
   protected class XMLPairContext extends XMLBaseContext {
     private boolean open_ = true;
-    private final String fieldName;
-    private final Byte fieldType;
-    private final Short fieldId;
-
-    protected XMLPairContext() throws TException {
-  	  open_ = false;
-  	  ThreeTuple<String,Byte,Short> returns = readXMLTag();
-  	  this.fieldName = returns.getFirst();
-  	  this.fieldType = returns.getSecond();
-  	  this.fieldId = returns.getThird();
-    }
-    
-    protected XMLPairContext(String fieldName) {
-      this(fieldName, null, null);
+    private String fieldName;
+    private boolean typed_;
+    private byte fieldType;
+    private short fieldId;
+
+    // Name of the element as read, which its end tag has to match
+    private byte[] readName_ = new byte[DEF_STRING_SIZE];
+    private int readNameLen_;
+
+    // Set up to write an element with the given name, with a type and field
+    // id attribute if typed is set.
+    protected void reset(String name, boolean typed, byte type, short id) {
+      open_ = true;
+      fieldName = name;
+      typed_ = typed;
+      fieldType = type;
+      fieldId = id;
     }
-    
-    protected XMLPairContext(String name, Byte type, Short id) {
-      this.fieldName = name;
-      this.fieldType = type;
-      this.fieldId = id;
+
+    // Set up from the start tag just read by readXMLTag(), so that read()
+    // will expect the matching end tag.
+    protected void resetFromTag() {
+      open_ = false;
+      if (readName_.length < tagNameLen_) {
+        readName_ = new byte[tagNameLen_];
+      }
+      System.arraycopy(tagName_, 0, readName_, 0, tagNameLen_);
+      readNameLen_ = tagNameLen_;
+      typed_ = tagTyped_;
+      fieldType = tagType_;
+      fieldId = tagId_;
     }
-    
+
     @Override
     protected void write() throws TException {
       trans_.write(LANGLE);
@@ -220,14 +238,12 @@ public class TXMLProtocol extends TProtocol {
       }
       trans_.write(fieldName.getBytes());
       if (open_) {
-        if (fieldType != null) {
+        if (typed_) {
           trans_.write(SPACE);
           trans_.write(TYPEEQUALS);
           trans_.write(QUOTE);
           trans_.write(getTypeNameForTypeID(fieldType));
           trans_.write(QUOTE);
-        }
-        if (fieldId != null) {
           trans_.write(SPACE);
           trans_.write(FIELDEQUALS);
           trans_.write(QUOTE);
@@ -243,28 +259,30 @@ public class TXMLProtocol extends TProtocol {
     protected void read() throws TException {
       readXMLSyntaxChar(LANGLE);
       readXMLSyntaxChar(SLASH);
-      readXMLSyntaxChar(fieldName.getBytes());
+      readXMLSyntaxChars(readName_, readNameLen_);
       readXMLSyntaxChar(RANGLE);
     }
 
-    protected String getName() { return fieldName; }
-    protected Byte getType() { return fieldType; }
+    protected byte getType() { return fieldType; }
+    protected short getFieldId() { return fieldId; }
   }
 
   protected class XMLMapContext extends XMLBaseContext {
     private byte Stage = 0;
     private boolean first_ = true;
-    private final Byte keyType;
-    private final Byte valueType;
-    private final Integer fieldCount;
+    private byte keyType;
+    private byte valueType;
+    private int fieldCount;
 
-    public XMLMapContext(Byte keyType, Byte valueType, Integer fieldCount) {
+    protected void reset(byte keyType, byte valueType, int fieldCount) {
+      this.Stage = 0;
+      this.first_ = true;
       this.keyType = keyType;
       this.valueType = valueType;
       this.fieldCount = fieldCount;
-	}
+    }
 
-	@Override
+    @Override
     protected void write() throws TException {
       if (first_) {
         first_ = false;
@@ -349,10 +367,12 @@ public class TXMLProtocol extends TProtocol {
   protected class XMLListContext extends XMLBaseContext {
     private boolean first_ = true;
     private boolean open_ = true;
-    private final Byte type;
-    private final Integer fieldCount;
+    private byte type;
+    private int fieldCount;
 
-    protected XMLListContext(Byte type, Integer fieldCount) {
+    protected void reset(byte type, int fieldCount) {
+      this.first_ = true;
+      this.open_ = true;
       this.type = type;
       this.fieldCount = fieldCount;
     }
@@ -398,25 +418,24 @@ public class TXMLProtocol extends TProtocol {
   }
 
   protected class LookaheadReader {
-    private boolean hasData_ = false;
-    private byte[] data_ = new byte[1];
+    private byte[] data_ = new byte[2];
+    private int count_ = 0;
 
     // Return and consume the next byte to be read, either taking it from the
     // data buffer if present or getting it from the transport otherwise.
     protected byte read() throws TException {
-      if (!hasData_) {
-        data_[0] = peek(1);
-        hasData_ = false;
-      } else if (data_.length > 1) {
-        byte[] alternate = new byte[data_.length-1];
-        for (int i=1; i<data_.length;i++)
-          alternate[i-1] = data_[i];
-        byte forReturn = data_[0];
-        data_ = alternate;
-        return forReturn;
-      } else {
-        hasData_ = false;
+      if (count_ > 0) {
+        byte ch = data_[0];
+        count_--;
+        System.arraycopy(data_, 1, data_, 0, count_);
+        return ch;
       }
+      if (trans_.getBytesRemainingInBuffer() > 0) {
+        byte ch = trans_.getBuffer()[trans_.getBufferPosition()];
+        trans_.consumeBuffer(1);
+        return ch;
+      }
+      trans_.readAll(data_, 0, 1);
       return data_[0];
     }
 
@@ -424,43 +443,120 @@ public class TXMLProtocol extends TProtocol {
       return peek(1);
     }
 
+    // Return the byte place positions ahead without consuming anything,
+    // filling the data buffer up to it if the transport has no buffer of its
+    // own to look into.
     protected byte peek(int place) throws TException {
-      byte[] alternate = new byte[place];
-      if (hasData_) {
-        if (place <= data_.length) {
-          return data_[place-1];
-        }
-        trans_.readAll(alternate, data_.length, place);
-        for(int i=0;i<data_.length;i++) {
-          alternate[i]=data_[i];
-        }
-      } else {
-        trans_.readAll(alternate,0,place);
+      if (count_ == 0 && trans_.getBytesRemainingInBuffer() >= place) {
+        return trans_.getBuffer()[trans_.getBufferPosition() + place - 1];
       }
-      data_ = alternate;
-      hasData_ = true;
-      return data_[place-1];
+      if (place > data_.length) {
+        byte[] buf = new byte[place];
+        System.arraycopy(data_, 0, buf, 0, count_);
+        data_ = buf;
+      }
+      if (count_ < place) {
+        trans_.readAll(data_, count_, place - count_);
+        count_ = place;
+      }
+      return data_[place - 1];
+    }
+
+    // Number of bytes that can be scanned directly in the transport's buffer
+    // without going through this reader.
+    protected int available() {
+      return count_ > 0 ? 0 : trans_.getBytesRemainingInBuffer();
     }
   }
 
   // Stack of nested contexts that we may be in
-  private Stack<XMLBaseContext> contextStack_ = new Stack<XMLBaseContext>();
+  private XMLBaseContext[] contextStack_ = new XMLBaseContext[8];
+  private int contextDepth_ = 0;
+
+  // Contexts are reused: at most one of each kind is in use at each depth
+  private XMLPairContext[] pairContexts_ = new XMLPairContext[8];
+  private XMLMapContext[] mapContexts_ = new XMLMapContext[8];
+  private XMLListContext[] listContexts_ = new XMLListContext[8];
+
+  // The base context has no state, so the one instance serves every depth
+  private final XMLBaseContext baseContext_ = new XMLBaseContext();
 
   // Current context that we are in
-  private XMLBaseContext context_ = new XMLBaseContext();
+  private XMLBaseContext context_ = baseContext_;
 
-  // Reader that manages a 1-byte buffer
+  // Reader that manages a small lookahead buffer
   private LookaheadReader reader_ = new LookaheadReader();
 
-  // Push a new JSON context onto the stack.
+  // The tag last read by readXMLTag(), with its type and field attributes if
+  // it had them
+  private byte[] tagName_ = new byte[DEF_STRING_SIZE];
+  private int tagNameLen_ = 0;
+  private byte[] tagTypeName_ = new byte[DEF_STRING_SIZE];
+  private boolean tagTyped_ = false;
+  private byte tagType_;
+  private short tagId_;
+
+  // Buffer for text content and numbers being read
+  private byte[] stringBuffer_ = new byte[DEF_STRING_SIZE];
+  private byte[] numberBuffer_ = new byte[32];
+
+  // Push a new XML context onto the stack.
   private void pushContext(XMLBaseContext c) {
-    contextStack_.push(context_);
+    if (contextDepth_ == contextStack_.length) {
+      XMLBaseContext[] stack = new XMLBaseContext[contextDepth_ * 2];
+      System.arraycopy(contextStack_, 0, stack, 0, contextDepth_);
+      contextStack_ = stack;
+    }
+    contextStack_[contextDepth_++] = context_;
     context_ = c;
   }
 
-  // Pop the last JSON context off the stack
+  // Pop the last XML context off the stack
   private void popContext() {
-    context_ = contextStack_.pop();
+    context_ = contextStack_[--contextDepth_];
+    contextStack_[contextDepth_] = null;
+  }
+
+  // The pair context for the next level of nesting
+  private XMLPairContext nextPairContext() {
+    if (contextDepth_ >= pairContexts_.length) {
+      XMLPairContext[] pool = new XMLPairContext[contextDepth_ * 2];
+      System.arraycopy(pairContexts_, 0, pool, 0, pairContexts_.length);
+      pairContexts_ = pool;
+    }
+    XMLPairContext c = pairContexts_[contextDepth_];
+    if (c == null) {
+      c = pairContexts_[contextDepth_] = new XMLPairContext();
+    }
+    return c;
+  }
+
+  // The map context for the next level of nesting
+  private XMLMapContext nextMapContext() {
+    if (contextDepth_ >= mapContexts_.length) {
+      XMLMapContext[] pool = new XMLMapContext[contextDepth_ * 2];
+      System.arraycopy(mapContexts_, 0, pool, 0, mapContexts_.length);
+      mapContexts_ = pool;
+    }
+    XMLMapContext c = mapContexts_[contextDepth_];
+    if (c == null) {
+      c = mapContexts_[contextDepth_] = new XMLMapContext();
+    }
+    return c;
+  }
+
+  // The list context for the next level of nesting
+  private XMLListContext nextListContext() {
+    if (contextDepth_ >= listContexts_.length) {
+      XMLListContext[] pool = new XMLListContext[contextDepth_ * 2];
+      System.arraycopy(listContexts_, 0, pool, 0, listContexts_.length);
+      listContexts_ = pool;
+    }
+    XMLListContext c = listContexts_[contextDepth_];
+    if (c == null) {
+      c = listContexts_[contextDepth_] = new XMLListContext();
+    }
+    return c;
   }
 
   /**
@@ -472,15 +568,35 @@ public class TXMLProtocol extends TProtocol {
 
   @Override
   public void reset() {
-    contextStack_.clear();
-    context_ = new XMLBaseContext();
+    while (contextDepth_ > 0) {
+      popContext();
+    }
+    context_ = baseContext_;
     reader_ = new LookaheadReader();
   }
 
   private byte[] tmpbuf_ = new byte[4];
 
   protected void readXMLSyntaxChar(byte[] b) throws TException {
-    for (int i = 0; i < b.length; i++) {
+    readXMLSyntaxChars(b, b.length);
+  }
+
+  // Read the first len bytes of b, throwing if anything else is found
+  private void readXMLSyntaxChars(byte[] b, int len) throws TException {
+    if (reader_.available() >= len) {
+      // Compare in place in the transport's buffer
+      byte[] buf = trans_.getBuffer();
+      int pos = trans_.getBufferPosition();
+      for (int i = 0; i < len; i++) {
+        if (buf[pos + i] != b[i]) {
+          trans_.consumeBuffer(i + 1);
+          throw new TProtocolException(TProtocolException.INVALID_DATA, "Unexpected character:" + (char)buf[pos + i]);
+        }
+      }
+      trans_.consumeBuffer(len);
+      return;
+    }
+    for (int i = 0; i < len; i++) {
       byte ch = reader_.read();
       if (ch != b[i]) {
         throw new TProtocolException(TProtocolException.INVALID_DATA, "Unexpected character:" + (char)ch);
@@ -543,17 +659,21 @@ public class TXMLProtocol extends TProtocol {
   }
 
   private void writeXMLStart(String fieldName) throws TException {
-	  pushContext(new XMLPairContext(fieldName));
+    XMLPairContext c = nextPairContext();
+    c.reset(fieldName, false, TType.STOP, (short)0);
+    pushContext(c);
   }
-  
+
   private void writeXMLStart(String fieldName, byte type, short id) throws TException {
-	  pushContext(new XMLPairContext(fieldName, type, id));
+    XMLPairContext c = nextPairContext();
+    c.reset(fieldName, true, type, id);
+    pushContext(c);
   }
-  
+
   private void writeXMLEnd() throws TException {
-	  if (contextStack_.size() > 0) {
-		  popContext();
-	  }
+    if (contextDepth_ > 0) {
+      popContext();
+    }
   }
 
   @Override
@@ -605,7 +725,9 @@ public class TXMLProtocol extends TProtocol {
   @Override
   public void writeMapBegin(TMap map) throws TException {
     context_.write();
-    pushContext(new XMLMapContext(map.keyType,map.valueType,map.size));
+    XMLMapContext c = nextMapContext();
+    c.reset(map.keyType, map.valueType, map.size);
+    pushContext(c);
   }
 
   @Override
@@ -617,7 +739,9 @@ public class TXMLProtocol extends TProtocol {
   @Override
   public void writeListBegin(TList list) throws TException {
 	  context_.write();
-	  pushContext(new XMLListContext(list.elemType,list.size));
+	  XMLListContext c = nextListContext();
+	  c.reset(list.elemType, list.size);
+	  pushContext(c);
   }
 
   @Override
@@ -629,7 +753,9 @@ public class TXMLProtocol extends TProtocol {
   @Override
   public void writeSetBegin(TSet set) throws TException {
 	  context_.write();
-	  pushContext(new XMLListContext(set.elemType,set.size));
+	  XMLListContext c = nextListContext();
+	  c.reset(set.elemType, set.size);
+	  pushContext(c);
   }
 
   @Override
@@ -703,55 +829,135 @@ public class TXMLProtocol extends TProtocol {
    * Reading methods.
    */
 
-  private TByteArrayOutputStream readXMLString() throws TException {
-    context_.read();    
-	TByteArrayOutputStream fieldName = new TByteArrayOutputStream();
+  private void ensureStringCapacity(int size) {
+    if (size > stringBuffer_.length) {
+      byte[] buf = new byte[Math.max(size, stringBuffer_.length * 2)];
+      System.arraycopy(stringBuffer_, 0, buf, 0, stringBuffer_.length);
+      stringBuffer_ = buf;
+    }
+  }
+
+  // Decode the first len bytes of stringBuffer_ as UTF-8
+  private String stringBufferToString(int len) throws TException {
+    try {
+      return new String(stringBuffer_, 0, len, "UTF-8");
+    }
+    catch (UnsupportedEncodingException ex) {
+      throw new TException("JVM DOES NOT SUPPORT UTF-8");
+    }
+  }
+
+  // Read the rest of an escape sequence whose ampersand has been consumed,
+  // returning the character it stands for.
+  private byte readXMLEscape() throws TException {
+    byte ch = reader_.read();
+    if (ch == AMPERESC[1]) {
+      ch = reader_.read();
+      if (ch == AMPERESC[2]) {
+        ch = reader_.read();
+        if (ch == AMPERESC[3]) {
+          ch = reader_.read();
+          if (ch == AMPERESC[4]) {
+            return '&';
+          }
+        }
+      }
+    } else if (ch == LANGESC[1]) {
+      ch = reader_.read();
+      if (ch == LANGESC[2]) {
+        ch = reader_.read();
+        if (ch == LANGESC[3]) {
+          return '<';
+        }
+      }
+    }
+    throw new TProtocolException(TProtocolException.INVALID_DATA, "Expected escape char");
+  }
+
+  // Read the text up to the next tag, unescaping as appropriate. The contents
+  // are left in stringBuffer_ and their length is returned.
+  private int readXMLString() throws TException {
+    if (stringBuffer_.length > MAX_RETAINED_STRING_SIZE) {
+      stringBuffer_ = new byte[DEF_STRING_SIZE];
+    }
+    int len = 0;
+    context_.read();
     while (true) {
+      // Copy runs of plain characters straight out of the transport's buffer
+      int avail = reader_.available();
+      if (avail > 0) {
+        byte[] buf = trans_.getBuffer();
+        int start = trans_.getBufferPosition();
+        int end = start + avail;
+        int pos = start;
+        while (pos < end && buf[pos] != LANGLE[0] && buf[pos] != AMPERSAND[0]) {
+          pos++;
+        }
+        if (pos > start) {
+          ensureStringCapacity(len + pos - start);
+          System.arraycopy(buf, start, stringBuffer_, len, pos - start);
+          len += pos - start;
+          trans_.consumeBuffer(pos - start);
+          continue;
+        }
+      }
+
       byte ch = reader_.peek();
       if (ch == LANGLE[0]) {
         break;
       }
       reader_.read();
       if (ch == AMPERSAND[0]) {
-        boolean escaped = false;
-        ch = reader_.read();
-        if (ch == AMPERESC[1]) {
-          ch = reader_.read();
-          if (ch == AMPERESC[2]) {
-            ch = reader_.read();
-            if (ch == AMPERESC[3]) {
-              ch = reader_.read();
-              if (ch == AMPERESC[4]) {
-                escaped = true;
-                ch = '&';
-              }
-            }
-          }
-        } else if (ch == LANGESC[1]) {
-          ch = reader_.read();
-          if (ch == LANGESC[2]) {
-            ch = reader_.read();
-            if (ch == LANGESC[3]) {
-              escaped = true;
-              ch = '<';
-            }
-          }
-        }
-        if (!escaped) {
-          throw new TProtocolException(TProtocolException.INVALID_DATA, "Expected escape char");
-        }
+        ch = readXMLEscape();
       }
-      fieldName.write(ch);
+      ensureStringCapacity(len + 1);
+      stringBuffer_[len++] = ch;
     }
     context_.read();
-    return fieldName;
+    return len;
+  }
+
+  // Double the size of buf, keeping its first len bytes
+  private static byte[] grow(byte[] buf, int len) {
+    byte[] larger = new byte[buf.length * 2];
+    System.arraycopy(buf, 0, larger, 0, len);
+    return larger;
   }
 
-private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
-	boolean getType = false;
+  // Whether ch can be copied into a tag name as it is
+  private static boolean isPlainTagChar(byte ch) {
+    return ch != SPACE[0] && ch != RANGLE[0] && ch != AMPERSAND[0] && ch != LANGLE[0];
+  }
+
+  // Read a tag, leaving its name in tagName_ and its type and field
+  // attributes, if any, in tagType_ and tagId_. End tags are not told apart
+  // from start tags; their names simply begin with a slash.
+  private void readXMLTag() throws TException {
     readXMLSyntaxChar(LANGLE);
-	TByteArrayOutputStream fieldName = new TByteArrayOutputStream();
+    int len = 0;
+    boolean getType = false;
     while (true) {
+      // Copy runs of plain characters straight out of the transport's buffer
+      int avail = reader_.available();
+      if (avail > 0) {
+        byte[] buf = trans_.getBuffer();
+        int start = trans_.getBufferPosition();
+        int end = start + avail;
+        int pos = start;
+        while (pos < end && isPlainTagChar(buf[pos])) {
+          pos++;
+        }
+        if (pos > start) {
+          while (len + pos - start > tagName_.length) {
+            tagName_ = grow(tagName_, len);
+          }
+          System.arraycopy(buf, start, tagName_, len, pos - start);
+          len += pos - start;
+          trans_.consumeBuffer(pos - start);
+          continue;
+        }
+      }
+
       byte ch = reader_.read();
       if (ch == SPACE[0]) {
         getType = true;
@@ -759,90 +965,47 @@ private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
       } else if (ch == RANGLE[0]) {
         break;
       } else if (ch == AMPERSAND[0]) {
-        boolean escaped = false;
-        ch = reader_.read();
-        if (ch == AMPERESC[1]) {
-          ch = reader_.read();
-          if (ch == AMPERESC[2]) {
-            ch = reader_.read();
-            if (ch == AMPERESC[3]) {
-              ch = reader_.read();
-              if (ch == AMPERESC[4]) {
-                escaped = true;
-                ch = '&';
-              }
-            }
-          }
-        } else if (ch == LANGESC[1]) {
-          ch = reader_.read();
-          if (ch == LANGESC[2]) {
-            ch = reader_.read();
-            if (ch == LANGESC[3]) {
-              escaped = true;
-              ch = '<';
-            }
-          }
-        }
-        if (!escaped) {
-          throw new TProtocolException(TProtocolException.INVALID_DATA, "Expected escape char");
-        }
+        ch = readXMLEscape();
       } else if (ch == LANGLE[0]) {
         throw new TProtocolException(TProtocolException.INVALID_DATA, "Expected escape char");
       }
-      fieldName.write(ch);
+      if (len == tagName_.length) {
+        tagName_ = grow(tagName_, len);
+      }
+      tagName_[len++] = ch;
     }
-    TByteArrayOutputStream fieldType = new TByteArrayOutputStream();
-    Short fieldId = null;
+    tagNameLen_ = len;
+    tagTyped_ = getType;
     if (getType) {
       readXMLSyntaxChar(TYPEEQUALS);
       readXMLSyntaxChar(QUOTE);
+      len = 0;
       while (true) {
         byte ch = reader_.read();
         if (ch == QUOTE[0]) {
           break;
         } else if (ch == AMPERSAND[0]) {
-          boolean escaped = false;
-          ch = reader_.read();
-          if (ch == AMPERESC[1]) {
-            ch = reader_.read();
-            if (ch == AMPERESC[2]) {
-              ch = reader_.read();
-              if (ch == AMPERESC[3]) {
-                ch = reader_.read();
-                if (ch == AMPERESC[4]) {
-                  escaped = true;
-                  ch = '&';
-                }
-              }
-            }
-          } else if (ch == LANGESC[1]) {
-            ch = reader_.read();
-            if (ch == LANGESC[2]) {
-              ch = reader_.read();
-              if (ch == LANGESC[3]) {
-                escaped = true;
-                ch = '<';
-              }
-            }
-          }
-          if (!escaped) {
-            throw new TProtocolException(TProtocolException.INVALID_DATA, "Expected escape char");
-          }
+          ch = readXMLEscape();
         } else if (ch == LANGLE[0]) {
           throw new TProtocolException(TProtocolException.INVALID_DATA, "Expected escape char");
         }
-        fieldType.write(ch);
+        if (len == tagTypeName_.length) {
+          tagTypeName_ = grow(tagTypeName_, len);
+        }
+        tagTypeName_[len++] = ch;
       }
+      tagType_ = getTypeIDForTypeName(tagTypeName_, len);
       readXMLSyntaxChar(SPACE);
       readXMLSyntaxChar(FIELDEQUALS);
       readXMLSyntaxChar(QUOTE);
-      String temporaryId = readXMLNumericChars();
-      fieldId = Short.parseShort(temporaryId);
+      long id = TNumberUtils.parseLong(numberBuffer_, readXMLNumericChars());
+      if (id < Short.MIN_VALUE || id > Short.MAX_VALUE) {
+        throw TNumberUtils.badNumber();
+      }
+      tagId_ = (short)id;
       readXMLSyntaxChar(QUOTE);
       readXMLSyntaxChar(RANGLE);
     }
-    ThreeTuple<String,Byte,Short> forReturn = new ThreeTuple<String,Byte,Short>(fieldName.toString(),fieldType.size() > 0 ? getTypeIDForTypeName(fieldType.toByteArray()) : null, fieldId);
-    return forReturn;
   }
 
   private boolean isJSONNumeric(byte b) {
@@ -867,47 +1030,48 @@ private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
     return false;
   }
 
-  private String readXMLNumericChars() throws TException {
-    StringBuilder strbld = new StringBuilder();
+  // Read in a sequence of characters that could make up a number. They are
+  // left in numberBuffer_ and their count is returned.
+  private int readXMLNumericChars() throws TException {
+    int len = 0;
     while (true) {
       byte ch = reader_.peek();
       if (!isJSONNumeric(ch)) {
         break;
       }
-      strbld.append((char)reader_.read());
+      reader_.read();
+      if (len == numberBuffer_.length) {
+        numberBuffer_ = grow(numberBuffer_, len);
+      }
+      numberBuffer_[len++] = ch;
     }
-    return strbld.toString();
+    return len;
   }
 
   private long readXMLInteger() throws TException {
     context_.read();
-    String str = readXMLNumericChars();
+    int len = readXMLNumericChars();
     context_.read();
-    try {
-      return Long.valueOf(str);
-    }
-    catch (NumberFormatException ex) {
-      throw new TProtocolException(TProtocolException.INVALID_DATA,"Bad data encounted in numeric data");
-    }
+    return TNumberUtils.parseLong(numberBuffer_, len);
   }
 
   private double readJSONDouble() throws TException {
     context_.read();
-    Double forReturn;
-    try {
-      forReturn = Double.valueOf(readXMLNumericChars());
-    } catch (NumberFormatException ex) {
-      throw new TProtocolException(TProtocolException.INVALID_DATA, "Bad data encounted in numeric data");
-    }
+    double forReturn = TNumberUtils.parseDouble(numberBuffer_, readXMLNumericChars());
     context_.read();
     return forReturn;
   }
 
+  // Read the text content naming a type, as in the container headers
+  private byte readXMLTypeName() throws TException {
+    int len = readXMLString();
+    return getTypeIDForTypeName(stringBuffer_, len);
+  }
+
   private byte[] readJSONBase64() throws TException {
     context_.read();
-    TByteArrayOutputStream arr = readXMLString();
-    byte[] b = arr.get();
-    int len = arr.len();
+    int len = readXMLString();
+    byte[] b = stringBuffer_;
     int off = 0;
     int size = 0;
     while (len >= 4) {
@@ -939,13 +1103,7 @@ private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
       throw new TProtocolException(TProtocolException.BAD_VERSION,
                                    "Message contained bad version.");
     }
-    String name;
-    try {
-      name = readXMLString().toString("UTF-8");
-    }
-    catch (UnsupportedEncodingException ex) {
-      throw new TException("JVM DOES NOT SUPPORT UTF-8");
-    }
+    String name = stringBufferToString(readXMLString());
     byte type = (byte) readXMLInteger();
     int seqid = (int) readXMLInteger();
     return new TMessage(name, type, seqid);
@@ -960,7 +1118,10 @@ private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
   @Override
   public TStruct readStructBegin() throws TException {
     context_.read();
-    pushContext(new XMLPairContext());
+    XMLPairContext c = nextPairContext();
+    readXMLTag();
+    c.resetFromTag();
+    pushContext(c);
     return ANONYMOUS_STRUCT;
   }
 
@@ -976,10 +1137,15 @@ private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
     byte ch = reader_.peek(2);
     if (ch == '/')
       return new TField("",TType.STOP,(short)0);
-    pushContext(new XMLPairContext());
-    XMLPairContext tempContext = ((XMLPairContext)context_);
-    pushContext(new XMLBaseContext());
-    return new TField(tempContext.getName(),tempContext.getType(),tempContext.fieldId == null ? 0 : tempContext.fieldId);
+    XMLPairContext c = nextPairContext();
+    readXMLTag();
+    if (!tagTyped_) {
+      throw new TProtocolException(TProtocolException.INVALID_DATA, "Field element has no type");
+    }
+    c.resetFromTag();
+    pushContext(c);
+    pushContext(baseContext_);
+    return new TField(new String(tagName_, 0, tagNameLen_), c.getType(), c.getFieldId());
   }
 
   @Override
@@ -992,15 +1158,17 @@ private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
   @Override
   public TMap readMapBegin() throws TException {
     readXMLTag();
-    byte keyType = getTypeIDForTypeName(readXMLString().toByteArray());
+    byte keyType = readXMLTypeName();
     readXMLTag();
     readXMLTag();
-    byte valueType = getTypeIDForTypeName(readXMLString().toByteArray());
+    byte valueType = readXMLTypeName();
     readXMLTag();
     readXMLTag();
-    int fieldCount = new Long(readXMLInteger()).intValue(); 
+    int fieldCount = (int)readXMLInteger();
     readXMLTag();
-    pushContext(new XMLMapContext(null,null,null));
+    XMLMapContext c = nextMapContext();
+    c.reset(keyType, valueType, fieldCount);
+    pushContext(c);
     return new TMap(keyType,valueType,fieldCount);
   }
 
@@ -1012,12 +1180,14 @@ private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
   @Override
   public TList readListBegin() throws TException {
     readXMLTag();
-    byte elemType = getTypeIDForTypeName(readXMLString().toByteArray());
+    byte elemType = readXMLTypeName();
     readXMLTag();
     readXMLTag();
     int size = (int)readXMLInteger();
     readXMLTag();
-    pushContext(new XMLListContext(null,null));
+    XMLListContext c = nextListContext();
+    c.reset(elemType, size);
+    pushContext(c);
     return new TList(elemType, size);
   }
 
@@ -1028,13 +1198,15 @@ private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
 
   @Override
   public TSet readSetBegin() throws TException {
-	readXMLTag();
-	byte elemType = getTypeIDForTypeName(readXMLString().toByteArray());
-	readXMLTag();
-	readXMLTag();
-	int size = (int)readXMLInteger();
-	readXMLTag();
-    pushContext(new XMLListContext(null,null));
+    readXMLTag();
+    byte elemType = readXMLTypeName();
+    readXMLTag();
+    readXMLTag();
+    int size = (int)readXMLInteger();
+    readXMLTag();
+    XMLListContext c = nextListContext();
+    c.reset(elemType, size);
+    pushContext(c);
     return new TSet(elemType, size);
   }
 
@@ -1075,12 +1247,7 @@ private ThreeTuple<String,Byte,Short> readXMLTag() throws TException {
 
   @Override
   public String readString() throws TException {
-    try {
-      return readXMLString().toString("UTF-8");
-    }
-    catch (UnsupportedEncodingException ex) {
-      throw new TException("JVM DOES NOT SUPPORT UTF-8");
-    }
+    return stringBufferToString(readXMLString());
   }
 
   @Override
@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.scheme;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.thrift.TBase;
+import org.apache.thrift.TEnum;
+import org.apache.thrift.TException;
+import org.apache.thrift.TFieldIdEnum;
+import org.apache.thrift.TFieldRequirementType;
+import org.apache.thrift.TUnion;
+import org.apache.thrift.meta_data.EnumMetaData;
+import org.apache.thrift.meta_data.FieldMetaData;
+import org.apache.thrift.meta_data.FieldValueMetaData;
+import org.apache.thrift.meta_data.ListMetaData;
+import org.apache.thrift.meta_data.MapMetaData;
+import org.apache.thrift.meta_data.SetMetaData;
+import org.apache.thrift.meta_data.StructFieldIndex;
+import org.apache.thrift.meta_data.StructMetaData;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * A standard scheme driven by the FieldMetaData of a struct class rather than
+ * by generated code. The metadata is compiled once into a plan of codecs, one
+ * per field and specialised by value type, which then read and write field
+ * values through TBase's getFieldValue/setFieldValue. Nested structs are
+ * encoded with their own MetaDataScheme, so no generated scheme is involved
+ * apart from the TBase accessors.
+ *
+ * The output is the same as that of the generated standard scheme and can be
+ * used with any protocol.
+ */
+public final class MetaDataScheme<T extends TBase> extends StandardScheme<T> {
+
+  private static final ConcurrentMap<Class<?>, MetaDataScheme<?>> SCHEMES =
+      new ConcurrentHashMap<Class<?>, MetaDataScheme<?>>();
+
+  private final Class<T> structClass_;
+  private final TStruct structDesc_;
+  private final StructFieldIndex index_;
+  private final FieldPlan[] fields_;
+  private final boolean union_;
+
+  /**
+   * Returns the cached scheme for the given struct class, compiling it on
+   * first use.
+   *
+   * @throws IllegalArgumentException if the class has no metadata
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends TBase> MetaDataScheme<T> forClass(Class<T> structClass) {
+    MetaDataScheme<T> scheme = (MetaDataScheme<T>) SCHEMES.get(structClass);
+    if (scheme == null) {
+      scheme = new MetaDataScheme<T>(structClass);
+      MetaDataScheme<T> raced = (MetaDataScheme<T>) SCHEMES.putIfAbsent(structClass, scheme);
+      if (raced != null) {
+        scheme = raced;
+      }
+    }
+    return scheme;
+  }
+
+  private MetaDataScheme(Class<T> structClass) {
+    structClass_ = structClass;
+    structDesc_ = new TStruct(structClass.getSimpleName());
+    index_ = FieldMetaData.getStructFieldIndex(structClass);
+    if (index_ == null) {
+      throw new IllegalArgumentException("No metadata for TBase class: " + structClass.getName());
+    }
+    union_ = TUnion.class.isAssignableFrom(structClass);
+    fields_ = new FieldPlan[index_.size()];
+    for (int i = 0; i < fields_.length; i++) {
+      fields_[i] = new FieldPlan(index_.field(i), index_.metaData(i), union_);
+    }
+  }
+
+  /**
+   * Reads a new instance of the struct class from the protocol.
+   */
+  public T read(TProtocol iprot) throws TException {
+    T struct = newInstance(structClass_);
+    read(iprot, struct);
+    return struct;
+  }
+
+  @SuppressWarnings("unchecked")
+  public void read(TProtocol iprot, T struct) throws TException {
+    if (union_) {
+      struct.clear();
+    }
+    iprot.readStructBegin();
+    while (true) {
+      TField field = iprot.readFieldBegin();
+      if (field.type == TType.STOP) {
+        break;
+      }
+      int position = index_.positionOf(field.id);
+      if (position < 0 || fields_[position].codec.wireType != field.type) {
+        TProtocolUtil.skip(iprot, field.type);
+      } else {
+        FieldPlan plan = fields_[position];
+        struct.setFieldValue(plan.field, plan.codec.read(iprot));
+      }
+      iprot.readFieldEnd();
+    }
+    iprot.readStructEnd();
+
+    for (FieldPlan plan : fields_) {
+      if (plan.required && !struct.isSet(plan.field)) {
+        throw new TProtocolException("Required field '" + plan.desc.name + "' was not found in serialized data! Struct: " + struct.toString());
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public void write(TProtocol oprot, T struct) throws TException {
+    if (union_ && ((TUnion) struct).getSetField() == null) {
+      throw new TProtocolException("Cannot write a TUnion with no set value!");
+    }
+    oprot.writeStructBegin(structDesc_);
+    for (FieldPlan plan : fields_) {
+      if (plan.alwaysWritten || struct.isSet(plan.field)) {
+        oprot.writeFieldBegin(plan.desc);
+        plan.codec.write(oprot, struct.getFieldValue(plan.field));
+        oprot.writeFieldEnd();
+      } else if (plan.required) {
+        throw new TProtocolException("Required field '" + plan.desc.name + "' was not present! Struct: " + struct.toString());
+      }
+    }
+    oprot.writeFieldStop();
+    oprot.writeStructEnd();
+  }
+
+  private static <T> T newInstance(Class<T> structClass) {
+    try {
+      return structClass.newInstance();
+    } catch (InstantiationException e) {
+      throw new RuntimeException("InstantiationException for TBase class: " + structClass.getName() + ", message: " + e.getMessage());
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException("IllegalAccessException for TBase class: " + structClass.getName() + ", message: " + e.getMessage());
+    }
+  }
+
+  private static final class FieldPlan {
+    final TFieldIdEnum field;
+    final TField desc;
+    final Codec codec;
+    // primitive fields that are not optional are written whether set or not,
+    // like the generated scheme does
+    final boolean alwaysWritten;
+    final boolean required;
+
+    FieldPlan(TFieldIdEnum field, FieldMetaData metaData, boolean union) {
+      this.field = field;
+      this.codec = codecFor(metaData.valueMetaData);
+      this.desc = new TField(metaData.fieldName, codec.wireType, field.getThriftFieldId());
+      this.alwaysWritten = !union && codec.primitive && metaData.requirementType != TFieldRequirementType.OPTIONAL;
+      this.required = metaData.requirementType == TFieldRequirementType.REQUIRED;
+    }
+  }
+
+  private static Codec codecFor(FieldValueMetaData metaData) {
+    switch (metaData.type) {
+    case TType.BOOL:
+      return BOOL;
+    case TType.BYTE:
+      return BYTE;
+    case TType.I16:
+      return I16;
+    case TType.I32:
+      return I32;
+    case TType.I64:
+      return I64;
+    case TType.DOUBLE:
+      return DOUBLE;
+    case TType.STRING:
+      return metaData.isBinary() ? BINARY : STRING;
+    case TType.ENUM:
+      return new EnumCodec((EnumMetaData) metaData);
+    case TType.STRUCT:
+      if (!(metaData instanceof StructMetaData)) {
+        break;
+      }
+      return new StructCodec(((StructMetaData) metaData).structClass);
+    case TType.LIST:
+      return new ListCodec(codecFor(((ListMetaData) metaData).elemMetaData));
+    case TType.SET:
+      return new SetCodec(codecFor(((SetMetaData) metaData).elemMetaData));
+    case TType.MAP:
+      MapMetaData map = (MapMetaData) metaData;
+      return new MapCodec(codecFor(map.keyMetaData), codecFor(map.valueMetaData));
+    }
+    throw new IllegalArgumentException("Cannot encode values described by " + metaData.getClass().getSimpleName() + " of type " + metaData.type);
+  }
+
+  /**
+   * Reads and writes the values of one thrift type, in the Java
+   * representation used by the generated accessors.
+   */
+  private static abstract class Codec {
+    final byte wireType;
+    final boolean primitive;
+
+    Codec(byte wireType, boolean primitive) {
+      this.wireType = wireType;
+      this.primitive = primitive;
+    }
+
+    abstract Object read(TProtocol iprot) throws TException;
+
+    abstract void write(TProtocol oprot, Object value) throws TException;
+  }
+
+  private static final Codec BOOL = new Codec(TType.BOOL, true) {
+    Object read(TProtocol iprot) throws TException {
+      return Boolean.valueOf(iprot.readBool());
+    }
+    void write(TProtocol oprot, Object value) throws TException {
+      oprot.writeBool(((Boolean) value).booleanValue());
+    }
+  };
+
+  private static final Codec BYTE = new Codec(TType.BYTE, true) {
+    Object read(TProtocol iprot) throws TException {
+      return Byte.valueOf(iprot.readByte());
+    }
+    void write(TProtocol oprot, Object value) throws TException {
+      oprot.writeByte(((Byte) value).byteValue());
+    }
+  };
+
+  private static final Codec I16 = new Codec(TType.I16, true) {
+    Object read(TProtocol iprot) throws TException {
+      return Short.valueOf(iprot.readI16());
+    }
+    void write(TProtocol oprot, Object value) throws TException {
+      oprot.writeI16(((Short) value).shortValue());
+    }
+  };
+
+  private static final Codec I32 = new Codec(TType.I32, true) {
+    Object read(TProtocol iprot) throws TException {
+      return Integer.valueOf(iprot.readI32());
+    }
+    void write(TProtocol oprot, Object value) throws TException {
+      oprot.writeI32(((Integer) value).intValue());
+    }
+  };
+
+  private static final Codec I64 = new Codec(TType.I64, true) {
+    Object read(TProtocol iprot) throws TException {
+      return Long.valueOf(iprot.readI64());
+    }
+    void write(TProtocol oprot, Object value) throws TException {
+      oprot.writeI64(((Long) value).longValue());
+    }
+  };
+
+  private static final Codec DOUBLE = new Codec(TType.DOUBLE, true) {
+    Object read(TProtocol iprot) throws TException {
+      return Double.valueOf(iprot.readDouble());
+    }
+    void write(TProtocol oprot, Object value) throws TException {
+      oprot.writeDouble(((Double) value).doubleValue());
+    }
+  };
+
+  private static final Codec STRING = new Codec(TType.STRING, false) {
+    Object read(TProtocol iprot) throws TException {
+      return iprot.readString();
+    }
+    void write(TProtocol oprot, Object value) throws TException {
+      oprot.writeString((String) value);
+    }
+  };
+
+  private static final Codec BINARY = new Codec(TType.STRING, false) {
+    Object read(TProtocol iprot) throws TException {
+      return iprot.readBinary();
+    }
+    void write(TProtocol oprot, Object value) throws TException {
+      // the generated getters hand out binary fields as byte[]
+      oprot.writeBinary(value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : (ByteBuffer) value);
+    }
+  };
+
+  private static final class EnumCodec extends Codec {
+    private final EnumMetaData metaData_;
+
+    EnumCodec(EnumMetaData metaData) {
+      super(TType.I32, false);
+      metaData_ = metaData;
+    }
+
+    Object read(TProtocol iprot) throws TException {
+      return metaData_.findByValue(iprot.readI32());
+    }
+
+    void write(TProtocol oprot, Object value) throws TException {
+      oprot.writeI32(((TEnum) value).getValue());
+    }
+  }
+
+  private static final class StructCodec extends Codec {
+    private final Class<? extends TBase> structClass_;
+    // resolved on first use so that recursive structs can be compiled
+    private MetaDataScheme<TBase> scheme_;
+
+    StructCodec(Class<? extends TBase> structClass) {
+      super(TType.STRUCT, false);
+      structClass_ = structClass;
+    }
+
+    @SuppressWarnings("unchecked")
+    private MetaDataScheme<TBase> scheme() {
+      MetaDataScheme<TBase> scheme = scheme_;
+      if (scheme == null) {
+        scheme = (MetaDataScheme<TBase>) forClass(structClass_);
+        scheme_ = scheme;
+      }
+      return scheme;
+    }
+
+    Object read(TProtocol iprot) throws TException {
+      return scheme().read(iprot);
+    }
+
+    void write(TProtocol oprot, Object value) throws TException {
+      scheme().write(oprot, (TBase) value);
+    }
+  }
+
+  private static final class ListCodec extends Codec {
+    private final Codec elem_;
+
+    ListCodec(Codec elem) {
+      super(TType.LIST, false);
+      elem_ = elem;
+    }
+
+    Object read(TProtocol iprot) throws TException {
+      TList list = iprot.readListBegin();
+      List<Object> result = new ArrayList<Object>(list.size);
+      for (int i = 0; i < list.size; i++) {
+        result.add(elem_.read(iprot));
+      }
+      iprot.readListEnd();
+      return result;
+    }
+
+    void write(TProtocol oprot, Object value) throws TException {
+      Collection<?> list = (Collection<?>) value;
+      oprot.writeListBegin(new TList(elem_.wireType, list.size()));
+      for (Object elem : list) {
+        elem_.write(oprot, elem);
+      }
+      oprot.writeListEnd();
+    }
+  }
+
+  private static final class SetCodec extends Codec {
+    private final Codec elem_;
+
+    SetCodec(Codec elem) {
+      super(TType.SET, false);
+      elem_ = elem;
+    }
+
+    Object read(TProtocol iprot) throws TException {
+      TSet set = iprot.readSetBegin();
+      HashSet<Object> result = new HashSet<Object>(2*set.size);
+      for (int i = 0; i < set.size; i++) {
+        result.add(elem_.read(iprot));
+      }
+      iprot.readSetEnd();
+      return result;
+    }
+
+    void write(TProtocol oprot, Object value) throws TException {
+      Collection<?> set = (Collection<?>) value;
+      oprot.writeSetBegin(new TSet(elem_.wireType, set.size()));
+      for (Object elem : set) {
+        elem_.write(oprot, elem);
+      }
+      oprot.writeSetEnd();
+    }
+  }
+
+  private static final class MapCodec extends Codec {
+    private final Codec key_;
+    private final Codec value_;
+
+    MapCodec(Codec key, Codec value) {
+      super(TType.MAP, false);
+      key_ = key;
+      value_ = value;
+    }
+
+    Object read(TProtocol iprot) throws TException {
+      TMap map = iprot.readMapBegin();
+      HashMap<Object, Object> result = new HashMap<Object, Object>(2*map.size);
+      for (int i = 0; i < map.size; i++) {
+        Object key = key_.read(iprot);
+        result.put(key, value_.read(iprot));
+      }
+      iprot.readMapEnd();
+      return result;
+    }
+
+    void write(TProtocol oprot, Object value) throws TException {
+      Map<?, ?> map = (Map<?, ?>) value;
+      oprot.writeMapBegin(new TMap(key_.wireType, value_.wireType, map.size()));
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        key_.write(oprot, entry.getKey());
+        value_.write(oprot, entry.getValue());
+      }
+      oprot.writeMapEnd();
+    }
+  }
+}
@@ -37,6 +37,8 @@ import org.apache.thrift.transport.TIOStreamTransport;
 import org.apache.thrift.transport.TMemoryInputTransport;
 import org.apache.thrift.transport.TNonblockingServerTransport;
 import org.apache.thrift.transport.TNonblockingTransport;
+import org.apache.thrift.transport.TSaslServerNegotiator;
+import org.apache.thrift.transport.TSaslServerTransport;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
@@ -51,11 +53,22 @@ public abstract class AbstractNonblockingServer extends TServer {
 
   public static abstract class AbstractNonblockingServerArgs<T extends AbstractNonblockingServerArgs<T>> extends AbstractServerArgs<T> {
     public long maxReadBufferBytes = Long.MAX_VALUE;
+    public TSaslServerTransport.Factory saslServerFactory = null;
 
     public AbstractNonblockingServerArgs(TNonblockingServerTransport transport) {
       super(transport);
       transportFactory(new TFramedTransport.Factory());
     }
+
+    /**
+     * Authenticate every connection with SASL before reading requests from
+     * it, using the server definitions of the given factory.
+     */
+    @SuppressWarnings("unchecked")
+    public T saslServerFactory(TSaslServerTransport.Factory factory) {
+      this.saslServerFactory = factory;
+      return (T) this;
+    }
   }
 
   /**
@@ -70,9 +83,16 @@ public abstract class AbstractNonblockingServer extends TServer {
    */
   final AtomicLong readBufferBytesAllocated = new AtomicLong(0);
 
+  /**
+   * Creates the SASL negotiators for new connections, or null if connections
+   * are not authenticated.
+   */
+  private final TSaslServerTransport.Factory saslServerFactory_;
+
   public AbstractNonblockingServer(AbstractNonblockingServerArgs args) {
     super(args);
     MAX_READ_BUFFER_BYTES = args.maxReadBufferBytes;
+    saslServerFactory_ = args.saslServerFactory;
   }
 
   /**
@@ -218,6 +238,12 @@ public abstract class AbstractNonblockingServer extends TServer {
      */
     protected void handleWrite(SelectionKey key) {
       FrameBuffer buffer = (FrameBuffer) key.attachment();
+      if (buffer.isReading()) {
+        // the transport asked for a write event to send data of its own,
+        // such as a TLS handshake message, which it does when read from
+        handleRead(key);
+        return;
+      }
       if (!buffer.write()) {
         cleanupSelectionKey(key);
       }
@@ -242,6 +268,8 @@ public abstract class AbstractNonblockingServer extends TServer {
    * Possible states for the FrameBuffer state machine.
    */
   private enum FrameBufferState {
+    // exchanging SASL handshake messages, before any frame is read
+    NEGOTIATING,
     // in the midst of reading the frame size off the wire
     READING_FRAME_SIZE,
     // reading the actual frame data now, but not all the way done yet
@@ -303,6 +331,9 @@ public abstract class AbstractNonblockingServer extends TServer {
     // context associated with this connection
     protected final ServerContext context_;
 
+    // the SASL handshake and any negotiated QOP, or null without SASL
+    protected final TSaslServerNegotiator sasl_;
+
     public FrameBuffer(final TNonblockingTransport trans,
         final SelectionKey selectionKey,
         final AbstractSelectThread selectThread) {
@@ -323,6 +354,13 @@ public abstract class AbstractNonblockingServer extends TServer {
       } else {
         context_  = null;
       }
+
+      if (saslServerFactory_ != null) {
+        sasl_ = saslServerFactory_.newNegotiator();
+        state_ = FrameBufferState.NEGOTIATING;
+      } else {
+        sasl_ = null;
+      }
     }
 
     /**
@@ -333,6 +371,10 @@ public abstract class AbstractNonblockingServer extends TServer {
      *         closed
      */
     public boolean read() {
+      if (state_ == FrameBufferState.NEGOTIATING) {
+        return negotiate();
+      }
+
       if (state_ == FrameBufferState.READING_FRAME_SIZE) {
         // try to read the frame size completely
         if (!internalRead()) {
@@ -409,6 +451,10 @@ public abstract class AbstractNonblockingServer extends TServer {
      * Give this FrameBuffer a chance to write its output to the final client.
      */
     public boolean write() {
+      if (state_ == FrameBufferState.NEGOTIATING) {
+        return negotiate();
+      }
+
       if (state_ == FrameBufferState.WRITING) {
         try {
           if (trans_.write(buffer_) < 0) {
@@ -461,11 +507,21 @@ public abstract class AbstractNonblockingServer extends TServer {
         readBufferBytesAllocated.addAndGet(-buffer_.array().length);
       }
       trans_.close();
+      if (sasl_ != null) {
+        sasl_.dispose();
+      }
       if (eventHandler_ != null) {
         eventHandler_.deleteContext(context_, inProt_, outProt_);
       }
     }
 
+    /**
+     * Check if this FrameBuffer is waiting on a frame from the client.
+     */
+    public boolean isReading() {
+      return state_ == FrameBufferState.READING_FRAME_SIZE || state_ == FrameBufferState.READING_FRAME;
+    }
+
     /**
      * Check if this FrameBuffer has a full frame read.
      */
@@ -481,18 +537,31 @@ public abstract class AbstractNonblockingServer extends TServer {
      * to write and instead go back to reading.
      */
     public void responseReady() {
+      ByteBuffer response = null;
+      if (response_.len() != 0) {
+        try {
+          response = sasl_ == null ? ByteBuffer.wrap(response_.get(), 0, response_.len())
+              : sasl_.wrapFrame(response_.get(), response_.len());
+        } catch (TTransportException e) {
+          LOGGER.warn("Exception while wrapping response!", e);
+          state_ = FrameBufferState.AWAITING_CLOSE;
+          requestSelectInterestChange();
+          return;
+        }
+      }
+
       // the read buffer is definitely no longer in use, so we will decrement
       // our read buffer count. we do this here as well as in close because
       // we'd like to free this read memory up as quickly as possible for other
       // clients.
       readBufferBytesAllocated.addAndGet(-buffer_.array().length);
 
-      if (response_.len() == 0) {
+      if (response == null) {
         // go straight to reading again. this was probably an oneway method
         state_ = FrameBufferState.AWAITING_REGISTER_READ;
         buffer_ = null;
       } else {
-        buffer_ = ByteBuffer.wrap(response_.get(), 0, response_.len());
+        buffer_ = response;
 
         // set state that we're waiting to be switched to write. we do this
         // asynchronously through requestSelectInterestChange() because there is
@@ -508,10 +577,10 @@ public abstract class AbstractNonblockingServer extends TServer {
      * Actually invoke the method signified by this FrameBuffer.
      */
     public void invoke() {
-      frameTrans_.reset(buffer_.array());
       response_.reset();
       
       try {
+        frameTrans_.reset(frameData());
         if (eventHandler_ != null) {
           eventHandler_.processContext(context_, inTrans_, outTrans_);
         }
@@ -528,6 +597,37 @@ public abstract class AbstractNonblockingServer extends TServer {
       requestSelectInterestChange();
     }
 
+    /**
+     * The frame just read, unwrapped if a SASL QOP was negotiated.
+     */
+    protected byte[] frameData() throws TTransportException {
+      return sasl_ == null ? buffer_.array() : sasl_.unwrapFrame(buffer_.array());
+    }
+
+    /**
+     * Take the SASL handshake as far as the transport allows, and start
+     * reading frames once it is complete.
+     *
+     * @return true if the connection should live on, false if it should be
+     *         closed
+     */
+    private boolean negotiate() {
+      try {
+        int ops = sasl_.negotiate(trans_);
+        if (ops == 0) {
+          prepareRead();
+        } else {
+          selectionKey_.interestOps(ops);
+        }
+        return true;
+      } catch (IOException e) {
+        LOGGER.warn("Got an IOException during SASL negotiation!", e);
+      } catch (TTransportException e) {
+        LOGGER.warn("SASL negotiation failed", e);
+      }
+      return false;
+    }
+
     /**
      * Perform a read into buffer.
      * 
@@ -557,6 +657,11 @@ public abstract class AbstractNonblockingServer extends TServer {
       // get ready for another go-around
       buffer_ = ByteBuffer.allocate(4);
       state_ = FrameBufferState.READING_FRAME_SIZE;
+      // the next frame may already be in the transport, where no read event
+      // will announce it
+      if (trans_.hasBufferedInput()) {
+        selectThread_.handleRead(selectionKey_);
+      }
     }
 
     /**
@@ -590,10 +695,10 @@ public abstract class AbstractNonblockingServer extends TServer {
 
 
     public void invoke() {
-      frameTrans_.reset(buffer_.array());
       response_.reset();
 
       try {
+        frameTrans_.reset(frameData());
         if (eventHandler_ != null) {
           eventHandler_.processContext(context_, inTrans_, outTrans_);
         }
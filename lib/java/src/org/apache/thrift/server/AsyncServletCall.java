@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.thrift.TByteArrayOutputStream;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single Thrift call served through the Servlet 3.1 non-blocking IO API.
+ * The request body is collected into a buffer as the container reports it
+ * readable, the processor runs against that buffer once the body is complete,
+ * and the buffered response is handed back to the container as it becomes
+ * writable. No container thread is ever blocked on socket IO.
+ *
+ * The call also listens for the async context timing out or failing. Once
+ * the context is done, whether by us, a timeout or an error, nothing more is
+ * written to it; a processor still running on the executor has its response
+ * dropped.
+ */
+final class AsyncServletCall implements ReadListener, WriteListener, AsyncListener, Runnable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncServletCall.class.getName());
+
+  private static final int READ_CHUNK_SIZE = 4096;
+
+  private final AsyncContext context_;
+  private final TProcessor processor_;
+  private final TProtocolFactory inProtocolFactory_;
+  private final TProtocolFactory outProtocolFactory_;
+  private final Executor executor_;
+
+  private final ServletInputStream in_;
+  private final ServletOutputStream out_;
+
+  // the request body, grown as the container hands us data
+  private final TByteArrayOutputStream request_;
+  private final byte[] readChunk_ = new byte[READ_CHUNK_SIZE];
+
+  private final TByteArrayOutputStream response_ = new TByteArrayOutputStream();
+  private boolean responseWritten_ = false;
+
+  // guarded by this. Set once the context has been completed, or the
+  // container has timed it out or failed it.
+  private boolean done_ = false;
+
+  /**
+   * @param executor where the processor is run once the request body has been
+   *        read, or null to run it on the container thread that delivered the
+   *        last chunk of the body
+   */
+  AsyncServletCall(AsyncContext context, TProcessor processor,
+      TProtocolFactory inProtocolFactory, TProtocolFactory outProtocolFactory,
+      Executor executor) throws IOException {
+    context_ = context;
+    processor_ = processor;
+    inProtocolFactory_ = inProtocolFactory;
+    outProtocolFactory_ = outProtocolFactory;
+    executor_ = executor;
+
+    in_ = context.getRequest().getInputStream();
+    out_ = context.getResponse().getOutputStream();
+
+    int contentLength = context.getRequest().getContentLength();
+    request_ = new TByteArrayOutputStream(contentLength > 0 ? contentLength : READ_CHUNK_SIZE);
+  }
+
+  /**
+   * Register with the container. Everything from here on happens in listener
+   * callbacks.
+   */
+  void start() {
+    context_.addListener(this);
+    in_.setReadListener(this);
+  }
+
+  public synchronized void onDataAvailable() throws IOException {
+    while (!done_ && in_.isReady()) {
+      int got = in_.read(readChunk_);
+      if (got < 0) {
+        return;
+      }
+      request_.write(readChunk_, 0, got);
+    }
+  }
+
+  public void onAllDataRead() throws IOException {
+    if (isDone()) {
+      return;
+    }
+    if (executor_ == null) {
+      run();
+      return;
+    }
+    try {
+      executor_.execute(this);
+    } catch (RejectedExecutionException rx) {
+      LOGGER.warn("Executor rejected servlet invocation", rx);
+      fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+  }
+
+  /**
+   * Run the processor over the buffered request and start writing the response.
+   */
+  public void run() {
+    try {
+      TMemoryInputTransport inTransport = new TMemoryInputTransport(request_.get(), 0, request_.len());
+      TIOStreamTransport outTransport = new TIOStreamTransport(response_);
+      TProtocol inProtocol = inProtocolFactory_.getProtocol(inTransport);
+      TProtocol outProtocol = outProtocolFactory_.getProtocol(outTransport);
+
+      processor_.process(inProtocol, outProtocol);
+    } catch (TException te) {
+      LOGGER.warn("Exception while invoking!", te);
+      fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      return;
+    } catch (RuntimeException re) {
+      LOGGER.error("Unexpected throwable while invoking!", re);
+      fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      return;
+    }
+    synchronized (this) {
+      if (!done_) {
+        out_.setWriteListener(this);
+      }
+    }
+  }
+
+  public synchronized void onWritePossible() throws IOException {
+    while (!done_ && out_.isReady()) {
+      if (responseWritten_) {
+        complete();
+        return;
+      }
+      responseWritten_ = true;
+      out_.write(response_.get(), 0, response_.len());
+    }
+  }
+
+  public void onError(Throwable t) {
+    LOGGER.warn("Error during asynchronous servlet IO", t);
+    abort();
+  }
+
+  public void onStartAsync(AsyncEvent event) {
+  }
+
+  public synchronized void onComplete(AsyncEvent event) {
+    done_ = true;
+  }
+
+  public void onTimeout(AsyncEvent event) {
+    LOGGER.warn("Asynchronous servlet call timed out");
+    fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+  }
+
+  public void onError(AsyncEvent event) {
+    LOGGER.warn("Asynchronous servlet call failed", event.getThrowable());
+    abort();
+  }
+
+  private synchronized boolean isDone() {
+    return done_;
+  }
+
+  private synchronized void abort() {
+    if (!done_) {
+      complete();
+    }
+  }
+
+  // Complete the context; only called while it is not done
+  private void complete() {
+    done_ = true;
+    context_.complete();
+  }
+
+  private synchronized void fail(int status) {
+    if (done_) {
+      return;
+    }
+    HttpServletResponse response = (HttpServletResponse) context_.getResponse();
+    if (!response.isCommitted()) {
+      response.reset();
+      response.setStatus(status);
+    }
+    complete();
+  }
+}
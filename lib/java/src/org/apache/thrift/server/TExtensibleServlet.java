@@ -25,7 +25,9 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -59,6 +61,13 @@ public abstract class TExtensibleServlet extends HttpServlet {
 
   private Collection<Map.Entry<String, String>> customHeaders;
 
+  private boolean asyncEnabled = false;
+
+  private Executor asyncExecutor = null;
+
+  // null leaves the container's default in place
+  private Long asyncTimeout = null;
+
   /**
    * Returns the appropriate {@link TProcessor}. This will be called <b>once</b> just
    * after the {@link #init()} method
@@ -121,6 +130,16 @@ public abstract class TExtensibleServlet extends HttpServlet {
 	}
       }
 
+      if (asyncEnabled && request.isAsyncSupported()) {
+        AsyncContext context = request.startAsync();
+        if (asyncTimeout != null) {
+          context.setTimeout(asyncTimeout);
+        }
+        new AsyncServletCall(context, processor, inFactory, outFactory,
+            asyncExecutor).start();
+        return;
+      }
+
       InputStream in = request.getInputStream();
       OutputStream out = response.getOutputStream();
 
@@ -168,4 +187,33 @@ public abstract class TExtensibleServlet extends HttpServlet {
     this.customHeaders.clear();
     this.customHeaders.addAll(headers);
   }
+
+  /**
+   * Serve calls through the Servlet 3.1 non-blocking IO API.
+   *
+   * @see TServlet#setAsyncEnabled(boolean)
+   */
+  public void setAsyncEnabled(boolean asyncEnabled) {
+    this.asyncEnabled = asyncEnabled;
+  }
+
+  /**
+   * Executor that runs the processor in async mode, or null to run it on the
+   * container thread.
+   *
+   * @see TServlet#setAsyncExecutor(Executor)
+   */
+  public void setAsyncExecutor(Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  /**
+   * Timeout in milliseconds for an async call; zero or less means no timeout.
+   * If this is never called the container's default timeout applies.
+   *
+   * @see TServlet#setAsyncTimeout(long)
+   */
+  public void setAsyncTimeout(long asyncTimeout) {
+    this.asyncTimeout = asyncTimeout;
+  }
 }
@@ -6,7 +6,9 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -32,6 +34,13 @@ public class TServlet extends HttpServlet {
 
   private final Collection<Map.Entry<String, String>> customHeaders;
 
+  private boolean asyncEnabled = false;
+
+  private Executor asyncExecutor = null;
+
+  // null leaves the container's default in place
+  private Long asyncTimeout = null;
+
   /**
    * @see HttpServlet#HttpServlet()
    */
@@ -70,6 +79,17 @@ public class TServlet extends HttpServlet {
           response.addHeader(header.getKey(), header.getValue());
         }
       }
+
+      if (asyncEnabled && request.isAsyncSupported()) {
+        AsyncContext context = request.startAsync();
+        if (asyncTimeout != null) {
+          context.setTimeout(asyncTimeout);
+        }
+        new AsyncServletCall(context, processor, inProtocolFactory,
+            outProtocolFactory, asyncExecutor).start();
+        return;
+      }
+
       InputStream in = request.getInputStream();
       OutputStream out = response.getOutputStream();
 
@@ -116,4 +136,35 @@ public class TServlet extends HttpServlet {
     this.customHeaders.clear();
     this.customHeaders.addAll(headers);
   }
+
+  /**
+   * Serve calls through the Servlet 3.1 non-blocking IO API: the request body
+   * is read and the response written from container callbacks, so no container
+   * thread waits on the network. The servlet must be deployed with
+   * async-supported set; requests that do not allow async are served
+   * synchronously as before.
+   */
+  public void setAsyncEnabled(boolean asyncEnabled) {
+    this.asyncEnabled = asyncEnabled;
+  }
+
+  /**
+   * Executor that runs the processor once a request body has been read in
+   * async mode. When null (the default) the processor runs on the container
+   * thread that delivered the end of the body, which is only appropriate for
+   * handlers that do not block.
+   */
+  public void setAsyncExecutor(Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  /**
+   * Timeout in milliseconds for an async call, as per
+   * {@link AsyncContext#setTimeout(long)}; zero or less means no timeout. If
+   * this is never called the container's default timeout applies. A call
+   * that times out is answered with 503 Service Unavailable.
+   */
+  public void setAsyncTimeout(long asyncTimeout) {
+    this.asyncTimeout = asyncTimeout;
+  }
 }
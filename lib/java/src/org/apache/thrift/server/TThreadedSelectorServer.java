@@ -25,18 +25,22 @@ import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TNonblockingServerTransport;
 import org.apache.thrift.transport.TNonblockingTransport;
 import org.apache.thrift.transport.TTransportException;
@@ -56,10 +60,17 @@ import org.slf4j.LoggerFactory;
  * pressure from new connections (e.g. stop accepting when busy).
  * 
  * Like TNonblockingServer, it relies on the use of TFramedTransport.
+ * 
+ * Where SO_REUSEPORT is available, the selector threads can instead each
+ * accept on their own socket bound to the same port, leaving the spreading of
+ * connections to the kernel. See {@link Args#reusePortAcceptors(boolean)}.
  */
 public class TThreadedSelectorServer extends AbstractNonblockingServer {
   private static final Logger LOGGER = LoggerFactory.getLogger(TThreadedSelectorServer.class.getName());
 
+  // How long a full accept queue is waited on before checking for a stop
+  private static final long ACCEPT_WAIT_MILLIS = 100;
+
   public static class Args extends AbstractNonblockingServerArgs<Args> {
 
     /** The number of threads for selecting on already-accepted connections */
@@ -76,8 +87,9 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
     /** The ExecutorService for handling dispatched requests */
     private ExecutorService executorService = null;
     /**
-     * The size of the blocking queue per selector thread for passing accepted
-     * connections to the selector thread
+     * The number of accepted connections that may wait for each selector
+     * thread to register them. The accept thread prefers selector threads
+     * with room, and only waits once all of them are full.
      */
     private int acceptQueueSizePerThread = 4;
 
@@ -100,6 +112,12 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
 
     private AcceptPolicy acceptPolicy = AcceptPolicy.FAST_ACCEPT;
 
+    /**
+     * Whether each selector thread accepts on its own listening socket. See
+     * {@link #reusePortAcceptors(boolean)}.
+     */
+    private boolean reusePortAcceptors = false;
+
     public Args(TNonblockingServerTransport transport) {
       super(transport);
     }
@@ -167,6 +185,23 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
       return this;
     }
 
+    public boolean getReusePortAcceptors() {
+      return reusePortAcceptors;
+    }
+
+    /**
+     * Give each selector thread its own listening socket on the server's port
+     * and have it accept connections itself, instead of having a single accept
+     * thread hand them off. The kernel spreads new connections across the
+     * sockets. The transport must be a {@link TNonblockingServerSocket} built
+     * with SO_REUSEPORT; if it is not, the server logs a warning and falls
+     * back to the accept thread.
+     */
+    public Args reusePortAcceptors(boolean reusePortAcceptors) {
+      this.reusePortAcceptors = reusePortAcceptors;
+      return this;
+    }
+
     public void validate() {
       if (selectorThreads <= 0) {
         throw new IllegalArgumentException("selectorThreads must be positive.");
@@ -184,9 +219,13 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
   // Please see THRIFT-1795 for the usage of this flag
   private volatile boolean stopped_ = false;
 
-  // The thread handling all accepts
+  // The thread handling all accepts, unless the selector threads accept
   private AcceptThread acceptThread;
 
+  // Listening sockets opened for the selector threads alongside the server
+  // transport, when they accept for themselves
+  private final List<TNonblockingServerSocket> siblingSockets = new ArrayList<TNonblockingServerSocket>();
+
   // Threads handling events on client transports
   private final Set<SelectorThread> selectorThreads = new HashSet<SelectorThread>();
 
@@ -219,17 +258,65 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
       for (int i = 0; i < args.selectorThreads; ++i) {
         selectorThreads.add(new SelectorThread(args.acceptQueueSizePerThread));
       }
-      acceptThread = new AcceptThread((TNonblockingServerTransport) serverTransport_,
-        createSelectorThreadLoadBalancer(selectorThreads));
+      if (useReusePortAcceptors()) {
+        TNonblockingServerSocket primary = (TNonblockingServerSocket) serverTransport_;
+        boolean first = true;
+        for (SelectorThread thread : selectorThreads) {
+          // the first thread takes the server transport itself
+          TNonblockingServerSocket socket = primary;
+          if (!first) {
+            socket = primary.openReusePortSibling();
+            siblingSockets.add(socket);
+          }
+          thread.acceptOn(socket);
+          first = false;
+        }
+        if (eventHandler_ != null) {
+          eventHandler_.preServe();
+        }
+      } else {
+        acceptThread = new AcceptThread((TNonblockingServerTransport) serverTransport_,
+          createSelectorThreadLoadBalancer(selectorThreads));
+      }
       for (SelectorThread thread : selectorThreads) {
         thread.start();
       }
-      acceptThread.start();
+      if (acceptThread != null) {
+        acceptThread.start();
+      }
       return true;
     } catch (IOException e) {
       LOGGER.error("Failed to start threads!", e);
+    } catch (TTransportException e) {
+      LOGGER.error("Failed to open listening socket for selector thread!", e);
+    }
+    closeSiblingSockets();
+    return false;
+  }
+
+  private boolean useReusePortAcceptors() {
+    if (!args.reusePortAcceptors) {
       return false;
     }
+    if (serverTransport_ instanceof TNonblockingServerSocket
+        && ((TNonblockingServerSocket) serverTransport_).isReusePort()) {
+      return true;
+    }
+    LOGGER.warn("Server transport is not a TNonblockingServerSocket bound with SO_REUSEPORT, "
+        + "so connections will be accepted on a single thread.");
+    return false;
+  }
+
+  private void closeSiblingSockets() {
+    for (TNonblockingServerSocket socket : siblingSockets) {
+      socket.close();
+    }
+  }
+
+  @Override
+  protected void stopListening() {
+    super.stopListening();
+    closeSiblingSockets();
   }
 
   /**
@@ -248,7 +335,9 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
 
   protected void joinThreads() throws InterruptedException {
     // wait until the io threads exit
-    acceptThread.join();
+    if (acceptThread != null) {
+      acceptThread.join();
+    }
     for (SelectorThread thread : selectorThreads) {
       thread.join();
     }
@@ -306,10 +395,18 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
   protected boolean requestInvoke(FrameBuffer frameBuffer) {
     Runnable invocation = getRunnable(frameBuffer);
     if (invoker != null) {
+      if (frameBuffer.selectThread_ instanceof SelectorThread) {
+        // count the invocation against its selector until a worker is done
+        // with it, so that new connections go to less busy selectors
+        invocation = new CountedInvocation((SelectorThread) frameBuffer.selectThread_, invocation);
+      }
       try {
         invoker.execute(invocation);
         return true;
       } catch (RejectedExecutionException rx) {
+        if (invocation instanceof CountedInvocation) {
+          ((CountedInvocation) invocation).thread.inFlight.decrementAndGet();
+        }
         LOGGER.warn("ExecutorService rejected execution!", rx);
         return false;
       }
@@ -331,12 +428,23 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
     return (options.workerThreads > 0) ? Executors.newFixedThreadPool(options.workerThreads) : null;
   }
 
-  private static BlockingQueue<TNonblockingTransport> createDefaultAcceptQueue(int queueSize) {
-    if (queueSize == 0) {
-      // Unbounded queue
-      return new LinkedBlockingQueue<TNonblockingTransport>();
+  private static class CountedInvocation implements Runnable {
+    private final SelectorThread thread;
+    private final Runnable invocation;
+
+    private CountedInvocation(SelectorThread thread, Runnable invocation) {
+      this.thread = thread;
+      this.invocation = invocation;
+      thread.inFlight.incrementAndGet();
+    }
+
+    public void run() {
+      try {
+        invocation.run();
+      } finally {
+        thread.inFlight.decrementAndGet();
+      }
     }
-    return new ArrayBlockingQueue<TNonblockingTransport>(queueSize);
   }
 
   /**
@@ -468,7 +576,9 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
     }
 
     private void doAddAccept(SelectorThread thread, TNonblockingTransport client) {
-      if (!thread.addAcceptedConnection(client)) {
+      // The balancer only picks a full thread when every thread is full, in
+      // which case waiting for room is the back-pressure we want
+      if (!thread.offerAcceptedConnection(client) && !thread.addAcceptedConnection(client)) {
         client.close();
       }
     }
@@ -480,8 +590,26 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
    */
   protected class SelectorThread extends AbstractSelectThread {
 
-    // Accepted connections added by the accept thread.
-    private final BlockingQueue<TNonblockingTransport> acceptedQueue;
+    // Accepted connections added by the accept thread, or by the workers
+    // under FAIR_ACCEPT. Taken off only by this thread.
+    private final Queue<TNonblockingTransport> acceptedQueue;
+    // Room left for accepted connections when the queue is bounded by
+    // count; null when it is unbounded or is the caller's BlockingQueue
+    private final Semaphore acceptPermits;
+    // The caller's queue, if one was given, which bounds itself
+    private final BlockingQueue<TNonblockingTransport> blockingQueue;
+    private final AtomicInteger pendingAccepts = new AtomicInteger();
+
+    // Set once the selector has been woken for newly added connections, so
+    // that a burst of accepts costs a single wakeup.
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    // Load figures for the balancer
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // The socket this thread accepts on itself, if any
+    private TNonblockingServerTransport acceptTransport = null;
 
     /**
      * Set up the SelectorThread with an unbounded queue for incoming accepts.
@@ -490,7 +618,7 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
      *           if a selector cannot be created
      */
     public SelectorThread() throws IOException {
-      this(new LinkedBlockingQueue<TNonblockingTransport>());
+      this(0);
     }
 
     /**
@@ -500,7 +628,9 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
      *           if a selector cannot be created
      */
     public SelectorThread(int maxPendingAccepts) throws IOException {
-      this(createDefaultAcceptQueue(maxPendingAccepts));
+      this.acceptedQueue = new ConcurrentLinkedQueue<TNonblockingTransport>();
+      this.acceptPermits = maxPendingAccepts > 0 ? new Semaphore(maxPendingAccepts) : null;
+      this.blockingQueue = null;
     }
 
     /**
@@ -514,27 +644,117 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
      */
     public SelectorThread(BlockingQueue<TNonblockingTransport> acceptedQueue) throws IOException {
       this.acceptedQueue = acceptedQueue;
+      this.acceptPermits = null;
+      this.blockingQueue = acceptedQueue;
     }
 
     /**
      * Hands off an accepted connection to be handled by this thread. This
-     * method will block if the queue for new connections is at capacity.
+     * method will wait if the queue for new connections is at capacity,
+     * until the thread makes room or the server is stopped.
      * 
      * @param accepted
      *          The connection that has been accepted.
      * @return true if the connection has been successfully added.
      */
     public boolean addAcceptedConnection(TNonblockingTransport accepted) {
+      boolean added = false;
+      pendingAccepts.incrementAndGet();
       try {
-        acceptedQueue.put(accepted);
+        // Wait in slices, so that a stop is noticed even if the thread
+        // never drains the queue again
+        if (blockingQueue != null) {
+          while (!blockingQueue.offer(accepted, ACCEPT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (stopped_) {
+              return false;
+            }
+          }
+        } else {
+          if (acceptPermits != null) {
+            while (!acceptPermits.tryAcquire(ACCEPT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+              if (stopped_) {
+                return false;
+              }
+            }
+          }
+          acceptedQueue.offer(accepted);
+        }
+        added = true;
       } catch (InterruptedException e) {
-        LOGGER.warn("Interrupted while adding accepted connection!", e);
+        LOGGER.warn("Interrupted while adding accepted connection!");
+        Thread.currentThread().interrupt();
         return false;
+      } finally {
+        if (!added) {
+          pendingAccepts.decrementAndGet();
+        }
       }
-      selector.wakeup();
+      signalAccepted();
       return true;
     }
 
+    /**
+     * Hands off an accepted connection to be handled by this thread, unless
+     * the queue for new connections is at capacity. Never blocks.
+     * 
+     * @param accepted
+     *          The connection that has been accepted.
+     * @return true if the connection has been successfully added.
+     */
+    public boolean offerAcceptedConnection(TNonblockingTransport accepted) {
+      if (acceptPermits != null && !acceptPermits.tryAcquire()) {
+        return false;
+      }
+      pendingAccepts.incrementAndGet();
+      if (!acceptedQueue.offer(accepted)) {
+        pendingAccepts.decrementAndGet();
+        return false;
+      }
+      signalAccepted();
+      return true;
+    }
+
+    private void signalAccepted() {
+      if (wakeupPending.compareAndSet(false, true)) {
+        selector.wakeup();
+      }
+    }
+
+    /**
+     * Have this thread accept connections on the given transport, and serve
+     * them itself. Must be called before the thread is started.
+     */
+    protected void acceptOn(TNonblockingServerTransport transport) {
+      acceptTransport = transport;
+      transport.registerSelector(selector);
+    }
+
+    /**
+     * Whether a connection offered now would be accepted without waiting.
+     */
+    public boolean hasAcceptCapacity() {
+      if (acceptPermits != null) {
+        return acceptPermits.availablePermits() > 0;
+      }
+      return blockingQueue == null || blockingQueue.remainingCapacity() > 0;
+    }
+
+    /**
+     * The number of connections this thread has registered and not yet
+     * closed, plus those waiting to be registered.
+     */
+    public int getConnectionCount() {
+      return connections.get() + pendingAccepts.get();
+    }
+
+    /**
+     * The number of invocations from this thread's connections that are
+     * queued for or running on the worker pool.
+     */
+    public int getInFlightCount() {
+      return inFlight.get();
+    }
+
     /**
      * The work loop. Handles selecting (read/write IO), dispatching, and
      * managing the selection preferences of all existing connections.
@@ -585,7 +805,9 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
             continue;
           }
 
-          if (key.isReadable()) {
+          if (key.isAcceptable()) {
+            handleAccept();
+          } else if (key.isReadable()) {
             // deal with reads
             handleRead(key);
           } else if (key.isWritable()) {
@@ -601,16 +823,65 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
     }
 
     private void processAcceptedConnections() {
+      // Clear the flag before draining, so that a connection added after
+      // the drain finishes is sure to wake the selector again
+      wakeupPending.set(false);
       // Register accepted connections
       while (!stopped_) {
         TNonblockingTransport accepted = acceptedQueue.poll();
         if (accepted == null) {
           break;
         }
+        pendingAccepts.decrementAndGet();
+        if (acceptPermits != null) {
+          acceptPermits.release();
+        }
         registerAccepted(accepted);
       }
     }
 
+    @Override
+    protected void cleanupSelectionKey(SelectionKey key) {
+      // a key may be cleaned up more than once, so only count it the first time
+      if (key.attachment() != null) {
+        connections.decrementAndGet();
+      }
+      super.cleanupSelectionKey(key);
+      key.attach(null);
+    }
+
+    private void handleAccept() {
+      final TNonblockingTransport client;
+      try {
+        client = (TNonblockingTransport) acceptTransport.accept();
+      } catch (TTransportException tte) {
+        LOGGER.warn("Exception trying to accept!", tte);
+        return;
+      }
+      if (client == null) {
+        // a non-blocking accept finds nothing if the connection went away
+        return;
+      }
+      if (args.acceptPolicy == Args.AcceptPolicy.FAST_ACCEPT || invoker == null) {
+        registerAccepted(client);
+      } else {
+        // FAIR_ACCEPT: only register once the executor gets to it, and hand
+        // the connection back through the queue
+        try {
+          invoker.submit(new Runnable() {
+            public void run() {
+              if (!addAcceptedConnection(client)) {
+                client.close();
+              }
+            }
+          });
+        } catch (RejectedExecutionException rx) {
+          LOGGER.warn("ExecutorService rejected accept registration!", rx);
+          client.close();
+        }
+      }
+    }
+
     protected FrameBuffer createFrameBuffer(final TNonblockingTransport trans,
         final SelectionKey selectionKey,
         final AbstractSelectThread selectThread) {
@@ -627,6 +898,7 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
         FrameBuffer frameBuffer = createFrameBuffer(accepted, clientKey, SelectorThread.this);
 
         clientKey.attach(frameBuffer);
+        connections.incrementAndGet();
       } catch (IOException e) {
         LOGGER.warn("Failed to register accepted connection to selector!", e);
         if (clientKey != null) {
@@ -646,27 +918,39 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
   }
 
   /**
-   * A round robin load balancer for choosing selector threads for new
-   * connections.
+   * A load balancer for choosing selector threads for new connections. Picks
+   * the thread with the fewest connections and in-flight invocations among
+   * those with room for another accepted connection, breaking ties round
+   * robin. Only called from the accept thread.
    */
   protected static class SelectorThreadLoadBalancer {
-    private final Collection<? extends SelectorThread> threads;
-    private Iterator<? extends SelectorThread> nextThreadIterator;
+    private final SelectorThread[] threads;
+    private int next = 0;
 
     public <T extends SelectorThread> SelectorThreadLoadBalancer(Collection<T> threads) {
       if (threads.isEmpty()) {
         throw new IllegalArgumentException("At least one selector thread is required");
       }
-      this.threads = Collections.unmodifiableList(new ArrayList<T>(threads));
-      nextThreadIterator = this.threads.iterator();
+      this.threads = threads.toArray(new SelectorThread[threads.size()]);
     }
 
     public SelectorThread nextThread() {
-      // Choose a selector thread (round robin)
-      if (!nextThreadIterator.hasNext()) {
-        nextThreadIterator = threads.iterator();
+      SelectorThread best = null;
+      boolean bestHasCapacity = false;
+      int bestLoad = Integer.MAX_VALUE;
+      for (int i = 0; i < threads.length; i++) {
+        SelectorThread thread = threads[(next + i) % threads.length];
+        boolean hasCapacity = thread.hasAcceptCapacity();
+        int load = thread.getConnectionCount() + thread.getInFlightCount();
+        if (best == null || (hasCapacity && !bestHasCapacity)
+            || (hasCapacity == bestHasCapacity && load < bestLoad)) {
+          best = thread;
+          bestHasCapacity = hasCapacity;
+          bestLoad = load;
+        }
       }
-      return nextThreadIterator.next();
+      next = (next + 1) % threads.length;
+      return best;
     }
   }
 }
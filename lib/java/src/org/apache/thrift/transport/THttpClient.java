@@ -23,6 +23,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import java.net.URL;
 import java.net.HttpURLConnection;
@@ -35,7 +36,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.params.CoreConnectionPNames;
 
 /**
@@ -62,17 +63,38 @@ import org.apache.http.params.CoreConnectionPNames;
  * Also note that under high load, the HttpURLConnection implementation
  * may exhaust the open file descriptor limit.
  *
+ * The request buffer is kept and reused across calls. The HttpURLConnection
+ * implementation streams the response straight from the connection and closes
+ * it before the next request so the connection goes back to the JDK
+ * keep-alive cache (sized with the http.maxConnections system property). The
+ * HttpClient implementation reads the whole response into a buffer to release
+ * its connection early, and exposes that buffer to protocols through
+ * {@link #getBuffer()}; connection reuse there is governed by the client's
+ * connection manager. Each response gets a buffer of its own, since binary
+ * values read from it wrap it rather than copying it.
+ *
  * @see <a href="https://issues.apache.org/jira/browse/THRIFT-970">THRIFT-970</a>
  */
 
 public class THttpClient extends TTransport {
 
+  // Size a response buffer starts at when the length is not known up front
+  private static final int RESPONSE_BUFFER_SIZE = 1024;
+
   private URL url_ = null;
 
   private final ByteArrayOutputStream requestBuffer_ = new ByteArrayOutputStream();
 
   private InputStream inputStream_ = null;
 
+  // response body of the last HttpClient call. Never reused: binary values
+  // read through getBuffer() may still refer to it.
+  private byte[] responseBuffer_ = null;
+
+  private int responsePos_ = 0;
+
+  private int responseEnd_ = -1;
+
   private int connectTimeout_ = 0;
 
   private int readTimeout_ = 0;
@@ -164,14 +186,7 @@ public class THttpClient extends TTransport {
   public void open() {}
 
   public void close() {
-    if (null != inputStream_) {
-      try {
-        inputStream_.close();
-      } catch (IOException ioe) {
-        ;
-      }
-      inputStream_ = null;
-    }
+    releaseResponse();
   }
 
   public boolean isOpen() {
@@ -179,6 +194,16 @@ public class THttpClient extends TTransport {
   }
 
   public int read(byte[] buf, int off, int len) throws TTransportException {
+    if (responseEnd_ >= 0) {
+      int remaining = responseEnd_ - responsePos_;
+      if (remaining <= 0) {
+        throw new TTransportException("No more data available.");
+      }
+      int got = len > remaining ? remaining : len;
+      System.arraycopy(responseBuffer_, responsePos_, buf, off, got);
+      responsePos_ += got;
+      return got;
+    }
     if (inputStream_ == null) {
       throw new TTransportException("Response buffer is empty, no request.");
     }
@@ -197,6 +222,70 @@ public class THttpClient extends TTransport {
     requestBuffer_.write(buf, off, len);
   }
 
+  @Override
+  public byte[] getBuffer() {
+    return responseEnd_ >= 0 ? responseBuffer_ : null;
+  }
+
+  @Override
+  public int getBufferPosition() {
+    return responseEnd_ >= 0 ? responsePos_ : 0;
+  }
+
+  @Override
+  public int getBytesRemainingInBuffer() {
+    return responseEnd_ >= 0 ? responseEnd_ - responsePos_ : -1;
+  }
+
+  @Override
+  public void consumeBuffer(int len) {
+    responsePos_ += len;
+  }
+
+  /**
+   * Entity that writes the request buffer straight to the connection instead
+   * of copying it out first. Only valid until the buffer is reset at the end
+   * of the call.
+   */
+  private class RequestBufferEntity extends AbstractHttpEntity {
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    public long getContentLength() {
+      return requestBuffer_.size();
+    }
+
+    public InputStream getContent() {
+      return new ByteArrayInputStream(requestBuffer_.toByteArray());
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+      requestBuffer_.writeTo(out);
+    }
+
+    public boolean isStreaming() {
+      return false;
+    }
+  }
+
+  /**
+   * Drop whatever is left of the previous response. For HttpURLConnection this
+   * closes the stream, which returns the connection to the keep-alive cache.
+   */
+  private void releaseResponse() {
+    responseEnd_ = -1;
+    responseBuffer_ = null;
+    if (null != inputStream_) {
+      try {
+        inputStream_.close();
+      } catch (IOException ioe) {
+        // the connection will simply not be reused
+      }
+      inputStream_ = null;
+    }
+  }
+
   /**
    * copy from org.apache.http.util.EntityUtils#consume. Android has it's own httpcore
    * that doesn't have a consume.
@@ -219,9 +308,7 @@ public class THttpClient extends TTransport {
       throw new TTransportException("Null HttpClient, aborting.");
     }
 
-    // Extract request and reset buffer
-    byte[] data = requestBuffer_.toByteArray();
-    requestBuffer_.reset();
+    releaseResponse();
 
     HttpPost post = null;
     
@@ -246,7 +333,7 @@ public class THttpClient extends TTransport {
         }
       }
 
-      post.setEntity(new ByteArrayEntity(data));
+      post.setEntity(new RequestBufferEntity());
       
       HttpResponse response = this.client.execute(this.host, post);
       int responseCode = response.getStatusLine().getStatusCode();
@@ -268,18 +355,30 @@ public class THttpClient extends TTransport {
       // thrift struct is being read up the chain).
       // Proceeding differently might lead to exhaustion of connections and thus
       // to app failure.
-      
-      byte[] buf = new byte[1024];
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      
+      long contentLength = response.getEntity().getContentLength();
+      if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+        responseBuffer_ = new byte[(int) contentLength];
+      } else {
+        responseBuffer_ = new byte[RESPONSE_BUFFER_SIZE];
+      }
+
       int len = 0;
-      do {
-        len = is.read(buf);
-        if (len > 0) {
-          baos.write(buf, 0, len);
+      for (;;) {
+        if (len == responseBuffer_.length) {
+          if (len == contentLength) {
+            break;
+          }
+          byte[] grown = new byte[Math.max(RESPONSE_BUFFER_SIZE, responseBuffer_.length * 2)];
+          System.arraycopy(responseBuffer_, 0, grown, 0, len);
+          responseBuffer_ = grown;
         }
-      } while (-1 != len);
-      
+        int got = is.read(responseBuffer_, len, responseBuffer_.length - len);
+        if (got == -1) {
+          break;
+        }
+        len += got;
+      }
+
       try {
         // Indicate we're done with the content.
         consume(response.getEntity());
@@ -288,7 +387,8 @@ public class THttpClient extends TTransport {
         // keep-alive capability.
       }
             
-      inputStream_ = new ByteArrayInputStream(baos.toByteArray());
+      responsePos_ = 0;
+      responseEnd_ = len;
     } catch (IOException ioe) {
       // Abort method so the connection gets released back to the connection manager
       if (null != post) {
@@ -296,6 +396,7 @@ public class THttpClient extends TTransport {
       }
       throw new TTransportException(ioe);
     } finally {
+      requestBuffer_.reset();
       if (null != is) {
         // Close the entity's input stream, this will release the underlying connection
         try {
@@ -314,9 +415,7 @@ public class THttpClient extends TTransport {
       return;
     }
 
-    // Extract request and reset buffer
-    byte[] data = requestBuffer_.toByteArray();
-    requestBuffer_.reset();
+    releaseResponse();
 
     try {
       // Create connection object
@@ -342,10 +441,23 @@ public class THttpClient extends TTransport {
       }
       connection.setDoOutput(true);
       connection.connect();
-      connection.getOutputStream().write(data);
+      requestBuffer_.writeTo(connection.getOutputStream());
 
       int responseCode = connection.getResponseCode();
       if (responseCode != HttpURLConnection.HTTP_OK) {
+        // Read and close the error body so the connection can still be kept
+        // alive; closing it unread leaves the draining to a JDK background
+        // thread, and the next call may not find the connection in the cache
+        InputStream error = connection.getErrorStream();
+        if (null != error) {
+          try {
+            byte[] discard = new byte[1024];
+            while (error.read(discard) != -1) {
+            }
+          } finally {
+            error.close();
+          }
+        }
         throw new TTransportException("HTTP Response code: " + responseCode);
       }
 
@@ -354,6 +466,8 @@ public class THttpClient extends TTransport {
 
     } catch (IOException iox) {
       throw new TTransportException(iox);
+    } finally {
+      requestBuffer_.reset();
     }
   }
 }
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.thrift.transport;
+
+import java.io.IOException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.apache.thrift.transport.TSSLTransportFactory.TSSLTransportParameters;
+
+/**
+ * Non-blocking server socket whose accepted connections speak TLS, for use
+ * with TNonblockingServer, THsHaServer and TThreadedSelectorServer. The
+ * handshake happens in the server's selector loop like any other IO.
+ *
+ * Every connection gets its engine from the same SSLContext, whose server
+ * session cache lets returning clients resume their sessions.
+ */
+public class TNonblockingSSLServerSocket extends TNonblockingServerSocket {
+  private final SSLContext context_;
+  private final int clientTimeout_;
+  private final boolean clientAuth_;
+  private final String[] cipherSuites_;
+
+  /**
+   * @param params supplies client authentication and cipher suite settings,
+   *        or null for the context's defaults
+   */
+  public TNonblockingSSLServerSocket(NonblockingAbstractServerSocketArgs args, SSLContext context,
+      TSSLTransportParameters params) throws TTransportException {
+    super(args);
+    context_ = context;
+    clientTimeout_ = args.clientTimeout;
+    clientAuth_ = params != null && params.clientAuth;
+    cipherSuites_ = params != null ? params.cipherSuites : null;
+  }
+
+  @Override
+  protected TNonblockingSocket acceptImpl() throws TTransportException {
+    TNonblockingSocket socket = super.acceptImpl();
+    if (socket == null) {
+      return null;
+    }
+    SSLEngine engine = context_.createSSLEngine();
+    engine.setUseClientMode(false);
+    engine.setNeedClientAuth(clientAuth_);
+    if (cipherSuites_ != null) {
+      engine.setEnabledCipherSuites(cipherSuites_);
+    }
+    try {
+      TNonblockingSSLSocket sslSocket = new TNonblockingSSLSocket(socket.getSocketChannel(), engine);
+      sslSocket.setTimeout(clientTimeout_);
+      return sslSocket;
+    } catch (IOException iox) {
+      socket.close();
+      throw new TTransportException(iox);
+    }
+  }
+}
@@ -0,0 +1,501 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TLS over a non-blocking socket, for the selector-based servers and the
+ * async client. An SSLEngine does the handshake, encryption and decryption
+ * inside read() and write(), so they never block, and network buffers are
+ * borrowed from a shared pool only while data is in flight, so idle
+ * connections hold none.
+ *
+ * Two things differ from a plain socket, and the selector loops allow for
+ * them. During the handshake the transport points its selection key at
+ * whatever the handshake waits for, which may be a write event while the
+ * owner is reading or the reverse, and puts the owner's interest back
+ * afterwards. And a read may decrypt more than the caller asked for; see
+ * {@link #hasBufferedInput()}.
+ *
+ * Session resumption is up to the SSLContext the engine came from. Client
+ * engines should be created with the peer's host and port and from one
+ * shared context, so that later connections can resume a cached session.
+ * Delegated engine tasks are run inline, on the selector thread.
+ */
+public class TNonblockingSSLSocket extends TNonblockingSocket {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TNonblockingSSLSocket.class.getName());
+
+  private static final BufferPool POOL = new BufferPool();
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final SSLEngine engine_;
+
+  private SelectionKey selectionKey_;
+
+  // the owner's interest ops while the handshake has replaced them, or -1
+  private int ownerInterest_ = -1;
+
+  // received ciphertext not yet decrypted, ready to be filled
+  private ByteBuffer netIn_;
+
+  // decrypted data not yet read, ready to be filled
+  private ByteBuffer appIn_;
+
+  // ciphertext not yet written, ready to be drained
+  private ByteBuffer netOut_;
+
+  // plaintext behind netOut_ that write() has not yet reported as written
+  private int pendingPlaintext_ = 0;
+
+  private boolean handshaking_ = true;
+
+  private boolean inboundClosed_ = false;
+
+  /**
+   * Create a client transport that will be connected to host:port.
+   *
+   * @param engine an engine in client mode, best created with
+   *        {@link javax.net.ssl.SSLContext#createSSLEngine(String, int)} so
+   *        that sessions can be resumed
+   */
+  public TNonblockingSSLSocket(String host, int port, int timeout, SSLEngine engine) throws IOException {
+    super(host, port, timeout);
+    engine_ = engine;
+    engine_.setUseClientMode(true);
+    engine_.beginHandshake();
+  }
+
+  /**
+   * Wrap an already connected channel, typically one a server accepted.
+   *
+   * @param engine an engine whose mode has been set
+   */
+  public TNonblockingSSLSocket(SocketChannel socketChannel, SSLEngine engine) throws IOException {
+    super(socketChannel);
+    engine_ = engine;
+    engine_.beginHandshake();
+  }
+
+  /**
+   * The TLS session, which is only complete once the handshake is.
+   */
+  public SSLSession getSession() {
+    return engine_.getSession();
+  }
+
+  public boolean isHandshakeComplete() {
+    return !handshaking_;
+  }
+
+  @Override
+  public SelectionKey registerSelector(Selector selector, int interests) throws IOException {
+    selectionKey_ = super.registerSelector(selector, interests);
+    return selectionKey_;
+  }
+
+  /**
+   * Data already taken off the wire but not yet read. The selector cannot
+   * report it as readable, so an owner that stopped reading with this set
+   * must read again without waiting for a read event.
+   */
+  @Override
+  public synchronized boolean hasBufferedInput() {
+    return (appIn_ != null && appIn_.position() > 0) || (netIn_ != null && netIn_.position() > 0);
+  }
+
+  @Override
+  public synchronized int read(ByteBuffer buffer) throws IOException {
+    if (handshaking_ && !handshake()) {
+      return 0;
+    }
+    // output queued by the engine itself, e.g. a reply to a key update
+    flushNetOut();
+
+    int read = 0;
+    while (buffer.hasRemaining()) {
+      read += drainAppIn(buffer);
+      if (!buffer.hasRemaining()) {
+        break;
+      }
+      if (!unwrap()) {
+        if (inboundClosed_) {
+          break;
+        }
+        int got = fill();
+        if (got < 0) {
+          inboundClosed_ = true;
+          break;
+        }
+        if (got == 0) {
+          break;
+        }
+      }
+      if (handshaking_ && !handshake()) {
+        break;
+      }
+    }
+    releaseIdleBuffers();
+    if (read == 0 && inboundClosed_) {
+      return -1;
+    }
+    return read;
+  }
+
+  @Override
+  public int read(byte[] buf, int off, int len) throws TTransportException {
+    try {
+      return read(ByteBuffer.wrap(buf, off, len));
+    } catch (IOException iox) {
+      throw new TTransportException(TTransportException.UNKNOWN, iox);
+    }
+  }
+
+  /**
+   * Encrypt and send as much of buffer as the socket will take. Data is only
+   * reported as written once its whole record has left, so that the caller
+   * keeps asking for write events while part of a record is still queued.
+   */
+  @Override
+  public synchronized int write(ByteBuffer buffer) throws IOException {
+    if (handshaking_ && !handshake()) {
+      return 0;
+    }
+    int written = 0;
+    if (netOut_ != null) {
+      if (!flushNetOut()) {
+        return 0;
+      }
+      buffer.position(buffer.position() + pendingPlaintext_);
+      written = pendingPlaintext_;
+      pendingPlaintext_ = 0;
+    }
+    while (buffer.hasRemaining()) {
+      int start = buffer.position();
+      int consumed = wrap(buffer);
+      if (!flushNetOut()) {
+        buffer.position(start);
+        pendingPlaintext_ = consumed;
+        break;
+      }
+      written += consumed;
+      if (handshaking_ && !handshake()) {
+        break;
+      }
+    }
+    return written;
+  }
+
+  @Override
+  public void write(byte[] buf, int off, int len) throws TTransportException {
+    try {
+      write(ByteBuffer.wrap(buf, off, len));
+    } catch (IOException iox) {
+      throw new TTransportException(TTransportException.UNKNOWN, iox);
+    }
+  }
+
+  /**
+   * Send a close_notify if the socket will take it right away, then close.
+   * Owners may close from any thread, hence the locking on read and write.
+   */
+  @Override
+  public synchronized void close() {
+    try {
+      engine_.closeOutbound();
+      if (netOut_ == null && getSocketChannel().isConnected()) {
+        wrap(EMPTY);
+        flushNetOut();
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Could not send TLS close_notify", e);
+    }
+    super.close();
+    if (netOut_ != null) {
+      POOL.give(netOut_);
+      netOut_ = null;
+    }
+    if (netIn_ != null) {
+      POOL.give(netIn_);
+      netIn_ = null;
+    }
+    if (appIn_ != null) {
+      POOL.give(appIn_);
+      appIn_ = null;
+    }
+  }
+
+  /**
+   * Take the handshake as far as it can go without blocking.
+   *
+   * @return true once the handshake is complete
+   */
+  private boolean handshake() throws IOException {
+    while (true) {
+      HandshakeStatus status = engine_.getHandshakeStatus();
+      switch (status) {
+        case NEED_TASK:
+          Runnable task;
+          while ((task = engine_.getDelegatedTask()) != null) {
+            task.run();
+          }
+          break;
+        case NEED_WRAP:
+          if (!flushNetOut()) {
+            awaitHandshake(SelectionKey.OP_WRITE);
+            return false;
+          }
+          wrap(EMPTY);
+          break;
+        case NEED_UNWRAP:
+          if (!flushNetOut()) {
+            awaitHandshake(SelectionKey.OP_WRITE);
+            return false;
+          }
+          if (!unwrap()) {
+            int got = fill();
+            if (got < 0) {
+              throw new EOFException("Connection closed during TLS handshake");
+            }
+            if (got == 0) {
+              awaitHandshake(SelectionKey.OP_READ);
+              return false;
+            }
+          }
+          break;
+        default:
+          // NOT_HANDSHAKING or FINISHED; the last message may still be queued
+          if (!flushNetOut()) {
+            awaitHandshake(SelectionKey.OP_WRITE);
+            return false;
+          }
+          handshaking_ = false;
+          restoreInterest();
+          releaseIdleBuffers();
+          return true;
+      }
+    }
+  }
+
+  // Point our key at what the handshake waits for, remembering the owner's interest
+  private void awaitHandshake(int interests) {
+    if (selectionKey_ == null || !selectionKey_.isValid()) {
+      return;
+    }
+    if (ownerInterest_ < 0) {
+      ownerInterest_ = selectionKey_.interestOps();
+    }
+    selectionKey_.interestOps(interests);
+  }
+
+  private void restoreInterest() {
+    if (ownerInterest_ >= 0 && selectionKey_.isValid()) {
+      selectionKey_.interestOps(ownerInterest_);
+    }
+    ownerInterest_ = -1;
+  }
+
+  private void checkHandshake(SSLEngineResult result) {
+    HandshakeStatus status = result.getHandshakeStatus();
+    if (status != HandshakeStatus.NOT_HANDSHAKING && status != HandshakeStatus.FINISHED) {
+      handshaking_ = true;
+    }
+  }
+
+  /**
+   * Encrypt from src into netOut_, which must be empty.
+   *
+   * @return the number of bytes of src consumed
+   */
+  private int wrap(ByteBuffer src) throws IOException {
+    if (engine_.isOutboundDone()) {
+      throw new IOException("TLS connection is closed");
+    }
+    int packetSize = engine_.getSession().getPacketBufferSize();
+    netOut_ = POOL.take(packetSize);
+    while (true) {
+      SSLEngineResult result = engine_.wrap(src, netOut_);
+      switch (result.getStatus()) {
+        case OK:
+        case CLOSED:
+          netOut_.flip();
+          checkHandshake(result);
+          return result.bytesConsumed();
+        case BUFFER_OVERFLOW:
+          POOL.give(netOut_);
+          packetSize = Math.max(packetSize * 2, engine_.getSession().getPacketBufferSize());
+          netOut_ = POOL.take(packetSize);
+          break;
+        default:
+          throw new IOException("Unexpected TLS wrap result " + result);
+      }
+    }
+  }
+
+  /**
+   * Decrypt one record from netIn_ into appIn_.
+   *
+   * @return false if netIn_ does not hold a whole record
+   */
+  private boolean unwrap() throws IOException {
+    if (netIn_ == null || netIn_.position() == 0) {
+      return false;
+    }
+    if (appIn_ == null) {
+      appIn_ = POOL.take(engine_.getSession().getApplicationBufferSize());
+    }
+    netIn_.flip();
+    SSLEngineResult result;
+    try {
+      result = engine_.unwrap(netIn_, appIn_);
+    } finally {
+      netIn_.compact();
+    }
+    switch (result.getStatus()) {
+      case OK:
+        checkHandshake(result);
+        return true;
+      case BUFFER_UNDERFLOW:
+        if (!netIn_.hasRemaining()) {
+          // the record is bigger than our buffer
+          netIn_ = grow(netIn_, engine_.getSession().getPacketBufferSize());
+        }
+        return false;
+      case BUFFER_OVERFLOW:
+        appIn_ = grow(appIn_, engine_.getSession().getApplicationBufferSize());
+        return true;
+      case CLOSED:
+        inboundClosed_ = true;
+        return false;
+      default:
+        throw new IOException("Unexpected TLS unwrap result " + result);
+    }
+  }
+
+  // Read ciphertext off the socket into netIn_
+  private int fill() throws IOException {
+    if (netIn_ == null) {
+      netIn_ = POOL.take(engine_.getSession().getPacketBufferSize());
+    }
+    return getSocketChannel().read(netIn_);
+  }
+
+  /**
+   * Write out queued ciphertext.
+   *
+   * @return true once none is left
+   */
+  private boolean flushNetOut() throws IOException {
+    if (netOut_ == null) {
+      return true;
+    }
+    getSocketChannel().write(netOut_);
+    if (netOut_.hasRemaining()) {
+      return false;
+    }
+    POOL.give(netOut_);
+    netOut_ = null;
+    return true;
+  }
+
+  // Copy decrypted data into dst
+  private int drainAppIn(ByteBuffer dst) {
+    if (appIn_ == null || appIn_.position() == 0) {
+      return 0;
+    }
+    appIn_.flip();
+    int count = Math.min(appIn_.remaining(), dst.remaining());
+    int limit = appIn_.limit();
+    appIn_.limit(appIn_.position() + count);
+    dst.put(appIn_);
+    appIn_.limit(limit);
+    appIn_.compact();
+    return count;
+  }
+
+  private void releaseIdleBuffers() {
+    if (netIn_ != null && netIn_.position() == 0) {
+      POOL.give(netIn_);
+      netIn_ = null;
+    }
+    if (appIn_ != null && appIn_.position() == 0) {
+      POOL.give(appIn_);
+      appIn_ = null;
+    }
+  }
+
+  // A bigger buffer with the contents of buffer, which is ready to be filled
+  private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+    ByteBuffer bigger = POOL.take(Math.max(buffer.capacity() * 2, minCapacity));
+    buffer.flip();
+    bigger.put(buffer);
+    POOL.give(buffer);
+    return bigger;
+  }
+
+  /**
+   * Buffers shared by all connections, so that memory goes with the number
+   * of connections moving data rather than the number open.
+   */
+  private static final class BufferPool {
+    private static final int MAX_POOLED = 256;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * A cleared buffer of at least the given capacity.
+     */
+    ByteBuffer take(int capacity) {
+      ByteBuffer buffer = buffers.poll();
+      if (buffer != null) {
+        size.decrementAndGet();
+        if (buffer.capacity() >= capacity) {
+          buffer.clear();
+          return buffer;
+        }
+      }
+      return ByteBuffer.allocate(capacity);
+    }
+
+    void give(ByteBuffer buffer) {
+      if (size.incrementAndGet() > MAX_POOLED) {
+        size.decrementAndGet();
+        return;
+      }
+      buffers.add(buffer);
+    }
+  }
+}
@@ -21,6 +21,7 @@
 package org.apache.thrift.transport;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.SocketException;
@@ -54,8 +55,29 @@ public class TNonblockingServerSocket extends TNonblockingServerTransport {
    */
   private int clientTimeout_ = 0;
 
+  private final int backlog_;
+
+  /**
+   * Whether SO_REUSEPORT was set on the socket before binding
+   */
+  private boolean reusePort_ = false;
+
   public static class NonblockingAbstractServerSocketArgs extends
-      AbstractServerTransportArgs<NonblockingAbstractServerSocketArgs> {}
+      AbstractServerTransportArgs<NonblockingAbstractServerSocketArgs> {
+    boolean reusePort = false;
+
+    /**
+     * Set SO_REUSEPORT before binding, so that further sockets can listen on
+     * the same port with {@link TNonblockingServerSocket#openReusePortSibling()}
+     * and the kernel will spread incoming connections across them. This needs
+     * Java 9 or later on an OS that supports the option, such as Linux 3.9 or
+     * later; elsewhere it is ignored and {@link #isReusePort()} is false.
+     */
+    public NonblockingAbstractServerSocketArgs reusePort(boolean reusePort) {
+      this.reusePort = reusePort;
+      return this;
+    }
+  }
 
   /**
    * Creates just a port listening server socket
@@ -81,6 +103,7 @@ public class TNonblockingServerSocket extends TNonblockingServerTransport {
 
   public TNonblockingServerSocket(NonblockingAbstractServerSocketArgs args) throws TTransportException {
     clientTimeout_ = args.clientTimeout;
+    backlog_ = args.backlog;
     try {
       serverSocketChannel = ServerSocketChannel.open();
       serverSocketChannel.configureBlocking(false);
@@ -89,6 +112,9 @@ public class TNonblockingServerSocket extends TNonblockingServerTransport {
       serverSocket_ = serverSocketChannel.socket();
       // Prevent 2MSL delay problem on server restarts
       serverSocket_.setReuseAddress(true);
+      if (args.reusePort) {
+        reusePort_ = setReusePort(serverSocketChannel);
+      }
       // Bind to listening port
       serverSocket_.bind(args.bindAddr, args.backlog);
     } catch (IOException ioe) {
@@ -160,4 +186,56 @@ public class TNonblockingServerSocket extends TNonblockingServerTransport {
     return serverSocket_.getLocalPort();
   }
 
+  /**
+   * Whether this socket was bound with SO_REUSEPORT, and so can have
+   * siblings opened on its port.
+   */
+  public boolean isReusePort() {
+    return reusePort_;
+  }
+
+  /**
+   * Open another socket listening on the same address and port as this one,
+   * with the same options. The kernel balances new connections between the
+   * two, so each can be accepted from by its own thread.
+   *
+   * @throws TTransportException if this socket was not bound with
+   *         SO_REUSEPORT, or the new socket could not be bound
+   */
+  public TNonblockingServerSocket openReusePortSibling() throws TTransportException {
+    if (serverSocket_ == null) {
+      throw new TTransportException(TTransportException.NOT_OPEN, "No underlying server socket.");
+    }
+    if (!reusePort_) {
+      throw new TTransportException("Server socket was not bound with SO_REUSEPORT.");
+    }
+    TNonblockingServerSocket sibling = new TNonblockingServerSocket(new NonblockingAbstractServerSocketArgs().
+        bindAddr(new InetSocketAddress(serverSocket_.getInetAddress(), serverSocket_.getLocalPort())).
+        backlog(backlog_).clientTimeout(clientTimeout_).reusePort(true));
+    if (!sibling.isReusePort()) {
+      sibling.close();
+      throw new TTransportException("Could not set SO_REUSEPORT on sibling server socket.");
+    }
+    return sibling;
+  }
+
+  /**
+   * Set SO_REUSEPORT through reflection, since the option only exists from
+   * Java 9 on. Returns whether it was set.
+   */
+  private static boolean setReusePort(ServerSocketChannel channel) {
+    try {
+      Class<?> optionClass = Class.forName("java.net.SocketOption");
+      Object option = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+      Method setOption = ServerSocketChannel.class.getMethod("setOption", optionClass, Object.class);
+      setOption.invoke(channel, option, Boolean.TRUE);
+      return true;
+    } catch (Exception e) {
+      // missing before Java 9, or UnsupportedOperationException where the OS
+      // lacks the option
+      LOGGER.debug("SO_REUSEPORT is not available", e);
+      return false;
+    }
+  }
+
 }
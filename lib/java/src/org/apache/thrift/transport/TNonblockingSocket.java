@@ -62,6 +62,19 @@ public class TNonblockingSocket extends TNonblockingTransport {
     this(SocketChannel.open(), timeout, new InetSocketAddress(host, port));
   }
 
+  /**
+   * Create a new nonblocking socket transport that will be connected to the
+   * given address. No name lookup is done, so this is safe to call from a
+   * selector thread when the address is already resolved.
+   *
+   * @param address address to connect to
+   * @param timeout socket timeout in milliseconds
+   * @throws IOException if the channel cannot be opened
+   */
+  public TNonblockingSocket(InetSocketAddress address, int timeout) throws IOException {
+    this(SocketChannel.open(), timeout, address);
+  }
+
   /**
    * Constructor that takes an already created socket.
    *
@@ -44,4 +44,14 @@ public abstract class TNonblockingTransport extends TTransport {
   public abstract int read(ByteBuffer buffer) throws IOException;
 
   public abstract int write(ByteBuffer buffer) throws IOException;
+
+  /**
+   * Whether the transport holds input it has already taken off the wire,
+   * which the selector therefore will not report as readable. Transports
+   * that decrypt or decode whole records may read ahead of what was asked
+   * for; plain sockets never do.
+   */
+  public boolean hasBufferedInput() {
+    return false;
+  }
 }
@@ -22,11 +22,14 @@ package org.apache.thrift.transport;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
 import javax.net.ssl.SSLSocket;
@@ -35,7 +38,8 @@ import javax.net.ssl.TrustManagerFactory;
 
 /**
  *  A Factory for providing and setting up Client and Server SSL wrapped
- *  TSocket and TServerSocket
+ *  TSocket and TServerSocket, and their non-blocking counterparts
+ *  TNonblockingSocket and TNonblockingServerSocket
  */
 public class TSSLTransportFactory {
 
@@ -169,6 +173,110 @@ public class TSSLTransportFactory {
     return createClient(ctx.getSocketFactory(), host, port, timeout);
   }
 
+  /**
+   * Get a non-blocking SSL server socket bound to the specified port, for the
+   * selector-based servers. The default SSLContext is used, which is
+   * configured from the same System properties as {@link #getServerSocket(int)}.
+   *
+   * @param port
+   * @param clientTimeout
+   * @return A non-blocking SSL server socket
+   * @throws TTransportException
+   */
+  public static TNonblockingServerSocket getNonblockingServerSocket(int port, int clientTimeout) throws TTransportException {
+    try {
+      return getNonblockingServerSocket(port, clientTimeout, null, SSLContext.getDefault(), null);
+    } catch (NoSuchAlgorithmException e) {
+      throw new TTransportException("Error creating the transport", e);
+    }
+  }
+
+  /**
+   * Get a configured non-blocking SSL server socket bound to the specified
+   * port and interface.
+   *
+   * @param port
+   * @param clientTimeout
+   * @param ifAddress
+   * @param params
+   * @return A non-blocking SSL server socket
+   * @throws TTransportException
+   */
+  public static TNonblockingServerSocket getNonblockingServerSocket(int port, int clientTimeout, InetAddress ifAddress, TSSLTransportParameters params) throws TTransportException {
+    if (params == null || !(params.isKeyStoreSet || params.isTrustStoreSet)) {
+      throw new TTransportException("Either one of the KeyStore or TrustStore must be set for SSLTransportParameters");
+    }
+    return getNonblockingServerSocket(port, clientTimeout, ifAddress, createSSLContext(params), params);
+  }
+
+  private static TNonblockingServerSocket getNonblockingServerSocket(int port, int clientTimeout, InetAddress ifAddress,
+      SSLContext ctx, TSSLTransportParameters params) throws TTransportException {
+    TNonblockingServerSocket.NonblockingAbstractServerSocketArgs args =
+      new TNonblockingServerSocket.NonblockingAbstractServerSocketArgs().clientTimeout(clientTimeout);
+    args.bindAddr(ifAddress == null ? new InetSocketAddress(port) : new InetSocketAddress(ifAddress, port));
+    return new TNonblockingSSLServerSocket(args, ctx, params);
+  }
+
+  /**
+   * Get a non-blocking SSL socket for the async client, using the default
+   * SSLContext. It connects lazily, like TNonblockingSocket, and resumes
+   * sessions cached by earlier connections to the same host and port.
+   *
+   * @param host
+   * @param port
+   * @param timeout
+   * @return A non-blocking SSL socket
+   * @throws TTransportException
+   */
+  public static TNonblockingSocket getNonblockingClientSocket(String host, int port, int timeout) throws TTransportException {
+    try {
+      return getNonblockingClientSocket(host, port, timeout, SSLContext.getDefault(), null);
+    } catch (NoSuchAlgorithmException e) {
+      throw new TTransportException("Error creating the transport", e);
+    }
+  }
+
+  /**
+   * Get a non-blocking SSL socket using the given SSLContext, which should be
+   * shared between connections so that their sessions can be resumed. Use
+   * {@link #getSSLContext(TSSLTransportParameters)} to build one.
+   *
+   * @param host
+   * @param port
+   * @param timeout
+   * @param ctx
+   * @param params supplies the cipher suites, or null for the defaults
+   * @return A non-blocking SSL socket
+   * @throws TTransportException
+   */
+  public static TNonblockingSocket getNonblockingClientSocket(String host, int port, int timeout, SSLContext ctx,
+      TSSLTransportParameters params) throws TTransportException {
+    SSLEngine engine = ctx.createSSLEngine(host, port);
+    if (params != null && params.cipherSuites != null) {
+      engine.setEnabledCipherSuites(params.cipherSuites);
+    }
+    try {
+      return new TNonblockingSSLSocket(host, port, timeout, engine);
+    } catch (IOException e) {
+      throw new TTransportException("Could not create socket for " + host + " on port " + port, e);
+    }
+  }
+
+  /**
+   * Build an SSLContext from the given parameters, e.g. to share between
+   * non-blocking client sockets.
+   *
+   * @param params
+   * @return an initialized SSLContext
+   * @throws TTransportException
+   */
+  public static SSLContext getSSLContext(TSSLTransportParameters params) throws TTransportException {
+    if (params == null || !(params.isKeyStoreSet || params.isTrustStoreSet)) {
+      throw new TTransportException("Either one of the KeyStore or TrustStore must be set for SSLTransportParameters");
+    }
+    return createSSLContext(params);
+  }
+
   private static SSLContext createSSLContext(TSSLTransportParameters params) throws TTransportException {
     SSLContext ctx;
     FileInputStream fin = null;
@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Map;
+
+import javax.security.sasl.Sasl;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+
+import org.apache.thrift.EncodingUtils;
+import org.apache.thrift.transport.TSaslServerTransport.TSaslServerDefinition;
+import org.apache.thrift.transport.TSaslTransport.NegotiationStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The server side of the Thrift SASL handshake, performed without blocking on
+ * a {@link TNonblockingTransport}. This is what lets the nonblocking servers
+ * authenticate connections: the select thread calls {@link #negotiate} when
+ * the transport is ready, until the handshake is complete.
+ *
+ * Once complete, data frames have the same layout as those of
+ * {@link TFramedTransport}. If a QOP was negotiated the frame contents must be
+ * passed through {@link #unwrapFrame} and {@link #wrapFrame}.
+ *
+ * Instances are created by {@link TSaslServerTransport.Factory#newNegotiator()}.
+ */
+public class TSaslServerNegotiator {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TSaslServerNegotiator.class);
+
+  private static final int HEADER_BYTES = TSaslTransport.STATUS_BYTES + TSaslTransport.PAYLOAD_LENGTH_BYTES;
+  private static final int MAX_PAYLOAD_BYTES = 104857600; /* 100 MB */
+
+  private final Map<String, TSaslServerDefinition> serverDefinitionMap;
+
+  private SaslServer saslServer;
+
+  // the message being read, and the one being written
+  private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+  private ByteBuffer payload;
+  private ByteBuffer out;
+
+  // set once the last message of the handshake has been queued
+  private boolean complete = false;
+  private boolean shouldWrap = false;
+
+  // set when an error message has been queued for the client
+  private String failure;
+
+  TSaslServerNegotiator(Map<String, TSaslServerDefinition> serverDefinitionMap) {
+    this.serverDefinitionMap = serverDefinitionMap;
+  }
+
+  /**
+   * Read and write as much of the handshake as the transport allows.
+   *
+   * @return the selection interest ops to wait for before calling again, or 0
+   *         once the handshake is complete.
+   * @throws TTransportException if the handshake failed, or the client
+   *         reported failure. The connection should be closed.
+   */
+  public int negotiate(TNonblockingTransport trans) throws IOException, TTransportException {
+    while (true) {
+      if (out != null) {
+        trans.write(out);
+        if (out.hasRemaining()) {
+          return SelectionKey.OP_WRITE;
+        }
+        out = null;
+        if (failure != null) {
+          throw new TTransportException(failure);
+        }
+        if (complete) {
+          String qop = (String) saslServer.getNegotiatedProperty(Sasl.QOP);
+          shouldWrap = qop != null && !qop.equalsIgnoreCase("auth");
+          LOGGER.debug("SASL negotiation complete");
+          return 0;
+        }
+      }
+
+      if (payload == null) {
+        if (trans.read(header) < 0) {
+          throw new TTransportException(TTransportException.END_OF_FILE, "Connection closed during SASL negotiation");
+        }
+        if (header.hasRemaining()) {
+          return SelectionKey.OP_READ;
+        }
+        int payloadBytes = EncodingUtils.decodeBigEndian(header.array(), TSaslTransport.STATUS_BYTES);
+        if (payloadBytes < 0 || payloadBytes > MAX_PAYLOAD_BYTES) {
+          fail(NegotiationStatus.ERROR, "Invalid payload header length: " + payloadBytes);
+          continue;
+        }
+        payload = ByteBuffer.allocate(payloadBytes);
+      }
+
+      if (trans.read(payload) < 0) {
+        throw new TTransportException(TTransportException.END_OF_FILE, "Connection closed during SASL negotiation");
+      }
+      if (payload.hasRemaining()) {
+        return SelectionKey.OP_READ;
+      }
+
+      byte statusByte = header.get(0);
+      byte[] message = payload.array();
+      header.clear();
+      payload = null;
+      handleMessage(statusByte, message);
+    }
+  }
+
+  /**
+   * True once the handshake has been completed.
+   */
+  public boolean isComplete() {
+    return complete && out == null;
+  }
+
+  /**
+   * The <code>SaslServer</code>, once the client has chosen a mechanism.
+   */
+  public SaslServer getSaslServer() {
+    return saslServer;
+  }
+
+  /**
+   * Whether a QOP was negotiated, so that frames must be wrapped.
+   */
+  public boolean isWrapping() {
+    return shouldWrap;
+  }
+
+  /**
+   * Unwrap a complete frame, including its four byte length prefix, if a QOP
+   * was negotiated. Otherwise the frame is returned as is.
+   */
+  public byte[] unwrapFrame(byte[] frame) throws TTransportException {
+    if (!shouldWrap) {
+      return frame;
+    }
+    try {
+      return prefix(saslServer.unwrap(frame, 4, frame.length - 4));
+    } catch (SaslException e) {
+      throw new TTransportException(e);
+    }
+  }
+
+  /**
+   * Wrap a complete frame, including its four byte length prefix, if a QOP
+   * was negotiated.
+   */
+  public ByteBuffer wrapFrame(byte[] frame, int len) throws TTransportException {
+    if (!shouldWrap) {
+      return ByteBuffer.wrap(frame, 0, len);
+    }
+    try {
+      return ByteBuffer.wrap(prefix(saslServer.wrap(frame, 4, len - 4)));
+    } catch (SaslException e) {
+      throw new TTransportException(e);
+    }
+  }
+
+  /**
+   * Release the <code>SaslServer</code>.
+   */
+  public void dispose() {
+    if (saslServer != null) {
+      try {
+        saslServer.dispose();
+      } catch (SaslException e) {
+        // Not much we can do here.
+      }
+    }
+  }
+
+  private void handleMessage(byte statusByte, byte[] message) throws TTransportException {
+    NegotiationStatus status = NegotiationStatus.byValue(statusByte);
+    if (status == null) {
+      fail(NegotiationStatus.ERROR, "Invalid status " + statusByte);
+      return;
+    }
+    if (status == NegotiationStatus.BAD || status == NegotiationStatus.ERROR) {
+      throw new TTransportException("Peer indicated failure: " + new String(message));
+    }
+    if (LOGGER.isDebugEnabled())
+      LOGGER.debug("Received message with status {} and payload length {}", status, message.length);
+
+    try {
+      if (saslServer == null) {
+        startMessage(status, message);
+        return;
+      }
+
+      if (status != NegotiationStatus.COMPLETE && status != NegotiationStatus.OK) {
+        throw new TTransportException("Expected COMPLETE or OK, got " + status);
+      }
+      byte[] challenge = saslServer.evaluateResponse(message);
+      complete = saslServer.isComplete();
+      send(complete ? NegotiationStatus.COMPLETE : NegotiationStatus.OK, challenge);
+    } catch (SaslException e) {
+      LOGGER.error("SASL negotiation failure", e);
+      fail(NegotiationStatus.BAD, e.getMessage());
+    }
+  }
+
+  /**
+   * Creates the SASL server for the mechanism the client asked for. The first
+   * challenge is sent in reply to the client's initial response, which follows.
+   */
+  private void startMessage(NegotiationStatus status, byte[] message) throws SaslException {
+    if (status != NegotiationStatus.START) {
+      fail(NegotiationStatus.ERROR, "Expecting START status, received " + status);
+      return;
+    }
+    String mechanismName = new String(message);
+    LOGGER.debug("Received mechanism name '{}'", mechanismName);
+    TSaslServerDefinition serverDefinition = serverDefinitionMap.get(mechanismName);
+    if (serverDefinition == null) {
+      fail(NegotiationStatus.BAD, "Unsupported mechanism type " + mechanismName);
+      return;
+    }
+    saslServer = Sasl.createSaslServer(serverDefinition.mechanism,
+        serverDefinition.protocol, serverDefinition.serverName, serverDefinition.props,
+        serverDefinition.cbh);
+    if (saslServer == null) {
+      fail(NegotiationStatus.BAD, "No SASL server available for mechanism " + mechanismName);
+    }
+  }
+
+  private void send(NegotiationStatus status, byte[] message) {
+    if (message == null) {
+      message = new byte[0];
+    }
+    if (LOGGER.isDebugEnabled())
+      LOGGER.debug("Writing message with status {} and payload length {}", status, message.length);
+    out = ByteBuffer.allocate(HEADER_BYTES + message.length);
+    out.put(status.getValue());
+    out.putInt(message.length);
+    out.put(message);
+    out.flip();
+  }
+
+  /**
+   * Queue an error message for the client. The connection fails once it has
+   * been sent.
+   */
+  private void fail(NegotiationStatus status, String message) {
+    if (message == null) {
+      message = "SASL negotiation failed";
+    }
+    failure = message;
+    send(status, message.getBytes());
+  }
+
+  private static byte[] prefix(byte[] data) {
+    byte[] frame = new byte[data.length + 4];
+    TFramedTransport.encodeFrameSize(data.length, frame);
+    System.arraycopy(data, 0, frame, 4, data.length);
+    return frame;
+  }
+}
@@ -51,7 +51,7 @@ public class TSaslServerTransport extends TSaslTransport {
   /**
    * Contains all the parameters used to define a SASL server implementation.
    */
-  private static class TSaslServerDefinition {
+  static class TSaslServerDefinition {
     public String mechanism;
     public String protocol;
     public String serverName;
@@ -199,6 +199,14 @@ public class TSaslServerTransport extends TSaslTransport {
           props, cbh));
     }
 
+    /**
+     * Get a new negotiator for the server definitions of this factory, with
+     * which a nonblocking server can authenticate a connection.
+     */
+    public TSaslServerNegotiator newNegotiator() {
+      return new TSaslServerNegotiator(serverDefinitionMap);
+    }
+
     /**
      * Get a new <code>TSaslServerTransport</code> instance, or reuse the
      * existing one if a <code>TSaslServerTransport</code> has already been
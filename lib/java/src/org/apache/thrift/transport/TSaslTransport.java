@@ -22,6 +22,8 @@ package org.apache.thrift.transport;
 import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslClient;
@@ -29,13 +31,18 @@ import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
 
 import org.apache.thrift.EncodingUtils;
-import org.apache.thrift.TByteArrayOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A superclass for SASL client/server thrift transports. A subclass need only
  * implement the <code>open</open> method.
+ *
+ * Frames are read into and written from reusable, expanding buffers. When no
+ * QOP is negotiated the protocol reads straight out of the frame buffer, so
+ * as with {@link TFastFramedTransport} a binary field read without copying is
+ * only valid until the next frame is read. When a QOP is negotiated the
+ * wrapped frames are read into buffers borrowed from a small shared pool.
  */
 abstract class TSaslTransport extends TTransport {
 
@@ -47,6 +54,8 @@ abstract class TSaslTransport extends TTransport {
   protected static final int STATUS_BYTES = 1;
   protected static final int PAYLOAD_LENGTH_BYTES = 4;
 
+  private static final int DEFAULT_BUF_CAPACITY = 1024;
+
   protected static enum SaslRole {
     SERVER, CLIENT;
   }
@@ -101,14 +110,31 @@ abstract class TSaslTransport extends TTransport {
   private boolean shouldWrap = false;
 
   /**
-   * Buffer for input.
+   * Buffer for input when not wrapping. Frames are read directly into it.
    */
-  private TMemoryInputTransport readBuffer = new TMemoryInputTransport();
+  private final AutoExpandingBufferReadTransport frameBuffer =
+    new AutoExpandingBufferReadTransport(DEFAULT_BUF_CAPACITY, 1.5);
+
+  /**
+   * Buffer for unwrapped input.
+   */
+  private final TMemoryInputTransport unwrappedBuffer = new TMemoryInputTransport();
+
+  /**
+   * Whichever of the two input buffers holds the current frame.
+   */
+  private TTransport readBuffer = unwrappedBuffer;
 
   /**
    * Buffer for output.
    */
-  private final TByteArrayOutputStream writeBuffer = new TByteArrayOutputStream(1024);
+  private final AutoExpandingBufferWriteTransport writeBuffer =
+    new AutoExpandingBufferWriteTransport(DEFAULT_BUF_CAPACITY, 1.5);
+
+  /**
+   * Used to read and write the length prefix of data frames.
+   */
+  private final byte[] lenBuf = new byte[PAYLOAD_LENGTH_BYTES];
 
   /**
    * Create a TSaslTransport. It's assumed that setSaslServer will be called
@@ -372,7 +398,6 @@ abstract class TSaslTransport extends TTransport {
    *           Thrown if reading from the underlying transport fails.
    */
   protected int readLength() throws TTransportException {
-    byte[] lenBuf = new byte[4];
     underlyingTransport.readAll(lenBuf, 0, lenBuf.length);
     return EncodingUtils.decodeBigEndian(lenBuf);
   }
@@ -386,7 +411,6 @@ abstract class TSaslTransport extends TTransport {
    *           Thrown if writing to the underlying transport fails.
    */
   protected void writeLength(int length) throws TTransportException {
-    byte[] lenBuf = new byte[4];
     TFramedTransport.encodeFrameSize(length, lenBuf);
     underlyingTransport.write(lenBuf);
   }
@@ -455,14 +479,29 @@ abstract class TSaslTransport extends TTransport {
     if (dataLength < 0)
       throw new TTransportException("Read a negative frame size (" + dataLength + ")!");
 
-    byte[] buff = new byte[dataLength];
-    LOGGER.debug("{}: reading data length: {}", getRole(), dataLength);
-    underlyingTransport.readAll(buff, 0, dataLength);
-    if (shouldWrap) {
-      buff = sasl.unwrap(buff, 0, buff.length);
-      LOGGER.debug("data length after unwrap: {}", buff.length);
+    if (LOGGER.isDebugEnabled())
+      LOGGER.debug("{}: reading data length: {}", getRole(), dataLength);
+
+    if (!shouldWrap) {
+      frameBuffer.fill(underlyingTransport, dataLength);
+      readBuffer = frameBuffer;
+      return;
+    }
+
+    // unwrap() always returns a new array, but the wrapped frame is only
+    // needed until it has been unwrapped.
+    byte[] wrapped = WRAPPED_FRAMES.take(dataLength);
+    byte[] buff;
+    try {
+      underlyingTransport.readAll(wrapped, 0, dataLength);
+      buff = sasl.unwrap(wrapped, 0, dataLength);
+    } finally {
+      WRAPPED_FRAMES.give(wrapped);
     }
-    readBuffer.reset(buff);
+    if (LOGGER.isDebugEnabled())
+      LOGGER.debug("data length after unwrap: {}", buff.length);
+    unwrappedBuffer.reset(buff);
+    readBuffer = unwrappedBuffer;
   }
 
   /**
@@ -476,18 +515,39 @@ abstract class TSaslTransport extends TTransport {
     writeBuffer.write(buf, off, len);
   }
 
+  @Override
+  public byte[] getBuffer() {
+    return readBuffer.getBuffer();
+  }
+
+  @Override
+  public int getBufferPosition() {
+    return readBuffer.getBufferPosition();
+  }
+
+  @Override
+  public int getBytesRemainingInBuffer() {
+    return readBuffer.getBytesRemainingInBuffer();
+  }
+
+  @Override
+  public void consumeBuffer(int len) {
+    readBuffer.consumeBuffer(len);
+  }
+
   /**
    * Flushes to the underlying transport. Wraps the contents if a QOP was
    * negotiated during the SASL handshake.
    */
   @Override
   public void flush() throws TTransportException {
-    byte[] buf = writeBuffer.get();
-    int dataLength = writeBuffer.len();
+    byte[] buf = writeBuffer.getBuf().array();
+    int dataLength = writeBuffer.getPos();
     writeBuffer.reset();
 
     if (shouldWrap) {
-      LOGGER.debug("data length before wrap: {}", dataLength);
+      if (LOGGER.isDebugEnabled())
+        LOGGER.debug("data length before wrap: {}", dataLength);
       try {
         buf = sasl.wrap(buf, 0, dataLength);
       } catch (SaslException e) {
@@ -495,12 +555,56 @@ abstract class TSaslTransport extends TTransport {
       }
       dataLength = buf.length;
     }
-    LOGGER.debug("writing data length: {}", dataLength);
+    if (LOGGER.isDebugEnabled())
+      LOGGER.debug("writing data length: {}", dataLength);
     writeLength(dataLength);
     underlyingTransport.write(buf, 0, dataLength);
     underlyingTransport.flush();
   }
 
+  /**
+   * Buffers for wrapped frames, shared by all SASL transports.
+   */
+  private static final FramePool WRAPPED_FRAMES = new FramePool();
+
+  /**
+   * A bounded pool of byte arrays. Arrays over the size limit, or returned
+   * when the pool is full, are left to the garbage collector so that one
+   * large frame does not pin its memory for good.
+   */
+  private static final class FramePool {
+    private static final int MAX_POOLED = 64;
+    private static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    private final ConcurrentLinkedQueue<byte[]> frames = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * An array of at least the given length.
+     */
+    byte[] take(int length) {
+      byte[] frame = frames.poll();
+      if (frame != null) {
+        size.decrementAndGet();
+        if (frame.length >= length) {
+          return frame;
+        }
+      }
+      return new byte[Math.max(length, DEFAULT_BUF_CAPACITY)];
+    }
+
+    void give(byte[] frame) {
+      if (frame.length > MAX_POOLED_SIZE) {
+        return;
+      }
+      if (size.incrementAndGet() > MAX_POOLED) {
+        size.decrementAndGet();
+        return;
+      }
+      frames.add(frame);
+    }
+  }
+
   /**
    * Used exclusively by readSaslMessage to return both a status and data.
    */
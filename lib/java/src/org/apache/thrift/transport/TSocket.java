@@ -52,6 +52,11 @@ public class TSocket extends TIOStreamTransport {
    */
   private int port_ = 0;
 
+  /**
+   * Remote address, used in place of host and port when given
+   */
+  private InetSocketAddress address_ = null;
+
   /**
    * Socket timeout
    */
@@ -109,6 +114,20 @@ public class TSocket extends TIOStreamTransport {
     initSocket();
   }
 
+  /**
+   * Creates a new unconnected socket that will connect to the given address.
+   * A resolved address is connected to as is, without another name lookup.
+   *
+   * @param address Remote address
+   * @param timeout Socket timeout
+   */
+  public TSocket(InetSocketAddress address, int timeout) {
+    address_ = address;
+    port_ = address.getPort();
+    timeout_ = timeout;
+    initSocket();
+  }
+
   /**
    * Initializes the socket object
    */
@@ -165,7 +184,7 @@ public class TSocket extends TIOStreamTransport {
       throw new TTransportException(TTransportException.ALREADY_OPEN, "Socket already connected.");
     }
 
-    if (host_.length() == 0) {
+    if (address_ == null && host_.length() == 0) {
       throw new TTransportException(TTransportException.NOT_OPEN, "Cannot open null host.");
     }
     if (port_ <= 0) {
@@ -177,7 +196,13 @@ public class TSocket extends TIOStreamTransport {
     }
 
     try {
-      socket_.connect(new InetSocketAddress(host_, port_), timeout_);
+      InetSocketAddress address = address_;
+      if (address == null) {
+        address = new InetSocketAddress(host_, port_);
+      } else if (address.isUnresolved()) {
+        address = new InetSocketAddress(address.getHostName(), port_);
+      }
+      socket_.connect(address, timeout_);
       inputStream_ = new BufferedInputStream(socket_.getInputStream(), 1024);
       outputStream_ = new BufferedOutputStream(socket_.getOutputStream(), 1024);
     } catch (IOException iox) {
@@ -19,14 +19,22 @@
 
 package org.apache.thrift;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 
 import junit.framework.TestCase;
 
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TTupleProtocol;
 import org.apache.thrift.protocol.TType;
 
 import thrift.test.Reuse;
+import thrift.test.ReuseElement;
 
 // Tests reusing objects for deserialization.
 //
@@ -54,7 +62,95 @@ public class TestReuse extends TestStruct {
     binaryDeserializer.deserialize(ru1, serBytes);
    
     assertTrue( ru1.getVal2() == hs1 );
-    assertTrue( hs1.size() == 2 );
+    assertTrue( hs1.size() == 1 );
+    assertTrue( hs1.contains(st1) );
+  }
+
+  public void testReuseNested() throws Exception {
+    TProtocolFactory[] factories = new TProtocolFactory[] {
+      new TBinaryProtocol.Factory(),
+      new TCompactProtocol.Factory(),
+      new TTupleProtocol.Factory()
+    };
+    for (TProtocolFactory factory : factories) {
+      TSerializer serializer = new TSerializer(factory);
+      TDeserializer deserializer = new TDeserializer(factory);
+
+      Reuse first = new Reuse();
+      first.setVal1(1);
+      first.addToVal3(element(1, "a", "b"));
+      first.addToVal3(element(2, "c"));
+      first.addToVal3(element(3));
+      first.setVal4(element(4, "d"));
+      first.putToVal5("e", element(5, "f"));
+      first.addToVal6(Arrays.asList(1, 2, 3));
+      first.addToVal6(Arrays.asList(4));
+
+      Reuse second = new Reuse();
+      second.addToVal3(element(6, "g"));
+      second.addToVal3(element(7));
+      second.putToVal5("h", element(8));
+      second.addToVal6(Arrays.asList(5, 6));
+
+      Reuse target = new Reuse();
+      deserializer.deserialize(target, serializer.serialize(first));
+      assertEquals(first, target);
+
+      List<ReuseElement> elements = target.getVal3();
+      ReuseElement element0 = elements.get(0);
+      ReuseElement element1 = elements.get(1);
+      List<String> tags0 = element0.getTags();
+      List<List<Integer>> nested = target.getVal6();
+      List<Integer> nested0 = nested.get(0);
+
+      deserializer.deserialize(target, serializer.serialize(second));
+      assertEquals(second, target);
+      assertSame(elements, target.getVal3());
+      assertSame(element0, target.getVal3().get(0));
+      assertSame(element1, target.getVal3().get(1));
+      assertSame(tags0, element0.getTags());
+      assertSame(nested, target.getVal6());
+      assertSame(nested0, target.getVal6().get(0));
+      assertNull(target.getVal4());
+
+      // and back again, growing the lists past what was recycled
+      deserializer.deserialize(target, serializer.serialize(first));
+      assertEquals(first, target);
+      assertSame(elements, target.getVal3());
+      assertSame(element0, target.getVal3().get(0));
+    }
+  }
+
+  public void testDeserializeByteBuffer() throws Exception {
+    TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+    TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+
+    Reuse expected = new Reuse();
+    expected.setVal1(42);
+    expected.addToVal3(element(1, "a"));
+    byte[] bytes = serializer.serialize(expected);
+
+    byte[] padded = new byte[bytes.length + 7];
+    System.arraycopy(bytes, 0, padded, 3, bytes.length);
+    ByteBuffer heap = ByteBuffer.wrap(padded, 3, bytes.length).slice();
+    Reuse actual = new Reuse();
+    deserializer.deserialize(actual, heap);
+    assertEquals(expected, actual);
+    assertEquals(0, heap.position());
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    actual = new Reuse();
+    deserializer.deserialize(actual, direct);
+    assertEquals(expected, actual);
+    assertEquals(0, direct.position());
+  }
+
+  private static ReuseElement element(int id, String... tags) {
+    ReuseElement element = new ReuseElement();
+    element.setId(id);
+    element.setTags(new ArrayList<String>(Arrays.asList(tags)));
+    return element;
   }
 
 }
@@ -32,15 +32,18 @@ import org.apache.thrift.meta_data.FieldMetaData;
 import org.apache.thrift.meta_data.ListMetaData;
 import org.apache.thrift.meta_data.MapMetaData;
 import org.apache.thrift.meta_data.SetMetaData;
+import org.apache.thrift.meta_data.StructFieldIndex;
 import org.apache.thrift.meta_data.StructMetaData;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TType;
 
+import thrift.test.Backwards;
 import thrift.test.Bonk;
 import thrift.test.CrazyNesting;
 import thrift.test.HolyMoley;
 import thrift.test.Insanity;
 import thrift.test.JavaTestHelper;
+import thrift.test.LargeDeltas;
 import thrift.test.Nesting;
 import thrift.test.Numberz;
 import thrift.test.OneOfEach;
@@ -96,6 +99,29 @@ public class TestStruct extends TestCase {
     assertEquals(hm.hashCode(), hm2.hashCode());
   }
 
+  public void testCachedHashCode() throws Exception {
+    // DebugProtoTest is generated with cached_hashcode
+    OneOfEach ooe = new OneOfEach(Fixtures.oneOfEach);
+    int hash = ooe.hashCode();
+    assertEquals(hash, ooe.hashCode());
+
+    ooe.setInteger32(ooe.getInteger32() + 1);
+    assertTrue(hash != ooe.hashCode());
+    assertEquals(new OneOfEach(ooe).hashCode(), ooe.hashCode());
+
+    ooe.addToI16_list((short)1);
+    assertEquals(new OneOfEach(ooe).hashCode(), ooe.hashCode());
+
+    ooe.unsetSome_characters();
+    assertEquals(new OneOfEach(ooe).hashCode(), ooe.hashCode());
+
+    new TDeserializer().deserialize(ooe, new TSerializer().serialize(Fixtures.oneOfEach));
+    assertEquals(hash, ooe.hashCode());
+
+    ooe.clear();
+    assertEquals(new OneOfEach().hashCode(), ooe.hashCode());
+  }
+
   public void testDeepCopy() throws Exception {
     TSerializer   binarySerializer   = new   TSerializer(new TBinaryProtocol.Factory());
     TDeserializer binaryDeserializer = new TDeserializer(new TBinaryProtocol.Factory());
@@ -251,6 +277,31 @@ public class TestStruct extends TestCase {
     assertFalse(vmd.keyMetaData.isTypedef());
   }
 
+  public void testStructFieldIndex() throws Exception {
+    StructFieldIndex index = FieldMetaData.getStructFieldIndex(Backwards.class);
+    assertSame(index, FieldMetaData.getStructFieldIndex(Backwards.class));
+    assertEquals(2, index.size());
+    assertEquals(Backwards._Fields.FIRST_TAG2, index.field(0));
+    assertEquals(Backwards._Fields.SECOND_TAG1, index.field(1));
+    assertEquals(Backwards._Fields.SECOND_TAG1, index.fieldForId(1));
+    assertEquals(Backwards._Fields.FIRST_TAG2, index.fieldForId(2));
+    assertSame(Backwards.metaDataMap.get(Backwards._Fields.SECOND_TAG1), index.metaDataForId(1));
+    assertNull(index.fieldForId(0));
+    assertNull(index.fieldForId(3));
+    assertEquals(-1, index.positionOf(-1));
+
+    // ids spread far apart are looked up by binary search
+    index = FieldMetaData.getStructFieldIndex(LargeDeltas.class);
+    assertEquals(LargeDeltas.metaDataMap.size(), index.size());
+    for (LargeDeltas._Fields field : LargeDeltas._Fields.values()) {
+      assertEquals(field, index.fieldForId(field.getThriftFieldId()));
+      assertSame(LargeDeltas.metaDataMap.get(field), index.metaDataForId(field.getThriftFieldId()));
+    }
+    assertNull(index.fieldForId(11));
+    assertNull(index.fieldForId(4001));
+    assertNull(index.fieldForId(Integer.MAX_VALUE));
+  }
+
   public void testToString() throws Exception {
     JavaTestHelper object = new JavaTestHelper();
     object.req_int = 0;
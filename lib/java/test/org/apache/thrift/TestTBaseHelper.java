@@ -25,6 +25,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import junit.framework.TestCase;
 
@@ -56,6 +58,30 @@ public class TestTBaseHelper extends TestCase {
     assertTrue(TBaseHelper.compareTo(a, b) > 0);
   }
 
+  public void testSortedContainers() {
+    Set<String> a = new TreeSet<String>(Arrays.asList("c", "a", "b"));
+    Set<String> b = new HashSet<String>(Arrays.asList("b", "c", "a"));
+    assertEquals(0, TBaseHelper.compareTo(a, b));
+    assertEquals(0, TBaseHelper.compareTo(a, new TreeSet<String>(b)));
+    assertTrue(TBaseHelper.compareTo(a, new TreeSet<String>(Arrays.asList("a", "b", "d"))) < 0);
+    assertTrue(TBaseHelper.compareTo(new TreeSet<String>(Arrays.asList("a", "b", "d")), b) > 0);
+
+    Map<String, Integer> c = new TreeMap<String, Integer>();
+    Map<String, Integer> d = new HashMap<String, Integer>();
+    for (int i = 0; i < 10; i++) {
+      c.put("k" + i, i);
+      d.put("k" + i, i);
+    }
+    assertEquals(0, TBaseHelper.compareTo(c, d));
+    assertEquals(0, TBaseHelper.compareTo(c, new TreeMap<String, Integer>(d)));
+    d.put("k5", 6);
+    assertTrue(TBaseHelper.compareTo(c, d) < 0);
+    assertTrue(TBaseHelper.compareTo(c, new TreeMap<String, Integer>(d)) < 0);
+    d.remove("k5");
+    d.put("k55", 5);
+    assertTrue(TBaseHelper.compareTo(c, d) < 0);
+  }
+
   public void testNestedStructures() {
     Set<List<String>> a = new HashSet<List<String>>();
     Set<List<String>> b = new HashSet<List<String>>();
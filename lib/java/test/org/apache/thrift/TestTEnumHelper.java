@@ -18,12 +18,29 @@
  */
 package org.apache.thrift;
 
+import org.apache.thrift.meta_data.EnumMetaData;
+import org.apache.thrift.protocol.TType;
+
 import thrift.test.Numberz;
 
 import junit.framework.TestCase;
 
 public class TestTEnumHelper extends TestCase {
 
+  private enum Sparse implements TEnum {
+    LOWEST(Integer.MIN_VALUE), MINUS(-7), ONE(1), THOUSAND(1000), HIGHEST(Integer.MAX_VALUE);
+
+    private final int value;
+
+    private Sparse(int value) {
+      this.value = value;
+    }
+
+    public int getValue() {
+      return value;
+    }
+  }
+
   public void testGetByValue_ValidValues() {
     for (Numberz n: Numberz.values()) {
       int value = n.getValue();
@@ -38,4 +55,26 @@ public class TestTEnumHelper extends TestCase {
   public void testGetByValue_InvalidClass() {
     assertEquals(null, TEnumHelper.getByValue(TEnum.class, 0));
   }
+
+  public void testGetByValue_SparseValues() {
+    for (Sparse s : Sparse.values()) {
+      assertSame(s, TEnumHelper.getByValue(Sparse.class, s.getValue()));
+    }
+    for (int value : new int[] {Integer.MIN_VALUE + 1, -8, 0, 2, 999, Integer.MAX_VALUE - 1}) {
+      assertNull(TEnumHelper.getByValue(Sparse.class, value));
+    }
+  }
+
+  public void testLookup() {
+    assertSame(TEnumHelper.getLookup(Numberz.class), TEnumHelper.getLookup(Numberz.class));
+    assertNull(TEnumHelper.getLookup(TEnum.class));
+    assertNull(TEnumHelper.getLookup(Numberz.class).findByValue(Integer.MIN_VALUE));
+    assertNull(TEnumHelper.getLookup(Numberz.class).findByValue(Integer.MAX_VALUE));
+
+    EnumMetaData metaData = new EnumMetaData(TType.ENUM, Numberz.class);
+    for (Numberz n : Numberz.values()) {
+      assertSame(n, metaData.findByValue(n.getValue()));
+    }
+    assertNull(metaData.findByValue(4));
+  }
 }
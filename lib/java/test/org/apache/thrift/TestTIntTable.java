@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import junit.framework.TestCase;
+
+public class TestTIntTable extends TestCase {
+
+  public void testDense() {
+    assertPositions(new int[] {3, 1, 2, -1});
+  }
+
+  public void testSparse() {
+    assertPositions(new int[] {1000, 5, -70000, 32767, Integer.MIN_VALUE, Integer.MAX_VALUE});
+  }
+
+  public void testEmpty() {
+    TIntTable table = new TIntTable(new int[0]);
+    assertEquals(-1, table.positionOf(0));
+    assertEquals(-1, table.positionOf(Integer.MIN_VALUE));
+  }
+
+  private static void assertPositions(int[] keys) {
+    TIntTable table = new TIntTable(keys);
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(i, table.positionOf(keys[i]));
+      for (int delta : new int[] {-1, 1}) {
+        int missing = keys[i] + delta;
+        if (indexOf(keys, missing) < 0) {
+          assertEquals(-1, table.positionOf(missing));
+        }
+      }
+    }
+  }
+
+  private static int indexOf(int[] keys, int key) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] == key) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
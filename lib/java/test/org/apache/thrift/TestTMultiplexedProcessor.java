@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TMultiplexedProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import thrift.test.CompactProtoTestStruct;
+import thrift.test.Inherited;
+import thrift.test.Srv;
+
+public class TestTMultiplexedProcessor extends TestCase {
+
+  private static final TProtocolFactory[] PROTOCOLS = new TProtocolFactory[] {
+    new TBinaryProtocol.Factory(),
+    new TCompactProtocol.Factory(),
+    new TJSONProtocol.Factory()
+  };
+
+  private static class Handler implements Inherited.Iface {
+    private final int factor;
+    Handler(int factor) {
+      this.factor = factor;
+    }
+    public int Janky(int arg) {
+      return arg * factor;
+    }
+    public int identity(int arg) {
+      return arg;
+    }
+    public void voidMethod() {}
+    public int primitiveMethod() {
+      return 0;
+    }
+    public CompactProtoTestStruct structMethod() {
+      return null;
+    }
+    public void methodWithDefaultArgs(int something) {}
+    public void onewayMethod() {}
+  }
+
+  private static class CountingProcessor extends Srv.Processor<Handler> {
+    int calls;
+    CountingProcessor(Handler handler) {
+      super(handler);
+    }
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+      calls++;
+      return super.process(in, out);
+    }
+  }
+
+  /** Sends whatever client sent to processor, and leaves its reply for client to read. */
+  private static class Exchange {
+    final TProtocolFactory factory;
+    final TMemoryBuffer request = new TMemoryBuffer(64);
+    final TMemoryInputTransport response = new TMemoryInputTransport();
+    Exchange(TProtocolFactory factory) {
+      this.factory = factory;
+    }
+    TProtocol requestProtocol(String serviceName) {
+      return new TMultiplexedProtocol(factory.getProtocol(request), serviceName);
+    }
+    TProtocol responseProtocol() {
+      return factory.getProtocol(response);
+    }
+    void run(TProcessor processor) throws TException {
+      TMemoryBuffer reply = new TMemoryBuffer(64);
+      processor.process(factory.getProtocol(new TMemoryInputTransport(request.getArray(), 0, request.length())),
+          factory.getProtocol(reply));
+      response.reset(reply.getArray(), 0, reply.length());
+    }
+  }
+
+  private static int janky(TProcessor processor, TProtocolFactory factory, String serviceName, int arg) throws TException {
+    Exchange exchange = new Exchange(factory);
+    Srv.Client client = new Srv.Client(exchange.responseProtocol(), exchange.requestProtocol(serviceName));
+    client.send_Janky(arg);
+    exchange.run(processor);
+    return client.recv_Janky();
+  }
+
+  public void testDispatch() throws Exception {
+    CountingProcessor counting = new CountingProcessor(new Handler(3));
+    TMultiplexedProcessor processor = new TMultiplexedProcessor();
+    processor.registerProcessor("Srv", new Srv.Processor<Handler>(new Handler(2)));
+    processor.registerProcessor("Inherited", new Inherited.Processor<Handler>(new Handler(5)));
+    processor.registerProcessor("Counting", counting);
+
+    for (TProtocolFactory factory : PROTOCOLS) {
+      assertEquals(42, janky(processor, factory, "Srv", 21));
+      assertEquals(105, janky(processor, factory, "Inherited", 21));
+
+      Exchange exchange = new Exchange(factory);
+      Inherited.Client client = new Inherited.Client(exchange.responseProtocol(), exchange.requestProtocol("Inherited"));
+      client.send_identity(7);
+      exchange.run(processor);
+      assertEquals(7, client.recv_identity());
+
+      // processors that override process() still see their calls
+      int calls = counting.calls;
+      assertEquals(63, janky(processor, factory, "Counting", 21));
+      assertEquals(calls + 1, counting.calls);
+    }
+  }
+
+  public void testUnknownMethod() throws Exception {
+    TMultiplexedProcessor processor = new TMultiplexedProcessor();
+    processor.registerProcessor("Srv", new Srv.Processor<Handler>(new Handler(2)));
+
+    for (TProtocolFactory factory : PROTOCOLS) {
+      Exchange exchange = new Exchange(factory);
+      Inherited.Client client = new Inherited.Client(exchange.responseProtocol(), exchange.requestProtocol("Srv"));
+      client.send_identity(7);
+      exchange.run(processor);
+      try {
+        client.recv_identity();
+        fail();
+      } catch (TApplicationException e) {
+        assertEquals(TApplicationException.UNKNOWN_METHOD, e.getType());
+      }
+
+      try {
+        janky(processor, factory, "Missing", 1);
+        fail();
+      } catch (TException e) {
+        // no such service
+      }
+    }
+  }
+
+  public void testReregister() throws Exception {
+    TMultiplexedProcessor processor = new TMultiplexedProcessor();
+    processor.registerProcessor("Srv", new Srv.Processor<Handler>(new Handler(2)));
+    assertEquals(2, janky(processor, new TBinaryProtocol.Factory(), "Srv", 1));
+
+    processor.registerProcessor("Srv", new Srv.Processor<Handler>(new Handler(4)));
+    assertEquals(4, janky(processor, new TBinaryProtocol.Factory(), "Srv", 1));
+
+    CountingProcessor counting = new CountingProcessor(new Handler(8));
+    processor.registerProcessor("Srv", counting);
+    assertEquals(8, janky(processor, new TBinaryProtocol.Factory(), "Srv", 1));
+    assertEquals(1, counting.calls);
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TestTNonblockingMultiFetchClient extends TestCase {
+
+  private static final int MAX_RECV_BYTES = 1024;
+
+  private final List<FramedServer> servers_ = new ArrayList<FramedServer>();
+
+  public void tearDown() throws Exception {
+    for (FramedServer server : servers_) {
+      server.close();
+    }
+  }
+
+  public void testConnectionsAreReusedAcrossFetches() throws Exception {
+    TNonblockingMultiFetchClient client = newClient(start(0), start(0), start(0));
+    try {
+      for (int fetch = 0; fetch < 3; fetch++) {
+        ByteBuffer[] responses = client.fetch();
+        assertEquals(3, client.getFetchStats().getNumReadCompletedServers());
+        for (int i = 0; i < 3; i++) {
+          assertEquals("server " + i, payload(responses[i]));
+        }
+      }
+      for (FramedServer server : servers_) {
+        assertEquals(1, server.connections.get());
+        assertEquals(3, server.requests.get());
+      }
+    } finally {
+      client.close();
+    }
+  }
+
+  public void testStaleConnectionIsRetried() throws Exception {
+    FramedServer closing = start(0);
+    closing.closeAfterResponse = true;
+    TNonblockingMultiFetchClient client = newClient(closing, start(0));
+    try {
+      for (int fetch = 0; fetch < 2; fetch++) {
+        ByteBuffer[] responses = client.fetch();
+        assertEquals(2, client.getFetchStats().getNumReadCompletedServers());
+        assertEquals("server 0", payload(responses[0]));
+        assertEquals("server 1", payload(responses[1]));
+      }
+      // the kept connection was found closed and replaced once
+      assertEquals(2, closing.connections.get());
+      assertEquals(1, servers_.get(1).connections.get());
+    } finally {
+      client.close();
+    }
+  }
+
+  public void testRequiredResponsesReturnsEarly() throws Exception {
+    TNonblockingMultiFetchClient client = newClient(start(0), start(10000), start(0));
+    client.setRequiredResponses(2);
+    try {
+      long start = System.currentTimeMillis();
+      ByteBuffer[] responses = client.fetch();
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertEquals(2, client.getFetchStats().getNumReadCompletedServers());
+      assertEquals("server 0", payload(responses[0]));
+      assertEquals("server 2", payload(responses[2]));
+      assertEquals(4, responses[1].capacity());
+    } finally {
+      client.close();
+    }
+  }
+
+  public void testResponseListenerSeesEachResponse() throws Exception {
+    TNonblockingMultiFetchClient client = newClient(start(0), start(0));
+    final ByteBuffer[] seen = new ByteBuffer[2];
+    final AtomicInteger calls = new AtomicInteger();
+    client.setResponseListener(new TNonblockingMultiFetchClient.ResponseListener() {
+      public void onResponse(int serverIndex, ByteBuffer response) {
+        calls.incrementAndGet();
+        seen[serverIndex] = response;
+      }
+    });
+    try {
+      ByteBuffer[] responses = client.fetch();
+      assertEquals(2, calls.get());
+      assertSame(responses[0], seen[0]);
+      assertSame(responses[1], seen[1]);
+      assertEquals("server 1", payload(seen[1]));
+    } finally {
+      client.close();
+    }
+  }
+
+  private FramedServer start(long delayMillis) throws IOException {
+    FramedServer server = new FramedServer("server " + servers_.size(), delayMillis);
+    servers_.add(server);
+    server.start();
+    return server;
+  }
+
+  private static TNonblockingMultiFetchClient newClient(FramedServer... servers) {
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (FramedServer server : servers) {
+      addresses.add(new InetSocketAddress("localhost", server.getPort()));
+    }
+    byte[] request = "request".getBytes();
+    ByteBuffer requestBuf = ByteBuffer.allocate(4 + request.length);
+    requestBuf.putInt(request.length).put(request).flip();
+    return new TNonblockingMultiFetchClient(MAX_RECV_BYTES, 10, TimeUnit.SECONDS, requestBuf, addresses);
+  }
+
+  // The frame a server sent, without its size
+  private static String payload(ByteBuffer response) {
+    int size = response.getInt(0);
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = response.get(4 + i);
+    }
+    return new String(bytes);
+  }
+
+  /**
+   * Answers each framed request with a framed copy of its name, on a thread
+   * per connection.
+   */
+  private static class FramedServer extends Thread {
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger requests = new AtomicInteger();
+    volatile boolean closeAfterResponse = false;
+
+    private final byte[] response_;
+    private final long delayMillis_;
+    private final ServerSocket socket_;
+
+    FramedServer(String name, long delayMillis) throws IOException {
+      response_ = name.getBytes();
+      delayMillis_ = delayMillis;
+      socket_ = new ServerSocket(0);
+      setDaemon(true);
+    }
+
+    int getPort() {
+      return socket_.getLocalPort();
+    }
+
+    void close() throws IOException {
+      socket_.close();
+    }
+
+    public void run() {
+      try {
+        while (true) {
+          final Socket connection = socket_.accept();
+          connections.incrementAndGet();
+          Thread handler = new Thread() {
+            public void run() {
+              serve(connection);
+            }
+          };
+          handler.setDaemon(true);
+          handler.start();
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }
+
+    private void serve(Socket connection) {
+      try {
+        DataInputStream in = new DataInputStream(connection.getInputStream());
+        DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        while (true) {
+          in.readFully(new byte[in.readInt()]);
+          requests.incrementAndGet();
+          if (delayMillis_ > 0) {
+            Thread.sleep(delayMillis_);
+          }
+          out.writeInt(response_.length);
+          out.write(response_);
+          out.flush();
+          if (closeAfterResponse) {
+            break;
+          }
+        }
+      } catch (Exception e) {
+        // the client went away
+      } finally {
+        try {
+          connection.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TSimpleJSONProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+
+import thrift.test.Bonk;
+import thrift.test.VersioningTestV1;
+import thrift.test.VersioningTestV2;
+
+public class TestTUnknownFields extends TestCase {
+
+  private static final TProtocolFactory[] FACTORIES = {
+    new TBinaryProtocol.Factory(),
+    new TCompactProtocol.Factory(),
+    new TJSONProtocol.Factory(),
+  };
+
+  private static VersioningTestV2 newer() {
+    VersioningTestV2 v2 = new VersioningTestV2();
+    v2.setBegin_in_both(1);
+    v2.setNewint(2);
+    v2.setNewshort((short)4);
+    v2.setNewlong(5L);
+    v2.setNewdouble(6.5);
+    v2.setNewstruct(new Bonk(7, "hello"));
+    v2.setNewlist(Arrays.asList(8, 9));
+    v2.setNewset(new HashSet<Integer>(Arrays.asList(10)));
+    v2.setNewmap(new HashMap<Integer, Integer>());
+    v2.getNewmap().put(11, 12);
+    v2.setNewstring("thirteen");
+    v2.setEnd_in_both(14);
+    return v2;
+  }
+
+  public void testSimpleJSONOmitsUnknownFields() throws Exception {
+    VersioningTestV1 v1 = new VersioningTestV1();
+    new TDeserializer(new TBinaryProtocol.Factory()).deserialize(v1,
+        new TSerializer(new TBinaryProtocol.Factory()).serialize(newer()));
+    assertEquals(9, v1.getUnknownFields().size());
+
+    String json = new String(new TSerializer(new TSimpleJSONProtocol.Factory()).serialize(v1), "UTF-8");
+    assertEquals(-1, json.indexOf("\"\""));
+    assertEquals(new String(VersioningTestV1.SIMPLE_JSON_CODEC.serialize(v1), "UTF-8"), json);
+
+    VersioningTestV1 known = new VersioningTestV1();
+    known.setBegin_in_both(1);
+    known.setEnd_in_both(14);
+    assertEquals(new String(new TSerializer(new TSimpleJSONProtocol.Factory()).serialize(known), "UTF-8"), json);
+  }
+
+  public void testPassThrough() throws Exception {
+    VersioningTestV2 v2 = newer();
+    for (TProtocolFactory in : FACTORIES) {
+      for (TProtocolFactory out : FACTORIES) {
+        VersioningTestV1 v1 = new VersioningTestV1();
+        new TDeserializer(in).deserialize(v1, new TSerializer(in).serialize(v2));
+        assertEquals(1, v1.getBegin_in_both());
+        assertEquals(14, v1.getEnd_in_both());
+        assertEquals(9, v1.getUnknownFields().size());
+
+        VersioningTestV2 read = new VersioningTestV2();
+        new TDeserializer(out).deserialize(read, new TSerializer(out).serialize(v1));
+        assertEquals(in.getClass().getName() + " to " + out.getClass().getName(), v2, read);
+      }
+    }
+  }
+
+  public void testVerbatim() throws Exception {
+    VersioningTestV2 v2 = newer();
+    for (TProtocolFactory factory : FACTORIES) {
+      VersioningTestV1 v1 = new VersioningTestV1();
+      new TDeserializer(factory).deserialize(v1, new TSerializer(factory).serialize(v2));
+      byte[] bytes = new TSerializer(factory).serialize(v1);
+      VersioningTestV1 copy = new VersioningTestV1();
+      new TDeserializer(factory).deserialize(copy, bytes);
+      assertTrue(Arrays.equals(bytes, new TSerializer(factory).serialize(copy)));
+    }
+
+    // newbyte has the id of old_string, so it is the one field that is lost
+    VersioningTestV1 v1 = new VersioningTestV1();
+    byte[] bytes = new TSerializer().serialize(v2);
+    new TDeserializer().deserialize(v1, bytes);
+    assertEquals(bytes.length - 4, new TSerializer().serialize(v1).length);
+  }
+
+  public void testStreamingTransport() throws Exception {
+    VersioningTestV2 v2 = newer();
+    for (TProtocolFactory factory : FACTORIES) {
+      byte[] bytes = new TSerializer(factory).serialize(v2);
+      VersioningTestV1 v1 = new VersioningTestV1();
+      v1.read(factory.getProtocol(new TIOStreamTransport(new ByteArrayInputStream(bytes))));
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      v1.write(factory.getProtocol(new TIOStreamTransport(out)));
+      VersioningTestV2 read = new VersioningTestV2();
+      new TDeserializer(factory).deserialize(read, out.toByteArray());
+      assertEquals(v2, read);
+    }
+  }
+
+  public void testCopyAndClear() throws Exception {
+    VersioningTestV1 v1 = new VersioningTestV1();
+    new TDeserializer().deserialize(v1, new TSerializer().serialize(newer()));
+    VersioningTestV1 copy = v1.deepCopy();
+    assertEquals(9, copy.getUnknownFields().size());
+    assertEquals(newer(), roundTrip(copy));
+
+    // reading again replaces rather than adds to the unknown fields
+    new TDeserializer().deserialize(copy, new TSerializer().serialize(newer()));
+    assertEquals(9, copy.getUnknownFields().size());
+
+    copy.clear();
+    assertNull(copy.getUnknownFields());
+    assertEquals(9, v1.getUnknownFields().size());
+  }
+
+  private static VersioningTestV2 roundTrip(VersioningTestV1 v1) throws TException {
+    VersioningTestV2 v2 = new VersioningTestV2();
+    new TDeserializer().deserialize(v2, new TSerializer().serialize(v1));
+    return v2;
+  }
+}
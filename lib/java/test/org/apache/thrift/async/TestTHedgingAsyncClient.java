@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.async;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.server.ServerTestBase;
+import org.apache.thrift.server.THsHaServer;
+import org.apache.thrift.server.THsHaServer.Args;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+
+import thrift.test.CompactProtoTestStruct;
+import thrift.test.Srv;
+import thrift.test.Srv.AsyncClient.Janky_call;
+
+public class TestTHedgingAsyncClient extends TestCase {
+
+  private static final int SLOW_MILLIS = 1000;
+
+  private final List<THsHaServer> servers_ = new ArrayList<THsHaServer>();
+  private final List<Thread> serverThreads_ = new ArrayList<Thread>();
+  private final AtomicInteger slowCalls_ = new AtomicInteger();
+  private TAsyncClientManager clientManager_;
+  private THedgingAsyncClient<Srv.AsyncClient> client_;
+
+  public void setUp() throws Exception {
+    // the first server is slow, the second fast
+    startServer(ServerTestBase.PORT, SLOW_MILLIS);
+    startServer(ServerTestBase.PORT + 1, 0);
+    clientManager_ = new TAsyncClientManager();
+    Thread.sleep(500);
+  }
+
+  public void tearDown() throws Exception {
+    if (client_ != null) {
+      client_.close();
+    }
+    for (THsHaServer server : servers_) {
+      server.stop();
+    }
+    clientManager_.stop();
+    for (Thread thread : serverThreads_) {
+      thread.join();
+    }
+  }
+
+  public void testHedgeBeatsSlowServer() throws Exception {
+    client_ = newClient(ServerTestBase.PORT, ServerTestBase.PORT + 1);
+    client_.setHedgeBudget(1.0);
+    client_.setDefaultHedgeDelay(50);
+    for (int i = 0; i < 4; i++) {
+      long start = System.currentTimeMillis();
+      assertEquals(3, janky());
+      assertTrue("call " + i + " was not hedged", System.currentTimeMillis() - start < SLOW_MILLIS);
+    }
+    // every other call started on the slow server
+    assertEquals(2, slowCalls_.get());
+  }
+
+  public void testBudgetLimitsHedges() throws Exception {
+    client_ = newClient(ServerTestBase.PORT, ServerTestBase.PORT + 1);
+    client_.setHedgeBudget(0);
+    client_.setDefaultHedgeDelay(50);
+    long start = System.currentTimeMillis();
+    assertEquals(3, janky());
+    assertTrue(System.currentTimeMillis() - start >= SLOW_MILLIS);
+  }
+
+  public void testFailedServerIsHedgedImmediately() throws Exception {
+    // nothing listens on the first port
+    client_ = newClient(ServerTestBase.PORT + 2, ServerTestBase.PORT + 1);
+    client_.setDefaultHedgeDelay(SLOW_MILLIS * 10);
+    assertEquals(3, janky());
+  }
+
+  public void testHedgeDelayTracksLatency() throws Exception {
+    client_ = newClient(ServerTestBase.PORT + 1);
+    client_.setDefaultHedgeDelay(SLOW_MILLIS * 10);
+    assertEquals(SLOW_MILLIS * 10, client_.getHedgeDelay(0));
+    for (int i = 0; i < 32; i++) {
+      janky();
+    }
+    assertTrue(client_.getHedgeDelay(0) < SLOW_MILLIS);
+  }
+
+  private int janky() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicInteger result = new AtomicInteger();
+    final AtomicReference<Exception> error = new AtomicReference<Exception>();
+    client_.call(new THedgingAsyncClient.Invocation<Srv.AsyncClient, Janky_call>() {
+      public void invoke(Srv.AsyncClient client, AsyncMethodCallback<Janky_call> callback) throws TException {
+        client.Janky(1, callback);
+      }
+    }, new AsyncMethodCallback<Janky_call>() {
+      public void onComplete(Janky_call response) {
+        try {
+          result.set(response.getResult());
+        } catch (TException e) {
+          error.set(e);
+        }
+        latch.countDown();
+      }
+
+      public void onError(Exception exception) {
+        error.set(exception);
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    if (error.get() != null) {
+      throw error.get();
+    }
+    return result.get();
+  }
+
+  private THedgingAsyncClient<Srv.AsyncClient> newClient(int... ports) {
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (int port : ports) {
+      addresses.add(new InetSocketAddress(ServerTestBase.HOST, port));
+    }
+    return new THedgingAsyncClient<Srv.AsyncClient>(clientManager_,
+        new Srv.AsyncClient.Factory(clientManager_, new TBinaryProtocol.Factory()), addresses);
+  }
+
+  private void startServer(int port, int delayMillis) throws Exception {
+    final THsHaServer server = new THsHaServer(new Args(new TNonblockingServerSocket(
+      new TNonblockingServerSocket.NonblockingAbstractServerSocketArgs().port(port))).
+      processor(new Srv.Processor(new SrvHandler(delayMillis))));
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        server.serve();
+      }
+    });
+    thread.start();
+    servers_.add(server);
+    serverThreads_.add(thread);
+  }
+
+  public class SrvHandler implements Srv.Iface {
+    private final int delayMillis_;
+
+    public SrvHandler(int delayMillis) {
+      delayMillis_ = delayMillis;
+    }
+
+    @Override
+    public int Janky(int arg) throws TException {
+      if (delayMillis_ > 0) {
+        slowCalls_.incrementAndGet();
+        try {
+          Thread.sleep(delayMillis_);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return 3;
+    }
+
+    @Override
+    public int primitiveMethod() throws TException {
+      return 0;
+    }
+
+    @Override
+    public void methodWithDefaultArgs(int something) throws TException { }
+
+    @Override
+    public CompactProtoTestStruct structMethod() throws TException {
+      return null;
+    }
+
+    @Override
+    public void voidMethod() throws TException {
+    }
+
+    @Override
+    public void onewayMethod() throws TException {
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.balancer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.server.ServerTestBase;
+import org.apache.thrift.server.THsHaServer;
+import org.apache.thrift.server.THsHaServer.Args;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+
+import thrift.test.CompactProtoTestStruct;
+import thrift.test.Srv;
+
+/**
+ * Harness running several Srv servers on consecutive local ports, each
+ * counting the calls it serves, for exercising balanced clients.
+ */
+public class LocalServers {
+  private final List<THsHaServer> servers = new ArrayList<THsHaServer>();
+  private final List<Thread> threads = new ArrayList<Thread>();
+  private final List<AtomicInteger> calls = new ArrayList<AtomicInteger>();
+
+  /**
+   * Start count servers from ServerTestBase.PORT upwards.
+   */
+  public LocalServers(int count) throws Exception {
+    for (int i = 0; i < count; i++) {
+      AtomicInteger counter = new AtomicInteger();
+      final THsHaServer server = new THsHaServer(new Args(new TNonblockingServerSocket(
+        new TNonblockingServerSocket.NonblockingAbstractServerSocketArgs().port(ServerTestBase.PORT + i))).
+        processor(new Srv.Processor(new CountingHandler(counter))));
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          server.serve();
+        }
+      });
+      thread.start();
+      servers.add(server);
+      threads.add(thread);
+      calls.add(counter);
+    }
+    Thread.sleep(500);
+  }
+
+  /**
+   * Addresses of the servers, followed by extra addresses on which nothing
+   * listens.
+   */
+  public List<InetSocketAddress> getAddresses(int deadCount) {
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (int i = 0; i < servers.size() + deadCount; i++) {
+      addresses.add(new InetSocketAddress(ServerTestBase.HOST, ServerTestBase.PORT + i));
+    }
+    return addresses;
+  }
+
+  public int getCalls(int server) {
+    return calls.get(server).get();
+  }
+
+  public void stop() throws InterruptedException {
+    for (THsHaServer server : servers) {
+      server.stop();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  private static class CountingHandler implements Srv.Iface {
+    private final AtomicInteger counter;
+
+    private CountingHandler(AtomicInteger counter) {
+      this.counter = counter;
+    }
+
+    public int Janky(int arg) throws TException {
+      counter.incrementAndGet();
+      return arg * 3;
+    }
+
+    public int primitiveMethod() throws TException {
+      return 0;
+    }
+
+    public void methodWithDefaultArgs(int something) throws TException { }
+
+    public CompactProtoTestStruct structMethod() throws TException {
+      return null;
+    }
+
+    public void voidMethod() throws TException {
+    }
+
+    public void onewayMethod() throws TException {
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.balancer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestEndpointGroup extends TestCase {
+
+  public void testPowerOfTwoChoicesAvoidsBusyEndpoint() {
+    EndpointGroup group = newGroup(2, new PowerOfTwoChoicesBalancer());
+    Endpoint busy = group.getEndpoints().get(0);
+    Endpoint idle = group.getEndpoints().get(1);
+    // ten calls outstanding on the first endpoint
+    for (int i = 0; i < 10; i++) {
+      busy.inFlight.incrementAndGet();
+    }
+    for (int i = 0; i < 100; i++) {
+      Endpoint endpoint = group.select(null);
+      group.onAbandoned(endpoint);
+      assertSame(idle, endpoint);
+    }
+  }
+
+  public void testEwmaPrefersFastEndpoint() {
+    EndpointGroup group = newGroup(2, new EwmaLatencyBalancer());
+    Endpoint slow = group.getEndpoints().get(0);
+    Endpoint fast = group.getEndpoints().get(1);
+    slow.recordLatency(50000);
+    fast.recordLatency(1000);
+    for (int i = 0; i < 100; i++) {
+      Endpoint endpoint = group.select(null);
+      group.onSuccess(endpoint, endpoint == slow ? 50000 : 1000);
+      assertSame(fast, endpoint);
+    }
+  }
+
+  public void testEwmaCostsNewEndpointAtMeanLatency() {
+    EndpointGroup group = newGroup(2, new EwmaLatencyBalancer());
+    Endpoint measured = group.getEndpoints().get(0);
+    Endpoint fresh = group.getEndpoints().get(1);
+    measured.recordLatency(1000);
+    // an unmeasured endpoint is not free: with calls backed up on it, the
+    // measured endpoint is cheaper
+    for (int i = 0; i < 3; i++) {
+      fresh.inFlight.incrementAndGet();
+    }
+    for (int i = 0; i < 100; i++) {
+      Endpoint endpoint = group.select(null);
+      group.onAbandoned(endpoint);
+      assertSame(measured, endpoint);
+    }
+    // but it is still tried when the measured endpoint is busier
+    fresh.inFlight.set(0);
+    measured.inFlight.set(1);
+    for (int i = 0; i < 100; i++) {
+      Endpoint endpoint = group.select(null);
+      group.onAbandoned(endpoint);
+      assertSame(fresh, endpoint);
+    }
+  }
+
+  public void testConsistentHashIsStable() {
+    EndpointGroup group = newGroup(5, new ConsistentHashBalancer());
+    Set<Endpoint> used = new HashSet<Endpoint>();
+    for (int key = 0; key < 1000; key++) {
+      Endpoint endpoint = group.select(key);
+      group.onAbandoned(endpoint);
+      used.add(endpoint);
+      for (int i = 0; i < 3; i++) {
+        Endpoint again = group.select(key);
+        group.onAbandoned(again);
+        assertSame(endpoint, again);
+      }
+    }
+    assertEquals(5, used.size());
+  }
+
+  public void testConsistentHashMovesOnlyEjectedKeys() {
+    EndpointGroup group = newGroup(5, new ConsistentHashBalancer());
+    group.setFailuresToEject(1);
+    List<Endpoint> before = new ArrayList<Endpoint>();
+    for (int key = 0; key < 1000; key++) {
+      Endpoint endpoint = group.select("key" + key);
+      group.onAbandoned(endpoint);
+      before.add(endpoint);
+    }
+    Endpoint ejected = group.getEndpoints().get(2);
+    ejected.inFlight.incrementAndGet();
+    group.onFailure(ejected);
+    assertTrue(ejected.isEjected());
+    for (int key = 0; key < 1000; key++) {
+      Endpoint endpoint = group.select("key" + key);
+      group.onAbandoned(endpoint);
+      assertNotSame(ejected, endpoint);
+      if (before.get(key) != ejected) {
+        assertSame(before.get(key), endpoint);
+      }
+    }
+  }
+
+  public void testConsistentHashWithDuplicateAddresses() {
+    InetSocketAddress address = InetSocketAddress.createUnresolved("server", 9090);
+    EndpointGroup group = new EndpointGroup(Arrays.asList(address, address),
+        new ConsistentHashBalancer());
+    Set<Endpoint> used = new HashSet<Endpoint>();
+    for (int key = 0; key < 1000; key++) {
+      Endpoint endpoint = group.select("key" + key);
+      assertNotNull(endpoint);
+      group.onAbandoned(endpoint);
+      used.add(endpoint);
+    }
+    assertFalse(used.isEmpty());
+  }
+
+  public void testEjectionAndReadmission() throws Exception {
+    EndpointGroup group = newGroup(2, new PowerOfTwoChoicesBalancer());
+    group.setFailuresToEject(3);
+    group.setBaseEjectionMillis(200);
+    Endpoint bad = group.getEndpoints().get(0);
+    for (int i = 0; i < 2; i++) {
+      bad.inFlight.incrementAndGet();
+      group.onFailure(bad);
+    }
+    assertFalse(bad.isEjected());
+    bad.inFlight.incrementAndGet();
+    group.onFailure(bad);
+    assertTrue(bad.isEjected());
+    for (int i = 0; i < 100; i++) {
+      Endpoint endpoint = group.select(null);
+      group.onAbandoned(endpoint);
+      assertNotSame(bad, endpoint);
+    }
+    Thread.sleep(300);
+    group.select(null);
+    assertFalse(bad.isEjected());
+  }
+
+  public void testSuccessResetsFailures() {
+    EndpointGroup group = newGroup(2, new PowerOfTwoChoicesBalancer());
+    group.setFailuresToEject(2);
+    Endpoint endpoint = group.getEndpoints().get(0);
+    for (int i = 0; i < 10; i++) {
+      endpoint.inFlight.incrementAndGet();
+      group.onFailure(endpoint);
+      endpoint.inFlight.incrementAndGet();
+      group.onSuccess(endpoint, 100);
+    }
+    assertFalse(endpoint.isEjected());
+  }
+
+  public void testMaxEjectedFraction() {
+    EndpointGroup group = newGroup(4, new PowerOfTwoChoicesBalancer());
+    group.setFailuresToEject(1);
+    for (Endpoint endpoint : group.getEndpoints()) {
+      endpoint.inFlight.incrementAndGet();
+      group.onFailure(endpoint);
+    }
+    int ejected = 0;
+    for (Endpoint endpoint : group.getEndpoints()) {
+      if (endpoint.isEjected()) {
+        ejected++;
+      }
+    }
+    assertEquals(2, ejected);
+  }
+
+  private static EndpointGroup newGroup(int size, LoadBalancer balancer) {
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (int i = 0; i < size; i++) {
+      addresses.add(InetSocketAddress.createUnresolved("server" + i, 9090));
+    }
+    return new EndpointGroup(addresses, balancer);
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.balancer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClientManager;
+import org.apache.thrift.async.THedgingAsyncClient.Invocation;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TFramedTransport;
+
+import thrift.test.Srv;
+import thrift.test.Srv.AsyncClient.Janky_call;
+
+public class TestTBalancedClient extends TestCase {
+
+  private static final int SERVERS = 3;
+
+  private LocalServers servers_;
+  private TAsyncClientManager clientManager_;
+
+  public void setUp() throws Exception {
+    servers_ = new LocalServers(SERVERS);
+    clientManager_ = new TAsyncClientManager();
+  }
+
+  public void tearDown() throws Exception {
+    clientManager_.stop();
+    servers_.stop();
+  }
+
+  public void testSyncCallsAreSpread() throws Exception {
+    TBalancedClient<Srv.Client> client = newSyncClient(new EndpointGroup(
+        servers_.getAddresses(0), new PowerOfTwoChoicesBalancer()));
+    for (int i = 0; i < 300; i++) {
+      assertEquals(i * 3, janky(client, null, i));
+    }
+    client.close();
+    for (int i = 0; i < SERVERS; i++) {
+      assertTrue(servers_.getCalls(i) > 0);
+    }
+  }
+
+  public void testSyncConsistentHashing() throws Exception {
+    TBalancedClient<Srv.Client> client = newSyncClient(new EndpointGroup(
+        servers_.getAddresses(0), new ConsistentHashBalancer()));
+    for (int i = 0; i < 50; i++) {
+      janky(client, "same key", i);
+    }
+    client.close();
+    int serversUsed = 0;
+    for (int i = 0; i < SERVERS; i++) {
+      if (servers_.getCalls(i) > 0) {
+        assertEquals(50, servers_.getCalls(i));
+        serversUsed++;
+      }
+    }
+    assertEquals(1, serversUsed);
+  }
+
+  public void testSyncDeadServerIsEjected() throws Exception {
+    EndpointGroup group = new EndpointGroup(servers_.getAddresses(1), new PowerOfTwoChoicesBalancer());
+    group.setFailuresToEject(2);
+    TBalancedClient<Srv.Client> client = newSyncClient(group);
+    // connection failures are retried elsewhere, so every call succeeds
+    for (int i = 0; i < 100; i++) {
+      assertEquals(3, janky(client, null, 1));
+    }
+    client.close();
+    assertTrue(group.getEndpoints().get(SERVERS).isEjected());
+  }
+
+  public void testSyncProtocolErrorDropsConnection() throws Exception {
+    EndpointGroup group = new EndpointGroup(servers_.getAddresses(0), new PowerOfTwoChoicesBalancer());
+    TBalancedClient<Srv.Client> client = newSyncClient(group);
+    final AtomicReference<Srv.Client> used = new AtomicReference<Srv.Client>();
+
+    // an exception sent back by the server leaves the connection pooled
+    try {
+      client.call(null, new TBalancedClient.Call<Srv.Client, Void>() {
+        public Void call(Srv.Client client) throws TException {
+          used.set(client);
+          throw new TApplicationException(TApplicationException.INTERNAL_ERROR, "answered");
+        }
+      });
+      fail("expected TApplicationException");
+    } catch (TApplicationException e) {
+      // expected
+    }
+    assertTrue(used.get().getInputProtocol().getTransport().isOpen());
+    assertEquals(0, totalFailures(group));
+
+    // a protocol error leaves it out of step, so it is closed
+    try {
+      client.call(null, new TBalancedClient.Call<Srv.Client, Void>() {
+        public Void call(Srv.Client client) throws TException {
+          used.set(client);
+          throw new TProtocolException(TProtocolException.INVALID_DATA, "garbled");
+        }
+      });
+      fail("expected TProtocolException");
+    } catch (TProtocolException e) {
+      // expected
+    }
+    assertFalse(used.get().getInputProtocol().getTransport().isOpen());
+    assertEquals(1, totalFailures(group));
+    client.close();
+  }
+
+  public void testAsyncCallsAreSpreadAndDeadServerIsEjected() throws Exception {
+    EndpointGroup group = new EndpointGroup(servers_.getAddresses(1), new EwmaLatencyBalancer());
+    group.setFailuresToEject(2);
+    TBalancedAsyncClient<Srv.AsyncClient> client = new TBalancedAsyncClient<Srv.AsyncClient>(
+        group, new Srv.AsyncClient.Factory(clientManager_, new TBinaryProtocol.Factory()));
+    int failures = 0;
+    for (int i = 0; i < 200; i++) {
+      try {
+        assertEquals(i * 3, asyncJanky(client, i));
+      } catch (Exception e) {
+        failures++;
+      }
+    }
+    client.close();
+    assertTrue(group.getEndpoints().get(SERVERS).isEjected());
+    assertTrue("failures: " + failures, failures <= 2);
+    for (int i = 0; i < SERVERS; i++) {
+      assertTrue(servers_.getCalls(i) > 0);
+    }
+  }
+
+  private TBalancedClient<Srv.Client> newSyncClient(EndpointGroup group) {
+    TBalancedClient<Srv.Client> client = new TBalancedClient<Srv.Client>(
+        group, new Srv.Client.Factory(), new TBinaryProtocol.Factory());
+    client.setTransportFactory(new TFramedTransport.Factory());
+    return client;
+  }
+
+  private static int totalFailures(EndpointGroup group) {
+    int failures = 0;
+    for (Endpoint endpoint : group.getEndpoints()) {
+      failures += endpoint.consecutiveFailures.get();
+    }
+    return failures;
+  }
+
+  private static int janky(TBalancedClient<Srv.Client> client, Object key, final int arg) throws TException {
+    return client.call(key, new TBalancedClient.Call<Srv.Client, Integer>() {
+      public Integer call(Srv.Client client) throws TException {
+        return client.Janky(arg);
+      }
+    });
+  }
+
+  private static int asyncJanky(TBalancedAsyncClient<Srv.AsyncClient> client, final int arg) throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicInteger result = new AtomicInteger();
+    final AtomicReference<Exception> error = new AtomicReference<Exception>();
+    client.call(new Invocation<Srv.AsyncClient, Janky_call>() {
+      public void invoke(Srv.AsyncClient client, AsyncMethodCallback<Janky_call> callback) throws TException {
+        client.Janky(arg, callback);
+      }
+    }, new AsyncMethodCallback<Janky_call>() {
+      public void onComplete(Janky_call response) {
+        try {
+          result.set(response.getResult());
+        } catch (TException e) {
+          error.set(e);
+        }
+        latch.countDown();
+      }
+
+      public void onError(Exception exception) {
+        error.set(exception);
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    if (error.get() != null) {
+      throw error.get();
+    }
+    return result.get();
+  }
+}
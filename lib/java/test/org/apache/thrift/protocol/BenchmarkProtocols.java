@@ -18,6 +18,8 @@ public class BenchmarkProtocols {
     add(new TTupleProtocol.Factory());
     add(new TCompactProtocol.Factory());
     add(new TBinaryProtocol.Factory());
+    add(new TJSONProtocol.Factory());
+    add(new TXMLProtocol.Factory());
   }};
 
   private static final int NUM_REPS = 100000;
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.Fixtures;
+import org.apache.thrift.TSerializer;
+
+import thrift.test.Bonk;
+import thrift.test.CompactProtoTestStruct;
+import thrift.test.HolyMoley;
+import thrift.test.Nesting;
+import thrift.test.OneOfEach;
+import thrift.test.ViewAccessorNames;
+
+public class TestTBinaryStructView extends TestCase {
+
+  private static byte[] serialize(org.apache.thrift.TBase struct) throws Exception {
+    return new TSerializer(new TBinaryProtocol.Factory()).serialize(struct);
+  }
+
+  private static ByteBuffer direct(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).flip();
+    return buffer;
+  }
+
+  private static void assertMatches(OneOfEach expected, OneOfEach.OneOfEachBinaryView view) throws Exception {
+    assertEquals(expected.isIm_true(), view.isIm_true());
+    assertEquals(expected.isIm_false(), view.isIm_false());
+    assertEquals(expected.getA_bite(), view.getA_bite());
+    assertEquals(expected.getInteger16(), view.getInteger16());
+    assertEquals(expected.getInteger32(), view.getInteger32());
+    assertEquals(expected.getInteger64(), view.getInteger64());
+    assertEquals(expected.getDouble_precision(), view.getDouble_precision());
+    assertEquals(expected.getSome_characters(), view.getSome_characters());
+    assertEquals(expected.getZomg_unicode(), view.getZomg_unicode());
+    assertEquals(expected.bufferForBase64(), view.getBase64());
+    assertEquals(expected.getByte_list(), view.getByte_list());
+    assertEquals(expected.getI64_list(), view.getI64_list());
+  }
+
+  public void testTypedGetters() throws Exception {
+    byte[] bytes = serialize(Fixtures.oneOfEach);
+    OneOfEach.OneOfEachBinaryView view = new OneOfEach.OneOfEachBinaryView();
+
+    view.wrap(ByteBuffer.wrap(bytes));
+    assertMatches(Fixtures.oneOfEach, view);
+    assertEquals(bytes.length, view.viewLength());
+
+    view.wrap(direct(bytes));
+    assertMatches(Fixtures.oneOfEach, view);
+
+    OneOfEach read = new OneOfEach();
+    view.read(read);
+    assertEquals(Fixtures.oneOfEach, read);
+  }
+
+  public void testConsecutiveRecords() throws Exception {
+    Bonk[] bonks = new Bonk[3];
+    ByteBuffer records = ByteBuffer.allocateDirect(1024);
+    records.put((byte) 0x55); // records need not start at the beginning
+    for (int i = 0; i < bonks.length; i++) {
+      bonks[i] = new Bonk(i, "bonk " + i);
+      records.put(serialize(bonks[i]));
+    }
+    records.flip();
+
+    Bonk.BonkBinaryView view = new Bonk.BonkBinaryView();
+    int offset = 1;
+    for (int i = 0; i < bonks.length; i++) {
+      view.wrap(records, offset);
+      assertEquals(bonks[i].getType(), view.getType());
+      assertEquals(bonks[i].getMessage(), view.getMessage());
+      offset += view.viewLength();
+    }
+    assertEquals(records.limit(), offset);
+    assertEquals(0, records.position());
+  }
+
+  public void testNestedViews() throws Exception {
+    Nesting.NestingBinaryView view = new Nesting.NestingBinaryView();
+    view.wrap(ByteBuffer.wrap(serialize(Fixtures.nesting)));
+
+    Bonk.BonkBinaryView bonk = view.getMy_bonk(null);
+    assertEquals(Fixtures.nesting.getMy_bonk().getType(), bonk.getType());
+    assertEquals(Fixtures.nesting.getMy_bonk().getMessage(), bonk.getMessage());
+    assertSame(bonk, view.getMy_bonk(bonk));
+    assertMatches(Fixtures.nesting.getMy_ooe(), view.getMy_ooe(null));
+
+    HolyMoley.HolyMoleyBinaryView holyMoley = new HolyMoley.HolyMoleyBinaryView();
+    holyMoley.wrap(direct(serialize(Fixtures.holyMoley)));
+    assertEquals(Fixtures.holyMoley.getBig(), holyMoley.getBig());
+    assertEquals(Fixtures.holyMoley.getContain(), holyMoley.getContain());
+    assertEquals(Fixtures.holyMoley.getBonks(), holyMoley.getBonks());
+
+    CompactProtoTestStruct.CompactProtoTestStructBinaryView compact = new CompactProtoTestStruct.CompactProtoTestStructBinaryView();
+    compact.wrap(ByteBuffer.wrap(serialize(Fixtures.compactProtoTestStruct)));
+    CompactProtoTestStruct read = new CompactProtoTestStruct();
+    compact.read(read);
+    assertEquals(Fixtures.compactProtoTestStruct, read);
+    assertEquals(Fixtures.compactProtoTestStruct.getString_byte_map(), compact.getString_byte_map());
+  }
+
+  public void testAbsentFields() throws Exception {
+    OneOfEach sparse = new OneOfEach();
+    OneOfEach.OneOfEachBinaryView view = new OneOfEach.OneOfEachBinaryView();
+    view.wrap(ByteBuffer.wrap(serialize(sparse)));
+    assertFalse(view.isSetSome_characters());
+    assertNull(view.getSome_characters());
+    assertNull(view.getBase64());
+    assertTrue(view.isSetByte_list());
+
+    // Bonk's fields 1 and 2 have other types than OneOfEach's, and it has
+    // nothing past them, so the view sees neither those nor the rest
+    view.wrap(ByteBuffer.wrap(serialize(new Bonk(1, "x"))));
+    assertEquals(2, view.viewFieldCount());
+    assertFalse(view.isSetIm_true());
+    assertFalse(view.isIm_true());
+    assertFalse(view.isSetIm_false());
+    assertEquals(0x7f, view.getA_bite());
+    assertEquals(0x7fff, view.getInteger16());
+    assertEquals(10000000000L, view.getInteger64());
+    assertNull(view.getI64_list());
+
+    Nesting.NestingBinaryView nesting = new Nesting.NestingBinaryView();
+    nesting.wrap(ByteBuffer.wrap(serialize(new Bonk(1, "x"))));
+    assertFalse(nesting.isSetMy_bonk());
+    assertNull(nesting.getMy_bonk(new Bonk.BonkBinaryView()));
+  }
+
+  public void testAccessorNames() throws Exception {
+    ViewAccessorNames first = new ViewAccessorNames(1L, 2, "three", (short)4, null);
+    ViewAccessorNames second = new ViewAccessorNames(5L, 6, "seven", (short)8, first);
+    byte[] a = serialize(first);
+    byte[] b = serialize(second);
+    byte[] both = new byte[a.length + b.length];
+    System.arraycopy(a, 0, both, 0, a.length);
+    System.arraycopy(b, 0, both, a.length, b.length);
+
+    ViewAccessorNames.ViewAccessorNamesBinaryView view = new ViewAccessorNames.ViewAccessorNamesBinaryView();
+    ByteBuffer buffer = ByteBuffer.wrap(both);
+    view.wrap(buffer, 0);
+    assertEquals(a.length, view.viewLength());
+    assertEquals(2, view.getLength());
+    assertEquals(1L, view.getOffset());
+    assertEquals("three", view.getBuffer());
+    assertEquals(4, view.getFieldCount());
+    assertEquals(4, view.viewFieldCount());
+
+    view.wrap(buffer, view.viewOffset() + view.viewLength());
+    assertEquals(b.length, view.viewLength());
+    assertEquals(6, view.getLength());
+    assertSame(buffer, view.viewBuffer());
+    assertEquals("three", view.getNested(null).getBuffer());
+  }
+
+  public void testMalformed() throws Exception {
+    byte[] bytes = serialize(Fixtures.holyMoley);
+    TBinaryStructView view = new TBinaryStructView();
+    for (int length : new int[] {0, 1, bytes.length / 2, bytes.length - 1}) {
+      try {
+        view.wrap(ByteBuffer.wrap(bytes, 0, length));
+        fail("truncated at " + length);
+      } catch (TProtocolException e) {
+        assertEquals(TProtocolException.INVALID_DATA, e.getType());
+      }
+    }
+
+    byte[] negative = new byte[] {TType.STRING, 0, 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, TType.STOP};
+    try {
+      view.wrap(ByteBuffer.wrap(negative));
+      fail("negative length");
+    } catch (TProtocolException e) {
+      assertEquals(TProtocolException.NEGATIVE_SIZE, e.getType());
+    }
+  }
+}
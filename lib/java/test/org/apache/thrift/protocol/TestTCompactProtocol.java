@@ -20,8 +20,15 @@
 
 package org.apache.thrift.protocol;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
 import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
 
 import thrift.test.Bonk;
 
@@ -50,6 +57,76 @@ public class TestTCompactProtocol extends ProtocolTestBase {
     }
   }
 
+  public void testVarintsMatchReferenceEncoding() throws Exception {
+    Random random = new Random(7);
+    for (int i = 0; i < 20000; i++) {
+      // spread the values over every encoded length
+      int i32 = random.nextInt() >> random.nextInt(32);
+      long i64 = random.nextLong() >> random.nextInt(64);
+      double dub = Double.longBitsToDouble(random.nextLong());
+
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      referenceVarint(expected, ((i32 << 1) ^ (i32 >> 31)) & 0xFFFFFFFFL);
+      referenceVarint(expected, (i64 << 1) ^ (i64 >> 63));
+      long bits = Double.doubleToLongBits(dub);
+      for (int b = 0; b < 8; b++) {
+        expected.write((int)(bits >>> (8 * b)));
+      }
+      byte[] bytes = expected.toByteArray();
+
+      TMemoryBuffer buf = new TMemoryBuffer(16);
+      TCompactProtocol out = new TCompactProtocol(buf);
+      out.writeI32(i32);
+      out.writeI64(i64);
+      out.writeDouble(dub);
+      assertEquals(bytes.length, buf.length());
+      for (int b = 0; b < bytes.length; b++) {
+        assertEquals(bytes[b], buf.getArray()[b]);
+      }
+
+      // buffered, unbuffered, and buffered with too few bytes left for the fast paths
+      TCompactProtocol[] ins = {
+        new TCompactProtocol(new TMemoryInputTransport(bytes)),
+        new TCompactProtocol(new TIOStreamTransport(new ByteArrayInputStream(bytes))),
+      };
+      for (TCompactProtocol in : ins) {
+        assertEquals(i32, in.readI32());
+        assertEquals(i64, in.readI64());
+        assertEquals(Double.doubleToLongBits(dub), Double.doubleToLongBits(in.readDouble()));
+      }
+      TMemoryBuffer tail = new TMemoryBuffer(16);
+      new TCompactProtocol(tail).writeI32(i32);
+      assertEquals(i32, new TCompactProtocol(new TMemoryInputTransport(tail.getArray(), 0, tail.length())).readI32());
+      tail = new TMemoryBuffer(16);
+      new TCompactProtocol(tail).writeI64(i64);
+      assertEquals(i64, new TCompactProtocol(new TMemoryInputTransport(tail.getArray(), 0, tail.length())).readI64());
+    }
+  }
+
+  public void testOverlongVarint() throws Exception {
+    byte[] bytes = {-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1};
+    try {
+      new TCompactProtocol(new TMemoryInputTransport(bytes)).readI32();
+      fail("a six byte varint is not an i32");
+    } catch (TProtocolException e) {
+      assertEquals(TProtocolException.INVALID_DATA, e.getType());
+    }
+    try {
+      new TCompactProtocol(new TMemoryInputTransport(bytes)).readI64();
+      fail("an eleven byte varint is not an i64");
+    } catch (TProtocolException e) {
+      assertEquals(TProtocolException.INVALID_DATA, e.getType());
+    }
+  }
+
+  private static void referenceVarint(ByteArrayOutputStream out, long n) {
+    while ((n & ~0x7FL) != 0) {
+      out.write((int)((n & 0x7F) | 0x80));
+      n >>>= 7;
+    }
+    out.write((int)n);
+  }
+
   public static void main(String args[]) throws Exception {
     new TestTCompactProtocol().benchmark();
   }
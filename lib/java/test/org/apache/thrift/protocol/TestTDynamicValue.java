@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.protocol;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.Fixtures;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import thrift.test.Bonk;
+import thrift.test.CompactProtoTestStruct;
+import thrift.test.HolyMoley;
+import thrift.test.Nesting;
+import thrift.test.OneOfEach;
+import thrift.test.ThriftTest;
+
+public class TestTDynamicValue extends TestCase {
+  private static final TProtocolFactory BINARY = new TBinaryProtocol.Factory();
+  private static final TProtocolFactory COMPACT = new TCompactProtocol.Factory();
+  private static final TProtocolFactory JSON = new TJSONProtocol.Factory();
+
+  public void testRoundTrip() throws Exception {
+    TBase[] structs = new TBase[] {
+      Fixtures.oneOfEach, Fixtures.nesting, Fixtures.holyMoley, Fixtures.compactProtoTestStruct
+    };
+    for (TProtocolFactory factory : new TProtocolFactory[] { BINARY, COMPACT }) {
+      for (TBase struct : structs) {
+        byte[] bytes = write(struct, factory);
+        Class<? extends TProtocol> encoding = factory.getProtocol(new TMemoryBuffer(0)).getRawValueEncoding();
+
+        TDynamicValue wrapped = TDynamicValue.wrap(encoding, TType.STRUCT, bytes, 0, bytes.length);
+        assertTrue(Arrays.equals(bytes, write(wrapped, factory)));
+
+        // looking into a value does not stop it from being copied as is
+        walk(wrapped);
+        assertTrue(Arrays.equals(bytes, write(wrapped, factory)));
+
+        TDynamicValue read = TDynamicValue.read(factory.getProtocol(buffer(bytes)), TType.STRUCT);
+        walk(read);
+        assertTrue(Arrays.equals(bytes, write(read, factory)));
+      }
+    }
+  }
+
+  public void testTranscode() throws Exception {
+    // compact to binary decodes everything the other way
+    byte[] compact = write(Fixtures.compactProtoTestStruct, COMPACT);
+    TDynamicValue value = TDynamicValue.read(COMPACT.getProtocol(buffer(compact)), TType.STRUCT);
+    CompactProtoTestStruct struct = new CompactProtoTestStruct();
+    struct.read(BINARY.getProtocol(buffer(write(value, BINARY))));
+    assertEquals(Fixtures.compactProtoTestStruct, struct);
+
+    // text protocols are decoded eagerly, and get strings back as strings.
+    // Binary fields can't be told from strings, so leave them out.
+    HolyMoley expected = new HolyMoley(Fixtures.holyMoley);
+    for (OneOfEach ooe : expected.big) {
+      ooe.unsetBase64();
+    }
+    byte[] json = write(expected, JSON);
+    value = TDynamicValue.read(JSON.getProtocol(buffer(json)), TType.STRUCT);
+    HolyMoley moley = new HolyMoley();
+    moley.read(BINARY.getProtocol(buffer(write(value, BINARY))));
+    assertEquals(expected, moley);
+
+    value = TDynamicValue.read(BINARY.getProtocol(buffer(write(expected, BINARY))), TType.STRUCT);
+    moley = new HolyMoley();
+    moley.read(JSON.getProtocol(buffer(write(value, JSON))));
+    assertEquals(expected, moley);
+  }
+
+  public void testModify() throws Exception {
+    for (TProtocolFactory factory : new TProtocolFactory[] { BINARY, COMPACT }) {
+      byte[] bytes = write(Fixtures.nesting, factory);
+      byte[] original = bytes.clone();
+      Class<? extends TProtocol> encoding = factory.getProtocol(new TMemoryBuffer(0)).getRawValueEncoding();
+      TDynamicStruct nesting = (TDynamicStruct)TDynamicValue.wrap(encoding, TType.STRUCT, bytes, 0, bytes.length);
+
+      TDynamicStruct ooe = (TDynamicStruct)nesting.get((short)2);
+      assertEquals(Fixtures.nesting.my_ooe.integer32, ((TDynamicScalar)ooe.get((short)5)).getI32());
+      ooe.set((short)5, TDynamicScalar.ofI32(12345));
+      TDynamicList byteList = (TDynamicList)ooe.get((short)12);
+      byteList.add(TDynamicScalar.ofByte((byte)4));
+      try {
+        byteList.add(TDynamicScalar.ofI32(4));
+        fail("element of the wrong type was accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+
+      TDynamicStruct bonk = new TDynamicStruct();
+      bonk.set((short)2, TDynamicScalar.ofString("replaced"));
+      nesting.set((short)1, bonk);
+
+      Nesting expected = new Nesting(Fixtures.nesting);
+      expected.my_ooe.integer32 = 12345;
+      expected.my_ooe.byte_list.add((byte)4);
+      expected.my_bonk = new Bonk();
+      expected.my_bonk.message = "replaced";
+
+      Nesting result = new Nesting();
+      result.read(factory.getProtocol(buffer(write(nesting, factory))));
+      assertEquals(expected, result);
+      assertTrue(Arrays.equals(original, bytes));
+
+      assertTrue(nesting.remove((short)1));
+      assertFalse(nesting.remove((short)1));
+      assertNull(nesting.get((short)1));
+      assertEquals(1, nesting.getFieldCount());
+    }
+  }
+
+  public void testMap() throws Exception {
+    byte[] bytes = write(Fixtures.holyMoley, BINARY);
+    TDynamicStruct moley = (TDynamicStruct)TDynamicValue.wrap(TBinaryProtocol.class, TType.STRUCT, bytes, 0, bytes.length);
+    TDynamicMap bonks = (TDynamicMap)moley.get((short)3);
+    assertEquals(Fixtures.holyMoley.bonks.size(), bonks.size());
+    assertEquals(TType.STRING, bonks.getKeyType());
+    assertEquals(TType.LIST, bonks.getValueType());
+
+    TDynamicList two = (TDynamicList)bonks.get(TDynamicScalar.ofString("two"));
+    assertEquals(2, two.size());
+    assertEquals("What?", ((TDynamicScalar)((TDynamicStruct)two.get(1)).get((short)2)).getString());
+
+    assertNotNull(bonks.remove(TDynamicScalar.ofString("zero")));
+    assertNull(bonks.put(TDynamicScalar.ofString("four"), new TDynamicList(TType.LIST, TType.STRUCT)));
+
+    HolyMoley result = new HolyMoley();
+    result.read(BINARY.getProtocol(buffer(write(moley, BINARY))));
+    HolyMoley expected = new HolyMoley(Fixtures.holyMoley);
+    expected.bonks.remove("zero");
+    expected.bonks.put("four", new java.util.ArrayList<Bonk>());
+    assertEquals(expected, result);
+  }
+
+  public void testMessage() throws Exception {
+    for (TProtocolFactory factory : new TProtocolFactory[] { BINARY, COMPACT, JSON }) {
+      TMemoryBuffer buf = new TMemoryBuffer(0);
+      TProtocol oprot = factory.getProtocol(buf);
+      oprot.writeMessageBegin(new TMessage("testString", TMessageType.CALL, 7));
+      new ThriftTest.testString_args("hello").write(oprot);
+      oprot.writeMessageEnd();
+
+      TDynamicMessage message;
+      Class<? extends TProtocol> encoding = oprot.getRawValueEncoding();
+      if (encoding != null) {
+        message = TDynamicMessage.wrap(encoding, buf.getArray(), 0, buf.length());
+      } else {
+        message = TDynamicMessage.read(factory.getProtocol(buf));
+      }
+      assertEquals("testString", message.getMessage().name);
+      assertEquals(7, message.getMessage().seqid);
+      assertEquals("hello", ((TDynamicScalar)message.getBody().get((short)1)).getString());
+
+      message.setMessage(new TMessage("testString", TMessageType.CALL, 8));
+      TMemoryBuffer out = new TMemoryBuffer(0);
+      message.write(factory.getProtocol(out));
+
+      TProtocol iprot = factory.getProtocol(out);
+      TMessage header = iprot.readMessageBegin();
+      assertEquals(8, header.seqid);
+      ThriftTest.testString_args args = new ThriftTest.testString_args();
+      args.read(iprot);
+      iprot.readMessageEnd();
+      assertEquals("hello", args.thing);
+    }
+  }
+
+  /**
+   * Looks at every value in a tree.
+   */
+  private static void walk(TDynamicValue value) throws TException {
+    if (value instanceof TDynamicStruct) {
+      TDynamicStruct struct = (TDynamicStruct)value;
+      for (int i = 0; i < struct.getFieldCount(); i++) {
+        walk(struct.getFieldValue(i));
+      }
+    } else if (value instanceof TDynamicList) {
+      TDynamicList list = (TDynamicList)value;
+      for (int i = 0; i < list.size(); i++) {
+        walk(list.get(i));
+      }
+    } else if (value instanceof TDynamicMap) {
+      TDynamicMap map = (TDynamicMap)value;
+      for (int i = 0; i < map.size(); i++) {
+        walk(map.getKey(i));
+        walk(map.getValue(i));
+      }
+    } else {
+      value.toString();
+    }
+  }
+
+  private static TMemoryBuffer buffer(byte[] bytes) throws TException {
+    TMemoryBuffer buf = new TMemoryBuffer(bytes.length);
+    buf.write(bytes);
+    return buf;
+  }
+
+  private static byte[] write(TBase struct, TProtocolFactory factory) throws TException {
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    struct.write(factory.getProtocol(buf));
+    return toBytes(buf);
+  }
+
+  private static byte[] write(TDynamicValue value, TProtocolFactory factory) throws TException {
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    value.write(factory.getProtocol(buf));
+    return toBytes(buf);
+  }
+
+  private static byte[] toBytes(TMemoryBuffer buf) {
+    byte[] bytes = new byte[buf.length()];
+    System.arraycopy(buf.getArray(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+}
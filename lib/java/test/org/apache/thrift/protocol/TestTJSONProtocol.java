@@ -18,6 +18,12 @@
  */
 package org.apache.thrift.protocol;
 
+import java.util.Random;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
 public class TestTJSONProtocol extends ProtocolTestBase {
   @Override
   protected TProtocolFactory getFactory() {
@@ -28,4 +34,71 @@ public class TestTJSONProtocol extends ProtocolTestBase {
   protected boolean canBeUsedNaked() {
     return false;
   }
+
+  public void testEscapedString() throws Exception {
+    String str = "a\"b\\c/d\be\u0001\u00e9\u20ac\ud83d\ude00\ud800x";
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    TJSONProtocol proto = new TJSONProtocol(buf);
+    proto.writeString(str);
+    assertEquals("\"a\\\"b\\\\c/d\\be\\u0001\u00e9\u20ac\ud83d\ude00?x\"",
+        buf.toString("UTF-8"));
+    // the unpaired surrogate cannot survive the trip through UTF-8
+    assertEquals(str.replace('\ud800', '?'), new TJSONProtocol(buf).readString());
+  }
+
+  public void testLongLimits() throws Exception {
+    long[] values = {Long.MIN_VALUE, Long.MIN_VALUE + 1, -1, 0, 1, Long.MAX_VALUE};
+    for (long value : values) {
+      TMemoryBuffer buf = new TMemoryBuffer(0);
+      new TJSONProtocol(buf).writeI64(value);
+      assertEquals(Long.toString(value), buf.toString("UTF-8"));
+      assertEquals(value, readI64(Long.toString(value)));
+    }
+    assertBadNumber("9223372036854775808");
+    assertBadNumber("-9223372036854775809");
+    assertBadNumber("1.5");
+    assertBadNumber("-");
+  }
+
+  public void testReadDouble() throws Exception {
+    String[] values = {"0", "-0.0", "1.5", "1e5", "1E-5", "0.001", "123456789012345678",
+        "4.9E-324", "1.7976931348623157E308", "2.2250738585072014E-308", "0.1", ".5", "5."};
+    for (String value : values) {
+      assertEquals(value, Double.parseDouble(value), readDouble(value));
+    }
+    Random random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      double value = i % 2 == 0 ? random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)
+          : Double.longBitsToDouble(random.nextLong());
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+        continue;
+      }
+      String str = Double.toString(value);
+      assertEquals(str, value, readDouble(str));
+    }
+    try {
+      readDouble("1.2.3");
+      fail("Expected a protocol exception");
+    } catch (TProtocolException e) {
+      assertEquals(TProtocolException.INVALID_DATA, e.getType());
+    }
+  }
+
+  private static double readDouble(String value) throws TException {
+    // the trailing space ends the number
+    return new TJSONProtocol(new TMemoryInputTransport((value + " ").getBytes())).readDouble();
+  }
+
+  private static long readI64(String value) throws TException {
+    return new TJSONProtocol(new TMemoryInputTransport((value + " ").getBytes())).readI64();
+  }
+
+  private static void assertBadNumber(String value) throws TException {
+    try {
+      readI64(value);
+      fail("Expected a protocol exception for " + value);
+    } catch (TProtocolException e) {
+      assertEquals(TProtocolException.INVALID_DATA, e.getType());
+    }
+  }
 }
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+
+public class TestTNameTable extends TestCase {
+
+  private static String find(TNameTable table, String name) throws Exception {
+    byte[] bytes = ("xx" + name).getBytes("UTF-8");
+    return table.find(bytes, 2, bytes.length - 2);
+  }
+
+  public void testFind() throws Exception {
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < 500; i++) {
+      names.add("method" + i);
+    }
+    names.add("");
+    names.add("ünicode");
+    TNameTable table = new TNameTable(names);
+    for (String name : names) {
+      assertSame(name, find(table, name));
+    }
+    assertNull(find(table, "method500"));
+    assertNull(find(table, "method"));
+    assertNull(find(table, "unicode"));
+  }
+
+  public void testEmptyAndDuplicates() throws Exception {
+    TNameTable empty = new TNameTable(Collections.<String>emptyList());
+    assertNull(find(empty, ""));
+    assertNull(find(empty, "a"));
+
+    String first = new String("a");
+    TNameTable table = new TNameTable(Arrays.asList(first, new String("a"), "b"));
+    assertSame(first, find(table, "a"));
+    assertEquals("b", find(table, "b"));
+  }
+
+  public void testReadMessageBeginMatchesInPlace() throws Exception {
+    String name = "method";
+    TNameTable table = new TNameTable(Arrays.asList(name));
+    TProtocolFactory[] factories = {new TBinaryProtocol.Factory(), new TCompactProtocol.Factory()};
+    for (TProtocolFactory factory : factories) {
+      TMessage message = factory.getProtocol(buffered(factory, "method")).readMessageBegin(table);
+      assertSame(name, message.name);
+      assertEquals(TMessageType.CALL, message.type);
+      assertEquals(7, message.seqid);
+    }
+  }
+
+  public void testOverriddenReadMessageBeginIsUsed() throws Exception {
+    TNameTable table = new TNameTable(Arrays.asList("method"));
+    TProtocol[] protocols = {
+        new TracingBinaryProtocol(buffered(new TBinaryProtocol.Factory(), "method")),
+        new TracingCompactProtocol(buffered(new TCompactProtocol.Factory(), "method"))};
+    for (TProtocol protocol : protocols) {
+      assertEquals("traced:method", protocol.readMessageBegin(table).name);
+    }
+  }
+
+  // A transport holding a message header, whose buffer the protocol can
+  // match names in
+  private static TTransport buffered(TProtocolFactory factory, String name) throws TException {
+    TMemoryBuffer out = new TMemoryBuffer(64);
+    factory.getProtocol(out).writeMessageBegin(new TMessage(name, TMessageType.CALL, 7));
+    return new TMemoryInputTransport(out.getArray(), 0, out.length());
+  }
+
+  private static class TracingBinaryProtocol extends TBinaryProtocol {
+    TracingBinaryProtocol(TTransport trans) {
+      super(trans);
+    }
+
+    @Override
+    public TMessage readMessageBegin() throws TException {
+      TMessage message = super.readMessageBegin();
+      return new TMessage("traced:" + message.name, message.type, message.seqid);
+    }
+  }
+
+  private static class TracingCompactProtocol extends TCompactProtocol {
+    TracingCompactProtocol(TTransport trans) {
+      super(trans);
+    }
+
+    @Override
+    public TMessage readMessageBegin() throws TException {
+      TMessage message = super.readMessageBegin();
+      return new TMessage("traced:" + message.name, message.type, message.seqid);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.protocol;
+
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.Fixtures;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+
+import thrift.test.Bonk;
+import thrift.test.CompactProtoTestStruct;
+import thrift.test.HolyMoley;
+import thrift.test.Nesting;
+import thrift.test.OneOfEach;
+import thrift.test.SomeEnum;
+import thrift.test.StructWithAUnion;
+import thrift.test.TestUnion;
+
+public class TestTSimpleJSONCodec extends TestCase {
+
+  private static final TSerializer SERIALIZER = new TSerializer(new TSimpleJSONProtocol.Factory());
+
+  private static <T extends TBase> void assertSameOutput(TSimpleJSONCodec<T> codec, T struct) throws TException {
+    try {
+      assertEquals(SERIALIZER.toString(struct, "UTF-8"), new String(codec.serialize(struct), "UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public void testOneOfEach() throws TException {
+    assertSameOutput(OneOfEach.SIMPLE_JSON_CODEC, Fixtures.oneOfEach);
+
+    OneOfEach read = new OneOfEach();
+    OneOfEach.SIMPLE_JSON_CODEC.deserialize(read, OneOfEach.SIMPLE_JSON_CODEC.serialize(Fixtures.oneOfEach));
+    assertEquals(Fixtures.oneOfEach, read);
+  }
+
+  public void testNesting() throws TException {
+    assertSameOutput(Nesting.SIMPLE_JSON_CODEC, Fixtures.nesting);
+
+    Nesting read = new Nesting();
+    Nesting.SIMPLE_JSON_CODEC.deserialize(read, Nesting.SIMPLE_JSON_CODEC.serialize(Fixtures.nesting));
+    assertEquals(Fixtures.nesting, read);
+  }
+
+  public void testHolyMoley() throws TException {
+    assertSameOutput(HolyMoley.SIMPLE_JSON_CODEC, Fixtures.holyMoley);
+
+    HolyMoley read = new HolyMoley();
+    HolyMoley.SIMPLE_JSON_CODEC.deserialize(read, HolyMoley.SIMPLE_JSON_CODEC.serialize(Fixtures.holyMoley));
+    assertEquals(Fixtures.holyMoley, read);
+  }
+
+  public void testCompactProtoTestStruct() throws TException {
+    // unset all the maps with container keys
+    CompactProtoTestStruct struct = Fixtures.compactProtoTestStruct.deepCopy();
+    struct.unsetList_byte_map();
+    struct.unsetSet_byte_map();
+    struct.unsetMap_byte_map();
+    assertSameOutput(CompactProtoTestStruct.SIMPLE_JSON_CODEC, struct);
+
+    CompactProtoTestStruct read = new CompactProtoTestStruct();
+    CompactProtoTestStruct.SIMPLE_JSON_CODEC.deserialize(read, CompactProtoTestStruct.SIMPLE_JSON_CODEC.serialize(struct));
+    assertEquals(struct, read);
+  }
+
+  public void testThrowsOnCollectionKeys() throws TException {
+    try {
+      CompactProtoTestStruct.SIMPLE_JSON_CODEC.serialize(Fixtures.compactProtoTestStruct);
+      fail("this should throw a CollectionMapKeyException");
+    } catch (TSimpleJSONProtocol.CollectionMapKeyException e) {
+      //
+    }
+  }
+
+  public void testUnion() throws TException {
+    StructWithAUnion struct = new StructWithAUnion(TestUnion.enum_field(SomeEnum.TWO));
+    assertSameOutput(StructWithAUnion.SIMPLE_JSON_CODEC, struct);
+
+    TestUnion union = TestUnion.struct_field(Fixtures.oneOfEach);
+    assertSameOutput(TestUnion.SIMPLE_JSON_CODEC, union);
+
+    TestUnion read = TestUnion.i32_field(1);
+    TestUnion.SIMPLE_JSON_CODEC.deserialize(read, TestUnion.SIMPLE_JSON_CODEC.serialize(union));
+    assertEquals(union, read);
+
+    try {
+      TestUnion.SIMPLE_JSON_CODEC.serialize(new TestUnion());
+      fail("an unset union should not be written");
+    } catch (TProtocolException e) {
+      //
+    }
+  }
+
+  public void testSkipsUnknownFields() throws TException {
+    byte[] json = "{\"unknown\":[{\"a\":[1,2.5e3,null]},\"x\\\"}\"],\"type\":31337, \"message\" : \"hi\\u00e9\"}".getBytes();
+    Bonk bonk = new Bonk();
+    Bonk.SIMPLE_JSON_CODEC.deserialize(bonk, json);
+    assertEquals(31337, bonk.getType());
+    assertEquals("hi\u00e9", bonk.getMessage());
+  }
+}
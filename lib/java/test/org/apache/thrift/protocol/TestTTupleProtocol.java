@@ -1,8 +1,14 @@
 package org.apache.thrift.protocol;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
 import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TSerializer;
+import org.apache.thrift.transport.TMemoryBuffer;
 
+import thrift.test.Opt80;
 import thrift.test.TupleProtocolTestStruct;
 
 
@@ -24,4 +30,48 @@ public class TestTTupleProtocol extends ProtocolTestBase {
     t1.setField2(12);
     new TDeserializer(new TTupleProtocol.Factory()).deserialize(new TupleProtocolTestStruct(), new TSerializer(new TTupleProtocol.Factory()).serialize(t1));
   }
+
+  public void testBitMaskMatchesBitSet() throws Exception {
+    Random random = new Random(50);
+    for (int width = 0; width <= 130; width++) {
+      BitSet bits = new BitSet();
+      long[] words = new long[3];
+      for (int i = 0; i < width; i++) {
+        if (random.nextBoolean()) {
+          bits.set(i);
+          words[i / 64] |= 1L << (i % 64);
+        }
+      }
+
+      TMemoryBuffer bitSetBuf = new TMemoryBuffer(0);
+      new TTupleProtocol(bitSetBuf).writeBitSet(bits, width);
+      TMemoryBuffer maskBuf = new TMemoryBuffer(0);
+      TTupleProtocol oprot = new TTupleProtocol(maskBuf);
+      for (int w = (width - 1) / 64; w >= 0; w--) {
+        oprot.writeBitMask(words[w], Math.min(64, width - w * 64));
+      }
+      assertEquals(bitSetBuf.toString("ISO-8859-1"), maskBuf.toString("ISO-8859-1"));
+
+      TTupleProtocol iprot = new TTupleProtocol(bitSetBuf);
+      long[] read = new long[3];
+      for (int w = (width - 1) / 64; w >= 0; w--) {
+        read[w] = iprot.readBitMask(Math.min(64, width - w * 64));
+      }
+      assertTrue("width " + width, Arrays.equals(words, read));
+    }
+  }
+
+  public void testManyOptionals() throws Exception {
+    TSerializer serializer = new TSerializer(new TTupleProtocol.Factory());
+    TDeserializer deserializer = new TDeserializer(new TTupleProtocol.Factory());
+    int[] fields = new int[] { 1, 2, 63, 64, 65, 66, 80 };
+    for (int field : fields) {
+      Opt80 opt = new Opt80();
+      opt.setFieldValue(Opt80._Fields.findByThriftId(field), field);
+      opt.setFieldValue(Opt80._Fields.findByThriftId(81 - field), -field);
+      Opt80 read = new Opt80();
+      deserializer.deserialize(read, serializer.serialize(opt));
+      assertEquals(opt, read);
+    }
+  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.protocol;
+
+import java.io.ByteArrayInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.Fixtures;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+
+import thrift.test.Nesting;
+import thrift.test.OneOfEach;
+
+public class TestTXMLProtocol extends TestCase {
+
+  public void testStructs() throws Exception {
+    TBase[] structs = {Fixtures.oneOfEach, Fixtures.nesting};
+    for (TBase struct : structs) {
+      byte[] bytes = new TSerializer(new TXMLProtocol.Factory()).serialize(struct);
+      TBase copy = struct.deepCopy();
+      copy.clear();
+      new TDeserializer(new TXMLProtocol.Factory()).deserialize(copy, bytes);
+      assertEquals(struct, copy);
+
+      // again without a transport buffer to read from directly
+      copy.clear();
+      copy.read(new TXMLProtocol(new TIOStreamTransport(new ByteArrayInputStream(bytes))));
+      assertEquals(struct, copy);
+    }
+  }
+
+  public void testReuse() throws Exception {
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    TXMLProtocol proto = new TXMLProtocol(buf);
+    for (int i = 0; i < 3; i++) {
+      Fixtures.nesting.write(proto);
+      Fixtures.oneOfEach.write(proto);
+    }
+    for (int i = 0; i < 3; i++) {
+      Nesting nesting = new Nesting();
+      nesting.read(proto);
+      assertEquals(Fixtures.nesting, nesting);
+      OneOfEach ooe = new OneOfEach();
+      ooe.read(proto);
+      assertEquals(Fixtures.oneOfEach, ooe);
+    }
+  }
+
+  public void testContainers() throws Exception {
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    TXMLProtocol proto = new TXMLProtocol(buf);
+    proto.writeListBegin(new TList(TType.I64, 2));
+    proto.writeI64(Long.MIN_VALUE);
+    proto.writeI64(Long.MAX_VALUE);
+    proto.writeListEnd();
+    proto.writeSetBegin(new TSet(TType.DOUBLE, 1));
+    proto.writeDouble(0.1);
+    proto.writeSetEnd();
+    proto.writeMapBegin(new TMap(TType.STRING, TType.BOOL, 1));
+    proto.writeString("k");
+    proto.writeBool(true);
+    proto.writeMapEnd();
+    assertEquals("<val_type>long</val_type><entry_count>2</entry_count>"
+        + "<val>-9223372036854775808</val><val>9223372036854775807</val>"
+        + "<val_type>decimal</val_type><entry_count>1</entry_count><val>0.1</val>"
+        + "<key_type>string</key_type><val_type>boolean</val_type><entry_count>1</entry_count>"
+        + "<key>k</key><val>1</val>", buf.toString("UTF-8"));
+
+    TList list = proto.readListBegin();
+    assertEquals(TType.I64, list.elemType);
+    assertEquals(2, list.size);
+    assertEquals(Long.MIN_VALUE, proto.readI64());
+    assertEquals(Long.MAX_VALUE, proto.readI64());
+    proto.readListEnd();
+    TSet set = proto.readSetBegin();
+    assertEquals(TType.DOUBLE, set.elemType);
+    assertEquals(0.1, proto.readDouble());
+    proto.readSetEnd();
+    TMap map = proto.readMapBegin();
+    assertEquals(TType.STRING, map.keyType);
+    assertEquals(TType.BOOL, map.valueType);
+    assertEquals("k", proto.readString());
+    assertTrue(proto.readBool());
+    proto.readMapEnd();
+  }
+
+  public void testEscapedString() throws Exception {
+    String str = "a<b&c>dé";
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    new TXMLProtocol(buf).writeString(str);
+    assertEquals("a&lt;b&amp;c>dé", buf.toString("UTF-8"));
+    // the string runs up to the next tag
+    buf.write(new byte[] {'<'});
+    assertEquals(str, new TXMLProtocol(buf).readString());
+
+    try {
+      readString("a&gt;b<");
+      fail("Expected a protocol exception");
+    } catch (TProtocolException e) {
+      assertEquals(TProtocolException.INVALID_DATA, e.getType());
+    }
+  }
+
+  public void testUnknownTypeName() throws Exception {
+    String[] names = {"strin", "structs", "lisp", "bool", "x"};
+    for (String name : names) {
+      try {
+        readListBegin("<val_type>" + name + "</val_type><entry_count>0</entry_count>");
+        fail("Expected a protocol exception for " + name);
+      } catch (TProtocolException e) {
+        assertEquals(TProtocolException.NOT_IMPLEMENTED, e.getType());
+      }
+    }
+  }
+
+  private static String readString(String xml) throws TException {
+    return new TXMLProtocol(transport(xml)).readString();
+  }
+
+  private static TList readListBegin(String xml) throws TException {
+    return new TXMLProtocol(transport(xml)).readListBegin();
+  }
+
+  private static TTransport transport(String xml) {
+    return new TMemoryInputTransport(xml.getBytes());
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.scheme;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.Fixtures;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import thrift.test.ComparableUnion;
+import thrift.test.CompactProtoTestStruct;
+import thrift.test.CrazyNesting;
+import thrift.test.HolyMoley;
+import thrift.test.Insanity;
+import thrift.test.Numberz;
+import thrift.test.OneOfEach;
+import thrift.test.SomeEnum;
+import thrift.test.StructWithASomemap;
+import thrift.test.StructWithAUnion;
+import thrift.test.TestUnion;
+import thrift.test.Xception2;
+import thrift.test.Xtruct;
+
+public class TestMetaDataScheme extends TestCase {
+  private static final TProtocolFactory[] FACTORIES = new TProtocolFactory[] {
+    new TBinaryProtocol.Factory(),
+    new TCompactProtocol.Factory(),
+    new TJSONProtocol.Factory()
+  };
+
+  public void testFixtures() throws Exception {
+    check(Fixtures.oneOfEach, new OneOfEach());
+    check(Fixtures.nesting, new thrift.test.Nesting());
+    check(Fixtures.holyMoley, new HolyMoley());
+    check(Fixtures.compactProtoTestStruct, new CompactProtoTestStruct());
+  }
+
+  public void testEnumsAndTypedefs() throws Exception {
+    Insanity insanity = new Insanity();
+    Map<Numberz, Long> userMap = new HashMap<Numberz, Long>();
+    userMap.put(Numberz.FIVE, 5L);
+    userMap.put(Numberz.EIGHT, 8L);
+    insanity.setUserMap(userMap);
+    insanity.setXtructs(Arrays.asList(new Xtruct("hello", (byte) 1, 2, 3L)));
+    check(insanity, new Insanity());
+
+    StructWithASomemap somemap = new StructWithASomemap();
+    somemap.setSomemap_field(new HashMap<Integer, Integer>());
+    somemap.getSomemap_field().put(1, 2);
+    check(somemap, new StructWithASomemap());
+
+    Xception2 xception = new Xception2();
+    xception.setErrorCode(7);
+    xception.setStruct_thing(new Xtruct("x", (byte) 0, 0, 0L));
+    check(xception, new Xception2());
+  }
+
+  public void testUnions() throws Exception {
+    check(new StructWithAUnion(TestUnion.enum_field(SomeEnum.TWO)), new StructWithAUnion());
+    check(new StructWithAUnion(TestUnion.struct_field(Fixtures.oneOfEach)), new StructWithAUnion());
+    check(ComparableUnion.binary_field(ByteBuffer.wrap(new byte[] {1, 2, 3})), new ComparableUnion());
+
+    try {
+      write(MetaDataScheme.forClass(TestUnion.class), new TestUnion(), FACTORIES[0]);
+      fail("empty union should not be writable");
+    } catch (TProtocolException e) {
+      // expected
+    }
+  }
+
+  public void testRequiredFields() throws Exception {
+    CrazyNesting missing = new CrazyNesting();
+    missing.setString_field("no list");
+    try {
+      write(MetaDataScheme.forClass(CrazyNesting.class), missing, FACTORIES[0]);
+      fail("missing required field should not be writable");
+    } catch (TProtocolException e) {
+      // expected
+    }
+
+    // the required field is missing from what the generated scheme wrote
+    // for an older definition, so reading must fail too
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    new Xtruct("s", (byte) 1, 2, 3L).write(new TBinaryProtocol(buf));
+    try {
+      MetaDataScheme.forClass(CrazyNesting.class).read(new TBinaryProtocol(buf));
+      fail("missing required field should not be readable");
+    } catch (TProtocolException e) {
+      // expected
+    }
+  }
+
+  public void testCached() throws Exception {
+    assertSame(MetaDataScheme.forClass(OneOfEach.class), MetaDataScheme.forClass(OneOfEach.class));
+  }
+
+  /**
+   * Checks that the metadata scheme writes the same bytes as the generated
+   * code and that both read each other's output back to an equal struct.
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends TBase> void check(T expected, T empty) throws TException {
+    MetaDataScheme<T> scheme = MetaDataScheme.forClass((Class<T>) expected.getClass());
+    for (TProtocolFactory factory : FACTORIES) {
+      byte[] generated = write(null, expected, factory);
+      byte[] dynamic = write(scheme, expected, factory);
+      assertTrue(factory.getClass().getName() + ": " + expected, Arrays.equals(generated, dynamic));
+
+      TMemoryBuffer buf = new TMemoryBuffer(generated.length);
+      buf.write(generated);
+      T read = scheme.read(factory.getProtocol(buf));
+      assertEquals(expected, read);
+
+      buf = new TMemoryBuffer(dynamic.length);
+      buf.write(dynamic);
+      empty.clear();
+      empty.read(factory.getProtocol(buf));
+      assertEquals(expected, empty);
+    }
+  }
+
+  private <T extends TBase> byte[] write(MetaDataScheme<T> scheme, T struct, TProtocolFactory factory) throws TException {
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    TProtocol prot = factory.getProtocol(buf);
+    if (scheme == null) {
+      struct.write(prot);
+    } else {
+      scheme.write(prot, struct);
+    }
+    byte[] bytes = new byte[buf.length()];
+    System.arraycopy(buf.getArray(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+}
@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.ServerTestBase.TestHandler;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import thrift.test.ThriftTest;
+
+/**
+ * Drives AsyncServletCall through the listener callbacks a Servlet 3.1
+ * container would make, against a stub request, response and async context.
+ */
+public class TestAsyncServletCall extends TestCase {
+
+  private static final TProtocolFactory PROTOCOL = new TBinaryProtocol.Factory();
+
+  private StubInput input_;
+  private StubOutput output_;
+  private StubExchange exchange_;
+
+  // one client sends the request and reads the response, so the sequence
+  // ids match
+  private final TMemoryBuffer requestOut_ = new TMemoryBuffer(64);
+  private final TMemoryInputTransport responseIn_ = new TMemoryInputTransport();
+  private final ThriftTest.Client client_ = new ThriftTest.Client(
+      PROTOCOL.getProtocol(responseIn_), PROTOCOL.getProtocol(requestOut_));
+
+  public void setUp() throws Exception {
+    input_ = new StubInput();
+    output_ = new StubOutput();
+    exchange_ = new StubExchange(input_, output_);
+  }
+
+  public void testPartialReadsAndWrites() throws Exception {
+    newCall(null).start();
+    assertNotNull(input_.listener);
+    assertEquals(1, exchange_.listeners.size());
+
+    // the body turns up in three pieces, with nothing ready in between
+    byte[] body = request("hello");
+    int third = body.length / 3;
+    input_.arrive(body, 0, third);
+    input_.listener.onDataAvailable();
+    assertFalse(input_.isReady());
+    input_.arrive(body, third, third);
+    input_.listener.onDataAvailable();
+    input_.arrive(body, 2 * third, body.length - 2 * third);
+    input_.listener.onDataAvailable();
+    input_.listener.onAllDataRead();
+
+    // nothing is written until the container says the output is ready
+    assertNotNull(output_.listener);
+    assertEquals(0, output_.written.size());
+    output_.ready = true;
+    output_.listener.onWritePossible();
+    assertEquals(0, exchange_.completions);
+    // the write filled the buffer, so completion waits for the next callback
+    output_.ready = true;
+    output_.listener.onWritePossible();
+    assertEquals(1, exchange_.completions);
+    assertEquals("hello", response(output_.written.toByteArray()));
+  }
+
+  public void testTimeoutBeforeProcessorFinishes() throws Exception {
+    HeldExecutor executor = new HeldExecutor();
+    newCall(executor).start();
+    byte[] body = request("late");
+    input_.arrive(body, 0, body.length);
+    input_.listener.onDataAvailable();
+    input_.listener.onAllDataRead();
+    assertNotNull(executor.task);
+
+    // the container times the call out while the processor is queued
+    exchange_.listeners.get(0).onTimeout(new AsyncEvent(exchange_.context));
+    assertEquals(1, exchange_.completions);
+    assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exchange_.status);
+
+    // the processor still runs, but its response goes nowhere
+    executor.task.run();
+    assertNull(output_.listener);
+    assertEquals(0, output_.written.size());
+    assertEquals(1, exchange_.completions);
+  }
+
+  public void testErrorDuringWrite() throws Exception {
+    newCall(null).start();
+    byte[] body = request("broken");
+    input_.arrive(body, 0, body.length);
+    input_.listener.onDataAvailable();
+    input_.listener.onAllDataRead();
+
+    exchange_.listeners.get(0).onError(new AsyncEvent(exchange_.context, new IOException("reset")));
+    assertEquals(1, exchange_.completions);
+    exchange_.listeners.get(0).onComplete(new AsyncEvent(exchange_.context));
+
+    // a late write callback neither writes nor completes again
+    output_.ready = true;
+    output_.listener.onWritePossible();
+    assertEquals(0, output_.written.size());
+    assertEquals(1, exchange_.completions);
+  }
+
+  public void testServletTimeoutOnlyWhenSet() throws Exception {
+    TServlet servlet = new TServlet(newProcessor(), PROTOCOL);
+    servlet.setAsyncEnabled(true);
+    servlet.doPost(exchange_.request, exchange_.response);
+    assertEquals(1, exchange_.listeners.size());
+    assertNull(exchange_.timeout);
+
+    setUp();
+    servlet.setAsyncTimeout(0);
+    servlet.doPost(exchange_.request, exchange_.response);
+    assertEquals(Long.valueOf(0), exchange_.timeout);
+  }
+
+  private AsyncServletCall newCall(Executor executor) throws IOException {
+    return new AsyncServletCall(exchange_.context, newProcessor(), PROTOCOL, PROTOCOL, executor);
+  }
+
+  private static ThriftTest.Processor<ThriftTest.Iface> newProcessor() {
+    return new ThriftTest.Processor<ThriftTest.Iface>(new TestHandler());
+  }
+
+  private byte[] request(String thing) throws Exception {
+    client_.send_testString(thing);
+    byte[] bytes = new byte[requestOut_.length()];
+    requestOut_.readAll(bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  private String response(byte[] bytes) throws Exception {
+    responseIn_.reset(bytes);
+    return client_.recv_testString();
+  }
+
+  /** An executor that keeps the task for the test to run. */
+  private static class HeldExecutor implements Executor {
+    Runnable task;
+
+    public void execute(Runnable command) {
+      task = command;
+    }
+  }
+
+  /** Request body that is only ready as far as the test has let it arrive. */
+  private static class StubInput extends ServletInputStream {
+    private final LinkedList<Byte> ready_ = new LinkedList<Byte>();
+    ReadListener listener;
+
+    void arrive(byte[] bytes, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        ready_.add(bytes[i]);
+      }
+    }
+
+    public boolean isFinished() {
+      return false;
+    }
+
+    public boolean isReady() {
+      return !ready_.isEmpty();
+    }
+
+    public void setReadListener(ReadListener readListener) {
+      listener = readListener;
+    }
+
+    public int read() {
+      if (ready_.isEmpty()) {
+        throw new IllegalStateException("read when not ready");
+      }
+      return ready_.removeFirst() & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) {
+      int got = 0;
+      while (got < len && !ready_.isEmpty()) {
+        b[off + got++] = (byte) read();
+      }
+      return got;
+    }
+  }
+
+  /** Response body whose readiness the test controls; each write fills it. */
+  private static class StubOutput extends ServletOutputStream {
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    boolean ready = false;
+    WriteListener listener;
+
+    public boolean isReady() {
+      return ready;
+    }
+
+    public void setWriteListener(WriteListener writeListener) {
+      listener = writeListener;
+    }
+
+    public void write(int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) {
+      if (!ready) {
+        throw new IllegalStateException("write when not ready");
+      }
+      written.write(b, off, len);
+      ready = false;
+    }
+  }
+
+  /**
+   * Proxies for the request, response and async context, answering the calls
+   * the servlet and AsyncServletCall make.
+   */
+  private static class StubExchange implements InvocationHandler {
+    final HttpServletRequest request;
+    final HttpServletResponse response;
+    final AsyncContext context;
+    final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+    Long timeout;
+    int completions;
+    int status = HttpServletResponse.SC_OK;
+
+    private final StubInput input_;
+    private final StubOutput output_;
+
+    StubExchange(StubInput input, StubOutput output) {
+      input_ = input;
+      output_ = output;
+      ClassLoader loader = getClass().getClassLoader();
+      request = (HttpServletRequest) Proxy.newProxyInstance(loader, new Class<?>[] {HttpServletRequest.class}, this);
+      response = (HttpServletResponse) Proxy.newProxyInstance(loader, new Class<?>[] {HttpServletResponse.class}, this);
+      context = (AsyncContext) Proxy.newProxyInstance(loader, new Class<?>[] {AsyncContext.class}, this);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String name = method.getName();
+      if (name.equals("getInputStream")) {
+        return input_;
+      } else if (name.equals("getOutputStream")) {
+        return output_;
+      } else if (name.equals("getContentLength")) {
+        return -1;
+      } else if (name.equals("isAsyncSupported")) {
+        return true;
+      } else if (name.equals("startAsync")) {
+        return context;
+      } else if (name.equals("getRequest")) {
+        return request;
+      } else if (name.equals("getResponse")) {
+        return response;
+      } else if (name.equals("isCommitted")) {
+        return false;
+      } else if (name.equals("setStatus")) {
+        status = (Integer) args[0];
+      } else if (name.equals("setTimeout")) {
+        timeout = (Long) args[0];
+      } else if (name.equals("addListener")) {
+        listeners.add((AsyncListener) args[0]);
+      } else if (name.equals("complete")) {
+        if (completions++ > 0) {
+          throw new IllegalStateException("completed twice");
+        }
+      } else if (!name.equals("setContentType") && !name.equals("addHeader") && !name.equals("reset")) {
+        throw new UnsupportedOperationException(name);
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.server;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.sasl.AuthorizeCallback;
+import javax.security.sasl.RealmCallback;
+import javax.security.sasl.Sasl;
+
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.THsHaServer.Args;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSaslClientTransport;
+import org.apache.thrift.transport.TSaslServerTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportFactory;
+
+public class TestSaslNonblockingServer extends TestNonblockingServer {
+
+  private static final String SERVICE = "thrift-test";
+  private static final String PRINCIPAL = "thrift-test-principal";
+  private static final String PASSWORD = "super secret password";
+  private static final String REALM = "thrift-test-realm";
+
+  private static final String WRAPPED_MECHANISM = "DIGEST-MD5";
+  private static final Map<String, String> WRAPPED_PROPS = new HashMap<String, String>();
+
+  static {
+    WRAPPED_PROPS.put(Sasl.QOP, "auth-int");
+    WRAPPED_PROPS.put("com.sun.security.sasl.digest.realm", REALM);
+  }
+
+  private String mechanism = WRAPPED_MECHANISM;
+  private Map<String, String> props = WRAPPED_PROPS;
+
+  @Override
+  protected TServer getServer(TProcessor processor, TNonblockingServerSocket socket, TProtocolFactory protoFactory, TTransportFactory factory) {
+    final Args args = new Args(socket).processor(processor).protocolFactory(protoFactory)
+        .saslServerFactory(new TSaslServerTransport.Factory(mechanism, SERVICE, HOST, props,
+            new TestSaslCallbackHandler()));
+    if (factory != null) {
+      args.transportFactory(factory);
+    }
+    return new THsHaServer(args);
+  }
+
+  @Override
+  public TTransport getClientTransport(TTransport underlyingTransport) throws Exception {
+    return new TSaslClientTransport(mechanism, PRINCIPAL, SERVICE, HOST, props,
+        new TestSaslCallbackHandler(), underlyingTransport);
+  }
+
+  public void testUnwrapped() throws Exception {
+    mechanism = "CRAM-MD5";
+    props = null;
+    testIt();
+  }
+
+  private static class TestSaslCallbackHandler implements CallbackHandler {
+    @Override
+    public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+      for (Callback c : callbacks) {
+        if (c instanceof NameCallback) {
+          ((NameCallback) c).setName(PRINCIPAL);
+        } else if (c instanceof PasswordCallback) {
+          ((PasswordCallback) c).setPassword(PASSWORD.toCharArray());
+        } else if (c instanceof AuthorizeCallback) {
+          ((AuthorizeCallback) c).setAuthorized(true);
+        } else if (c instanceof RealmCallback) {
+          ((RealmCallback) c).setText(REALM);
+        } else {
+          throw new UnsupportedCallbackException(c);
+        }
+      }
+    }
+  }
+}
@@ -18,13 +18,110 @@
  */
 package org.apache.thrift.server;
 
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.server.TThreadedSelectorServer.Args;
+import org.apache.thrift.server.TThreadedSelectorServer.SelectorThread;
+import org.apache.thrift.server.TThreadedSelectorServer.SelectorThreadLoadBalancer;
 import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.apache.thrift.transport.TTransportFactory;
+
+import thrift.test.ThriftTest;
 
 public class TestThreadedSelectorServer extends TestNonblockingServer {
-  protected TServer getServer(TProcessor processor, TNonblockingServerSocket socket, TProtocolFactory protoFactory) {
-    return new TThreadedSelectorServer(new Args(socket).processor(processor).protocolFactory(protoFactory));
+  protected TServer getServer(TProcessor processor, TNonblockingServerSocket socket, TProtocolFactory protoFactory, TTransportFactory factory) {
+    final Args args = new Args(socket).processor(processor).protocolFactory(protoFactory);
+    if (factory != null) {
+      args.transportFactory(factory);
+    }
+    return new TThreadedSelectorServer(args);
+  }
+
+  public void testAcceptHandoffAndBalancing() throws Exception {
+    TNonblockingServerSocket socket = new TNonblockingServerSocket(0);
+    try {
+      TThreadedSelectorServer server = new TThreadedSelectorServer(new Args(socket).
+          processor(new ThriftTest.Processor<ThriftTest.Iface>(new TestHandler())));
+      // the threads are never started, so accepted connections stay queued
+      SelectorThread first = server.new SelectorThread(2);
+      SelectorThread second = server.new SelectorThread(2);
+      SelectorThreadLoadBalancer balancer = new SelectorThreadLoadBalancer(Arrays.asList(first, second));
+
+      // ties are broken round robin, after which the emptier thread wins
+      SelectorThread chosen = balancer.nextThread();
+      assertTrue(chosen.offerAcceptedConnection(new TNonblockingSocket("localhost", PORT)));
+      SelectorThread other = chosen == first ? second : first;
+      assertSame(other, balancer.nextThread());
+      assertSame(other, balancer.nextThread());
+      assertTrue(other.offerAcceptedConnection(new TNonblockingSocket("localhost", PORT)));
+      assertTrue(other.offerAcceptedConnection(new TNonblockingSocket("localhost", PORT)));
+      assertEquals(2, other.getConnectionCount());
+
+      // a full thread is passed over, and refuses offers
+      assertFalse(other.hasAcceptCapacity());
+      assertFalse(other.offerAcceptedConnection(new TNonblockingSocket("localhost", PORT)));
+      assertSame(chosen, balancer.nextThread());
+      assertTrue(chosen.offerAcceptedConnection(new TNonblockingSocket("localhost", PORT)));
+
+      // once all are full, the least loaded is still returned
+      assertFalse(chosen.hasAcceptCapacity());
+      assertNotNull(balancer.nextThread());
+    } finally {
+      socket.close();
+    }
+  }
+
+  public void testAddWaitsUntilStopped() throws Exception {
+    TNonblockingServerSocket socket = new TNonblockingServerSocket(0);
+    try {
+      TThreadedSelectorServer server = new TThreadedSelectorServer(new Args(socket).
+          processor(new ThriftTest.Processor<ThriftTest.Iface>(new TestHandler())));
+      // the threads are never started, so nothing ever makes room
+      SelectorThread bounded = server.new SelectorThread(1);
+      SelectorThread queued = server.new SelectorThread(new ArrayBlockingQueue<TNonblockingTransport>(1));
+      for (SelectorThread thread : Arrays.asList(bounded, queued)) {
+        assertTrue(thread.offerAcceptedConnection(new TNonblockingSocket("localhost", PORT)));
+        assertFalse(thread.hasAcceptCapacity());
+      }
+
+      CountDownLatch done = new CountDownLatch(2);
+      AtomicBoolean added = new AtomicBoolean();
+      addInBackground(bounded, done, added);
+      addInBackground(queued, done, added);
+      assertFalse(done.await(300, TimeUnit.MILLISECONDS));
+
+      server.stop();
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertFalse(added.get());
+      assertEquals(1, bounded.getConnectionCount());
+      assertEquals(1, queued.getConnectionCount());
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static void addInBackground(final SelectorThread thread, final CountDownLatch done,
+      final AtomicBoolean added) {
+    new Thread() {
+      public void run() {
+        try {
+          if (thread.addAcceptedConnection(new TNonblockingSocket("localhost", PORT))) {
+            added.set(true);
+          }
+        } catch (Exception e) {
+          added.set(true);
+        } finally {
+          done.countDown();
+        }
+      }
+    }.start();
   }
 }
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.server;
+
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.TThreadedSelectorServer.Args;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TNonblockingServerSocket.NonblockingAbstractServerSocketArgs;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.TTransportFactory;
+
+/**
+ * Runs the server tests with each selector thread accepting on its own
+ * SO_REUSEPORT socket. Where the option is unavailable the server falls back
+ * to its accept thread, and the tests still have to pass.
+ */
+public class TestThreadedSelectorServerReusePort extends TestNonblockingServer {
+  protected TServer getServer(TProcessor processor, TNonblockingServerSocket socket, TProtocolFactory protoFactory, TTransportFactory factory) {
+    // the socket has to be bound with SO_REUSEPORT from the start
+    socket.close();
+    try {
+      socket = new TNonblockingServerSocket(new NonblockingAbstractServerSocketArgs().port(PORT).reusePort(true));
+    } catch (TTransportException e) {
+      throw new RuntimeException(e);
+    }
+    final Args args = new Args(socket).processor(processor).protocolFactory(protoFactory).
+        selectorThreads(4).reusePortAcceptors(true);
+    if (factory != null) {
+      args.transportFactory(factory);
+    }
+    return new TThreadedSelectorServer(args);
+  }
+
+  public void testSiblingSocket() throws Exception {
+    TNonblockingServerSocket socket = new TNonblockingServerSocket(
+        new NonblockingAbstractServerSocketArgs().port(0).reusePort(true));
+    try {
+      if (!socket.isReusePort()) {
+        try {
+          socket.openReusePortSibling();
+          fail("opened a sibling without SO_REUSEPORT");
+        } catch (TTransportException e) {
+        }
+        return;
+      }
+      TNonblockingServerSocket sibling = socket.openReusePortSibling();
+      assertEquals(socket.getPort(), sibling.getPort());
+      sibling.close();
+    } finally {
+      socket.close();
+    }
+  }
+}
@@ -25,24 +25,43 @@ import org.apache.thrift.TBase;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TTupleProtocol;
 import org.apache.thrift.transport.TMemoryBuffer;
 import org.apache.thrift.transport.TMemoryInputTransport;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
+import thrift.test.HolyMoley;
+import thrift.test.Nesting;
 import thrift.test.OneOfEach;
 
 public class SerializationBenchmark {
   private final static int HOW_MANY = 10000000;
+  // the nested structs are much bigger, so fewer of them
+  private final static int HOW_MANY_NESTED = 1000000;
   
   public static void main(String[] args) throws Exception {
     TProtocolFactory factory = new TBinaryProtocol.Factory();
 
     testSerialization(factory, Fixtures.oneOfEach);
     testDeserialization(factory, Fixtures.oneOfEach, OneOfEach.class);
+
+    // nested structs and containers of structs, which read and write a
+    // struct per element
+    for (TProtocolFactory nestedFactory : new TProtocolFactory[] {factory, new TTupleProtocol.Factory()}) {
+      System.out.println(nestedFactory.getClass().getName() + ":");
+      testSerialization(nestedFactory, Fixtures.nesting, HOW_MANY_NESTED);
+      testDeserialization(nestedFactory, Fixtures.nesting, Nesting.class, HOW_MANY_NESTED);
+      testSerialization(nestedFactory, Fixtures.holyMoley, HOW_MANY_NESTED);
+      testDeserialization(nestedFactory, Fixtures.holyMoley, HolyMoley.class, HOW_MANY_NESTED);
+    }
   }
   
   public static void testSerialization(TProtocolFactory factory, TBase object) throws Exception {
+    testSerialization(factory, object, HOW_MANY);
+  }
+
+  public static void testSerialization(TProtocolFactory factory, TBase object, int howMany) throws Exception {
     TTransport trans = new TTransport() {
       public void write(byte[] bin, int x, int y) throws TTransportException {}
       public int read(byte[] bin, int x, int y) throws TTransportException {return 0;}
@@ -54,27 +73,31 @@ public class SerializationBenchmark {
     TProtocol proto = factory.getProtocol(trans);
     
     long startTime = System.currentTimeMillis();
-    for (int i = 0; i < HOW_MANY; i++) {
+    for (int i = 0; i < howMany; i++) {
       object.write(proto);
     }
     long endTime = System.currentTimeMillis();
     
-    System.out.println("Serialization test time: " + (endTime - startTime) + " ms");
+    System.out.println(object.getClass().getSimpleName() + " serialization test time: " + (endTime - startTime) + " ms");
   }
   
   public static <T extends TBase> void testDeserialization(TProtocolFactory factory, T object, Class<T> klass) throws Exception {
+    testDeserialization(factory, object, klass, HOW_MANY);
+  }
+
+  public static <T extends TBase> void testDeserialization(TProtocolFactory factory, T object, Class<T> klass, int howMany) throws Exception {
     TMemoryBuffer buf = new TMemoryBuffer(0);
     object.write(factory.getProtocol(buf));
     byte[] serialized = new byte[100*1024];
     buf.read(serialized, 0, 100*1024);
 
     long startTime = System.currentTimeMillis();
-    for (int i = 0; i < HOW_MANY; i++) {
+    for (int i = 0; i < howMany; i++) {
       T o2 = klass.newInstance();
       o2.read(factory.getProtocol(new TMemoryInputTransport(serialized)));
     }
     long endTime = System.currentTimeMillis();
 
-    System.out.println("Deserialization test time: " + (endTime - startTime) + " ms");
+    System.out.println(klass.getSimpleName() + " deserialization test time: " + (endTime - startTime) + " ms");
   }
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.ServerTestBase.TestHandler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import thrift.test.ThriftTest;
+
+/**
+ * Round trips through both THttpClient implementations against a small HTTP
+ * server that runs the ThriftTest processor over each request body.
+ */
+public class TestTHttpClient extends TestCase {
+
+  private static final TProtocolFactory PROTOCOL = new TBinaryProtocol.Factory();
+
+  private HttpServer server_;
+  private String url_;
+  private DefaultHttpClient httpClient_;
+
+  // what the handler saw, one entry per request
+  private final List<Integer> contentLengths_ = new ArrayList<Integer>();
+  private final List<Integer> bodyLengths_ = new ArrayList<Integer>();
+  private final List<Integer> remotePorts_ = new ArrayList<Integer>();
+  // status to answer the next request with
+  private volatile int status_ = 200;
+
+  public void setUp() throws Exception {
+    final TProcessor processor = new ThriftTest.Processor<ThriftTest.Iface>(new TestHandler());
+    server_ = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server_.createContext("/thrift", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = readAll(exchange.getRequestBody());
+        synchronized (TestTHttpClient.this) {
+          String length = exchange.getRequestHeaders().getFirst("Content-Length");
+          contentLengths_.add(length == null ? -1 : Integer.parseInt(length));
+          bodyLengths_.add(body.length);
+          remotePorts_.add(exchange.getRemoteAddress().getPort());
+        }
+        byte[] response;
+        if (status_ != 200) {
+          response = "no thanks".getBytes();
+        } else {
+          TMemoryBuffer out = new TMemoryBuffer(body.length);
+          try {
+            processor.process(PROTOCOL.getProtocol(new TMemoryInputTransport(body)),
+                PROTOCOL.getProtocol(out));
+            response = new byte[out.length()];
+            out.readAll(response, 0, response.length);
+          } catch (Exception e) {
+            throw new IOException(e.toString());
+          }
+        }
+        exchange.sendResponseHeaders(status_, response.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(response);
+        os.close();
+      }
+    });
+    server_.createContext("/echo", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = readAll(exchange.getRequestBody());
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+      }
+    });
+    server_.start();
+    url_ = "http://localhost:" + server_.getAddress().getPort() + "/thrift";
+    httpClient_ = new DefaultHttpClient();
+  }
+
+  public void tearDown() throws Exception {
+    httpClient_.getConnectionManager().shutdown();
+    server_.stop(0);
+  }
+
+  public void testRoundTripWithHttpURLConnection() throws Exception {
+    roundTrip(new THttpClient(url_));
+  }
+
+  public void testRoundTripWithHttpClient() throws Exception {
+    roundTrip(new THttpClient(url_, httpClient_));
+    // the request buffer is written straight out, with its length declared
+    for (int i = 0; i < bodyLengths_.size(); i++) {
+      assertEquals(bodyLengths_.get(i), contentLengths_.get(i));
+    }
+  }
+
+  public void testHttpClientExposesResponseBuffer() throws Exception {
+    THttpClient transport = new THttpClient(url_, httpClient_);
+    assertNull(transport.getBuffer());
+    assertEquals(-1, transport.getBytesRemainingInBuffer());
+
+    // sending flushes, which reads the whole response into the buffer
+    new ThriftTest.Client(PROTOCOL.getProtocol(transport)).send_testString("buffered");
+    byte[] buffer = transport.getBuffer();
+    assertNotNull(buffer);
+    assertEquals(0, transport.getBufferPosition());
+    int length = transport.getBytesRemainingInBuffer();
+    assertTrue(length > 0);
+
+    // consuming from the buffer is seen by read, and the other way round
+    transport.consumeBuffer(4);
+    assertEquals(4, transport.getBufferPosition());
+    byte[] read = new byte[2];
+    transport.readAll(read, 0, 2);
+    assertEquals(buffer[4], read[0]);
+    assertEquals(buffer[5], read[1]);
+    assertEquals(length - 6, transport.getBytesRemainingInBuffer());
+
+    // closing releases the response
+    transport.close();
+    assertNull(transport.getBuffer());
+    try {
+      transport.read(read, 0, 1);
+      fail("expected TTransportException");
+    } catch (TTransportException e) {
+      // expected
+    }
+  }
+
+  public void testBinaryResultOutlivesNextCall() throws Exception {
+    // the echo context sends each request body straight back, so a binary
+    // value written by the client is read back zero-copy from the response
+    THttpClient transport = new THttpClient(url_.replace("/thrift", "/echo"), httpClient_);
+    TProtocol protocol = PROTOCOL.getProtocol(transport);
+
+    protocol.writeBinary(ByteBuffer.wrap("AAAA".getBytes()));
+    transport.flush();
+    ByteBuffer first = protocol.readBinary();
+    assertSame(transport.getBuffer(), first.array());
+
+    protocol.writeBinary(ByteBuffer.wrap("BBBB".getBytes()));
+    transport.flush();
+    ByteBuffer second = protocol.readBinary();
+
+    assertEquals("AAAA", string(first));
+    assertEquals("BBBB", string(second));
+  }
+
+  public void testErrorResponseWithHttpURLConnection() throws Exception {
+    errorResponse(new THttpClient(url_));
+    // the error body was closed, so the next call used the same connection
+    assertEquals(remotePorts_.get(0), remotePorts_.get(1));
+  }
+
+  public void testErrorResponseWithHttpClient() throws Exception {
+    errorResponse(new THttpClient(url_, httpClient_));
+  }
+
+  private void roundTrip(THttpClient transport) throws Exception {
+    ThriftTest.Client client = new ThriftTest.Client(PROTOCOL.getProtocol(transport));
+    for (int i = 0; i < 5; i++) {
+      assertEquals("call " + i, client.testString("call " + i));
+      assertEquals(i, client.testI32(i));
+    }
+    transport.close();
+  }
+
+  private void errorResponse(THttpClient transport) throws Exception {
+    ThriftTest.Client client = new ThriftTest.Client(PROTOCOL.getProtocol(transport));
+    status_ = 500;
+    try {
+      client.testString("refused");
+      fail("expected TTransportException");
+    } catch (TTransportException e) {
+      assertEquals("HTTP Response code: 500", e.getMessage());
+    }
+    status_ = 200;
+    assertEquals("accepted", client.testString("accepted"));
+    transport.close();
+  }
+
+  private static String string(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return new String(bytes);
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] chunk = new byte[4096];
+    int got;
+    while ((got = in.read(chunk)) != -1) {
+      out.write(chunk, 0, got);
+    }
+    return out.toByteArray();
+  }
+}
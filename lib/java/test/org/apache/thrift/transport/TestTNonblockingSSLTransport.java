@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClientManager;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.ServerTestBase;
+import org.apache.thrift.server.THsHaServer;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.THsHaServer.Args;
+
+import thrift.test.ThriftTest;
+import thrift.test.ThriftTest.AsyncClient.testString_call;
+
+public class TestTNonblockingSSLTransport extends ServerTestBase {
+  private Thread serverThread;
+  private TServer server;
+
+  private static final List<TProtocolFactory> protocols = new ArrayList<TProtocolFactory>();
+  static {
+    protocols.add(new TBinaryProtocol.Factory());
+  }
+
+  @Override
+  public TTransport getClientTransport(TTransport underlyingTransport) throws Exception {
+    return new TFramedTransport(TSSLTransportFactory.getClientSocket(HOST, PORT));
+  }
+
+  @Override
+  public void startServer(final TProcessor processor, final TProtocolFactory protoFactory, final TTransportFactory factory)
+  throws Exception {
+    final TNonblockingServerTransport serverTransport = TSSLTransportFactory.getNonblockingServerSocket(PORT, 0);
+    server = new THsHaServer(new Args(serverTransport).processor(processor).protocolFactory(protoFactory));
+    serverThread = new Thread() {
+      public void run() {
+        server.serve();
+      }
+    };
+    serverThread.start();
+    Thread.sleep(500);
+  }
+
+  @Override
+  public void stopServer() throws Exception {
+    server.stop();
+    serverThread.join();
+  }
+
+  @Override
+  public void open(TTransport transport) throws Exception {}
+
+  @Override
+  public List<TProtocolFactory> getProtocols() {
+    return protocols;
+  }
+
+  @Override
+  public void testTransportFactory() throws Exception {
+    // this test doesn't really apply to this suite, so let's skip it.
+  }
+
+  public void testAsyncClient() throws Exception {
+    startServer(new ThriftTest.Processor(new TestHandler()), new TBinaryProtocol.Factory());
+    TAsyncClientManager manager = new TAsyncClientManager();
+    try {
+      TNonblockingSocket socket = TSSLTransportFactory.getNonblockingClientSocket(HOST, PORT, 0);
+      ThriftTest.AsyncClient client = new ThriftTest.AsyncClient(new TBinaryProtocol.Factory(), manager, socket);
+      for (int i = 0; i < 20; i++) {
+        assertEquals("call " + i, testString(client, "call " + i));
+      }
+      // big enough to span many TLS records and fill the socket buffers
+      char[] chars = new char[256 * 1024];
+      Arrays.fill(chars, 'x');
+      String big = new String(chars);
+      assertEquals(big, testString(client, big));
+      socket.close();
+    } finally {
+      manager.stop();
+      stopServer();
+    }
+  }
+
+  public void testSessionResumption() throws Exception {
+    startServer(new ThriftTest.Processor(new TestHandler()), new TBinaryProtocol.Factory());
+    TAsyncClientManager manager = new TAsyncClientManager();
+    try {
+      // TLS 1.3 resumption does not carry the session id over, so use 1.2
+      TSSLTransportFactory.TSSLTransportParameters params = new TSSLTransportFactory.TSSLTransportParameters();
+      params.protocol = "TLSv1.2";
+      params.setTrustStore(System.getProperty("javax.net.ssl.trustStore"),
+          System.getProperty("javax.net.ssl.trustStorePassword"));
+      SSLContext context = TSSLTransportFactory.getSSLContext(params);
+
+      SSLSession first = connectAndCall(manager, context);
+      SSLSession second = connectAndCall(manager, context);
+      assertEquals("TLSv1.2", second.getProtocol());
+      assertTrue(Arrays.equals(first.getId(), second.getId()));
+    } finally {
+      manager.stop();
+      stopServer();
+    }
+  }
+
+  private static SSLSession connectAndCall(TAsyncClientManager manager, SSLContext context) throws Exception {
+    TNonblockingSSLSocket socket = (TNonblockingSSLSocket) TSSLTransportFactory.getNonblockingClientSocket(HOST, PORT, 0, context, null);
+    ThriftTest.AsyncClient client = new ThriftTest.AsyncClient(new TBinaryProtocol.Factory(), manager, socket);
+    assertEquals("hello", testString(client, "hello"));
+    assertTrue(socket.isHandshakeComplete());
+    SSLSession session = socket.getSession();
+    socket.close();
+    return session;
+  }
+
+  private static String testString(ThriftTest.AsyncClient client, String thing) throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<String> result = new AtomicReference<String>();
+    final AtomicReference<Exception> error = new AtomicReference<Exception>();
+    client.testString(thing, new AsyncMethodCallback<testString_call>() {
+      public void onComplete(testString_call response) {
+        try {
+          result.set(response.getResult());
+        } catch (TException e) {
+          error.set(e);
+        }
+        latch.countDown();
+      }
+
+      public void onError(Exception exception) {
+        error.set(exception);
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    if (error.get() != null) {
+      throw error.get();
+    }
+    return result.get();
+  }
+}
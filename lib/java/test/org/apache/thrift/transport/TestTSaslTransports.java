@@ -261,18 +261,29 @@ public class TestTSaslTransports extends TestCase {
   }
 
   public void testWithServer() throws Exception {
-    new TestTSaslTransportsWithServer().testIt();
+    new TestTSaslTransportsWithServer(WRAPPED_MECHANISM, WRAPPED_PROPS).testIt();
+  }
+
+  public void testUnwrappedWithServer() throws Exception {
+    new TestTSaslTransportsWithServer(UNWRAPPED_MECHANISM, UNWRAPPED_PROPS).testIt();
   }
 
   private static class TestTSaslTransportsWithServer extends ServerTestBase {
 
+    private final String mechanism;
+    private final Map<String, String> props;
     private Thread serverThread;
     private TServer server;
 
+    public TestTSaslTransportsWithServer(String mechanism, Map<String, String> props) {
+      this.mechanism = mechanism;
+      this.props = props;
+    }
+
     @Override
     public TTransport getClientTransport(TTransport underlyingTransport) throws Exception {
       return new TSaslClientTransport(
-        WRAPPED_MECHANISM, PRINCIPAL, SERVICE, HOST, WRAPPED_PROPS,
+        mechanism, PRINCIPAL, SERVICE, HOST, props,
         new TestSaslCallbackHandler(PASSWORD), underlyingTransport);
     }
 
@@ -285,7 +296,7 @@ public class TestTSaslTransports extends TestCase {
             TServerSocket socket = new TServerSocket(new TServerSocket.ServerSocketTransportArgs().port(PORT));
 
             TTransportFactory factory = new TSaslServerTransport.Factory(
-              WRAPPED_MECHANISM, SERVICE, HOST, WRAPPED_PROPS,
+              mechanism, SERVICE, HOST, props,
               new TestSaslCallbackHandler(PASSWORD));
             server = new TSimpleServer(new Args(socket).processor(processor).transportFactory(factory).protocolFactory(protoFactory));
 
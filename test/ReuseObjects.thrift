@@ -23,8 +23,17 @@ namespace java thrift.test
 
 include "ThriftTest.thrift"
 
+struct ReuseElement {
+  1: i32 id;
+  2: list<string> tags;
+}
+
 struct Reuse {
   1: i32 val1;
   2: set<string> val2;
+  3: list<ReuseElement> val3;
+  4: ReuseElement val4;
+  5: map<string, ReuseElement> val5;
+  6: list<list<i32>> val6;
 }
 